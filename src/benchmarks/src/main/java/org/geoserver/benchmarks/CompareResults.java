@@ -0,0 +1,130 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares two JMH result files in JSON format, as produced by the <code>benchmark</code> profile,
+ * and prints the change of each benchmark score. Changes larger than the sum of the two score
+ * errors are flagged as significant.
+ *
+ * <p>Usage: <code>CompareResults baseline.json current.json</code>
+ */
+public class CompareResults {
+
+    /** A single benchmark score */
+    static class Score {
+        final double score;
+
+        final double error;
+
+        final String unit;
+
+        final String mode;
+
+        Score(double score, double error, String unit, String mode) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.mode = mode;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <current.json>");
+            System.exit(1);
+        }
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> current = read(new File(args[1]));
+        compare(baseline, current, System.out);
+    }
+
+    /** Reads a JMH JSON result file, returning the scores keyed by benchmark name and params */
+    static Map<String, Score> read(File file) throws IOException {
+        JSONArray results =
+                JSONArray.fromObject(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark"));
+            if (result.has("params")) {
+                // sort the params, the order is not guaranteed
+                Map<String, Object> params = new TreeMap<>(result.getJSONObject("params"));
+                key.append(params);
+            }
+            JSONObject metric = result.getJSONObject("primaryMetric");
+            double error = metric.optDouble("scoreError", 0);
+            scores.put(
+                    key.toString(),
+                    new Score(
+                            metric.getDouble("score"),
+                            Double.isNaN(error) ? 0 : error,
+                            metric.getString("scoreUnit"),
+                            result.getString("mode")));
+        }
+        return scores;
+    }
+
+    static void compare(Map<String, Score> baseline, Map<String, Score> current, PrintStream out) {
+        out.println(
+                String.format(
+                        Locale.ENGLISH,
+                        "%-90s %14s %14s %9s %s",
+                        "Benchmark",
+                        "Baseline",
+                        "Current",
+                        "Change",
+                        "Unit"));
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            String name = entry.getKey();
+            Score now = entry.getValue();
+            Score before = baseline.get(name);
+            if (before == null) {
+                out.println(
+                        String.format(
+                                Locale.ENGLISH,
+                                "%-90s %14s %14.3f %9s %s",
+                                name,
+                                "-",
+                                now.score,
+                                "new",
+                                now.unit));
+                continue;
+            }
+            double change = (now.score - before.score) / before.score * 100;
+            boolean significant = Math.abs(now.score - before.score) > now.error + before.error;
+            // throughput is better when higher, the other modes report times
+            boolean better = "thrpt".equals(now.mode) ? change > 0 : change < 0;
+            String flag = significant ? (better ? " faster" : " SLOWER") : "";
+            out.println(
+                    String.format(
+                            Locale.ENGLISH,
+                            "%-90s %14.3f %14.3f %+8.1f%% %s%s",
+                            name,
+                            before.score,
+                            now.score,
+                            change,
+                            now.unit,
+                            flag));
+        }
+        for (String name : baseline.keySet()) {
+            if (!current.containsKey(name)) {
+                out.println(String.format(Locale.ENGLISH, "%-90s removed", name));
+            }
+        }
+    }
+}
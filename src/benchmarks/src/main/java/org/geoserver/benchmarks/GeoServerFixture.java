@@ -0,0 +1,314 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.ContextLoadedEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.test.DirectoryResourceLoader;
+import org.geoserver.test.GeoServerTestApplicationContext;
+import org.geoserver.wms.WMS;
+import org.geotools.data.DataStore;
+import org.geotools.data.property.PropertyDataStoreFactory;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.shapefile.ShapefileDataStoreFactory;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.NameImpl;
+import org.geotools.util.logging.Logging;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * A GeoServer instance shared by the benchmarks running in the same JVM, configured with the
+ * default test data plus a <code>bench</code> workspace containing generated polygon and point
+ * layers, each published both from a property file and from a shapefile.
+ *
+ * <p>The data is generated with a fixed seed, so that all runs, on all commits, work against the
+ * same features. No network access is required.
+ */
+public class GeoServerFixture {
+
+    static final Logger LOGGER = Logging.getLogger(GeoServerFixture.class);
+
+    public static final String WORKSPACE = "bench";
+
+    public static final String NAMESPACE_URI = "http://geoserver.org/bench";
+
+    /** The generated layers, in the bench workspace */
+    public static final String POLYGONS_PROPERTY = WORKSPACE + ":polygons";
+
+    public static final String POINTS_PROPERTY = WORKSPACE + ":points";
+
+    public static final String POLYGONS_SHAPEFILE = WORKSPACE + ":polygons_shp";
+
+    public static final String POINTS_SHAPEFILE = WORKSPACE + ":points_shp";
+
+    /** Number of grid cells per side in the polygon layers */
+    static final int POLYGON_GRID = 100;
+
+    /** Number of features in the point layers */
+    static final int POINT_COUNT = 20000;
+
+    static final long SEED = 20180915L;
+
+    private static GeoServerFixture instance;
+
+    private static int references;
+
+    private SystemTestData testData;
+
+    private GeoServerTestApplicationContext applicationContext;
+
+    /**
+     * Returns the shared fixture, starting GeoServer if needed. Each call must be matched by a
+     * call to {@link #release()}
+     */
+    public static synchronized GeoServerFixture acquire() throws Exception {
+        if (instance == null) {
+            GeoServerFixture fixture = new GeoServerFixture();
+            fixture.start();
+            instance = fixture;
+        }
+        references++;
+        return instance;
+    }
+
+    /** Releases the shared fixture, shutting down GeoServer when no benchmark uses it anymore */
+    public static synchronized void release() throws Exception {
+        if (instance != null && --references <= 0) {
+            try {
+                instance.stop();
+            } finally {
+                instance = null;
+                references = 0;
+            }
+        }
+    }
+
+    private GeoServerFixture() {}
+
+    private void start() throws Exception {
+        testData = new SystemTestData();
+        testData.setUp();
+        testData.setUpDefault();
+
+        File dataDirectory = testData.getDataDirectoryRoot();
+        new File(dataDirectory, "WEB-INF").mkdir();
+        MockServletContext servletContext =
+                new MockServletContext(new DirectoryResourceLoader(dataDirectory));
+        servletContext.setMinorVersion(4);
+        servletContext.setInitParameter("GEOSERVER_DATA_DIR", dataDirectory.getPath());
+        servletContext.setInitParameter("serviceStrategy", "PARTIAL-BUFFER2");
+
+        applicationContext =
+                new GeoServerTestApplicationContext(
+                        new String[] {
+                            "classpath*:/applicationContext.xml",
+                            "classpath*:/applicationSecurityContext.xml"
+                        },
+                        servletContext);
+        applicationContext.setUseLegacyGeoServerLoader(false);
+        applicationContext.refresh();
+        applicationContext.publishEvent(new ContextLoadedEvent(applicationContext));
+        servletContext.setAttribute(
+                WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE, applicationContext);
+
+        setUpBenchmarkLayers();
+    }
+
+    private void stop() throws Exception {
+        try {
+            if (applicationContext != null) {
+                getGeoServer().dispose();
+                applicationContext.destroy();
+                GeoServerExtensionsHelper.init(null);
+            }
+        } finally {
+            applicationContext = null;
+            testData.tearDown();
+        }
+    }
+
+    /** Generates the bench workspace layers */
+    private void setUpBenchmarkLayers() throws Exception {
+        Catalog catalog = getCatalog();
+        testData.addWorkspace(WORKSPACE, NAMESPACE_URI, catalog);
+        WorkspaceInfo ws = catalog.getWorkspaceByName(WORKSPACE);
+        NamespaceInfo ns = catalog.getNamespaceByPrefix(WORKSPACE);
+
+        // property files
+        File propertyDir = catalog.getResourceLoader().findOrCreateDirectory("bench", "property");
+        writePolygons(new File(propertyDir, "polygons.properties"));
+        writePoints(new File(propertyDir, "points.properties"));
+        CatalogBuilder cb = new CatalogBuilder(catalog);
+        cb.setWorkspace(ws);
+        DataStoreInfo property = cb.buildDataStore("property");
+        property.getConnectionParameters()
+                .put(PropertyDataStoreFactory.DIRECTORY.key, propertyDir.getAbsolutePath());
+        property.getConnectionParameters().put(PropertyDataStoreFactory.NAMESPACE.key, ns.getURI());
+        catalog.add(property);
+        addLayer(catalog, cb, property, "polygons");
+        addLayer(catalog, cb, property, "points");
+
+        // shapefiles, with the same contents
+        File shapefileDir = catalog.getResourceLoader().findOrCreateDirectory("bench", "shapefile");
+        DataStore propertyStore = (DataStore) property.getDataStore(null);
+        copyToShapefile(propertyStore, "polygons", new File(shapefileDir, "polygons_shp.shp"));
+        copyToShapefile(propertyStore, "points", new File(shapefileDir, "points_shp.shp"));
+        DataStoreInfo shapefiles = cb.buildDataStore("shapefile");
+        shapefiles
+                .getConnectionParameters()
+                .put(ShapefileDataStoreFactory.URLP.key, shapefileDir.toURI().toURL());
+        shapefiles
+                .getConnectionParameters()
+                .put(ShapefileDataStoreFactory.NAMESPACEP.key, ns.getURI());
+        shapefiles.setType("Directory of spatial files (shapefiles)");
+        catalog.add(shapefiles);
+        addLayer(catalog, cb, shapefiles, "polygons_shp");
+        addLayer(catalog, cb, shapefiles, "points_shp");
+    }
+
+    private void addLayer(Catalog catalog, CatalogBuilder cb, DataStoreInfo store, String name)
+            throws Exception {
+        cb.setStore(store);
+        FeatureTypeInfo ft = cb.buildFeatureType(new NameImpl(NAMESPACE_URI, name));
+        cb.setupBounds(ft);
+        catalog.add(ft);
+        LayerInfo layer = cb.buildLayer(ft);
+        catalog.add(layer);
+    }
+
+    /** A grid of slightly irregular squares covering the whole world */
+    private void writePolygons(File file) throws IOException {
+        Random random = new Random(SEED);
+        double step = 360d / POLYGON_GRID;
+        double stepY = 180d / POLYGON_GRID;
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("_=id:Integer,name:String,value:Double,geom:Polygon:srid=4326");
+            int id = 0;
+            for (int row = 0; row < POLYGON_GRID; row++) {
+                for (int col = 0; col < POLYGON_GRID; col++) {
+                    id++;
+                    double minx = -180 + col * step;
+                    double miny = -90 + row * stepY;
+                    double maxx = minx + step * (0.6 + random.nextDouble() * 0.4);
+                    double maxy = miny + stepY * (0.6 + random.nextDouble() * 0.4);
+                    double midx = (minx + maxx) / 2;
+                    String wkt =
+                            String.format(
+                                    Locale.ENGLISH,
+                                    "POLYGON((%f %f, %f %f, %f %f, %f %f, %f %f, %f %f))",
+                                    minx,
+                                    miny,
+                                    minx,
+                                    maxy,
+                                    midx,
+                                    maxy + stepY * random.nextDouble() * 0.2,
+                                    maxx,
+                                    maxy,
+                                    maxx,
+                                    miny,
+                                    minx,
+                                    miny);
+                    writer.println(
+                            String.format(
+                                    Locale.ENGLISH,
+                                    "polygons.%d=%d|cell %d|%f|%s",
+                                    id,
+                                    id,
+                                    id,
+                                    random.nextDouble() * 1000,
+                                    wkt));
+                }
+            }
+        }
+    }
+
+    /** Random points, denser around a few centers to get both crowded and empty areas */
+    private void writePoints(File file) throws IOException {
+        Random random = new Random(SEED);
+        double[][] centers = {{0, 0}, {12, 45}, {-74, 40}, {139, 35}, {-47, -15}};
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("_=id:Integer,name:String,value:Double,geom:Point:srid=4326");
+            for (int id = 1; id <= POINT_COUNT; id++) {
+                double x;
+                double y;
+                if (id % 2 == 0) {
+                    double[] center = centers[random.nextInt(centers.length)];
+                    x = center[0] + random.nextGaussian() * 5;
+                    y = center[1] + random.nextGaussian() * 5;
+                } else {
+                    x = -180 + random.nextDouble() * 360;
+                    y = -90 + random.nextDouble() * 180;
+                }
+                x = Math.max(-180, Math.min(180, x));
+                y = Math.max(-90, Math.min(90, y));
+                writer.println(
+                        String.format(
+                                Locale.ENGLISH,
+                                "points.%d=%d|point %d|%f|POINT(%f %f)",
+                                id,
+                                id,
+                                id,
+                                random.nextDouble() * 1000,
+                                x,
+                                y));
+            }
+        }
+    }
+
+    private void copyToShapefile(DataStore source, String typeName, File file) throws IOException {
+        SimpleFeatureSource fs = source.getFeatureSource(typeName);
+        Map<String, Serializable> params = new HashMap<>();
+        params.put(ShapefileDataStoreFactory.URLP.key, file.toURI().toURL());
+        ShapefileDataStore shapefile =
+                (ShapefileDataStore) new ShapefileDataStoreFactory().createNewDataStore(params);
+        try {
+            shapefile.createSchema(fs.getSchema());
+            SimpleFeatureStore store = (SimpleFeatureStore) shapefile.getFeatureSource();
+            store.addFeatures(fs.getFeatures());
+        } finally {
+            shapefile.dispose();
+        }
+        LOGGER.fine("Generated " + file);
+    }
+
+    public Catalog getCatalog() {
+        return (Catalog) applicationContext.getBean("catalog");
+    }
+
+    public GeoServer getGeoServer() {
+        return (GeoServer) applicationContext.getBean("geoServer");
+    }
+
+    public WMS getWMS() {
+        return bean(WMS.class);
+    }
+
+    /** Looks up a bean of the specified type in the application context */
+    public <T> T bean(Class<T> type) {
+        return GeoServerExtensions.bean(type, applicationContext);
+    }
+}
@@ -0,0 +1,68 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.concurrent.TimeUnit;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geotools.styling.Style;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the resolution of styles, from the name found in a request to the parsed {@link Style},
+ * both for explicitly named styles and for the layer default ones. This happens for every layer of
+ * every GetMap request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StyleResolutionBenchmark {
+
+    /** Holds the shared GeoServer catalog */
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        Catalog catalog;
+
+        @Setup
+        public void setup() throws Exception {
+            catalog = GeoServerFixture.acquire().getCatalog();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            GeoServerFixture.release();
+        }
+    }
+
+    /** The style names looked up by {@link StyleResolutionBenchmark#namedStyle} */
+    @State(Scope.Benchmark)
+    public static class StyleName {
+        @Param({"polygon", "point", "Default"})
+        public String style;
+    }
+
+    /** The layers looked up by {@link StyleResolutionBenchmark#layerDefaultStyle} */
+    @State(Scope.Benchmark)
+    public static class LayerName {
+        @Param({GeoServerFixture.POLYGONS_PROPERTY, GeoServerFixture.POINTS_SHAPEFILE})
+        public String layer;
+    }
+
+    @Benchmark
+    public Style namedStyle(CatalogState state, StyleName name) throws Exception {
+        return state.catalog.getStyleByName(name.style).getStyle();
+    }
+
+    @Benchmark
+    public Style layerDefaultStyle(CatalogState state, LayerName name) throws Exception {
+        return state.catalog.getLayerByName(name.layer).getDefaultStyle().getStyle();
+    }
+}
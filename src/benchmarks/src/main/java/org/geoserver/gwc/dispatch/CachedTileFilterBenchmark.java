@@ -0,0 +1,130 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geoserver.ows.Dispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Measures a WMTS GetTile cache hit served by the {@link CachedTileFilter} fast path against the
+ * same hit going through the OWS {@link Dispatcher} and the GWC dispatcher, both for a full tile
+ * and for a revalidation answered with a 304. The tile is rendered and cached during the setup, so
+ * that only the request handling and the blob store read are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CachedTileFilterBenchmark {
+
+    @Param({"true", "false"})
+    public boolean fastPath;
+
+    @Param({"false", "true"})
+    public boolean revalidate;
+
+    private CachedTileFilter filter;
+
+    private Dispatcher dispatcher;
+
+    private String layerName;
+
+    private String etag;
+
+    @Setup
+    public void setup() throws Exception {
+        GeoServerFixture fixture = GeoServerFixture.acquire();
+        GWC gwc = fixture.bean(GWC.class);
+        LayerInfo layerInfo =
+                fixture.getCatalog().getLayerByName(GeoServerFixture.POLYGONS_SHAPEFILE);
+        if (!gwc.hasTileLayer(layerInfo)) {
+            gwc.add(new GeoServerTileLayer(layerInfo, gwc.getConfig(), gwc.getGridSetBroker()));
+        }
+        layerName = gwc.getTileLayer(layerInfo).getName();
+        filter = fixture.bean(CachedTileFilter.class);
+        dispatcher = fixture.bean(Dispatcher.class);
+
+        // render and cache the tile, then make sure both paths see it as a hit
+        dispatch(tileRequest(false));
+        MockHttpServletResponse hit = getTile(tileRequest(false));
+        if (hit.getStatus() != 200 || !"HIT".equals(hit.getHeader("geowebcache-cache-result"))) {
+            throw new IllegalStateException(
+                    "Expected a cache hit, got "
+                            + hit.getStatus()
+                            + " "
+                            + hit.getHeader("geowebcache-cache-result"));
+        }
+        etag = hit.getHeader("ETag");
+        if (etag == null) {
+            throw new IllegalStateException("The cache hit has no ETag");
+        }
+        if (revalidate && getTile(tileRequest(true)).getStatus() != 304) {
+            throw new IllegalStateException("Expected a 304 for the matching ETag " + etag);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        GeoServerFixture.release();
+    }
+
+    private MockHttpServletRequest tileRequest(boolean conditional) {
+        MockHttpServletRequest request =
+                new MockHttpServletRequest("GET", "/geoserver/gwc/service/wmts");
+        request.setContextPath("/geoserver");
+        request.addParameter("service", "WMTS");
+        request.addParameter("version", "1.0.0");
+        request.addParameter("request", "GetTile");
+        request.addParameter("layer", layerName);
+        request.addParameter("tileMatrixSet", "EPSG:4326");
+        request.addParameter("tileMatrix", "EPSG:4326:2");
+        request.addParameter("tileRow", "1");
+        request.addParameter("tileCol", "2");
+        request.addParameter("format", "image/png");
+        if (conditional) {
+            request.addHeader("If-None-Match", etag);
+        }
+        return request;
+    }
+
+    private MockHttpServletResponse dispatch(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(request, response);
+        return response;
+    }
+
+    private MockHttpServletResponse getTile(MockHttpServletRequest request) throws Exception {
+        if (!fastPath) {
+            return dispatch(request);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        if (chain.getRequest() != null) {
+            throw new IllegalStateException("The cached tile filter did not serve the tile");
+        }
+        return response;
+    }
+
+    @Benchmark
+    public int getCachedTile() throws Exception {
+        return getTile(tileRequest(revalidate)).getContentAsByteArray().length;
+    }
+}
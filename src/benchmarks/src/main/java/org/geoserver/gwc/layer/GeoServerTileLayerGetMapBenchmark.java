@@ -0,0 +1,91 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import java.util.concurrent.TimeUnit;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.gwc.GWC;
+import org.geoserver.wms.WebMap;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.mime.MimeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the rendering of a 4x4 meta tile by {@link GeoServerTileLayer}, calling the WMS
+ * directly or dispatching a GetMap request through the OWS dispatcher. The points layer meta tile
+ * is almost empty, so that the request handling overhead dominates over the rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GeoServerTileLayerGetMapBenchmark {
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    @Param({GeoServerFixture.POLYGONS_SHAPEFILE, GeoServerFixture.POINTS_SHAPEFILE})
+    public String layer;
+
+    private ConveyorTile tile;
+
+    private GeoServerMetaTile metaTile;
+
+    private GeoServerTileLayer tileLayer;
+
+    private boolean directDefault;
+
+    @Setup
+    public void setup() throws Exception {
+        GeoServerFixture fixture = GeoServerFixture.acquire();
+        directDefault = GeoServerTileLayer.DIRECT_GETMAP;
+        GeoServerTileLayer.DIRECT_GETMAP = direct;
+
+        GWC gwc = fixture.bean(GWC.class);
+        LayerInfo layerInfo = fixture.getCatalog().getLayerByName(layer);
+        if (gwc.hasTileLayer(layerInfo)) {
+            tileLayer = gwc.getTileLayer(layerInfo);
+        } else {
+            tileLayer =
+                    new GeoServerTileLayer(layerInfo, gwc.getConfig(), gwc.getGridSetBroker());
+            gwc.add(tileLayer);
+        }
+
+        // a level 2 meta tile for the polygons, a deep one for the points
+        long[] tileIndex =
+                GeoServerFixture.POLYGONS_SHAPEFILE.equals(layer)
+                        ? new long[] {2, 1, 2}
+                        : new long[] {1024, 512, 10};
+        MimeType png = MimeType.createFromFormat("image/png");
+        tile =
+                new ConveyorTile(
+                        null, tileLayer.getName(), "EPSG:4326", tileIndex, png, null, null, null);
+        metaTile =
+                new GeoServerMetaTile(
+                        tileLayer.getGridSubset("EPSG:4326"), png, null, tileIndex, 4, 4, 0);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        GeoServerTileLayer.DIRECT_GETMAP = directDefault;
+        GeoServerFixture.release();
+    }
+
+    @Benchmark
+    public WebMap getMap() throws Exception {
+        WebMap map = tileLayer.dispatchGetMap(tile, metaTile);
+        // only the request handling and rendering are measured, not the encoding
+        map.dispose();
+        return map;
+    }
+}
@@ -0,0 +1,110 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wms.GetMapRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the parsing of GetMap requests, from the raw KVP strings to the {@link GetMapRequest},
+ * as done by the dispatcher for every map and tile request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetMapKvpRequestReaderBenchmark {
+
+    /** The request flavours */
+    public enum RequestType {
+        /** A single layer with its default style */
+        SIMPLE,
+        /** A few layers with explicit styles and a filter for each */
+        FILTERED,
+        /** A tiled request, as issued by tiled clients and GWC */
+        TILED
+    }
+
+    @Param({"SIMPLE", "FILTERED", "TILED"})
+    public RequestType type;
+
+    private GetMapKvpRequestReader reader;
+
+    private Map<String, Object> raw;
+
+    @Setup
+    public void setup() throws Exception {
+        GeoServerFixture fixture = GeoServerFixture.acquire();
+        reader = new GetMapKvpRequestReader(fixture.getWMS());
+
+        raw = new HashMap<>();
+        raw.put("service", "WMS");
+        raw.put("version", "1.1.1");
+        raw.put("request", "GetMap");
+        raw.put("srs", "EPSG:4326");
+        raw.put("bbox", "-30,-40,60,50");
+        raw.put("width", "768");
+        raw.put("height", "768");
+        raw.put("format", "image/png");
+        switch (type) {
+            case SIMPLE:
+                raw.put("layers", GeoServerFixture.POLYGONS_PROPERTY);
+                raw.put("styles", "");
+                break;
+            case FILTERED:
+                raw.put(
+                        "layers",
+                        GeoServerFixture.POLYGONS_PROPERTY
+                                + ","
+                                + GeoServerFixture.POINTS_SHAPEFILE
+                                + ","
+                                + GeoServerFixture.POINTS_PROPERTY);
+                raw.put("styles", "polygon,point,point");
+                raw.put("cql_filter", "value > 500;value < 100;name like 'point 1%'");
+                raw.put("transparent", "true");
+                raw.put("format_options", "antialias:none;dpi:180");
+                break;
+            case TILED:
+                raw.put("layers", GeoServerFixture.POLYGONS_SHAPEFILE);
+                raw.put("styles", "");
+                raw.put("bbox", "0,0,22.5,22.5");
+                raw.put("width", "256");
+                raw.put("height", "256");
+                raw.put("tiled", "true");
+                raw.put("tilesorigin", "-180,-90");
+                break;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        GeoServerFixture.release();
+    }
+
+    @Benchmark
+    public GetMapRequest read() throws Exception {
+        Map<String, Object> rawKvp = new KvpMap(raw);
+        Map<String, Object> kvp = new KvpMap(raw);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (errors != null && !errors.isEmpty()) {
+            throw new IllegalStateException("Failed to parse the request", errors.get(0));
+        }
+        return (GetMapRequest) reader.read(reader.createRequest(), kvp, rawKvp);
+    }
+}
@@ -0,0 +1,126 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.RenderedImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wms.GetMap;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.png.PNGJWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the encoding of a rendered map with {@link PNGJWriter} and {@link JPEGMapResponse}. The
+ * map is rendered once, from the generated polygon layer, either as a RGBA or as a paletted image,
+ * and then encoded to a stream discarding the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageEncodingBenchmark {
+
+    @Param({"image/png", "image/png8"})
+    public String renderFormat;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private RenderedImageMap map;
+
+    private WMS wms;
+
+    private JPEGMapResponse jpegResponse;
+
+    @Setup
+    public void setup() throws Exception {
+        GeoServerFixture fixture = GeoServerFixture.acquire();
+        wms = fixture.getWMS();
+        jpegResponse = new JPEGMapResponse(wms);
+
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("service", "WMS");
+        raw.put("version", "1.1.1");
+        raw.put("request", "GetMap");
+        raw.put("layers", GeoServerFixture.POLYGONS_PROPERTY);
+        raw.put("styles", "");
+        raw.put("srs", "EPSG:4326");
+        raw.put("bbox", "-30,-40,60,50");
+        raw.put("width", String.valueOf(size));
+        raw.put("height", String.valueOf(size));
+        raw.put("format", renderFormat);
+        Map<String, Object> kvp = new KvpMap(raw);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (errors != null && !errors.isEmpty()) {
+            throw new IllegalStateException("Failed to parse the request", errors.get(0));
+        }
+        GetMapKvpRequestReader reader = new GetMapKvpRequestReader(wms);
+        GetMapRequest request =
+                (GetMapRequest) reader.read(reader.createRequest(), kvp, new KvpMap(raw));
+        map = (RenderedImageMap) fixture.bean(GetMap.class).run(request);
+        // the map is kept until the end of the trial, make sure it's not disposed on cleanup
+        List<RenderedImage> images = new RasterCleaner().getImages();
+        if (images != null) {
+            images.clear();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try {
+            map.dispose();
+        } finally {
+            GeoServerFixture.release();
+        }
+    }
+
+    @Benchmark
+    public long pngj() throws Exception {
+        RenderedImage image = map.getImage();
+        WMSMapContent mapContent = map.getMapContext();
+        float quality = (100 - wms.getPngCompression()) / 100.0f;
+        CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        RasterCleaner.addImage(new PNGJWriter().writePNG(image, out, quality, mapContent));
+        cleanup(image);
+        return out.getByteCount();
+    }
+
+    @Benchmark
+    public long jpeg() throws Exception {
+        RenderedImage image = map.getImage();
+        CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        jpegResponse.formatImageOutputStream(image, out, map.getMapContext());
+        cleanup(image);
+        return out.getByteCount();
+    }
+
+    /** Disposes the images created during the encoding, leaving the shared map untouched */
+    private void cleanup(RenderedImage image) {
+        RasterCleaner cleaner = new RasterCleaner();
+        List<RenderedImage> images = cleaner.getImages();
+        if (images != null) {
+            images.removeIf(i -> i == image);
+        }
+        cleaner.finished(null);
+    }
+}
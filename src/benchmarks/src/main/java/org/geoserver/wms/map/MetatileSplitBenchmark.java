@@ -0,0 +1,110 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.media.jai.TiledImage;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the split of a 3x3 meta tile in its tiles by {@link MetatileMapOutputFormat}, for the
+ * buffered image and planar image code paths. Does not need a running GeoServer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetatileSplitBenchmark {
+
+    @Param({"BUFFERED", "PLANAR"})
+    public String imageType;
+
+    @Param({"RGBA", "PALETTED"})
+    public String colorModel;
+
+    private MetaTileKey key;
+
+    private RenderedImage metaTile;
+
+    @Setup
+    public void setup() {
+        MapKey mapKey = new MapKey("bench", 0.01, new Point2D.Double(0, 0));
+        key =
+                new MetaTileKey(
+                        mapKey,
+                        new Point(0, 0),
+                        new ReferencedEnvelope(0, 10, 0, 10, DefaultEngineeringCRS.GENERIC_2D));
+        int size = key.getTileSize() * key.getMetaFactor();
+
+        BufferedImage image =
+                new BufferedImage(
+                        size,
+                        size,
+                        "RGBA".equals(colorModel)
+                                ? BufferedImage.TYPE_4BYTE_ABGR
+                                : BufferedImage.TYPE_BYTE_INDEXED);
+        // random contents, so that no copy can be optimized away
+        WritableRaster raster = image.getRaster();
+        Random random = new Random(0);
+        int[] pixel = new int[raster.getNumBands()];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int b = 0; b < pixel.length; b++) {
+                    pixel[b] = random.nextInt(256);
+                }
+                raster.setPixel(x, y, pixel);
+            }
+        }
+
+        if ("BUFFERED".equals(imageType)) {
+            metaTile = image;
+        } else {
+            // same layout as the rendered meta tiles, one tile per output tile
+            TiledImage tiled =
+                    new TiledImage(
+                            0,
+                            0,
+                            size,
+                            size,
+                            0,
+                            0,
+                            image.getSampleModel()
+                                    .createCompatibleSampleModel(
+                                            key.getTileSize(), key.getTileSize()),
+                            image.getColorModel());
+            tiled.setData(image.getRaster());
+            metaTile = tiled;
+        }
+    }
+
+    @Benchmark
+    public RenderedImage[] split() {
+        RenderedImage[] tiles = MetatileMapOutputFormat.split(key, metaTile);
+        // the meta tile is reused across invocations, don't let the cleaner dispose it
+        List<RenderedImage> images = new RasterCleaner().getImages();
+        if (images != null) {
+            images.clear();
+        }
+        return tiles;
+    }
+}
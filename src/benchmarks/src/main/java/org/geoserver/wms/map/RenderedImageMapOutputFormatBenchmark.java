@@ -0,0 +1,103 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.benchmarks.GeoServerFixture;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wms.GetMap;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WebMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the GetMap rendering, from the parsed KVP map to the in memory image, on the generated
+ * property file and shapefile layers. The request is rebuilt on each invocation as the rendering
+ * can modify it. Encoding is measured separately by {@link ImageEncodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RenderedImageMapOutputFormatBenchmark {
+
+    @Param({
+        GeoServerFixture.POLYGONS_PROPERTY,
+        GeoServerFixture.POLYGONS_SHAPEFILE,
+        GeoServerFixture.POINTS_PROPERTY,
+        GeoServerFixture.POINTS_SHAPEFILE
+    })
+    public String layer;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"image/png", "image/png8"})
+    public String format;
+
+    private GetMap getMap;
+
+    private GetMapKvpRequestReader reader;
+
+    private Map<String, Object> kvp;
+
+    private Map<String, Object> rawKvp;
+
+    @Setup
+    public void setup() throws Exception {
+        GeoServerFixture fixture = GeoServerFixture.acquire();
+        getMap = fixture.bean(GetMap.class);
+        reader = new GetMapKvpRequestReader(fixture.getWMS());
+
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("service", "WMS");
+        raw.put("version", "1.1.1");
+        raw.put("request", "GetMap");
+        raw.put("layers", layer);
+        raw.put("styles", "");
+        raw.put("srs", "EPSG:4326");
+        // a view over Europe and Africa, crossing both dense and sparse areas
+        raw.put("bbox", "-30,-40,60,50");
+        raw.put("width", String.valueOf(size));
+        raw.put("height", String.valueOf(size));
+        raw.put("format", format);
+        rawKvp = new KvpMap(raw);
+        kvp = new KvpMap(raw);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (errors != null && !errors.isEmpty()) {
+            throw new IllegalStateException("Failed to parse the request", errors.get(0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        GeoServerFixture.release();
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) throws Exception {
+        GetMapRequest request = (GetMapRequest) reader.read(reader.createRequest(), kvp, rawKvp);
+        WebMap map = getMap.run(request);
+        try {
+            blackhole.consume(((RenderedImageMap) map).getImage());
+        } finally {
+            map.dispose();
+            new RasterCleaner().finished(null);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geotools.process.raster;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Paths;
+import org.geoserver.platform.resource.Resource;
+import org.geotools.coverage.NoDataContainer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.coverage.grid.io.UnknownFormat;
+import org.geotools.coverage.util.CoverageUtilities;
+import org.geotools.image.ImageWorker;
+import org.geotools.util.logging.Logging;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * Per band statistics of the file a coverage has been read from, used by the dynamic color map
+ * functions when the coverage does not carry statistics of its own.
+ *
+ * <p>The statistics are computed once, reading the whole file, and then kept in memory and saved in
+ * the {@code colormap/statistics} directory of the data directory, so that they survive restarts.
+ * They are computed again only if the file gets modified. Files larger than {@link #MAX_SIZE} on
+ * either side are read at a lower resolution, so the statistics are approximated.
+ *
+ * <p>Only files the coverage has been fully read from are used, granules of mosaics and structured
+ * sources are skipped, their statistics would not be the ones of the coverage.
+ */
+public class CoverageStatistics {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageStatistics.class);
+
+    static final String DIRECTORY = Paths.path("colormap", "statistics");
+
+    /** Max width and height of the image the statistics are computed on */
+    static final int MAX_SIZE =
+            Integer.getInteger("org.geoserver.colormap.statistics.maxSize", 2048);
+
+    /** Max number of statistics kept in memory */
+    static final int CACHE_SIZE =
+            Integer.getInteger("org.geoserver.colormap.statistics.cacheSize", 1000);
+
+    private static final Cache<String, CoverageStatistics> CACHE =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    private static final Striped<Lock> LOCKS = Striped.lock(32);
+
+    final long lastModified;
+
+    final double[] minimum;
+
+    final double[] maximum;
+
+    final double[] mean;
+
+    CoverageStatistics(long lastModified, double[] minimum, double[] maximum, double[] mean) {
+        this.lastModified = lastModified;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.mean = mean;
+    }
+
+    /**
+     * Returns the statistics of the file backing the coverage, computing them if not available
+     * yet, or null if the coverage has not been read from a file, or only from part of it
+     */
+    public static CoverageStatistics get(GridCoverage2D coverage) throws IOException {
+        Object source = coverage.getProperty(GridCoverage2DReader.FILE_SOURCE_PROPERTY);
+        if (!(source instanceof String)) {
+            return null;
+        }
+        File file = new File((String) source);
+        if (!file.exists()) {
+            return null;
+        }
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        String name = coverage.getName().toString();
+        String key = path + "#" + name;
+        CoverageStatistics statistics = CACHE.getIfPresent(key);
+        if (statistics == null || statistics.lastModified != lastModified) {
+            // computing the statistics is expensive, make sure it happens only once per coverage
+            Lock lock = LOCKS.get(key);
+            lock.lock();
+            try {
+                statistics = CACHE.getIfPresent(key);
+                if (statistics == null || statistics.lastModified != lastModified) {
+                    Resource resource = getResource(key);
+                    statistics = load(resource, lastModified);
+                    if (statistics == null) {
+                        statistics = compute(file, name, lastModified);
+                        if (statistics != null) {
+                            store(resource, path, statistics);
+                        } else {
+                            statistics = new CoverageStatistics(lastModified, null, null, null);
+                        }
+                    }
+                    CACHE.put(key, statistics);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return statistics.minimum != null ? statistics : null;
+    }
+
+    private static Resource getResource(String path) {
+        GeoServerResourceLoader loader = GeoServerExtensions.bean(GeoServerResourceLoader.class);
+        if (loader == null) {
+            return null;
+        }
+        String name = UUID.nameUUIDFromBytes(path.getBytes(StandardCharsets.UTF_8)) + ".properties";
+        return loader.get(Paths.path(DIRECTORY, name));
+    }
+
+    private static CoverageStatistics load(Resource resource, long lastModified) {
+        if (resource == null || resource.getType() != Resource.Type.RESOURCE) {
+            return null;
+        }
+        try (InputStream is = resource.in()) {
+            Properties properties = new Properties();
+            properties.load(is);
+            if (Long.parseLong(properties.getProperty("lastModified")) != lastModified) {
+                return null;
+            }
+            return new CoverageStatistics(
+                    lastModified,
+                    parse(properties.getProperty("minimum")),
+                    parse(properties.getProperty("maximum")),
+                    parse(properties.getProperty("mean")));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load the statistics in " + resource.path(), e);
+            return null;
+        }
+    }
+
+    private static double[] parse(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    private static String format(double[] values) {
+        return Arrays.stream(values).mapToObj(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static void store(Resource resource, String path, CoverageStatistics statistics) {
+        if (resource == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("source", path);
+        properties.setProperty("lastModified", String.valueOf(statistics.lastModified));
+        properties.setProperty("minimum", format(statistics.minimum));
+        properties.setProperty("maximum", format(statistics.maximum));
+        properties.setProperty("mean", format(statistics.mean));
+        try (OutputStream os = resource.out()) {
+            properties.store(os, null);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the statistics of " + path, e);
+        }
+    }
+
+    /**
+     * Computes the statistics of the named coverage in the file, or returns null if the file does
+     * not hold it as a whole
+     */
+    private static CoverageStatistics compute(File file, String name, long lastModified)
+            throws IOException {
+        AbstractGridFormat format = GridFormatFinder.findFormat(file);
+        if (format == null || format instanceof UnknownFormat) {
+            throw new IOException("Could not find a reader for " + file);
+        }
+        GridCoverage2DReader reader = format.getReader(file);
+        if (reader == null) {
+            throw new IOException("Could not open " + file);
+        }
+        GridCoverage2D coverage = null;
+        try {
+            // a mosaic granule is read through a coverage with a different name
+            if (reader instanceof StructuredGridCoverage2DReader
+                    || !Arrays.asList(reader.getGridCoverageNames()).contains(name)) {
+                LOGGER.fine("Coverage " + name + " is not fully backed by " + file);
+                return null;
+            }
+            long start = System.currentTimeMillis();
+            coverage = reader.read(name, getReadParameters(reader, name));
+            ImageWorker worker = new ImageWorker(coverage.getRenderedImage());
+            NoDataContainer noData = CoverageUtilities.getNoDataProperty(coverage);
+            if (noData != null) {
+                worker.setNoData(noData.getAsRange());
+            }
+            CoverageStatistics statistics =
+                    new CoverageStatistics(
+                            lastModified,
+                            worker.getMinimums(),
+                            worker.getMaximums(),
+                            worker.getMean());
+            LOGGER.fine(
+                    "Computed statistics of "
+                            + file
+                            + " in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+            return statistics;
+        } finally {
+            if (coverage != null) {
+                coverage.dispose(true);
+            }
+            reader.dispose();
+        }
+    }
+
+    /** Limits the read to {@link #MAX_SIZE} pixels on either side, or returns null */
+    private static GeneralParameterValue[] getReadParameters(
+            GridCoverage2DReader reader, String name) throws IOException {
+        GridEnvelope2D range = reader.getOriginalGridRange(name);
+        int size = Math.max(range.width, range.height);
+        if (size <= MAX_SIZE) {
+            return null;
+        }
+        double scale = (double) MAX_SIZE / size;
+        int width = Math.max(1, (int) Math.round(range.width * scale));
+        int height = Math.max(1, (int) Math.round(range.height * scale));
+        GridGeometry2D gg =
+                new GridGeometry2D(
+                        new GridEnvelope2D(0, 0, width, height), reader.getOriginalEnvelope(name));
+        ParameterValue<GridGeometry2D> readGG =
+                AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        readGG.setValue(gg);
+        return new GeneralParameterValue[] {readGG};
+    }
+
+    /** Drops the statistics kept in memory, the ones saved in the data directory are kept */
+    static void clearCache() {
+        CACHE.invalidateAll();
+    }
+
+    /**
+     * Returns the requested statistic for the specified band
+     *
+     * @param band The band index
+     * @param statName One of "minimum", "maximum" and "mean", case insensitive
+     * @return The statistic value, or null if the band or the statistic are not available
+     */
+    public Double get(int band, String statName) {
+        double[] values;
+        if ("minimum".equalsIgnoreCase(statName)) {
+            values = minimum;
+        } else if ("maximum".equalsIgnoreCase(statName)) {
+            values = maximum;
+        } else if ("mean".equalsIgnoreCase(statName)) {
+            values = mean;
+        } else {
+            return null;
+        }
+        return band >= 0 && band < values.length ? values[band] : null;
+    }
+}
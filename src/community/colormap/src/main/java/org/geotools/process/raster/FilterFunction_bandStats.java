@@ -6,6 +6,7 @@ package org.geotools.process.raster;
 
 import static org.geotools.filter.capability.FunctionNameImpl.parameter;
 
+import java.io.IOException;
 import java.util.List;
 import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
@@ -57,19 +58,31 @@ public class FilterFunction_bandStats extends FunctionExpressionImpl {
         }
     }
 
-    Object evaluate(final GridCoverage2D coverage, final int bandIndex, final String statName) {
+    Object evaluate(final GridCoverage2D coverage, final int bandIndex, final String statName)
+            throws IOException {
         Utilities.ensureNonNull("coverage", coverage);
         GridSampleDimension sd = coverage.getSampleDimension(bandIndex);
+        Double value;
         if ("minimum".equalsIgnoreCase(statName)) {
-            return ensureNotNull(sd, bandIndex, statName, getMinimum(sd));
+            value = getMinimum(sd);
         } else if ("maximum".equalsIgnoreCase(statName)) {
-            return ensureNotNull(sd, bandIndex, statName, getMaximum(sd));
+            value = getMaximum(sd);
+        } else if ("mean".equalsIgnoreCase(statName)) {
+            // not part of the sample dimension, only available from the statistics
+            value = null;
         } else {
             throw new IllegalArgumentException(
                     "Invalid property "
                             + statName
-                            + ", supported values are 'minimum' and 'maximum'");
+                            + ", supported values are 'minimum', 'maximum' and 'mean'");
         }
+        if (value == null) {
+            CoverageStatistics statistics = CoverageStatistics.get(coverage);
+            if (statistics != null) {
+                value = statistics.get(bandIndex, statName);
+            }
+        }
+        return ensureNotNull(sd, bandIndex, statName, value);
     }
 
     private double ensureNotNull(
@@ -9,6 +9,7 @@ import static org.geotools.filter.capability.FunctionNameImpl.parameter;
 import it.geosolutions.imageio.pam.PAMDataset;
 import it.geosolutions.imageio.pam.PAMDataset.PAMRasterBand;
 import it.geosolutions.imageio.pam.PAMParser;
+import java.io.IOException;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.filter.FunctionExpressionImpl;
 import org.geotools.filter.capability.FunctionNameImpl;
@@ -62,9 +63,11 @@ public class FilterFunction_gridCoverageStats extends FunctionExpressionImpl {
 
     /**
      * Evaluating the filter function based on the provided coverage and the requested statName
-     * (minimum, maximum, ...)
+     * (minimum, maximum, ...). The statistics are taken from the PAM dataset of the coverage, if
+     * available, otherwise from the {@link CoverageStatistics} of the file it was read from
      */
-    public Object evaluate(final GridCoverage2D coverage, final String statName) {
+    public Object evaluate(final GridCoverage2D coverage, final String statName)
+            throws IOException {
         Utilities.ensureNonNull("coverage", coverage);
         final Object prop = coverage.getProperty(Utils.PAM_DATASET);
         if (prop != null && prop instanceof PAMDataset) {
@@ -74,9 +77,15 @@ public class FilterFunction_gridCoverageStats extends FunctionExpressionImpl {
             if (band != null) {
                 final String value =
                         pamParser.getMetadataValue(band, "STATISTICS_" + statName.toUpperCase());
-                return Double.parseDouble(value);
+                if (value != null) {
+                    return Double.parseDouble(value);
+                }
             }
         }
+        CoverageStatistics statistics = CoverageStatistics.get(coverage);
+        if (statistics != null) {
+            return statistics.get(0, statName);
+        }
         return null;
     }
 }
@@ -7,6 +7,8 @@ package org.geotools.process.raster;
 import static org.geotools.process.raster.FilterFunction_svgColorMap.MAX_PALETTE_COLORS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import java.util.HashMap;
@@ -23,10 +25,16 @@ import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
+import org.geoserver.platform.resource.Resource;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.geotools.coverage.NoDataContainer;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.image.ImageWorker;
 import org.geotools.styling.ColorMap;
 import org.geotools.styling.ColorMapEntry;
 import org.geotools.util.NumberRange;
@@ -78,6 +86,9 @@ public class DynamicColorMapTest extends GeoServerSystemTestSupport {
         CoverageDimensionInfo di = coverage.getDimensions().get(0);
         di.setRange(new NumberRange<Double>(Double.class, 0., 0.5));
         getCatalog().save(coverage);
+
+        // a coverage without PAM statistics
+        testData.addDefaultRasterLayer(MockData.TASMANIA_DEM, catalog);
     }
 
     @Test
@@ -103,6 +114,66 @@ public class DynamicColorMapTest extends GeoServerSystemTestSupport {
         ImageIOUtilities.disposeImage(gridCoverage.getRenderedImage());
     }
 
+    @Test
+    public void testComputedStats() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        GridCoverageReader reader = ci.getGridCoverageReader(null, null);
+        GridCoverage2D gridCoverage = (GridCoverage2D) reader.read(null);
+        try {
+            // no PAM dataset, the statistics get computed
+            FilterFunction_gridCoverageStats funcStat = new FilterFunction_gridCoverageStats();
+            double max = (Double) funcStat.evaluate(gridCoverage, "maximum");
+            double mean = (Double) funcStat.evaluate(gridCoverage, "mean");
+            ImageWorker worker = new ImageWorker(gridCoverage.getRenderedImage());
+            NoDataContainer noData = CoverageUtilities.getNoDataProperty(gridCoverage);
+            if (noData != null) {
+                worker.setNoData(noData.getAsRange());
+            }
+            assertEquals(worker.getMaximums()[0], max, TOLERANCE);
+            assertTrue(mean < max);
+
+            // the mean is not in the sample dimension, bandStats gets it from the same statistics
+            final FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+            Function meanStat = ff.function("bandStats", ff.literal(0), ff.literal("mean"));
+            assertEquals(mean, (Double) meanStat.evaluate(gridCoverage), TOLERANCE);
+
+            // the statistics have been saved, and can be reloaded from the data directory
+            Resource statistics = getDataDirectory().get(CoverageStatistics.DIRECTORY);
+            assertEquals(1, statistics.list().size());
+            CoverageStatistics.clearCache();
+            assertEquals(max, (Double) funcStat.evaluate(gridCoverage, "maximum"), TOLERANCE);
+        } finally {
+            ImageIOUtilities.disposeImage(gridCoverage.getRenderedImage());
+        }
+    }
+
+    @Test
+    public void testPartialSourceStats() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        GridCoverageReader reader = ci.getGridCoverageReader(null, null);
+        GridCoverage2D gridCoverage = (GridCoverage2D) reader.read(null);
+        try {
+            assertNotNull(gridCoverage.getProperty(GridCoverage2DReader.FILE_SOURCE_PROPERTY));
+            // same file, but another coverage name, like a mosaic reading a single granule
+            GridCoverage2D mosaic =
+                    new GridCoverageFactory()
+                            .create(
+                                    "mosaic",
+                                    gridCoverage.getRenderedImage(),
+                                    gridCoverage.getEnvelope(),
+                                    gridCoverage.getSampleDimensions(),
+                                    null,
+                                    gridCoverage.getProperties());
+            assertNull(CoverageStatistics.get(mosaic));
+            FilterFunction_gridCoverageStats funcStat = new FilterFunction_gridCoverageStats();
+            assertNull(funcStat.evaluate(mosaic, "mean"));
+            // the coverage backed by the whole file still gets them
+            assertNotNull(CoverageStatistics.get(gridCoverage));
+        } finally {
+            ImageIOUtilities.disposeImage(gridCoverage.getRenderedImage());
+        }
+    }
+
     @Test
     public void testGridBandStats() throws Exception {
         // check the coverage is actually there
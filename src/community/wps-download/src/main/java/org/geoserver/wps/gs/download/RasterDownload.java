@@ -30,6 +30,7 @@ import javax.media.jai.operator.MosaicDescriptor;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.data.util.CoverageUtils;
+import org.geoserver.data.util.TilePrefetchingImage;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.wps.WPSException;
 import org.geoserver.wps.ppio.ComplexPPIO;
@@ -834,9 +835,11 @@ class RasterDownload {
             } else {
                 os = fileImageOutputStreamExtImpl;
             }
-            // Encoding the GridCoverage
+            // Encoding the GridCoverage, the read, reprojection and crop of the tiles following
+            // the one being encoded are computed in parallel by the JAI tile scheduler
             Map encodingParams = writeParams != null ? writeParams.getParametersMap() : null;
-            complexPPIO.encode(gridCoverage, encodingParams, new OutputStreamAdapter(os));
+            GridCoverage2D prefetching = TilePrefetchingImage.wrap(gridCoverage);
+            complexPPIO.encode(prefetching, encodingParams, new OutputStreamAdapter(os));
             os.flush();
         } finally {
             try {
@@ -14,6 +14,7 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geotools.coverage.TypeMap;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
 import org.geotools.coverage.util.FeatureUtilities;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -117,8 +118,6 @@ class RasterEstimator {
         final GridCoverage2DReader reader =
                 (GridCoverage2DReader) coverageInfo.getGridCoverageReader(null, null);
 
-        // Area to read in pixel
-        final long areaRead;
         // take scaling into account
         ScaleToTarget scaling = null;
         if (roi != null) {
@@ -157,18 +156,32 @@ class RasterEstimator {
         }
         scaling.setTargetSize(targetSizeX, targetSizeY);
 
-        GridGeometry2D gg = null;
-
+        GridGeometry2D gg = scaling.getGridGeometry();
         if (targetSizeX == null && targetSizeY == null) {
-            // Ask to the GridGeometryProvider
-            GridGeometryProvider provider =
-                    new GridGeometryProvider(reader, roiManager, filter, catalog);
-            gg = provider.getGridGeometry();
-        } else {
-            gg = scaling.getGridGeometry();
+            // the native resolution is the finest among the granules, so reading the whole area
+            // at it gives an upper bound computed from metadata alone. If it fits in the limits
+            // there is no need to query the granules for a more precise estimate
+            if (reader instanceof StructuredGridCoverage2DReader
+                    && !isWithinLimits(gg, scaling, coverageInfo, bandIndices)) {
+                // Ask to the GridGeometryProvider
+                GridGeometryProvider provider =
+                        new GridGeometryProvider(reader, roiManager, filter, catalog);
+                gg = provider.getGridGeometry();
+            }
         }
 
-        areaRead = (long) gg.getGridRange2D().width * gg.getGridRange2D().height;
+        return isWithinLimits(gg, scaling, coverageInfo, bandIndices);
+    }
+
+    /** Checks if reading the specified grid geometry is within the configured limits */
+    private boolean isWithinLimits(
+            GridGeometry2D gg,
+            ScaleToTarget scaling,
+            CoverageInfo coverageInfo,
+            int[] bandIndices) {
+        final long rasterSizeLimits = downloadServiceConfiguration.getRasterSizeLimits();
+        // Area to read in pixel
+        final long areaRead = (long) gg.getGridRange2D().width * gg.getGridRange2D().height;
 
         // checks on the area we want to download
         if (LOGGER.isLoggable(Level.FINE)) {
@@ -6,6 +6,7 @@
 package org.geoserver.wps.gs.download;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -13,6 +14,7 @@ import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.PrivateTIFFTagSet;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileInputStream;
@@ -33,9 +35,11 @@ import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.FileImageInputStream;
+import javax.media.jai.PlanarImage;
 import javax.xml.namespace.QName;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.data.test.MockData;
@@ -52,6 +56,8 @@ import org.geoserver.wps.ppio.ZipArchivePPIO;
 import org.geoserver.wps.resource.WPSResourceManager;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
 import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.coverage.util.FeatureUtilities;
@@ -1707,6 +1713,109 @@ public class DownloadProcessTest extends WPSTestSupport {
         }
     }
 
+    /**
+     * Test the raster estimator skips the granule query when the native resolution grid is within
+     * the limits, and relies on it otherwise
+     */
+    @Test
+    public void testDownloadEstimatorNativeResolutionBound() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MIXED_RES));
+        GridCoverage2DReader reader = (GridCoverage2DReader) ci.getGridCoverageReader(null, null);
+        long nativeArea = getArea(new ScaleToTarget(reader).getGridGeometry());
+        GridGeometryProvider provider = new GridGeometryProvider(reader, null, null, getCatalog());
+        long granulesArea = getArea(provider.getGridGeometry());
+        // the native resolution is the finest among the granules, an upper bound
+        assertTrue(granulesArea <= nativeArea);
+
+        assertTrue(estimateRaster(ci, nativeArea));
+        assertTrue(estimateRaster(ci, granulesArea));
+        assertFalse(estimateRaster(ci, granulesArea - 1));
+    }
+
+    /** Test the raster estimator on a non structured coverage, the native grid is all it checks */
+    @Test
+    public void testDownloadEstimatorNativeResolution() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MockData.USA_WORLDIMG));
+        GridCoverage2DReader reader = (GridCoverage2DReader) ci.getGridCoverageReader(null, null);
+        long nativeArea = getArea(new ScaleToTarget(reader).getGridGeometry());
+
+        assertTrue(estimateRaster(ci, nativeArea));
+        assertFalse(estimateRaster(ci, nativeArea - 1));
+    }
+
+    private long getArea(GridGeometry2D gg) {
+        return (long) gg.getGridRange2D().width * gg.getGridRange2D().height;
+    }
+
+    private boolean estimateRaster(CoverageInfo ci, long rasterSizeLimits) throws Exception {
+        DownloadServiceConfiguration limits =
+                new DownloadServiceConfiguration(
+                        DownloadServiceConfiguration.NO_LIMIT,
+                        rasterSizeLimits,
+                        DownloadServiceConfiguration.NO_LIMIT,
+                        DownloadServiceConfiguration.NO_LIMIT,
+                        DownloadServiceConfiguration.DEFAULT_COMPRESSION_LEVEL,
+                        DownloadServiceConfiguration.NO_LIMIT);
+        return new RasterEstimator(limits, getCatalog())
+                .execute(
+                        new NullProgressListener(), ci, null, null, false, null, null, null, null);
+    }
+
+    /**
+     * Test the tiles computed in parallel while encoding end up in the right place, comparing the
+     * whole coverage downloaded as PNG with the source one
+     */
+    @Test
+    public void testDownloadRasterPrefetchedTiles() throws Exception {
+        DownloadEstimatorProcess limits =
+                new DownloadEstimatorProcess(
+                        new StaticDownloadServiceConfiguration(), getGeoServer());
+        final WPSResourceManager resourceManager = getResourceManager();
+        DownloadProcess downloadProcess =
+                new DownloadProcess(getGeoServer(), limits, resourceManager);
+
+        File rasterZip =
+                downloadProcess.execute(
+                        getLayerId(MockData.USA_WORLDIMG), // layerName
+                        null, // filter
+                        "image/png", // outputFormat
+                        null, // targetCRS
+                        null, // roiCRS
+                        null, // roi
+                        false, // cropToGeometry
+                        null, // interpolation
+                        null, // targetSizeX
+                        null, // targetSizeY
+                        null, // bandSelectIndices
+                        null, // Writing params
+                        new NullProgressListener() // progressListener
+                        );
+        Assert.assertNotNull(rasterZip);
+
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MockData.USA_WORLDIMG));
+        GridCoverage2DReader reader = (GridCoverage2DReader) ci.getGridCoverageReader(null, null);
+        GridCoverage2D source = reader.read(null);
+        try {
+            final File[] files = extractFiles(rasterZip, "PNG");
+            Assert.assertNotNull(files);
+            Assert.assertTrue(files.length > 0);
+            BufferedImage expected =
+                    PlanarImage.wrapRenderedImage(source.getRenderedImage()).getAsBufferedImage();
+            BufferedImage actual = ImageIO.read(files[0]);
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        } finally {
+            CoverageCleanerCallback.disposeCoverage(source);
+            // clean up process
+            resourceManager.finished(resourceManager.getExecutionId(true));
+        }
+    }
+
     private WPSResourceManager getResourceManager() {
         return GeoServerExtensions.bean(WPSResourceManager.class);
     }
@@ -15,6 +15,7 @@ import java.util.Comparator;
 public class ControllerPriorityComparator implements Comparator<FlowController> {
 
     public int compare(FlowController o1, FlowController o2) {
-        return o1.getPriority() - o2.getPriority();
+        // priorities can be close to both ends of the int range, a subtraction would overflow
+        return Integer.compare(o1.getPriority(), o2.getPriority());
     }
 }
@@ -29,6 +29,7 @@ import org.geoserver.flow.controller.OWSRequestMatcher;
 import org.geoserver.flow.controller.PriorityProvider;
 import org.geoserver.flow.controller.PriorityThreadBlocker;
 import org.geoserver.flow.controller.RateFlowController;
+import org.geoserver.flow.controller.RenderingMemoryFlowController;
 import org.geoserver.flow.controller.SimpleThreadBlocker;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.ThreadBlocker;
@@ -169,6 +170,17 @@ public class DefaultControlFlowConfigurator
                 } else if (keys.length == 2) {
                     controller = new BasicOWSController(keys[1], queueSize, threadBlocker);
                 }
+            } else if ("wms".equals(keys[0]) && keys.length == 2 && "memory".equals(keys[1])) {
+                // global rendering memory budget, expressed in megabytes
+                long memoryKB = (long) queueSize * 1024;
+                if (memoryKB > Integer.MAX_VALUE) {
+                    LOGGER.warning(
+                            "Rendering memory budget too large, capping it to "
+                                    + Integer.MAX_VALUE
+                                    + "KB");
+                    memoryKB = Integer.MAX_VALUE;
+                }
+                controller = new RenderingMemoryFlowController((int) memoryKB);
             } else if ("user".equals(keys[0])) {
                 if (keys.length == 1) {
                     controller = new UserConcurrentFlowController(queueSize);
@@ -0,0 +1,178 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Memory budget based blocker, each request acquires from a global budget as many kilobytes as its
+ * estimated memory usage, and gets blocked if the budget is exhausted. Requests are served in
+ * arrival order, requests that would not fit in the budget even when no other request is running
+ * are rejected immediately with a 503 error code.
+ */
+public class MemoryThreadBlocker implements ThreadBlocker {
+
+    static final Logger LOGGER = Logging.getLogger(MemoryThreadBlocker.class);
+
+    static final long KB = 1024;
+
+    private final RequestMemoryEstimator estimator;
+
+    private final int maxMemoryKB;
+
+    private final Semaphore budget;
+
+    // the kilobytes acquired by each request, requestComplete can be called also for requests
+    // that never went through requestIncoming, or that timed out, so we need to track them
+    private final Map<Request, Integer> running =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong waitCount = new AtomicLong();
+
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Builds a new memory blocker
+     *
+     * @param maxMemoryKB The global memory budget, in kilobytes
+     * @param estimator The request memory estimator
+     */
+    public MemoryThreadBlocker(int maxMemoryKB, RequestMemoryEstimator estimator) {
+        if (maxMemoryKB <= 0) {
+            throw new IllegalArgumentException("The memory budget must be a positive number");
+        }
+        this.maxMemoryKB = maxMemoryKB;
+        this.estimator = estimator;
+        this.budget = new Semaphore(maxMemoryKB, true);
+    }
+
+    @Override
+    public boolean requestIncoming(Request request, long timeout) throws InterruptedException {
+        int permits = getPermits(request);
+        if (permits > maxMemoryKB) {
+            // no point in waiting, it would not run even with the whole budget available
+            rejected.incrementAndGet();
+            throw new HttpErrorCodeException(
+                    503,
+                    "Request would use "
+                            + permits
+                            + "KB, more than the whole rendering memory budget of "
+                            + maxMemoryKB
+                            + "KB");
+        }
+
+        boolean acquired;
+        long start = System.currentTimeMillis();
+        waiting.incrementAndGet();
+        try {
+            if (timeout > 0) {
+                acquired = budget.tryAcquire(permits, timeout, TimeUnit.MILLISECONDS);
+            } else {
+                budget.acquire(permits);
+                acquired = true;
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+        updateWaitStatistics(System.currentTimeMillis() - start);
+
+        if (acquired) {
+            running.put(request, permits);
+        } else {
+            rejected.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(
+                        "Request ["
+                                + request
+                                + "] timed out waiting for "
+                                + permits
+                                + "KB of rendering memory");
+            }
+        }
+        return acquired;
+    }
+
+    private int getPermits(Request request) {
+        long memory = estimator.getMemoryUse(request);
+        // round up, and make every request count at least one kilobyte
+        long kb = Math.max(1, (memory + KB - 1) / KB);
+        return (int) Math.min(Integer.MAX_VALUE, kb);
+    }
+
+    private void updateWaitStatistics(long elapsed) {
+        waitCount.incrementAndGet();
+        totalWaitTime.addAndGet(elapsed);
+        long max = maxWaitTime.get();
+        while (elapsed > max && !maxWaitTime.compareAndSet(max, elapsed)) {
+            max = maxWaitTime.get();
+        }
+    }
+
+    @Override
+    public void requestComplete(Request request) {
+        Integer permits = running.remove(request);
+        if (permits != null) {
+            budget.release(permits);
+        }
+    }
+
+    @Override
+    public int getRunningRequestsCount() {
+        return running.size();
+    }
+
+    /** Returns the number of requests currently waiting for memory to be available */
+    public int getQueueSize() {
+        return waiting.get();
+    }
+
+    /** Returns the global memory budget, in kilobytes */
+    public int getMaxMemoryKB() {
+        return maxMemoryKB;
+    }
+
+    /** Returns the memory currently allocated to running requests, in kilobytes */
+    public int getUsedMemoryKB() {
+        return maxMemoryKB - budget.availablePermits();
+    }
+
+    /** Returns the number of requests rejected so far, either for size or timeout */
+    public long getRejectedRequestsCount() {
+        return rejected.get();
+    }
+
+    /** Returns the maximum time a request waited for memory to be available, in milliseconds */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /** Returns the average time requests waited for memory to be available, in milliseconds */
+    public long getAverageWaitTime() {
+        long count = waitCount.get();
+        return count > 0 ? totalWaitTime.get() / count : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryThreadBlocker(" + maxMemoryKB + "KB)";
+    }
+}
@@ -0,0 +1,68 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.map.ImageUtils;
+
+/**
+ * Estimates the memory used by GetMap and GetLegendGraphic requests based on the size of the
+ * drawing surface they are going to allocate, as computed by {@link
+ * ImageUtils#getDrawingSurfaceMemoryUse(int, int, java.awt.image.IndexColorModel, boolean)}.
+ * Estimates are capped to {@link WMS#getMaxRequestMemory()}, as requests going beyond it are going
+ * to be rejected by the renderer anyways.
+ */
+public class RenderingMemoryEstimator implements RequestMemoryEstimator {
+
+    static final long KB = 1024;
+
+    WMS wms;
+
+    public RenderingMemoryEstimator() {
+        this(GeoServerExtensions.bean(WMS.class));
+    }
+
+    public RenderingMemoryEstimator(WMS wms) {
+        this.wms = wms;
+    }
+
+    @Override
+    public long getMemoryUse(Request request) {
+        Operation operation = request.getOperation();
+        if (operation == null
+                || operation.getParameters() == null
+                || operation.getParameters().length == 0) {
+            return 0;
+        }
+
+        Object parameter = operation.getParameters()[0];
+        long memory = 0;
+        if (parameter instanceof GetMapRequest) {
+            GetMapRequest getMap = (GetMapRequest) parameter;
+            memory =
+                    ImageUtils.getDrawingSurfaceMemoryUse(
+                            getMap.getWidth(), getMap.getHeight(), null, getMap.isTransparent());
+        } else if (parameter instanceof GetLegendGraphicRequest) {
+            GetLegendGraphicRequest legend = (GetLegendGraphicRequest) parameter;
+            memory =
+                    ImageUtils.getDrawingSurfaceMemoryUse(
+                            legend.getWidth(), legend.getHeight(), null, legend.isTransparent());
+        }
+
+        if (wms != null) {
+            long maxMemory = wms.getMaxRequestMemory() * KB;
+            if (maxMemory > 0 && memory > maxMemory) {
+                memory = maxMemory;
+            }
+        }
+
+        return memory;
+    }
+}
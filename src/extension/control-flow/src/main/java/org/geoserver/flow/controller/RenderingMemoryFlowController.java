@@ -0,0 +1,38 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import com.google.common.base.Predicates;
+
+/**
+ * A flow controller limiting the total amount of memory used by concurrent GetMap and
+ * GetLegendGraphic requests. Runs after all the controllers limiting the number of concurrent
+ * requests, so that memory is reserved only by requests that are otherwise ready to execute.
+ */
+public class RenderingMemoryFlowController extends SingleQueueFlowController {
+
+    public RenderingMemoryFlowController(int maxMemoryKB) {
+        this(new MemoryThreadBlocker(maxMemoryKB, new RenderingMemoryEstimator()));
+    }
+
+    public RenderingMemoryFlowController(MemoryThreadBlocker blocker) {
+        super(
+                Predicates.or(
+                        new OWSRequestMatcher("WMS", "GetMap"),
+                        new OWSRequestMatcher("WMS", "GetLegendGraphic")),
+                Integer.MAX_VALUE,
+                blocker);
+    }
+
+    @Override
+    public MemoryThreadBlocker getBlocker() {
+        return (MemoryThreadBlocker) blocker;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderingMemoryFlowController(" + blocker + ")";
+    }
+}
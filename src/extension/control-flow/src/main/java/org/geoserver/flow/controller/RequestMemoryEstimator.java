@@ -0,0 +1,19 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/** Estimates the amount of memory a request is going to use while being processed */
+public interface RequestMemoryEstimator {
+
+    /**
+     * Returns the estimated memory usage of the request, in bytes
+     *
+     * @param request the request, with its operation already set
+     * @return the estimated memory usage, or zero if no estimate can be provided
+     */
+    long getMemoryUse(Request request);
+}
@@ -24,6 +24,7 @@ import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpRequestMatcher;
 import org.geoserver.flow.controller.PriorityThreadBlocker;
 import org.geoserver.flow.controller.RateFlowController;
+import org.geoserver.flow.controller.RenderingMemoryFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.ThreadBlocker;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
@@ -160,6 +161,42 @@ public class DefaultControlFlowConfigurationTest {
         checkPriorityParsing(p);
     }
 
+    @Test
+    public void testParsingMemory() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.wms.getmap", "8");
+        p.put("wms.memory", "512");
+        p.put("user.ows.wms.getmap", "20/s");
+
+        DefaultControlFlowConfigurator configurator =
+                new DefaultControlFlowConfigurator(new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+        assertEquals(3, controllers.size());
+
+        // the memory controller is always the last one to be called, after the rate limiters
+        assertTrue(controllers.get(0) instanceof RateFlowController);
+        assertTrue(controllers.get(1) instanceof BasicOWSController);
+        assertTrue(controllers.get(2) instanceof RenderingMemoryFlowController);
+        RenderingMemoryFlowController memoryController =
+                (RenderingMemoryFlowController) controllers.get(2);
+        assertEquals(512 * 1024, memoryController.getBlocker().getMaxMemoryKB());
+    }
+
+    @Test
+    public void testParsingHugeMemory() throws Exception {
+        Properties p = new Properties();
+        p.put("wms.memory", String.valueOf(Integer.MAX_VALUE));
+
+        DefaultControlFlowConfigurator configurator =
+                new DefaultControlFlowConfigurator(new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        RenderingMemoryFlowController memoryController =
+                (RenderingMemoryFlowController) controllers.get(0);
+        assertEquals(Integer.MAX_VALUE, memoryController.getBlocker().getMaxMemoryKB());
+    }
+
     private void checkPriorityParsing(Properties p) throws Exception {
         DefaultControlFlowConfigurator configurator =
                 new DefaultControlFlowConfigurator(new FixedWatcher(p));
@@ -0,0 +1,124 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class RenderingMemoryFlowControllerTest extends AbstractFlowControllerTest {
+
+    /** Uses the request version as the memory estimate, in kilobytes */
+    static final RequestMemoryEstimator SIZE_ESTIMATOR =
+            request -> Long.parseLong(request.getVersion()) * 1024;
+
+    @Test
+    public void testMatching() {
+        RenderingMemoryFlowController controller =
+                new RenderingMemoryFlowController(new MemoryThreadBlocker(10, SIZE_ESTIMATOR));
+        assertTrue(controller.getMatcher().apply(buildRequest("WMS", "GetMap", "1")));
+        assertTrue(controller.getMatcher().apply(buildRequest("WMS", "GetLegendGraphic", "1")));
+        assertFalse(controller.getMatcher().apply(buildRequest("WMS", "GetFeatureInfo", "1")));
+        assertFalse(controller.getMatcher().apply(buildRequest("WFS", "GetFeature", "1")));
+    }
+
+    @Test
+    public void testRejectOversized() throws Exception {
+        MemoryThreadBlocker blocker = new MemoryThreadBlocker(10, SIZE_ESTIMATOR);
+        RenderingMemoryFlowController controller = new RenderingMemoryFlowController(blocker);
+
+        Request request = buildRequest("WMS", "GetMap", "11");
+        try {
+            controller.requestIncoming(request, 100);
+            fail("Should have rejected the request");
+        } catch (HttpErrorCodeException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        assertEquals(1, blocker.getRejectedRequestsCount());
+        assertEquals(0, blocker.getUsedMemoryKB());
+        // releasing a request that never acquired memory does not alter the budget
+        controller.requestComplete(request);
+        assertEquals(0, blocker.getUsedMemoryKB());
+    }
+
+    @Test
+    public void testWeightedBlocking() throws Exception {
+        MemoryThreadBlocker blocker = new MemoryThreadBlocker(10, SIZE_ESTIMATOR);
+        RenderingMemoryFlowController controller = new RenderingMemoryFlowController(blocker);
+
+        // t1 and t2 fit together in the budget, t3 has to wait for t1 to complete
+        FlowControllerTestingThread t1 =
+                new FlowControllerTestingThread(
+                        buildRequest("WMS", "GetMap", "6"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 =
+                new FlowControllerTestingThread(
+                        buildRequest("WMS", "GetMap", "4"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 =
+                new FlowControllerTestingThread(
+                        buildRequest("WMS", "GetMap", "5"), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(10, blocker.getUsedMemoryKB());
+            assertEquals(1, blocker.getQueueSize());
+
+            // let t1 go, this frees enough memory for t3
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t3, MAX_WAIT);
+            assertEquals(9, blocker.getUsedMemoryKB());
+            assertEquals(0, blocker.getQueueSize());
+
+            t2.interrupt();
+            t3.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            waitTerminated(t3, MAX_WAIT);
+            assertEquals(0, blocker.getUsedMemoryKB());
+            assertEquals(0, blocker.getRunningRequestsCount());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        MemoryThreadBlocker blocker = new MemoryThreadBlocker(10, SIZE_ESTIMATOR);
+        RenderingMemoryFlowController controller = new RenderingMemoryFlowController(blocker);
+
+        Request r1 = buildRequest("WMS", "GetMap", "8");
+        Request r2 = buildRequest("WMS", "GetMap", "8");
+        assertTrue(controller.requestIncoming(r1, 100));
+        assertFalse(controller.requestIncoming(r2, 100));
+        assertTrue(blocker.getMaxWaitTime() > 0);
+        controller.requestComplete(r2);
+        assertEquals(8, blocker.getUsedMemoryKB());
+        controller.requestComplete(r1);
+        assertEquals(0, blocker.getUsedMemoryKB());
+    }
+
+    private Request buildRequest(String service, String method, String kilobytes) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(method);
+        request.setVersion(kilobytes);
+        return request;
+    }
+}
@@ -43,6 +43,7 @@ import org.geoserver.catalog.StyleHandler;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.Styles;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersister.CRSConverter;
@@ -1226,6 +1227,7 @@ public class Importer implements DisposableBean, ApplicationListener {
         if (data instanceof SpatialFile) {
             SpatialFile sf = (SpatialFile) data;
             List<HarvestedSource> harvests = sr.harvest(null, sf.getFile(), null);
+            ReaderDimensionsAccessor.clearDomainCache(sr.getSource());
             checkSingleHarvest(harvests);
         } else if (data instanceof Directory) {
             harvestDirectory(sr, (Directory) data);
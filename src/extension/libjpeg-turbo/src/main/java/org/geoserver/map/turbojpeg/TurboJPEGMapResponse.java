@@ -16,9 +16,10 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.JPEGMapResponse;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.springframework.beans.factory.DisposableBean;
 
 /** @author Simone Giannecchini, GeoSolutions SAS */
-public class TurboJPEGMapResponse extends RenderedImageMapResponse {
+public class TurboJPEGMapResponse extends RenderedImageMapResponse implements DisposableBean {
 
     /** Logger. */
     private static final Logger LOGGER =
@@ -29,6 +30,9 @@ public class TurboJPEGMapResponse extends RenderedImageMapResponse {
 
     private static final boolean DISABLE_TURBO = Boolean.getBoolean("disable.turbojpeg");
 
+    private static final boolean DISABLE_ENCODER_POOL =
+            Boolean.getBoolean("disable.turbojpeg.pool");
+
     public static boolean isDisabled() {
         return DISABLE_TURBO;
     }
@@ -93,6 +97,21 @@ public class TurboJPEGMapResponse extends RenderedImageMapResponse {
             LOGGER.fine("About to write a JPEG image using libjpeg-turbo");
         }
         float quality = (100 - wms.getJpegCompression()) / 100.0f;
+        // try the pooled encoder first, it handles directly the common RGB/gray byte images
+        if (!DISABLE_ENCODER_POOL) {
+            TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+            try {
+                if (encoder.write(image, quality, outStream)) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("Writing a JPEG done using the pooled encoder");
+                    }
+                    return;
+                }
+            } finally {
+                TurboJpegEncoder.release(encoder);
+            }
+        }
+
         TurboJpegImageWorker iw = null;
         try {
             iw = new TurboJpegImageWorker(image);
@@ -123,4 +142,10 @@ public class TurboJPEGMapResponse extends RenderedImageMapResponse {
     public String getExtension(RenderedImage image, WMSMapContent mapContent) {
         return "jpg";
     }
+
+    /** Closes the native compressors of the pooled encoders */
+    @Override
+    public void destroy() {
+        TurboJpegEncoder.disposeAll();
+    }
 }
@@ -0,0 +1,341 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.map.turbojpeg;
+
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geotools.util.logging.Logging;
+import org.libjpegturbo.turbojpeg.TJ;
+import org.libjpegturbo.turbojpeg.TJCompressor;
+
+/**
+ * A reusable libjpeg-turbo encoder, calling the native compressor directly instead of going through
+ * the ImageIO writer lookup and setup for each image. Encoders are not thread safe, callers borrow
+ * one with {@link #acquire()} and give it back with {@link #release(TurboJpegEncoder)}. A small
+ * bounded number of idle encoders, along with their native compressor and buffers, is kept for
+ * reuse, the others are closed as soon as they are released.
+ *
+ * <p>Byte images with a pixel interleaved layout matching one of the libjpeg-turbo pixel formats
+ * are handed to the compressor without copying their pixels, other RGB and gray byte images are
+ * copied into a reused buffer first. Any other image is not supported, callers are supposed to fall
+ * back on {@link TurboJpegImageWorker} in that case.
+ */
+final class TurboJpegEncoder {
+
+    private static final Logger LOGGER = Logging.getLogger(TurboJpegEncoder.class);
+
+    /**
+     * Buffers larger than this are not kept around between calls, so that a single large map does
+     * not make the pool hold onto lots of memory forever
+     */
+    static final int MAX_POOLED_BUFFER_SIZE =
+            Integer.getInteger("org.geoserver.turbojpeg.maxPooledBuffer", 16 * 1024 * 1024);
+
+    /** Maximum number of idle encoders kept around, defaults to the number of processors */
+    static final int POOL_SIZE =
+            Math.max(
+                    1,
+                    Integer.getInteger(
+                            "org.geoserver.turbojpeg.poolSize",
+                            Runtime.getRuntime().availableProcessors()));
+
+    private static final BlockingQueue<TurboJpegEncoder> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private TJCompressor compressor;
+
+    private int quality = -1;
+
+    private int subsampling = -1;
+
+    private byte[] pixels = new byte[0];
+
+    private byte[] output = new byte[0];
+
+    /**
+     * Borrows an idle encoder from the pool, or creates a new one if none is available. The encoder
+     * must be given back with {@link #release(TurboJpegEncoder)} once done.
+     */
+    static TurboJpegEncoder acquire() {
+        TurboJpegEncoder encoder = POOL.poll();
+        return encoder != null ? encoder : new TurboJpegEncoder();
+    }
+
+    /** Gives back an encoder to the pool, closing it if the pool is already full */
+    static void release(TurboJpegEncoder encoder) {
+        if (!POOL.offer(encoder)) {
+            encoder.dispose();
+        }
+    }
+
+    /** Closes all the idle encoders, releasing their native resources */
+    static void disposeAll() {
+        List<TurboJpegEncoder> encoders = new ArrayList<>();
+        POOL.drainTo(encoders);
+        for (TurboJpegEncoder encoder : encoders) {
+            encoder.dispose();
+        }
+    }
+
+    /** Returns the number of idle encoders in the pool */
+    static int getPooledCount() {
+        return POOL.size();
+    }
+
+    /**
+     * Encodes the image and writes it to the output stream
+     *
+     * @param image the image to encode
+     * @param compressionRate the compression quality, between 0 and 1
+     * @param destination the output stream
+     * @return true if the image was encoded, false if its structure is not supported
+     */
+    boolean write(RenderedImage image, float compressionRate, OutputStream destination)
+            throws IOException {
+        ByteBuffer encoded = encode(image, compressionRate);
+        if (encoded == null) {
+            return false;
+        }
+        destination.write(
+                encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        return true;
+    }
+
+    /**
+     * Encodes the image in JPEG. The returned buffer is backed by memory owned by this encoder, and
+     * is valid only until the next call, or until the encoder is released
+     *
+     * @param image the image to encode
+     * @param compressionRate the compression quality, between 0 and 1
+     * @return the encoded image, or null if the image structure is not supported
+     */
+    ByteBuffer encode(RenderedImage image, float compressionRate) throws IOException {
+        if (compressionRate < 0 || compressionRate > 1) {
+            throw new IllegalArgumentException(
+                    "Compression rate must be between 0 and 1, was " + compressionRate);
+        }
+        int numBands = getSupportedBands(image);
+        if (numBands < 0) {
+            return null;
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        byte[] data;
+        int pitch;
+        Raster raster = getSingleRaster(image);
+        int pixelFormat = raster != null ? getPixelFormat(raster, numBands) : -1;
+        if (pixelFormat >= 0) {
+            // direct path, hand over the image own pixels
+            data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            pitch = ((PixelInterleavedSampleModel) raster.getSampleModel()).getScanlineStride();
+        } else {
+            // copy the pixels in a reused buffer, in band order
+            pitch = width * numBands;
+            data = getPixelBuffer(pitch * height);
+            int[] bandOffsets = new int[numBands];
+            for (int i = 0; i < numBands; i++) {
+                bandOffsets[i] = i;
+            }
+            WritableRaster target =
+                    Raster.createInterleavedRaster(
+                            new DataBufferByte(data, pitch * height),
+                            width,
+                            height,
+                            pitch,
+                            numBands,
+                            bandOffsets,
+                            new Point(image.getMinX(), image.getMinY()));
+            image.copyData(target);
+            pixelFormat = numBands == 1 ? TJ.PF_GRAY : numBands == 3 ? TJ.PF_RGB : TJ.PF_RGBX;
+        }
+
+        int jpegSubsampling = numBands == 1 ? TJ.SAMP_GRAY : TJ.SAMP_420;
+        try {
+            TJCompressor compressor = getCompressor(compressionRate, jpegSubsampling);
+            compressor.setSourceImage(data, width, pitch, height, pixelFormat);
+            byte[] target = getOutputBuffer(TJ.bufSize(width, height, jpegSubsampling));
+            compressor.compress(target, 0);
+            return ByteBuffer.wrap(target, 0, compressor.getCompressedSize());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // the compressor is in an unknown state, build a new one next time
+            disposeCompressor();
+            throw new IOException("Failed to encode the image with libjpeg-turbo", e);
+        } finally {
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * Returns the number of bands to be encoded (1 for gray, 3 for RGB, 4 for RGB plus alpha, the
+     * latter being ignored), or -1 if the image cannot be handled
+     */
+    private int getSupportedBands(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (!(cm instanceof ComponentColorModel)
+                || cm.isAlphaPremultiplied()
+                || sm.getDataType() != DataBuffer.TYPE_BYTE
+                || image.getWidth() == 0
+                || image.getHeight() == 0) {
+            return -1;
+        }
+        int numBands = sm.getNumBands();
+        int colorSpaceType = cm.getColorSpace().getType();
+        if (numBands == 1 && colorSpaceType == ColorSpace.TYPE_GRAY) {
+            return 1;
+        } else if (colorSpaceType == ColorSpace.TYPE_RGB
+                && (numBands == 3 || (numBands == 4 && cm.hasAlpha()))) {
+            return numBands;
+        }
+        return -1;
+    }
+
+    /** Returns the image raster if the image is made of a single tile, null otherwise */
+    private Raster getSingleRaster(RenderedImage image) {
+        Raster raster;
+        if (image instanceof BufferedImage) {
+            raster = ((BufferedImage) image).getRaster();
+        } else if (image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+            raster = image.getTile(image.getMinTileX(), image.getMinTileY());
+        } else {
+            return null;
+        }
+        // the tile might be larger than the image, or be a child of a larger raster
+        if (raster.getMinX() != image.getMinX()
+                || raster.getMinY() != image.getMinY()
+                || raster.getWidth() != image.getWidth()
+                || raster.getHeight() != image.getHeight()
+                || raster.getSampleModelTranslateX() != raster.getMinX()
+                || raster.getSampleModelTranslateY() != raster.getMinY()) {
+            return null;
+        }
+        return raster;
+    }
+
+    /**
+     * Returns the libjpeg-turbo pixel format matching the raster layout, or -1 if the raster cannot
+     * be passed as is to the compressor
+     */
+    private int getPixelFormat(Raster raster, int numBands) {
+        if (!(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || raster.getDataBuffer().getNumBanks() != 1
+                || raster.getDataBuffer().getOffset() != 0) {
+            return -1;
+        }
+        PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+        if (sm.getPixelStride() != numBands) {
+            return -1;
+        }
+        // band offsets are listed in color model order, that is, R, G, B and eventually A
+        int[] offsets = sm.getBandOffsets();
+        if (numBands == 1 && offsets[0] == 0) {
+            return TJ.PF_GRAY;
+        } else if (numBands == 3) {
+            if (Arrays.equals(offsets, new int[] {0, 1, 2})) {
+                return TJ.PF_RGB;
+            } else if (Arrays.equals(offsets, new int[] {2, 1, 0})) {
+                return TJ.PF_BGR;
+            }
+        } else if (numBands == 4) {
+            if (Arrays.equals(offsets, new int[] {0, 1, 2, 3})) {
+                return TJ.PF_RGBX;
+            } else if (Arrays.equals(offsets, new int[] {2, 1, 0, 3})) {
+                return TJ.PF_BGRX;
+            } else if (Arrays.equals(offsets, new int[] {3, 2, 1, 0})) {
+                return TJ.PF_XBGR;
+            } else if (Arrays.equals(offsets, new int[] {1, 2, 3, 0})) {
+                return TJ.PF_XRGB;
+            }
+        }
+        return -1;
+    }
+
+    private TJCompressor getCompressor(float compressionRate, int jpegSubsampling)
+            throws Exception {
+        if (compressor == null) {
+            compressor = new TJCompressor();
+            quality = -1;
+            subsampling = -1;
+        }
+        // quality tables are recomputed by libjpeg-turbo only when the settings change
+        int jpegQuality = Math.max(1, Math.min(100, Math.round(compressionRate * 100)));
+        if (jpegQuality != quality) {
+            compressor.setJPEGQuality(jpegQuality);
+            quality = jpegQuality;
+        }
+        if (jpegSubsampling != subsampling) {
+            compressor.setSubsamp(jpegSubsampling);
+            subsampling = jpegSubsampling;
+        }
+        return compressor;
+    }
+
+    /** Closes the native compressor and drops the buffers */
+    void dispose() {
+        disposeCompressor();
+        pixels = new byte[0];
+        output = new byte[0];
+    }
+
+    private void disposeCompressor() {
+        if (compressor != null) {
+            try {
+                compressor.close();
+            } catch (Exception e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Failed to close the turbo jpeg compressor", e);
+                }
+            }
+            compressor = null;
+        }
+    }
+
+    private byte[] getPixelBuffer(int size) {
+        if (pixels.length < size) {
+            pixels = new byte[size];
+        }
+        return pixels;
+    }
+
+    private byte[] getOutputBuffer(int size) {
+        if (output.length < size) {
+            output = new byte[size];
+        }
+        return output;
+    }
+
+    /** Drops the buffers that grew past the pooling limit */
+    private void releaseBuffers() {
+        if (pixels.length > MAX_POOLED_BUFFER_SIZE) {
+            pixels = new byte[0];
+        }
+        if (output.length > MAX_POOLED_BUFFER_SIZE) {
+            output = new byte[0];
+        }
+    }
+}
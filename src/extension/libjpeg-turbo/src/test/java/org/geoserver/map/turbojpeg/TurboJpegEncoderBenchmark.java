@@ -0,0 +1,151 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.map.turbojpeg;
+
+import it.geosolutions.imageio.plugins.turbojpeg.TurboJpegUtilities;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the throughput of the pooled {@link TurboJpegEncoder} with the {@link
+ * TurboJpegImageWorker} on map-like tiles, reporting tiles per second per core. Not a unit test,
+ * run it manually from the IDE or with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.geoserver.map.turbojpeg.TurboJpegEncoderBenchmark
+ * </pre>
+ */
+public class TurboJpegEncoderBenchmark {
+
+    static final int WARMUP_SECONDS = 5;
+
+    static final int RUN_SECONDS = 10;
+
+    static final float QUALITY = 0.75f;
+
+    interface Encoder {
+        void encode(BufferedImage image, OutputStream out) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (!TurboJpegUtilities.isTurboJpegAvailable()) {
+            System.err.println(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        Encoder pooled =
+                (image, out) -> {
+                    TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+                    try {
+                        encoder.write(image, QUALITY, out);
+                    } finally {
+                        TurboJpegEncoder.release(encoder);
+                    }
+                };
+        Encoder worker =
+                (image, out) -> {
+                    TurboJpegImageWorker iw = new TurboJpegImageWorker(image);
+                    iw.writeTurboJPEG(out, QUALITY);
+                    iw.dispose();
+                };
+
+        System.out.println("Threads: " + threads);
+        try {
+            for (int size : new int[] {256, 512}) {
+                BufferedImage tile = buildTile(size);
+                report("worker", size, threads, run(worker, tile, threads));
+                report("pooled", size, threads, run(pooled, tile, threads));
+            }
+        } finally {
+            TurboJpegEncoder.disposeAll();
+        }
+    }
+
+    static void report(String name, int size, int threads, long tiles) {
+        double perSecond = tiles / (double) RUN_SECONDS;
+        System.out.println(
+                String.format(
+                        "%s %dx%d: %.1f tiles/s, %.1f tiles/s/core",
+                        name, size, size, perSecond, perSecond / threads));
+    }
+
+    static long run(Encoder encoder, BufferedImage tile, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            execute(encoder, tile, threads, executor, WARMUP_SECONDS);
+            return execute(encoder, tile, threads, executor, RUN_SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static long execute(
+            Encoder encoder,
+            BufferedImage tile,
+            int threads,
+            ExecutorService executor,
+            int seconds)
+            throws Exception {
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Callable<Long> task =
+                    () -> {
+                        long count = 0;
+                        NullOutputStream out = new NullOutputStream();
+                        while (System.currentTimeMillis() < end) {
+                            encoder.encode(tile, out);
+                            count++;
+                        }
+                        return count;
+                    };
+            futures.add(executor.submit(task));
+        }
+        long total = 0;
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    /** Builds a tile resembling a rendered map, antialiased shapes over a background */
+    static BufferedImage buildTile(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(230, 230, 210));
+        g.fillRect(0, 0, size, size);
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            g.drawLine(x, y, x + random.nextInt(64) - 32, y + random.nextInt(64) - 32);
+        }
+        g.dispose();
+        return image;
+    }
+
+    static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    }
+}
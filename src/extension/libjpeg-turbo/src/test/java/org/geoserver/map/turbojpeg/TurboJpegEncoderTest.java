@@ -0,0 +1,203 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.map.turbojpeg;
+
+import it.geosolutions.imageio.plugins.turbojpeg.TurboJpegUtilities;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.FormatDescriptor;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests the pooled {@link TurboJpegEncoder} */
+public class TurboJpegEncoderTest extends Assert {
+
+    static final Logger LOGGER = Logger.getLogger(TurboJpegEncoderTest.class.toString());
+
+    static boolean SKIP_TESTS = false;
+
+    @BeforeClass
+    public static void setup() {
+        SKIP_TESTS = !TurboJpegUtilities.isTurboJpegAvailable();
+    }
+
+    @Test
+    public void testDirectBGR() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        assertEncodedMatches(buildImage(BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Test
+    public void testDirectABGR() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        assertEncodedMatches(buildImage(BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void testDirectGray() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        assertEncodedMatches(buildImage(BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    @Test
+    public void testCopyTiled() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        // a multi-tile image, goes through the copy path
+        BufferedImage source = buildImage(BufferedImage.TYPE_3BYTE_BGR);
+        ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(64);
+        layout.setTileHeight(64);
+        RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+        RenderedOp tiled = FormatDescriptor.create(source, DataBuffer.TYPE_BYTE, hints);
+        assertTrue(tiled.getNumXTiles() > 1);
+        assertEncodedMatches(tiled);
+    }
+
+    @Test
+    public void testUnsupported() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        byte[] gray = new byte[256];
+        for (int i = 0; i < gray.length; i++) {
+            gray[i] = (byte) i;
+        }
+        IndexColorModel icm = new IndexColorModel(8, 256, gray, gray, gray);
+        BufferedImage indexed = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+        try {
+            assertNull(encoder.encode(indexed, 0.75f));
+            assertFalse(encoder.write(indexed, 0.75f, new ByteArrayOutputStream()));
+        } finally {
+            TurboJpegEncoder.release(encoder);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQuality() throws IOException {
+        TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+        try {
+            encoder.encode(buildImage(BufferedImage.TYPE_3BYTE_BGR), 1.5f);
+        } finally {
+            TurboJpegEncoder.release(encoder);
+        }
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        if (SKIP_TESTS) {
+            LOGGER.warning(TurboImageWorkerTest.ERROR_LIB_MESSAGE);
+            return;
+        }
+        // the encoder keeps working across quality changes, and is reused once released
+        TurboJpegEncoder.disposeAll();
+        TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+        BufferedImage image = buildImage(BufferedImage.TYPE_3BYTE_BGR);
+        int low = encoder.encode(image, 0.2f).remaining();
+        int high = encoder.encode(image, 0.95f).remaining();
+        assertTrue(low < high);
+        TurboJpegEncoder.release(encoder);
+        TurboJpegEncoder reused = TurboJpegEncoder.acquire();
+        assertSame(encoder, reused);
+        assertEquals(high, reused.encode(image, 0.95f).remaining());
+        TurboJpegEncoder.release(reused);
+    }
+
+    @Test
+    public void testPoolBounded() throws IOException {
+        TurboJpegEncoder.disposeAll();
+        // borrow more encoders than the pool can hold, they are all distinct
+        List<TurboJpegEncoder> encoders = new ArrayList<>();
+        for (int i = 0; i < TurboJpegEncoder.POOL_SIZE + 2; i++) {
+            TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+            assertFalse(encoders.contains(encoder));
+            encoders.add(encoder);
+        }
+        // only up to the pool size is kept once given back
+        for (TurboJpegEncoder encoder : encoders) {
+            TurboJpegEncoder.release(encoder);
+        }
+        assertEquals(TurboJpegEncoder.POOL_SIZE, TurboJpegEncoder.getPooledCount());
+        // and nothing is kept after disposal
+        TurboJpegEncoder.disposeAll();
+        assertEquals(0, TurboJpegEncoder.getPooledCount());
+    }
+
+    private BufferedImage buildImage(int type) {
+        BufferedImage image = new BufferedImage(256, 256, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 256, 256);
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 128, 128);
+        g.setColor(Color.BLUE);
+        g.fillOval(128, 128, 128, 128);
+        g.dispose();
+        return image;
+    }
+
+    private void assertEncodedMatches(RenderedImage image) throws IOException {
+        BufferedImage decoded;
+        TurboJpegEncoder encoder = TurboJpegEncoder.acquire();
+        try {
+            ByteBuffer encoded = encoder.encode(image, 0.9f);
+            assertNotNull(encoded);
+            decoded =
+                    ImageIO.read(
+                            new ByteArrayInputStream(
+                                    encoded.array(), encoded.arrayOffset(), encoded.remaining()));
+        } finally {
+            TurboJpegEncoder.release(encoder);
+        }
+        assertNotNull(decoded);
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+
+        // check colors in the middle of the uniform areas, away from compression artifacts
+        BufferedImage reference = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        reference.createGraphics().drawRenderedImage(image, null);
+        assertSimilar(reference.getRGB(64, 64), decoded.getRGB(64, 64));
+        assertSimilar(reference.getRGB(192, 64), decoded.getRGB(192, 64));
+        assertSimilar(reference.getRGB(192, 192), decoded.getRGB(192, 192));
+    }
+
+    private void assertSimilar(int expected, int actual) {
+        Color ce = new Color(expected);
+        Color ca = new Color(actual);
+        assertEquals(ce.getRed(), ca.getRed(), 8);
+        assertEquals(ce.getGreen(), ca.getGreen(), 8);
+        assertEquals(ce.getBlue(), ca.getBlue(), 8);
+    }
+}
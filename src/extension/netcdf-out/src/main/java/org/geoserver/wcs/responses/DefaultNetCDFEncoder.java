@@ -9,16 +9,29 @@ import it.geosolutions.jaiext.range.NoDataContainer;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import javax.measure.UnconvertibleException;
 import javax.measure.Unit;
 import javax.measure.UnitConverter;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wcs.responses.NetCDFDimensionsManager.NetCDFDimensionMapping;
 import org.geoserver.wcs2_0.response.GranuleStack;
 import org.geoserver.web.netcdf.DataPacking;
@@ -49,6 +62,15 @@ import ucar.nc2.dataset.NetcdfDataset;
  */
 public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
 
+    /**
+     * Number of slices filled at the same time, set with the {@code NETCDF_ENCODER_THREADS} system
+     * variable, using one disables the parallel filling. Not final for testing purposes.
+     */
+    static volatile int sliceThreads = getSliceThreads();
+
+    /** Shared by all the encoders, the writes to the file stay in the request thread */
+    private static volatile ExecutorService sliceExecutor = createSliceExecutor(sliceThreads);
+
     /** The user supplied variableName */
     private String variableName;
 
@@ -87,6 +109,50 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
         super(granuleStack, file, encodingParameters, outputFormat);
     }
 
+    private static int getSliceThreads() {
+        String value = GeoServerExtensions.getProperty("NETCDF_ENCODER_THREADS");
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid NETCDF_ENCODER_THREADS value: " + value);
+            }
+        }
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static ExecutorService createSliceExecutor(int threads) {
+        if (threads <= 1) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            String name = "NetCDF slice encoder " + count.incrementAndGet();
+                            Thread thread = new Thread(r, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Changes the number of slices filled at the same time, for testing purposes */
+    static synchronized void setSliceThreads(int threads) {
+        ExecutorService previous = sliceExecutor;
+        sliceExecutor = createSliceExecutor(threads);
+        sliceThreads = Math.max(1, threads);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
     @Override
     protected void initializeFromSettings(NetCDFLayerSettingsContainer settings) {
         super.initializeFromSettings(settings);
@@ -315,9 +381,11 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
     }
 
     /**
-     * Set the variables values
+     * Set the variables values. The header is already defined at this point, so each granule is
+     * turned into its own 2D slice and written to its slot as soon as it is ready, instead of
+     * filling a single array as large as the whole output. Slices are filled concurrently, up to
+     * {@link #sliceThreads} at a time, and written in order.
      *
-     * @param writer
      * @throws IOException
      * @throws InvalidRangeException
      */
@@ -344,75 +412,171 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
         // the same sample model
         final int imageDataType = sampleGranule.getRenderedImage().getSampleModel().getDataType();
         final DataType netCDFDataType = var.getDataType();
-        final Array matrix = NetCDFUtilities.getArray(dimSize, netCDFDataType);
+
+        // a single 2D slice, all higher rank dimensions have size 1
+        final int[] sliceShape = new int[numDimensions];
+        Arrays.fill(sliceShape, 1);
+        sliceShape[numDimensions - 2] = dimSize[numDimensions - 2];
+        sliceShape[numDimensions - 1] = dimSize[numDimensions - 1];
 
         // Loop over all granules
-        for (GridCoverage2D gridCoverage : granuleStack.getGranules()) {
-            final RenderedImage ri = gridCoverage.getRenderedImage();
-
-            //
-            // Preparing tile properties for future scan
-            //
-            int width = ri.getWidth();
-            int height = ri.getHeight();
-            int minX = ri.getMinX();
-            int minY = ri.getMinY();
-            int maxX = minX + width - 1;
-            int maxY = minY + height - 1;
-            int tileWidth = Math.min(ri.getTileWidth(), width);
-            int tileHeight = Math.min(ri.getTileHeight(), height);
-
-            int minTileX = minX / tileWidth - (minX < 0 ? (-minX % tileWidth > 0 ? 1 : 0) : 0);
-            int minTileY = minY / tileHeight - (minY < 0 ? (-minY % tileHeight > 0 ? 1 : 0) : 0);
-            int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0) : 0);
-            int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0) : 0);
-
-            final Index matrixIndex = matrix.getIndex();
-            final int indexing[] = new int[numDimensions];
-
-            // Update the NetCDF array indexing to set values for a specific 2D slice
-            updateIndexing(indexing, gridCoverage);
-
-            // copy non-scalar extra variable data
-            if (!nonscalarExtraVariables.isEmpty()) {
-                // Before opening the source NetCDF/GRIB, see if any record requires data from it;
-                // we might be iterating over many time/elevation/custom dimensions but have
-                // granules with sources in common and want to avoid unnecessary opening of
-                // source NetCDF/GRIB. Only the first matching data value is used.
-                // This loop also ensures that the source for each granule is only opened once.
-                boolean needSource = false;
-                for (ExtraVariableRecord record : nonscalarExtraVariables) {
-                    if (!record.writtenIndices.contains(indexing[record.dimensionIndex])) {
-                        needSource = true;
-                        break;
-                    }
+        final ExecutorService executor = sliceExecutor;
+        final int maxPending = executor == null ? 1 : sliceThreads;
+        Deque<PendingSlice> pending = new ArrayDeque<>();
+        try {
+            for (GridCoverage2D gridCoverage : granuleStack.getGranules()) {
+                // Update the NetCDF array indexing to locate the 2D slice
+                final int[] origin = new int[numDimensions];
+                updateIndexing(origin, gridCoverage);
+
+                // copy non-scalar extra variable data
+                writeExtraVariables(nonscalarExtraVariables, origin, gridCoverage);
+
+                while (pending.size() >= maxPending) {
+                    writeSlice(var, pending.poll());
                 }
-                if (needSource) {
-                    try (NetcdfDataset source = getSourceNetcdfDataset(gridCoverage)) {
-                        if (source != null) {
-                            for (ExtraVariableRecord record : nonscalarExtraVariables) {
-                                if (!record.writtenIndices.contains(
-                                        indexing[record.dimensionIndex])) {
-                                    writer.write(
-                                            writer.findVariable(record.extraVariable.getOutput()),
-                                            new int[] {indexing[record.dimensionIndex]},
-                                            source.findVariable(record.extraVariable.getSource())
-                                                    .read()
-                                                    .reshape(new int[] {1}));
-                                    record.writtenIndices.add(indexing[record.dimensionIndex]);
-                                }
-                            }
+                Callable<Array> fill =
+                        () -> fillSlice(gridCoverage, sliceShape, imageDataType, netCDFDataType);
+                pending.add(new PendingSlice(origin, submit(executor, fill)));
+            }
+            while (!pending.isEmpty()) {
+                writeSlice(var, pending.poll());
+            }
+        } finally {
+            for (PendingSlice slice : pending) {
+                slice.data.cancel(true);
+            }
+        }
+
+        writer.flush();
+    }
+
+    private Future<Array> submit(ExecutorService executor, Callable<Array> fill)
+            throws IOException {
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(fill.call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        // reading the granules might need the request thread locals (request, security, ...)
+        ThreadLocalsTransfer threadLocalTransfer = new ThreadLocalsTransfer();
+        return executor.submit(
+                () -> {
+                    threadLocalTransfer.apply();
+                    try {
+                        return fill.call();
+                    } finally {
+                        threadLocalTransfer.cleanup();
+                    }
+                });
+    }
+
+    private void writeSlice(Variable var, PendingSlice slice)
+            throws IOException, InvalidRangeException {
+        Array data;
+        try {
+            data = slice.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding the NetCDF output", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        writer.write(var, slice.origin, data);
+    }
+
+    /**
+     * Copies the non scalar extra variables values associated to the granule, if not already
+     * written
+     */
+    private void writeExtraVariables(
+            List<ExtraVariableRecord> nonscalarExtraVariables,
+            int[] indexing,
+            GridCoverage2D gridCoverage)
+            throws IOException, InvalidRangeException {
+        if (nonscalarExtraVariables.isEmpty()) {
+            return;
+        }
+        // Before opening the source NetCDF/GRIB, see if any record requires data from it;
+        // we might be iterating over many time/elevation/custom dimensions but have
+        // granules with sources in common and want to avoid unnecessary opening of
+        // source NetCDF/GRIB. Only the first matching data value is used.
+        // This loop also ensures that the source for each granule is only opened once.
+        boolean needSource = false;
+        for (ExtraVariableRecord record : nonscalarExtraVariables) {
+            if (!record.writtenIndices.contains(indexing[record.dimensionIndex])) {
+                needSource = true;
+                break;
+            }
+        }
+        if (needSource) {
+            try (NetcdfDataset source = getSourceNetcdfDataset(gridCoverage)) {
+                if (source != null) {
+                    for (ExtraVariableRecord record : nonscalarExtraVariables) {
+                        if (!record.writtenIndices.contains(indexing[record.dimensionIndex])) {
+                            writer.write(
+                                    writer.findVariable(record.extraVariable.getOutput()),
+                                    new int[] {indexing[record.dimensionIndex]},
+                                    source.findVariable(record.extraVariable.getSource())
+                                            .read()
+                                            .reshape(new int[] {1}));
+                            record.writtenIndices.add(indexing[record.dimensionIndex]);
                         }
                     }
                 }
             }
+        }
+    }
 
-            // ----------------
-            // Fill data matrix
-            // ----------------
-
-            // Loop over bands using a RandomIter
-            final RandomIter data = RandomIterFactory.create(ri, null);
+    /** Fills a 2D slice with the granule data, does not touch the writer */
+    private Array fillSlice(
+            GridCoverage2D gridCoverage,
+            int[] sliceShape,
+            int imageDataType,
+            DataType netCDFDataType) {
+        final int numDimensions = sliceShape.length;
+        final Array matrix = NetCDFUtilities.getArray(sliceShape, netCDFDataType);
+        final RenderedImage ri = gridCoverage.getRenderedImage();
+
+        //
+        // Preparing tile properties for future scan
+        //
+        int width = ri.getWidth();
+        int height = ri.getHeight();
+        int minX = ri.getMinX();
+        int minY = ri.getMinY();
+        int maxX = minX + width - 1;
+        int maxY = minY + height - 1;
+        int tileWidth = Math.min(ri.getTileWidth(), width);
+        int tileHeight = Math.min(ri.getTileHeight(), height);
+
+        int minTileX = minX / tileWidth - (minX < 0 ? (-minX % tileWidth > 0 ? 1 : 0) : 0);
+        int minTileY = minY / tileHeight - (minY < 0 ? (-minY % tileHeight > 0 ? 1 : 0) : 0);
+        int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0) : 0);
+        int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0) : 0);
+
+        final Index matrixIndex = matrix.getIndex();
+        // higher rank dimensions are all at zero in the slice
+        final int indexing[] = new int[numDimensions];
+        final DataType sampleDataType = NetCDFUtilities.transcodeImageDataType(imageDataType);
+
+        // ----------------
+        // Fill data matrix
+        // ----------------
+
+        // Loop over bands using a RandomIter
+        final RandomIter data = RandomIterFactory.create(ri, null);
+        try {
             for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
                 for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
                     for (int trow = 0; trow < tileHeight; trow++) {
@@ -431,7 +595,7 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
                                     setPixel(
                                             k,
                                             j,
-                                            NetCDFUtilities.transcodeImageDataType(imageDataType),
+                                            sampleDataType,
                                             netCDFDataType,
                                             data,
                                             matrix,
@@ -446,15 +610,24 @@ public class DefaultNetCDFEncoder extends AbstractNetCDFEncoder {
                     }
                 }
             }
+        } finally {
             // Finalize the iterator
             data.done();
         }
+        return matrix;
+    }
 
-        // ------------------------------
-        // Write the data to the variable
-        // ------------------------------
-        writer.write(var, matrix);
-        writer.flush();
+    /** A slice being filled, and the position it will be written at */
+    private static final class PendingSlice {
+
+        final int[] origin;
+
+        final Future<Array> data;
+
+        PendingSlice(int[] origin, Future<Array> data) {
+            this.origin = origin;
+            this.data = data;
+        }
     }
 
     @Override
@@ -0,0 +1,89 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import javax.xml.namespace.QName;
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.DimensionPresentation;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wcs2_0.WCSNetCDFBaseTest;
+import org.geoserver.wcs2_0.WCSNetCDFTest;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ucar.ma2.Array;
+import ucar.ma2.MAMath;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+public class DefaultNetCDFEncoderTest extends WCSNetCDFBaseTest {
+
+    static final QName POLYPHEMUS =
+            new QName(CiteTestData.WCS_URI, "polyphemus", CiteTestData.WCS_PREFIX);
+
+    static final QName NO2 = new QName(CiteTestData.WCS_URI, "NO2", CiteTestData.WCS_PREFIX);
+
+    final int sliceThreads = DefaultNetCDFEncoder.sliceThreads;
+
+    @Override
+    protected void onSetUp(SystemTestData testData) throws Exception {
+        super.onSetUp(testData);
+        testData.addRasterLayer(
+                POLYPHEMUS, "pol.zip", null, null, WCSNetCDFTest.class, getCatalog());
+        setupRasterDimension(getLayerId(NO2), ResourceInfo.TIME, DimensionPresentation.LIST, null);
+        setupRasterDimension(
+                getLayerId(NO2), ResourceInfo.ELEVATION, DimensionPresentation.LIST, null);
+    }
+
+    @After
+    public void resetSliceThreads() {
+        DefaultNetCDFEncoder.setSliceThreads(sliceThreads);
+    }
+
+    @Test
+    public void testParallelSlicesMatchSerial() throws Exception {
+        DefaultNetCDFEncoder.setSliceThreads(1);
+        File serial = getNetCDF("serial");
+        DefaultNetCDFEncoder.setSliceThreads(4);
+        File parallel = getNetCDF("parallel");
+
+        try (NetcdfDataset expected = NetcdfDataset.openDataset(serial.getAbsolutePath());
+                NetcdfDataset actual = NetcdfDataset.openDataset(parallel.getAbsolutePath())) {
+            Variable expectedVar = expected.findVariable("NO2");
+            Variable actualVar = actual.findVariable("NO2");
+            assertNotNull(expectedVar);
+            assertNotNull(actualVar);
+            // time, elevation, lat, lon, with more than one slice to fill
+            int[] shape = expectedVar.getShape();
+            assertEquals(4, shape.length);
+            assertTrue(shape[0] * shape[1] > 1);
+            assertArrayEquals(shape, actualVar.getShape());
+            Array expectedData = expectedVar.read();
+            Array actualData = actualVar.read();
+            assertTrue(MAMath.nearlyEquals(expectedData, actualData));
+        }
+    }
+
+    private File getNetCDF(String name) throws Exception {
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "ows?request=GetCoverage&service=WCS&version=2.0.1"
+                                + "&coverageId=wcs__NO2&format=application/x-netcdf");
+        assertEquals(200, response.getStatus());
+        assertEquals("application/x-netcdf", response.getContentType());
+        File file =
+                File.createTempFile("netcdf-" + name + "-", "-wcs__NO2.nc", new File("./target"));
+        FileUtils.writeByteArrayToFile(file, getBinary(response));
+        return file;
+    }
+}
@@ -0,0 +1,76 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.MetaTiledMap;
+import org.geoserver.wms.map.RawMap;
+
+/**
+ * A grid of vector tiles built out of a single query over the meta tile area. The tiles are built
+ * without map content, the one of the meta tile is disposed along with it.
+ */
+public class VectorMetaTileMap extends WebMap implements MetaTiledMap {
+
+    private final int tilesX;
+
+    private final int tilesY;
+
+    private final WebMap[] tiles;
+
+    /**
+     * @param mapContent The meta tile map content
+     * @param tilesX The number of tile columns
+     * @param tilesY The number of tile rows
+     * @param tiles The tiles, row by row starting from the top, each one a {@link RawMap}
+     */
+    public VectorMetaTileMap(WMSMapContent mapContent, int tilesX, int tilesY, WebMap[] tiles) {
+        super(mapContent);
+        if (tiles.length != tilesX * tilesY) {
+            throw new IllegalArgumentException(
+                    "Expected " + (tilesX * tilesY) + " tiles, got " + tiles.length);
+        }
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.tiles = tiles;
+        if (tiles.length > 0) {
+            setMimeType(tiles[0].getMimeType());
+        }
+    }
+
+    @Override
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    @Override
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    /** Returns the tile at the given column and row */
+    public WebMap getTile(int x, int y) {
+        return tiles[y * tilesX + x];
+    }
+
+    @Override
+    public void writeTile(int x, int y, OutputStream out) throws IOException {
+        WebMap tile = getTile(x, y);
+        if (!(tile instanceof RawMap)) {
+            throw new IOException("Cannot write out tiles of type " + tile.getClass().getName());
+        }
+        ((RawMap) tile).writeTo(out);
+    }
+
+    @Override
+    protected void disposeInternal() {
+        for (WebMap tile : tiles) {
+            tile.dispose();
+        }
+    }
+}
@@ -9,10 +9,23 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.geotools.renderer.lite.VectorMapRenderUtils.getStyleQuery;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.platform.ServiceException;
@@ -21,15 +34,19 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.AbstractMapOutputFormat;
+import org.geoserver.wms.map.MetaTiledMap;
+import org.geoserver.wms.map.MetaTilingMapOutputFormat;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
+import org.geotools.referencing.CRS;
 import org.geotools.renderer.lite.VectorMapRenderUtils;
 import org.geotools.util.factory.Hints;
 import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.opengis.feature.Attribute;
 import org.opengis.feature.ComplexAttribute;
@@ -40,12 +57,31 @@ import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 
-public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
+public class VectorTileMapOutputFormat extends AbstractMapOutputFormat
+        implements MetaTilingMapOutputFormat {
 
     /** A logger for this class. */
     private static final Logger LOGGER = Logging.getLogger(VectorTileMapOutputFormat.class);
 
+    /** Number of features read before handing them to the tiles of a meta tile */
+    static final int META_TILE_BATCH_SIZE = 512;
+
+    /**
+     * Maximum number of threads building the tiles of a meta tile, counting the request thread,
+     * can be changed with the {@code wms.vector.metatile.threads} system property
+     */
+    static final int META_TILE_THREADS =
+            Math.max(
+                    1,
+                    Integer.getInteger(
+                            "wms.vector.metatile.threads",
+                            Runtime.getRuntime().availableProcessors()));
+
+    /** Executor shared by all the meta tile requests, bounded to avoid overloading the server */
+    private static final ExecutorService META_TILE_EXECUTOR = createMetaTileExecutor();
+
     /** WMS Service configuration * */
     private final WMS wms;
 
@@ -94,17 +130,19 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         checkArgument(mapContent.getMapWidth() > 0);
         checkArgument(mapContent.getMapHeight() > 0);
 
-        final ReferencedEnvelope renderingArea = mapContent.getRenderingArea();
         int mapWidth = mapContent.getMapWidth();
         int mapHeight = mapContent.getMapHeight();
-        Rectangle paintArea = new Rectangle(mapWidth, mapHeight);
-        if (this.tileBuilderFactory.shouldOversampleScale()) {
-            paintArea =
-                    new Rectangle(
-                            this.tileBuilderFactory.getOversampleX() * mapWidth,
-                            this.tileBuilderFactory.getOversampleY() * mapHeight);
+        int[] metaTiling =
+                mapContent.getRequest() == null
+                        ? null
+                        : MetaTiledMap.getMetaTilingFactors(mapContent.getRequest());
+        if (metaTiling != null && mapWidth % metaTiling[0] == 0 && mapHeight % metaTiling[1] == 0) {
+            return produceMetaTiledMap(mapContent, metaTiling[0], metaTiling[1]);
         }
 
+        final ReferencedEnvelope renderingArea = mapContent.getRenderingArea();
+        Rectangle paintArea = getPaintArea(mapWidth, mapHeight);
+
         VectorTileBuilder vectorTileBuilder;
         vectorTileBuilder = this.tileBuilderFactory.newBuilder(paintArea, renderingArea);
 
@@ -119,14 +157,7 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
             }
 
             sourceCrs = geometryDescriptor.getType().getCoordinateReferenceSystem();
-            int buffer =
-                    VectorMapRenderUtils.getComputedBuffer(
-                            mapContent.getBuffer(),
-                            VectorMapRenderUtils.getFeatureStyles(
-                                    layer,
-                                    paintArea,
-                                    VectorMapRenderUtils.getMapScale(mapContent, renderingArea),
-                                    (FeatureType) featureSource.getSchema()));
+            int buffer = getBuffer(mapContent, renderingArea, paintArea, layer);
             Pipeline pipeline =
                     getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
 
@@ -142,6 +173,171 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Builds all the tiles of a meta tile running a single query per layer over the whole meta tile
+     * area, and then clipping and encoding each feature in the tiles it falls into, with the tiles
+     * processed in parallel.
+     */
+    private WebMap produceMetaTiledMap(WMSMapContent mapContent, int tilesX, int tilesY)
+            throws IOException {
+        final ReferencedEnvelope renderingArea = mapContent.getRenderingArea();
+        final Rectangle paintArea =
+                getPaintArea(mapContent.getMapWidth() / tilesX, mapContent.getMapHeight() / tilesY);
+        final ReferencedEnvelope[] tileAreas = getTileAreas(renderingArea, tilesX, tilesY);
+
+        VectorTileBuilder[] builders = new VectorTileBuilder[tileAreas.length];
+        for (int i = 0; i < tileAreas.length; i++) {
+            builders[i] = tileBuilderFactory.newBuilder(paintArea, tileAreas[i]);
+        }
+
+        for (Layer layer : mapContent.layers()) {
+            FeatureSource<?, ?> featureSource = layer.getFeatureSource();
+            GeometryDescriptor geometryDescriptor =
+                    featureSource.getSchema().getGeometryDescriptor();
+            if (null == geometryDescriptor) {
+                continue;
+            }
+
+            CoordinateReferenceSystem sourceCrs =
+                    geometryDescriptor.getType().getCoordinateReferenceSystem();
+            // same scale as the meta tile, and the same buffer for all tiles
+            int buffer = getBuffer(mapContent, renderingArea, paintArea, layer);
+            TileTarget[] targets = new TileTarget[tileAreas.length];
+            for (int i = 0; i < tileAreas.length; i++) {
+                ReferencedEnvelope tileArea = tileAreas[i];
+                Pipeline pipeline =
+                        getPipeline(
+                                mapContent,
+                                new ReferencedEnvelope(tileArea),
+                                paintArea,
+                                sourceCrs,
+                                buffer);
+                Envelope sourceBounds = getSourceBounds(tileArea, paintArea, sourceCrs, buffer);
+                targets[i] = new TileTarget(builders[i], pipeline, sourceBounds);
+            }
+
+            Query query = getStyleQuery(layer, mapContent);
+            query.getHints().remove(Hints.SCREENMAP);
+
+            FeatureCollection<?, ?> features = featureSource.getFeatures(query);
+
+            runMetaTiled(features, targets, geometryDescriptor, layer);
+        }
+
+        // the tiles do not own the map content, the meta tile map does
+        WebMap[] tiles = new WebMap[builders.length];
+        try {
+            for (int i = 0; i < builders.length; i++) {
+                tiles[i] = builders[i].build(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (WebMap tile : tiles) {
+                if (tile != null) {
+                    tile.dispose();
+                }
+            }
+            throw e;
+        }
+        return new VectorMetaTileMap(mapContent, tilesX, tilesY, tiles);
+    }
+
+    private static ExecutorService createMetaTileExecutor() {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        META_TILE_THREADS,
+                        META_TILE_THREADS,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("VectorMetaTile-%d")
+                                .setDaemon(true)
+                                .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private Rectangle getPaintArea(int width, int height) {
+        if (this.tileBuilderFactory.shouldOversampleScale()) {
+            return new Rectangle(
+                    this.tileBuilderFactory.getOversampleX() * width,
+                    this.tileBuilderFactory.getOversampleY() * height);
+        }
+        return new Rectangle(width, height);
+    }
+
+    private int getBuffer(
+            WMSMapContent mapContent,
+            ReferencedEnvelope renderingArea,
+            Rectangle paintArea,
+            Layer layer) {
+        return VectorMapRenderUtils.getComputedBuffer(
+                mapContent.getBuffer(),
+                VectorMapRenderUtils.getFeatureStyles(
+                        layer,
+                        paintArea,
+                        VectorMapRenderUtils.getMapScale(mapContent, renderingArea),
+                        (FeatureType) layer.getFeatureSource().getSchema()));
+    }
+
+    /**
+     * Splits the area in a grid of tiles, returned row by row starting from the top left corner,
+     * honoring the axis order of the area CRS
+     */
+    static ReferencedEnvelope[] getTileAreas(ReferencedEnvelope area, int tilesX, int tilesY) {
+        CoordinateReferenceSystem crs = area.getCoordinateReferenceSystem();
+        boolean northEast = crs != null && CRS.getAxisOrder(crs) == CRS.AxisOrder.NORTH_EAST;
+        double minEast = northEast ? area.getMinY() : area.getMinX();
+        double maxEast = northEast ? area.getMaxY() : area.getMaxX();
+        double minNorth = northEast ? area.getMinX() : area.getMinY();
+        double maxNorth = northEast ? area.getMaxX() : area.getMaxY();
+        double tileEast = (maxEast - minEast) / tilesX;
+        double tileNorth = (maxNorth - minNorth) / tilesY;
+
+        ReferencedEnvelope[] result = new ReferencedEnvelope[tilesX * tilesY];
+        for (int y = 0; y < tilesY; y++) {
+            // use the area edges on the last row/column, to avoid rounding issues
+            double n2 = maxNorth - y * tileNorth;
+            double n1 = y == tilesY - 1 ? minNorth : maxNorth - (y + 1) * tileNorth;
+            for (int x = 0; x < tilesX; x++) {
+                double e1 = minEast + x * tileEast;
+                double e2 = x == tilesX - 1 ? maxEast : minEast + (x + 1) * tileEast;
+                result[y * tilesX + x] =
+                        northEast
+                                ? new ReferencedEnvelope(n1, n2, e1, e2, crs)
+                                : new ReferencedEnvelope(e1, e2, n1, n2, crs);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the area, in source CRS, that features need to intersect to end up in the tile, or
+     * null if it cannot be computed, in which case all features are handed to the tile pipeline
+     */
+    private Envelope getSourceBounds(
+            ReferencedEnvelope tileArea,
+            Rectangle paintArea,
+            CoordinateReferenceSystem sourceCrs,
+            int buffer) {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(tileArea);
+        // be generous, this is just a quick check to avoid running the pipeline
+        double pixelSize =
+                Math.max(tileArea.getWidth(), tileArea.getHeight())
+                        / Math.min(paintArea.width, paintArea.height);
+        bounds.expandBy(pixelSize * (buffer + 1));
+        if (sourceCrs == null
+                || CRS.equalsIgnoreMetadata(sourceCrs, tileArea.getCoordinateReferenceSystem())) {
+            return bounds;
+        }
+        try {
+            return bounds.transform(sourceCrs, true);
+        } catch (TransformException | FactoryException e) {
+            LOGGER.log(Level.FINE, "Could not compute the tile bounds in the source CRS", e);
+            return null;
+        }
+    }
+
     protected Pipeline getPipeline(
             final WMSMapContent mapContent,
             final ReferencedEnvelope renderingArea,
@@ -238,6 +434,175 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         }
     }
 
+    void runMetaTiled(
+            FeatureCollection<?, ?> features,
+            TileTarget[] targets,
+            GeometryDescriptor geometryDescriptor,
+            Layer layer) {
+        Stopwatch sw = Stopwatch.createStarted();
+        int count = 0;
+        int total = 0;
+        final String geometryName = geometryDescriptor.getName().getLocalPart();
+        List<Feature> batch = new ArrayList<>(META_TILE_BATCH_SIZE);
+
+        try (FeatureIterator<?> it = features.features()) {
+            while (it.hasNext()) {
+                batch.add(it.next());
+                total++;
+                if (batch.size() == META_TILE_BATCH_SIZE || !it.hasNext()) {
+                    count += addFeatures(batch, targets, geometryName);
+                    batch.clear();
+                }
+            }
+        }
+        sw.stop();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            String msg =
+                    String.format(
+                            "Added %,d features to %d tiles out of %,d features of '%s' in %s",
+                            count, targets.length, total, layer.getTitle(), sw);
+            LOGGER.fine(msg);
+        }
+    }
+
+    /**
+     * Reads geometry and attributes of the features once, and then hands them to the tiles in
+     * parallel, using the bounded {@link #META_TILE_EXECUTOR}. Each tile is handled by a single
+     * thread at a time, builders and pipelines need not be thread safe.
+     */
+    private int addFeatures(List<Feature> batch, TileTarget[] targets, String geometryName) {
+        final int size = batch.size();
+        final Geometry[] geometries = new Geometry[size];
+        final String[] layerNames = new String[size];
+        final String[] featureIds = new String[size];
+        final List<Map<String, Object>> properties = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Feature feature = batch.get(i);
+            geometries[i] = (Geometry) feature.getDefaultGeometryProperty().getValue();
+            layerNames[i] = feature.getName().getLocalPart();
+            featureIds[i] = feature.getIdentifier().toString();
+            properties.add(getProperties(feature));
+        }
+
+        // the calling thread works on the tiles too, the helpers just speed things up when the
+        // shared executor has free threads
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger added = new AtomicInteger();
+        Runnable worker =
+                () -> {
+                    for (int t = next.getAndIncrement();
+                            t < targets.length;
+                            t = next.getAndIncrement()) {
+                        added.addAndGet(
+                                addFeatures(
+                                        targets[t],
+                                        geometries,
+                                        layerNames,
+                                        featureIds,
+                                        properties,
+                                        geometryName));
+                    }
+                };
+        int helpers = Math.min(META_TILE_THREADS, targets.length) - 1;
+        List<Future<?>> futures = new ArrayList<>(helpers);
+        boolean completed = false;
+        try {
+            for (int i = 0; i < helpers; i++) {
+                futures.add(META_TILE_EXECUTOR.submit(worker));
+            }
+            worker.run();
+            completed = true;
+        } finally {
+            if (!completed) {
+                // leave nothing for the helpers that did not start yet
+                next.set(targets.length);
+            }
+            awaitHelpers(futures, completed);
+        }
+        return added.get();
+    }
+
+    /**
+     * Waits for the helpers to be done with the tiles they picked up, the builders cannot be used
+     * until then. Helpers that did not start yet are cancelled, all the tiles have been picked up.
+     */
+    private void awaitHelpers(List<Future<?>> futures, boolean propagateFailures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            if (future.cancel(false)) {
+                continue;
+            }
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (CancellationException e) {
+                // cancelled before running
+            } catch (ExecutionException e) {
+                Throwables.throwIfInstanceOf(e.getCause(), Error.class);
+                if (failure == null) {
+                    failure =
+                            e.getCause() instanceof RuntimeException
+                                    ? (RuntimeException) e.getCause()
+                                    : new ServiceException(e.getCause());
+                }
+            }
+        }
+        if (failure != null && propagateFailures) {
+            throw failure;
+        }
+    }
+
+    private int addFeatures(
+            TileTarget target,
+            Geometry[] geometries,
+            String[] layerNames,
+            String[] featureIds,
+            List<Map<String, Object>> properties,
+            String geometryName) {
+        int added = 0;
+        for (int i = 0; i < geometries.length; i++) {
+            Geometry finalGeom = target.process(geometries[i]);
+            if (finalGeom != null) {
+                target.builder.addFeature(
+                        layerNames[i], featureIds[i], geometryName, finalGeom, properties.get(i));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /** The builder and pipeline of a single tile in a meta tile */
+    static final class TileTarget {
+
+        final VectorTileBuilder builder;
+
+        final Pipeline pipeline;
+
+        final Envelope sourceBounds;
+
+        TileTarget(VectorTileBuilder builder, Pipeline pipeline, Envelope sourceBounds) {
+            this.builder = builder;
+            this.pipeline = pipeline;
+            this.sourceBounds = sourceBounds;
+        }
+
+        /** Returns the geometry to be added to the tile, or null if it does not contribute */
+        Geometry process(Geometry geometry) {
+            if (geometry == null
+                    || (sourceBounds != null
+                            && !sourceBounds.intersects(geometry.getEnvelopeInternal()))) {
+                return null;
+            }
+            Geometry finalGeom;
+            try {
+                finalGeom = pipeline.execute(geometry);
+            } catch (Exception processingException) {
+                LOGGER.log(Level.FINE, "Failed to process geometry", processingException);
+                return null;
+            }
+            return finalGeom.isEmpty() ? null : finalGeom;
+        }
+    }
+
     /** @return {@code null}, not a raster format. */
     @Override
     public MapProducerCapabilities getCapabilities(String format) {
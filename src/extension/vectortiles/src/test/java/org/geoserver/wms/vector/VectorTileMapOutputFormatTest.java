@@ -27,6 +27,8 @@ import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.MetaTiledMap;
+import org.geoserver.wms.map.RawMap;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.Query;
 import org.geotools.data.memory.MemoryDataStore;
@@ -406,6 +408,101 @@ public class VectorTileMapOutputFormatTest {
                         any(Map.class));
     }
 
+    @Test
+    public void testMetaTiling() throws Exception {
+        // one builder per tile, in creation order
+        List<VectorTileBuilder> builders = new ArrayList<>();
+        VectorTileBuilderFactory tileBuilderFactory = mock(VectorTileBuilderFactory.class);
+        when(tileBuilderFactory.getMimeType()).thenReturn("testMime");
+        when(tileBuilderFactory.getOutputFormats()).thenReturn(ImmutableSet.of("testMime"));
+        when(tileBuilderFactory.newBuilder(any(Rectangle.class), any(ReferencedEnvelope.class)))
+                .thenAnswer(
+                        invocation -> {
+                            VectorTileBuilder builder = mock(VectorTileBuilder.class);
+                            when(builder.build(any()))
+                                    .thenReturn(new RawMap(null, new byte[0], "testMime"));
+                            builders.add(builder);
+                            return builder;
+                        });
+        VectorTileMapOutputFormat outputFormat =
+                new VectorTileMapOutputFormat(wmsMock, tileBuilderFactory);
+        outputFormat.setClipToMapBounds(true);
+
+        // lat/lon axis order, 2x2 tiles of 2 degrees each
+        ReferencedEnvelope mapBounds = new ReferencedEnvelope(0, 4, 0, 4, WGS84);
+        Rectangle renderingArea = new Rectangle(512, 512);
+        WMSMapContent mapContent = createMapContent(mapBounds, renderingArea, 0, pointLayer);
+        mapContent.getRequest().getFormatOptions().put(MetaTiledMap.FORMAT_OPTION, "2x2");
+
+        // public requests cannot ask for meta tiles
+        WebMap map = outputFormat.produceMap(mapContent);
+        assertFalse(map instanceof VectorMetaTileMap);
+        assertEquals(1, builders.size());
+        builders.clear();
+
+        // too many tiles
+        mapContent.getRequest().getFormatOptions().put(MetaTiledMap.FORMAT_OPTION, "512x512");
+        map = MetaTiledMap.callMetaTiled(() -> outputFormat.produceMap(mapContent));
+        assertFalse(map instanceof VectorMetaTileMap);
+        builders.clear();
+
+        mapContent.getRequest().getFormatOptions().put(MetaTiledMap.FORMAT_OPTION, "2x2");
+        map = MetaTiledMap.callMetaTiled(() -> outputFormat.produceMap(mapContent));
+        assertTrue(map instanceof VectorMetaTileMap);
+        VectorMetaTileMap metaTileMap = (VectorMetaTileMap) map;
+        assertEquals(2, metaTileMap.getTilesX());
+        assertEquals(2, metaTileMap.getTilesY());
+
+        // a single query, split in four tiles of 256 pixels
+        assertEquals(4, builders.size());
+        verify(tileBuilderFactory, times(4))
+                .newBuilder(eq(new Rectangle(256, 256)), any(ReferencedEnvelope.class));
+
+        // point1 is in the bottom left tile, point3 in the top right one
+        VectorTileBuilder topRight = builders.get(1);
+        VectorTileBuilder bottomLeft = builders.get(2);
+        for (int i = 0; i < builders.size(); i++) {
+            VectorTileBuilder builder = builders.get(i);
+            verify(builder, times(builder == bottomLeft ? 1 : 0))
+                    .addFeature(
+                            eq("points"),
+                            eq("point1"),
+                            eq("geom"),
+                            any(Geometry.class),
+                            any(Map.class));
+            verify(builder, times(builder == topRight ? 1 : 0))
+                    .addFeature(
+                            eq("points"),
+                            eq("point3"),
+                            eq("geom"),
+                            any(Geometry.class),
+                            any(Map.class));
+            verify(builder, never())
+                    .addFeature(
+                            eq("points"),
+                            eq("pointFar"),
+                            eq("geom"),
+                            any(Geometry.class),
+                            any(Map.class));
+        }
+    }
+
+    @Test
+    public void testTileAreas() throws Exception {
+        // lat/lon axis order, columns go along the longitudes
+        ReferencedEnvelope area = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
+        ReferencedEnvelope[] tiles = VectorTileMapOutputFormat.getTileAreas(area, 2, 1);
+        assertEquals(2, tiles.length);
+        assertEquals(new ReferencedEnvelope(-90, 90, 0, 90, WGS84), tiles[0]);
+        assertEquals(new ReferencedEnvelope(-90, 90, 90, 180, WGS84), tiles[1]);
+
+        // east/north axis order, rows start from the top
+        area = new ReferencedEnvelope(0, 100, 0, 100, WEB_MERCATOR);
+        tiles = VectorTileMapOutputFormat.getTileAreas(area, 1, 2);
+        assertEquals(new ReferencedEnvelope(0, 100, 50, 100, WEB_MERCATOR), tiles[0]);
+        assertEquals(new ReferencedEnvelope(0, 100, 0, 50, WEB_MERCATOR), tiles[1]);
+    }
+
     private WMSMapContent createMapContent(
             ReferencedEnvelope mapBounds, Rectangle renderingArea, Integer buffer, Layer... layers)
             throws Exception {
@@ -0,0 +1,480 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+
+/**
+ * A {@link QuotaStore} wrapper accumulating the quota, tile count and usage updates in memory, per
+ * tile set and tile page, and writing them to the delegate in batches on a schedule, so that heavy
+ * seeding does not turn the quota database into the bottleneck of tile writes.
+ *
+ * <p>Accounting is eventually consistent, pending updates are written at most {@link
+ * #getFlushInterval()} milliseconds after being received, or as soon as {@link #MAX_PENDING_PAGES}
+ * pages are waiting. Reads used to drive the eviction (used quotas, least recently and frequently
+ * used pages) and the operations removing or renaming tile sets flush first, so that they see the
+ * aggregated view.
+ *
+ * <p>The flush interval is set with the {@code GWC_QUOTA_FLUSH_INTERVAL} system variable, in
+ * milliseconds, zero or a negative value disables the batching altogether.
+ */
+public class BatchingQuotaStore implements QuotaStore {
+
+    static final Logger LOGGER = Logging.getLogger(BatchingQuotaStore.class);
+
+    /** The system variable controlling the flush interval */
+    public static final String FLUSH_INTERVAL_KEY = "GWC_QUOTA_FLUSH_INTERVAL";
+
+    static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /** Number of pending pages forcing an early flush */
+    static final int MAX_PENDING_PAGES = 10000;
+
+    /** Seconds to wait for a running flush on close */
+    static final int CLOSE_TIMEOUT = 30;
+
+    private final QuotaStore delegate;
+
+    private final long flushInterval;
+
+    private final ScheduledExecutorService executor;
+
+    /** Pending quota differences, by tile set id. Modified only inside compute/remove calls */
+    private final ConcurrentHashMap<String, TileSetDelta> tileSetDeltas =
+            new ConcurrentHashMap<>();
+
+    /** Pending page updates. Modified only inside compute/remove calls */
+    private final ConcurrentHashMap<TilePage, PageDelta> pageDeltas = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile CompletableFuture<List<PageStats>> pendingStats = new CompletableFuture<>();
+
+    /**
+     * Returns the flush interval configured via the {@link #FLUSH_INTERVAL_KEY} system variable, or
+     * the default one
+     */
+    public static long getConfiguredFlushInterval() {
+        String value = GeoServerExtensions.getProperty(FLUSH_INTERVAL_KEY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + FLUSH_INTERVAL_KEY + " value: " + value);
+            }
+        }
+        return DEFAULT_FLUSH_INTERVAL;
+    }
+
+    /**
+     * Builds a new batching store
+     *
+     * @param delegate The store receiving the aggregated updates
+     * @param flushInterval The flush interval, in milliseconds, must be positive
+     */
+    public BatchingQuotaStore(QuotaStore delegate, long flushInterval) {
+        this.delegate = delegate;
+        this.flushInterval = flushInterval;
+        this.executor =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, "GWC quota store flusher");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        executor.scheduleWithFixedDelay(
+                this::scheduledFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /** The wrapped store */
+    public QuotaStore getDelegate() {
+        return delegate;
+    }
+
+    /** The flush interval, in milliseconds */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    @Override
+    public void addToQuotaAndTileCounts(
+            TileSet tileSet, Quota quotaDiff, Collection<PageStatsPayload> tileCountDiffs)
+            throws InterruptedException {
+        if (quotaDiff != null && quotaDiff.getBytes().signum() != 0) {
+            BigInteger bytes = quotaDiff.getBytes();
+            tileSetDeltas.compute(
+                    tileSet.getId(),
+                    (id, delta) -> {
+                        if (delta == null) {
+                            delta = new TileSetDelta(tileSet);
+                        }
+                        delta.bytes = delta.bytes.add(bytes);
+                        return delta;
+                    });
+        }
+        if (tileCountDiffs != null) {
+            for (PageStatsPayload payload : tileCountDiffs) {
+                if (payload.getNumTiles() == 0) {
+                    continue;
+                }
+                pageDeltas.compute(
+                        payload.getPage(),
+                        (page, delta) -> {
+                            if (delta == null) {
+                                delta = new PageDelta(page);
+                            }
+                            delta.countTileSet = tileSet;
+                            delta.tiles += payload.getNumTiles();
+                            return delta;
+                        });
+            }
+        }
+        checkPending();
+    }
+
+    @Override
+    public Future<List<PageStats>> addHitsAndSetAccesTime(
+            Collection<PageStatsPayload> statsUpdates) {
+        for (PageStatsPayload payload : statsUpdates) {
+            pageDeltas.compute(
+                    payload.getPage(),
+                    (page, delta) -> {
+                        if (delta == null) {
+                            delta = new PageDelta(page);
+                        }
+                        if (payload.getTileSet() != null) {
+                            delta.hitsTileSet = payload.getTileSet();
+                        }
+                        delta.hits += payload.getNumHits();
+                        delta.lastAccessTime =
+                                Math.max(delta.lastAccessTime, payload.getLastAccessTime());
+                        delta.accessed = true;
+                        return delta;
+                    });
+        }
+        checkPending();
+        // completed with the stats of the batch these updates end up in
+        return pendingStats;
+    }
+
+    private void checkPending() {
+        if (pageDeltas.size() > MAX_PENDING_PAGES && flushScheduled.compareAndSet(false, true)) {
+            executor.execute(this::scheduledFlush);
+        }
+    }
+
+    private void scheduledFlush() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // do not kill the scheduled task
+            LOGGER.log(Level.SEVERE, "Failed to flush the pending quota updates", e);
+        }
+    }
+
+    /** Writes all the pending updates to the delegate */
+    public synchronized void flush() throws InterruptedException {
+        if (tileSetDeltas.isEmpty() && pageDeltas.isEmpty()) {
+            return;
+        }
+        CompletableFuture<List<PageStats>> stats = pendingStats;
+        pendingStats = new CompletableFuture<>();
+
+        // drain the pending updates, anything arriving meanwhile goes to the next batch
+        Map<String, TileSetDelta> tileSets = new HashMap<>();
+        for (String id : tileSetDeltas.keySet()) {
+            TileSetDelta delta = tileSetDeltas.remove(id);
+            if (delta != null) {
+                tileSets.put(id, delta);
+            }
+        }
+        Map<String, List<PageStatsPayload>> tileCounts = new HashMap<>();
+        List<PageStatsPayload> hits = new ArrayList<>();
+        for (TilePage page : pageDeltas.keySet()) {
+            PageDelta delta = pageDeltas.remove(page);
+            if (delta == null) {
+                continue;
+            }
+            if (delta.tiles != 0) {
+                TileSet tileSet = delta.countTileSet;
+                tileSets.computeIfAbsent(tileSet.getId(), id -> new TileSetDelta(tileSet));
+                PageStatsPayload payload = new PageStatsPayload(page);
+                payload.setNumTiles((int) delta.tiles);
+                tileCounts.computeIfAbsent(tileSet.getId(), id -> new ArrayList<>()).add(payload);
+            }
+            if (delta.accessed) {
+                PageStatsPayload payload = new PageStatsPayload(page, delta.hitsTileSet);
+                payload.setNumHits((int) Math.min(Integer.MAX_VALUE, delta.hits));
+                payload.setLastAccessTime(delta.lastAccessTime);
+                hits.add(payload);
+            }
+        }
+
+        // anything not written when the flush is interrupted goes back to the pending updates
+        boolean hitsSubmitted = false;
+        try {
+            Iterator<TileSetDelta> it = tileSets.values().iterator();
+            while (it.hasNext()) {
+                TileSetDelta delta = it.next();
+                List<PageStatsPayload> counts =
+                        tileCounts.getOrDefault(delta.tileSet.getId(), Collections.emptyList());
+                try {
+                    delegate.addToQuotaAndTileCounts(delta.tileSet, new Quota(delta.bytes), counts);
+                } catch (RuntimeException e) {
+                    // keep the quota accounting, will be retried with the next batch
+                    LOGGER.log(Level.WARNING, "Failed to update the quota, will retry", e);
+                    requeue(delta, counts);
+                }
+                it.remove();
+            }
+
+            if (hits.isEmpty()) {
+                stats.complete(Collections.emptyList());
+            } else {
+                Future<List<PageStats>> future = delegate.addHitsAndSetAccesTime(hits);
+                hitsSubmitted = true;
+                try {
+                    stats.complete(future.get());
+                } catch (ExecutionException e) {
+                    // usage stats are best effort
+                    LOGGER.log(Level.FINE, "Failed to update the tile page usage stats", e);
+                    stats.completeExceptionally(e.getCause());
+                }
+            }
+        } catch (Throwable t) {
+            stats.completeExceptionally(t);
+            throw t;
+        } finally {
+            for (TileSetDelta delta : tileSets.values()) {
+                requeue(
+                        delta,
+                        tileCounts.getOrDefault(delta.tileSet.getId(), Collections.emptyList()));
+            }
+            if (!hitsSubmitted) {
+                requeueHits(hits);
+            }
+        }
+    }
+
+    private void requeueHits(List<PageStatsPayload> hits) {
+        for (PageStatsPayload payload : hits) {
+            pageDeltas.compute(
+                    payload.getPage(),
+                    (page, delta) -> {
+                        if (delta == null) {
+                            delta = new PageDelta(page);
+                        }
+                        if (delta.hitsTileSet == null) {
+                            delta.hitsTileSet = payload.getTileSet();
+                        }
+                        delta.hits += payload.getNumHits();
+                        delta.lastAccessTime =
+                                Math.max(delta.lastAccessTime, payload.getLastAccessTime());
+                        delta.accessed = true;
+                        return delta;
+                    });
+        }
+    }
+
+    private void requeue(TileSetDelta failed, List<PageStatsPayload> counts) {
+        tileSetDeltas.merge(
+                failed.tileSet.getId(),
+                failed,
+                (current, old) -> {
+                    current.bytes = current.bytes.add(old.bytes);
+                    return current;
+                });
+        for (PageStatsPayload payload : counts) {
+            pageDeltas.compute(
+                    payload.getPage(),
+                    (page, delta) -> {
+                        if (delta == null) {
+                            delta = new PageDelta(page);
+                        }
+                        delta.countTileSet = failed.tileSet;
+                        delta.tiles += payload.getNumTiles();
+                        return delta;
+                    });
+        }
+    }
+
+    @Override
+    public TilePageCalculator getTilePageCalculator() {
+        return delegate.getTilePageCalculator();
+    }
+
+    @Override
+    public void createLayer(String layerName) throws InterruptedException {
+        delegate.createLayer(layerName);
+    }
+
+    @Override
+    public Quota getGloballyUsedQuota() throws InterruptedException {
+        flush();
+        return delegate.getGloballyUsedQuota();
+    }
+
+    @Override
+    public Quota getUsedQuotaByTileSetId(String tileSetId) throws InterruptedException {
+        flush();
+        return delegate.getUsedQuotaByTileSetId(tileSetId);
+    }
+
+    @Override
+    public Quota getUsedQuotaByLayerName(String layerName) throws InterruptedException {
+        flush();
+        return delegate.getUsedQuotaByLayerName(layerName);
+    }
+
+    @Override
+    public void deleteLayer(String layerName) {
+        flushQuietly();
+        delegate.deleteLayer(layerName);
+    }
+
+    @Override
+    public void deleteGridSubset(String layerName, String gridSetId) {
+        flushQuietly();
+        delegate.deleteGridSubset(layerName, gridSetId);
+    }
+
+    @Override
+    public void deleteParameters(String layerName, String parametersId) {
+        flushQuietly();
+        delegate.deleteParameters(layerName, parametersId);
+    }
+
+    @Override
+    public void renameLayer(String oldLayerName, String newLayerName) throws InterruptedException {
+        flush();
+        delegate.renameLayer(oldLayerName, newLayerName);
+    }
+
+    @Override
+    public long[][] getTilesForPage(TilePage page) throws InterruptedException {
+        return delegate.getTilesForPage(page);
+    }
+
+    @Override
+    public Set<TileSet> getTileSets() {
+        return delegate.getTileSets();
+    }
+
+    @Override
+    public TileSet getTileSetById(String tileSetId) throws InterruptedException {
+        return delegate.getTileSetById(tileSetId);
+    }
+
+    @Override
+    public void accept(TileSetVisitor visitor) {
+        delegate.accept(visitor);
+    }
+
+    @Override
+    public TilePage getLeastFrequentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        flush();
+        return delegate.getLeastFrequentlyUsedPage(layerNames);
+    }
+
+    @Override
+    public TilePage getLeastRecentlyUsedPage(Set<String> layerNames) throws InterruptedException {
+        flush();
+        return delegate.getLeastRecentlyUsedPage(layerNames);
+    }
+
+    @Override
+    public PageStats setTruncated(TilePage tilePage) throws InterruptedException {
+        flush();
+        return delegate.setTruncated(tilePage);
+    }
+
+    @Override
+    public void close() throws Exception {
+        // let a running flush complete, interrupting it would leave its updates behind
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.warning("Timed out waiting for the quota store flush to complete");
+            }
+            flush();
+        } finally {
+            executor.shutdownNow();
+            delegate.close();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The pending quota difference of a tile set */
+    static final class TileSetDelta {
+
+        final TileSet tileSet;
+
+        BigInteger bytes = BigInteger.ZERO;
+
+        TileSetDelta(TileSet tileSet) {
+            this.tileSet = tileSet;
+        }
+    }
+
+    /** The pending tile count and usage updates of a tile page */
+    static final class PageDelta {
+
+        final TilePage page;
+
+        TileSet countTileSet;
+
+        TileSet hitsTileSet;
+
+        long tiles;
+
+        long hits;
+
+        long lastAccessTime;
+
+        boolean accessed;
+
+        PageDelta(TilePage page) {
+            this.page = page;
+        }
+    }
+}
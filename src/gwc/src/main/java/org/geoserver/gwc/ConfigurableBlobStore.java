@@ -200,8 +200,10 @@ public class ConfigurableBlobStore extends MemoryBlobStore implements BlobStore
             // the configured parameter to false
             actualOperations.incrementAndGet();
             try {
-                // Get a TileObject
-                return delegate.get(obj);
+                // Get a TileObject, uniform tiles are stored as markers to the shared blob
+                return delegate.get(obj) && UniformTileBlobs.resolve(obj);
+            } catch (IOException e) {
+                throw new StorageException("Failed to read tile " + obj + ": " + e.getMessage());
             } finally {
                 // Decrement the number of current operations.
                 actualOperations.decrementAndGet();
@@ -220,8 +222,10 @@ public class ConfigurableBlobStore extends MemoryBlobStore implements BlobStore
             // the configured parameter to false
             actualOperations.incrementAndGet();
             try {
-                // Put the TileObject
-                delegate.put(obj);
+                // Put the TileObject, or a marker to the shared blob for uniform tiles
+                delegate.put(UniformTileBlobs.toMarker(obj));
+            } catch (IOException e) {
+                throw new StorageException("Failed to store tile " + obj + ": " + e.getMessage());
             } finally {
                 // Decrement the number of current operations.
                 actualOperations.decrementAndGet();
@@ -4,6 +4,7 @@
  */
 package org.geoserver.gwc;
 
+import java.math.BigInteger;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -55,6 +56,16 @@ public class ConfigurableQuotaStore implements QuotaStore {
         return delegate.getGloballyUsedQuota();
     }
 
+    /**
+     * Returns the disk space used by the blobs shared among the uniform tiles. It is not part of the
+     * layers quota, where each uniform tile only accounts for the marker stored in its place.
+     *
+     * @see UniformTileBlobs
+     */
+    public Quota getUniformTilesQuota() {
+        return new Quota(BigInteger.valueOf(UniformTileBlobs.getSharedSize()));
+    }
+
     public Quota getUsedQuotaByTileSetId(String tileSetId) throws InterruptedException {
         return delegate.getUsedQuotaByTileSetId(tileSetId);
     }
@@ -85,6 +85,11 @@ public class ConfigurableQuotaStoreProvider extends QuotaStoreProvider {
 
             try {
                 store = getQuotaStoreByName(quotaStoreName);
+                // aggregate the usage updates, the stores would otherwise get one update per tile
+                long flushInterval = BatchingQuotaStore.getConfiguredFlushInterval();
+                if (flushInterval > 0) {
+                    store = new BatchingQuotaStore(store, flushInterval);
+                }
                 exception = null;
             } catch (Exception e) {
                 LOGGER.log(
@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
@@ -54,6 +55,7 @@ import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.PublishedType;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.ProxyUtils;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.gwc.config.GWCConfig;
@@ -65,8 +67,16 @@ import org.geoserver.gwc.layer.GeoServerTileLayer;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfo;
 import org.geoserver.gwc.layer.GeoServerTileLayerInfoImpl;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.HttpServletRequestAware;
+import org.geoserver.ows.KvpRequestReader;
+import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.ows.util.RequestUtils;
 import org.geoserver.platform.GeoServerEnvironment;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
@@ -79,6 +89,9 @@ import org.geoserver.security.decorators.SecuredLayerInfo;
 import org.geoserver.wfs.kvp.BBoxKvpParser;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WebMap;
+import org.geoserver.wms.WebMapService;
+import org.geoserver.wms.map.MetaTilingMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.factory.CommonFactoryFinder;
@@ -89,6 +102,10 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.ows.ServiceException;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.styling.AbstractStyleVisitor;
+import org.geotools.styling.Style;
+import org.geotools.styling.TextSymbolizer;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheEnvironment;
 import org.geowebcache.GeoWebCacheException;
@@ -134,6 +151,7 @@ import org.geowebcache.storage.BlobStore;
 import org.geowebcache.storage.BlobStoreAggregator;
 import org.geowebcache.storage.CompositeBlobStore;
 import org.geowebcache.storage.DefaultStorageFinder;
+import org.geowebcache.storage.DiscontinuousTileRange;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
 import org.geowebcache.storage.TileRange;
@@ -150,6 +168,7 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -176,6 +195,9 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
     /** @see #getResponseEncoder(MimeType, RenderedImageMap) */
     private Map<String, Response> cachedTileEncoders = new HashMap<String, Response>();
 
+    /** @see #isMetaTilingSupported(MimeType) */
+    private final Map<String, Boolean> metaTilingFormats = new ConcurrentHashMap<>();
+
     private final TileLayerDispatcher tld;
 
     private final StorageBroker storageBroker;
@@ -473,6 +495,164 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         }
     }
 
+    /**
+     * Deletes the tiles touched by the given geometries, across all grid sets, formats and cached
+     * parameters of the layer. The geometries are buffered by the amount of pixels the layer
+     * styles can paint around them, and whole meta tiles are removed if the styles contain
+     * labels. Unlike {@link #truncate(String, ReferencedEnvelope)} the tiles are deleted directly
+     * from the storage, without dispatching truncate tasks, and only the tiles actually touched by
+     * the geometries are removed, instead of the whole bounding box.
+     *
+     * @param layerName the tile layer name
+     * @param geometry the affected geometries
+     * @param crs the geometry CRS
+     */
+    public void truncate(
+            final String layerName, final Geometry geometry, final CoordinateReferenceSystem crs)
+            throws GeoWebCacheException {
+        checkNotNull(layerName, "layerName can't be null");
+        checkNotNull(geometry, "geometry can't be null");
+        checkNotNull(crs, "crs can't be null");
+
+        final TileLayer tileLayer = tld.getTileLayer(layerName);
+        final Set<Map<String, String>> parameters = new HashSet<>();
+        parameters.add(null);
+        parameters.addAll(storageBroker.getCachedParameters(layerName));
+
+        for (String gridSetId : tileLayer.getGridSubsets()) {
+            GridSubset gridSubset = tileLayer.getGridSubset(gridSetId);
+            GeometryTileMask mask;
+            try {
+                Geometry gridSetGeometry = transform(geometry, crs, gridSubset);
+                mask = buildTruncateMask(tileLayer, gridSubset, gridSetGeometry);
+            } catch (Exception e) {
+                // fall back on the bounds, which can be clipped to the grid set area
+                log.log(
+                        Level.FINE,
+                        "Could not compute the geometry truncate mask, using the bounds",
+                        e);
+                ReferencedEnvelope bounds =
+                        new ReferencedEnvelope(geometry.getEnvelopeInternal(), crs);
+                BoundingBox intersectingBounds =
+                        getIntersectingBounds(layerName, gridSubset, bounds);
+                if (intersectingBounds != null) {
+                    new TruncateBboxRequest(layerName, intersectingBounds, gridSetId)
+                            .doTruncate(storageBroker, tileBreeder);
+                }
+                continue;
+            }
+            if (mask.isEmpty()) {
+                continue;
+            }
+
+            for (MimeType mime : tileLayer.getMimeTypes()) {
+                for (Map<String, String> params : parameters) {
+                    TileRange range =
+                            new DiscontinuousTileRange(
+                                    layerName,
+                                    gridSetId,
+                                    gridSubset.getZoomStart(),
+                                    gridSubset.getZoomStop(),
+                                    mask,
+                                    mime,
+                                    params);
+                    storageBroker.delete(range);
+                }
+            }
+        }
+    }
+
+    private Geometry transform(
+            Geometry geometry, CoordinateReferenceSystem crs, GridSubset gridSubset)
+            throws FactoryException, TransformException {
+        SRS srs = gridSubset.getGridSet().getSrs();
+        CoordinateReferenceSystem gridSetCrs = CRS.decode("EPSG:" + srs.getNumber(), true);
+        if (CRS.equalsIgnoreMetadata(crs, gridSetCrs)) {
+            return geometry;
+        }
+        return JTS.transform(geometry, CRS.findMathTransform(crs, gridSetCrs, true));
+    }
+
+    /**
+     * Builds the mask of the tiles affected by the geometry, taking into account the symbols size
+     * and the presence of labels in the styles of the layer
+     */
+    GeometryTileMask buildTruncateMask(
+            TileLayer tileLayer, GridSubset gridSubset, Geometry gridSetGeometry) {
+        LabelFinder labelFinder = new LabelFinder();
+        int buffer = getRenderingBuffer(tileLayer, gridSubset, labelFinder);
+        int[] metaTiling = labelFinder.found ? tileLayer.getMetaTilingFactors() : null;
+        return new GeometryTileMask(gridSubset, gridSetGeometry, buffer, metaTiling);
+    }
+
+    /**
+     * Returns the distance, in pixels, at which the styles of the tile layer can paint around a
+     * feature. Layers not backed by the catalog are assumed to paint anything within a tile.
+     */
+    public int getRenderingBuffer(TileLayer tileLayer, GridSubset gridSubset) {
+        return getRenderingBuffer(tileLayer, gridSubset, new LabelFinder());
+    }
+
+    private int getRenderingBuffer(
+            TileLayer tileLayer, GridSubset gridSubset, LabelFinder labelFinder) {
+        if (!(tileLayer instanceof GeoServerTileLayer)) {
+            labelFinder.found = true;
+            return gridSubset.getTileWidth();
+        }
+        List<StyleInfo> styles = new ArrayList<>();
+        PublishedInfo published = ((GeoServerTileLayer) tileLayer).getPublishedInfo();
+        if (published instanceof LayerInfo) {
+            collectStyles((LayerInfo) published, styles);
+        } else if (published instanceof LayerGroupInfo) {
+            for (LayerInfo layer : ((LayerGroupInfo) published).layers()) {
+                collectStyles(layer, styles);
+            }
+            styles.addAll(((LayerGroupInfo) published).styles());
+        }
+        MetaBufferEstimator estimator = new MetaBufferEstimator();
+        for (StyleInfo si : styles) {
+            if (si == null) {
+                continue;
+            }
+            try {
+                Style style = si.getStyle();
+                style.accept(estimator);
+                style.accept(labelFinder);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not load style " + si.prefixedName(), e);
+            }
+        }
+        // one more pixel to account for antialiasing
+        return estimator.isEstimateAccurate()
+                ? estimator.getBuffer() + 1
+                : gridSubset.getTileWidth();
+    }
+
+    /**
+     * Returns true if the styles of the tile layer contain labels, whose placement depends on the
+     * area being rendered. Layers not backed by the catalog are assumed to contain labels.
+     */
+    public boolean hasLabels(TileLayer tileLayer, GridSubset gridSubset) {
+        LabelFinder labelFinder = new LabelFinder();
+        getRenderingBuffer(tileLayer, gridSubset, labelFinder);
+        return labelFinder.found;
+    }
+
+    private void collectStyles(LayerInfo layer, List<StyleInfo> styles) {
+        styles.add(layer.getDefaultStyle());
+        styles.addAll(layer.getStyles());
+    }
+
+    /** Checks if a style contains text symbolizers */
+    private static class LabelFinder extends AbstractStyleVisitor {
+        boolean found;
+
+        @Override
+        public void visit(TextSymbolizer text) {
+            found = true;
+        }
+    }
+
     private BoundingBox getIntersectingBounds(
             String layerName, GridSubset layerGrid, ReferencedEnvelope bounds) {
         final GridSet gridSet = layerGrid.getGridSet();
@@ -1392,6 +1572,141 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return new ByteArrayResource(resp.getBytes());
     }
 
+    /**
+     * Renders a GetMap request issued by a {@link GeoServerTileLayer} calling the WMS service
+     * directly, instead of going through the OWS {@link Dispatcher} like {@link
+     * #dispatchOwsRequest} does. The parameters are parsed by the same KVP parsers and request
+     * reader, the {@link DispatcherCallback}s are called in the same sequence as the dispatcher
+     * does (service enablement and security checks, control flow, monitoring, resource cleanup at
+     * the end) and the call goes through the WMS service interceptors, so the request is handled
+     * as usual, without the dispatcher exception handling and the response buffering.
+     *
+     * <p>The resulting map is made available in {@link GeoServerTileLayer#WEB_MAP}, as for a
+     * dispatched request.
+     */
+    @SuppressWarnings("unchecked")
+    public void dispatchGetMap(final Map<String, String> params, Cookie[] cookies)
+            throws Exception {
+        String workspaceName = params.remove(WORKSPACE_PARAM);
+        // only used to forward the original request headers, host and port
+        FakeHttpServletRequest httpRequest =
+                new FakeHttpServletRequest(params, cookies, workspaceName);
+
+        Map<String, Object> rawKvp = new KvpMap(params);
+        Map<String, Object> kvp = new KvpMap(params);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (!errors.isEmpty()) {
+            throw new org.geoserver.platform.ServiceException(
+                    "Failed to parse the GetMap request", errors.get(0));
+        }
+
+        Request request = new Request();
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new FakeHttpServletResponse());
+        // as parsed by the dispatcher out of a "workspace/wms" path
+        request.setContext(workspaceName);
+        request.setPath("wms");
+        request.setKvp(kvp);
+        request.setRawKvp(rawKvp);
+        request.setService("WMS");
+        request.setVersion((String) rawKvp.get("VERSION"));
+        request.setRequest("GetMap");
+
+        List<DispatcherCallback> callbacks =
+                GeoServerExtensions.extensions(DispatcherCallback.class);
+        Request previousRequest = Dispatcher.REQUEST.get();
+        WorkspaceInfo previousWorkspace = LocalWorkspace.get();
+        Dispatcher.REQUEST.set(request);
+        try {
+            if (workspaceName != null) {
+                WorkspaceInfo workspace = catalog.getWorkspaceByName(workspaceName);
+                if (workspace == null) {
+                    throw new org.geoserver.platform.ServiceException(
+                            "No such workspace: " + workspaceName);
+                }
+                LocalWorkspace.set(workspace);
+            }
+            for (DispatcherCallback callback : callbacks) {
+                Request r = callback.init(request);
+                request = r != null ? r : request;
+            }
+            Dispatcher.REQUEST.set(request);
+
+            org.geoserver.platform.Service service = findWmsService(request.getVersion());
+            request.setServiceDescriptor(service);
+            for (DispatcherCallback callback : callbacks) {
+                org.geoserver.platform.Service s = callback.serviceDispatched(request, service);
+                service = s != null ? s : service;
+            }
+
+            KvpRequestReader reader =
+                    (KvpRequestReader) GeoServerExtensions.bean("getMapKvpReader");
+            if (reader instanceof HttpServletRequestAware) {
+                ((HttpServletRequestAware) reader).setHttpRequest(httpRequest);
+            }
+            GetMapRequest getMap = (GetMapRequest) reader.read(reader.createRequest(), kvp, rawKvp);
+            getMap.setBaseUrl(RequestUtils.baseURL(httpRequest));
+
+            Method method = OwsUtils.method(service.getService().getClass(), "getMap");
+            Operation operation = new Operation("GetMap", service, method, new Object[] {getMap});
+            for (DispatcherCallback callback : callbacks) {
+                Operation o = callback.operationDispatched(request, operation);
+                operation = o != null ? o : operation;
+            }
+            request.setOperation(operation);
+
+            WebMapService wms = (WebMapService) operation.getService().getService();
+            Object result = wms.getMap((GetMapRequest) operation.getParameters()[0]);
+            for (DispatcherCallback callback : callbacks) {
+                Object r = callback.operationExecuted(request, operation, result);
+                result = r != null ? r : result;
+            }
+            if (result instanceof WebMap) {
+                // not intercepted by the seeding interceptor
+                GeoServerTileLayer.WEB_MAP.set((WebMap) result);
+            }
+        } finally {
+            for (DispatcherCallback callback : callbacks) {
+                try {
+                    callback.finished(request);
+                } catch (Throwable t) {
+                    log.log(Level.WARNING, "Error firing finished callback for " + callback, t);
+                }
+            }
+            if (previousWorkspace != null) {
+                LocalWorkspace.set(previousWorkspace);
+            } else {
+                LocalWorkspace.remove();
+            }
+            if (previousRequest != null) {
+                Dispatcher.REQUEST.set(previousRequest);
+            } else {
+                Dispatcher.REQUEST.remove();
+            }
+        }
+    }
+
+    /** Returns the WMS service descriptor for the given version, or the most recent one */
+    private org.geoserver.platform.Service findWmsService(String version) {
+        org.geoserver.platform.Service result = null;
+        for (org.geoserver.platform.Service service :
+                GeoServerExtensions.extensions(org.geoserver.platform.Service.class)) {
+            if (!"wms".equalsIgnoreCase(service.getId())) {
+                continue;
+            }
+            if (version != null && version.equals(service.getVersion().toString())) {
+                return service;
+            }
+            if (result == null || result.getVersion().compareTo(service.getVersion()) < 0) {
+                result = service;
+            }
+        }
+        if (result == null) {
+            throw new org.geoserver.platform.ServiceException("WMS service is not available");
+        }
+        return result;
+    }
+
     public void proxyOwsRequest(ConveyorTile tile) throws Exception {
         HttpServletRequest actualRequest = tile.servletReq;
 
@@ -1719,6 +2034,17 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return response;
     }
 
+    /**
+     * Checks if the WMS output format for the given mime type can build the tiles of a meta tile
+     * separately, see {@link MetaTilingMapOutputFormat}
+     */
+    public boolean isMetaTilingSupported(MimeType responseFormat) {
+        return metaTilingFormats.computeIfAbsent(
+                responseFormat.getFormat(),
+                format ->
+                        WMS.get().getMapOutputFormat(format) instanceof MetaTilingMapOutputFormat);
+    }
+
     /**
      * Determines if the {@link PublishedInfo} associated with a {@link GeoServerTileLayer} is
      * queryable via WMS
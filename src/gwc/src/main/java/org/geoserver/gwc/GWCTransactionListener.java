@@ -7,11 +7,16 @@ package org.geoserver.gwc;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.namespace.QName;
@@ -21,18 +26,32 @@ import org.geoserver.wfs.*;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.geowebcache.GeoWebCacheException;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
- * Listens to transactions (so far only issued by WFS) and truncates the cache for the affected area
- * of the layers involved in the transaction.
+ * Listens to transactions (so far only issued by WFS) and truncates the cache for the area affected
+ * by the modified features of the layers involved in the transaction.
+ *
+ * <p>The geometries of the inserted, updated and deleted features are collected during the
+ * transaction, and once it's committed, the tiles they touch are removed (see {@link
+ * GWC#truncate(String, Geometry, CoordinateReferenceSystem)}). To avoid hitting the tile storage on
+ * every single transaction, the affected geometries are accumulated for a short time, controlled by
+ * the {@code org.geoserver.gwc.truncate.delay} system variable (in milliseconds, zero or negative
+ * to truncate right after each transaction), and then truncated in a single pass per layer.
  *
  * <p>A Spring bean singleton of this class needs to be declared in order for GeoServer transactions
  * to pick it up automatically and forward transaction events to it.
@@ -43,17 +62,81 @@ import org.opengis.referencing.operation.TransformException;
  * @author Gabriel Roldan
  * @version $Id$
  */
-public class GWCTransactionListener implements TransactionCallback {
+public class GWCTransactionListener implements TransactionCallback, DisposableBean {
 
     private static Logger log = Logging.getLogger(GWCTransactionListener.class);
 
+    /** Time, in milliseconds, the affected geometries are accumulated before truncating */
+    static final long TRUNCATE_DELAY = Long.getLong("org.geoserver.gwc.truncate.delay", 1000);
+
+    /**
+     * Maximum number of geometries collected for a single transaction element, beyond that the
+     * bounds of the affected features are used instead
+     */
+    static final int MAX_GEOMETRIES =
+            Integer.getInteger("org.geoserver.gwc.truncate.maxGeometries", 1000);
+
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
     private final GWC gwc;
 
+    private final long delay;
+
+    private final ScheduledExecutorService executor;
+
+    /** The geometries waiting to be truncated, by tile layer name */
+    private final Map<String, PendingTruncate> pending = new LinkedHashMap<>();
+
+    private boolean flushScheduled;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
+    /** The geometries affected by a transaction element, in their native CRS */
+    static class AffectedGeometries {
+        final List<Geometry> geometries;
+
+        final CoordinateReferenceSystem crs;
+
+        AffectedGeometries(List<Geometry> geometries, CoordinateReferenceSystem crs) {
+            this.geometries = geometries;
+            this.crs = crs;
+        }
+    }
+
+    /** The geometries of a tile layer waiting to be truncated, in the layer declared CRS */
+    static class PendingTruncate {
+        final List<Geometry> geometries = new ArrayList<>();
+
+        final CoordinateReferenceSystem crs;
+
+        PendingTruncate(CoordinateReferenceSystem crs) {
+            this.crs = crs;
+        }
+    }
+
     /** @param gwc */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, TRUNCATE_DELAY);
+    }
+
+    /**
+     * @param gwc
+     * @param delay the time, in milliseconds, the affected geometries are accumulated before
+     *     truncating, zero or negative to truncate synchronously at the end of each transaction
+     */
+    GWCTransactionListener(final GWC gwc, long delay) {
         this.gwc = gwc;
+        this.delay = delay;
+        if (delay > 0) {
+            this.executor =
+                    Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactoryBuilder()
+                                    .setDaemon(true)
+                                    .setNameFormat("gwc-transaction-truncate-%d")
+                                    .build());
+        } else {
+            this.executor = null;
+        }
     }
 
     /**
@@ -76,8 +159,8 @@ public class GWCTransactionListener implements TransactionCallback {
     }
 
     /**
-     * If transaction's succeeded then truncate the affected layers at the transaction affected
-     * bounds
+     * If transaction's succeeded then schedule the truncation of the affected layers at the
+     * transaction affected geometries
      *
      * @see org.geoserver.wfs.TransactionPlugin#afterTransaction
      */
@@ -96,55 +179,105 @@ public class GWCTransactionListener implements TransactionCallback {
 
     private void afterTransactionInternal(final TransactionRequest transaction, boolean committed) {
 
-        final Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions =
+        final Map<String, List<AffectedGeometries>> byLayerDirtyRegions =
                 getByLayerDirtyRegions(transaction);
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
-            List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
-            ReferencedEnvelope dirtyRegion;
+            List<AffectedGeometries> dirtyList = byLayerDirtyRegions.get(tileLayerName);
             try {
-                dirtyRegion = merge(tileLayerName, dirtyList);
+                final CoordinateReferenceSystem declaredCrs =
+                        CRS.getHorizontalCRS(gwc.getDeclaredCrs(tileLayerName));
+                List<Geometry> geometries = new ArrayList<>();
+                for (AffectedGeometries affected : dirtyList) {
+                    geometries.addAll(transform(affected.geometries, affected.crs, declaredCrs));
+                }
+                if (!geometries.isEmpty()) {
+                    enqueue(tileLayerName, geometries, declaredCrs);
+                }
             } catch (Exception e) {
                 log.log(Level.WARNING, e.getMessage(), e);
-                continue;
             }
-            if (dirtyRegion == null) {
-                continue;
+        }
+
+        if (executor == null) {
+            flush();
+        }
+    }
+
+    private List<Geometry> transform(
+            List<Geometry> geometries,
+            CoordinateReferenceSystem sourceCrs,
+            CoordinateReferenceSystem targetCrs)
+            throws FactoryException, TransformException {
+        if (sourceCrs == null || targetCrs == null) {
+            return geometries;
+        }
+        CoordinateReferenceSystem horizontalCrs = CRS.getHorizontalCRS(sourceCrs);
+        if (horizontalCrs == null || CRS.equalsIgnoreMetadata(horizontalCrs, targetCrs)) {
+            return geometries;
+        }
+        MathTransform transform = CRS.findMathTransform(horizontalCrs, targetCrs, true);
+        List<Geometry> result = new ArrayList<>(geometries.size());
+        for (Geometry geometry : geometries) {
+            result.add(JTS.transform(geometry, transform));
+        }
+        return result;
+    }
+
+    /** Adds the geometries to the pending ones, scheduling a truncation if needed */
+    private void enqueue(
+            String tileLayerName, List<Geometry> geometries, CoordinateReferenceSystem crs)
+            throws FactoryException, TransformException {
+        synchronized (pending) {
+            PendingTruncate layerPending = pending.get(tileLayerName);
+            if (layerPending == null) {
+                layerPending = new PendingTruncate(crs);
+                pending.put(tileLayerName, layerPending);
+            }
+            // the declared CRS might have been changed in the meantime
+            layerPending.geometries.addAll(transform(geometries, crs, layerPending.crs));
+            if (executor != null && !flushScheduled) {
+                executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
             }
+        }
+    }
+
+    /** Truncates the tiles touched by the pending geometries */
+    void flush() {
+        Map<String, PendingTruncate> batch;
+        synchronized (pending) {
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+        for (Map.Entry<String, PendingTruncate> entry : batch.entrySet()) {
+            String tileLayerName = entry.getKey();
+            PendingTruncate layerPending = entry.getValue();
+            Geometry geometry = GEOMETRY_FACTORY.buildGeometry(layerPending.geometries);
             try {
-                gwc.truncate(tileLayerName, dirtyRegion);
-            } catch (GeoWebCacheException e) {
-                log.warning(
+                gwc.truncate(tileLayerName, geometry, layerPending.crs);
+            } catch (GeoWebCacheException | RuntimeException e) {
+                log.log(
+                        Level.WARNING,
                         "Error truncating tile layer "
                                 + tileLayerName
-                                + " for transaction affected bounds "
-                                + dirtyRegion);
+                                + " for transaction affected area "
+                                + geometry.getEnvelopeInternal(),
+                        e);
             }
         }
     }
 
-    private ReferencedEnvelope merge(
-            final String tileLayerName, final List<ReferencedEnvelope> dirtyList)
-            throws TransformException, FactoryException {
-        if (dirtyList.size() == 0) {
-            return null;
+    /** Truncates the pending geometries and stops the background truncation */
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
         }
-
-        final CoordinateReferenceSystem declaredCrs =
-                CRS.getHorizontalCRS(gwc.getDeclaredCrs(tileLayerName));
-        ReferencedEnvelope merged = new ReferencedEnvelope(declaredCrs);
-        for (ReferencedEnvelope env : dirtyList) {
-            if (env instanceof ReferencedEnvelope3D) {
-                env =
-                        new ReferencedEnvelope(
-                                env, CRS.getHorizontalCRS(env.getCoordinateReferenceSystem()));
-            }
-            ReferencedEnvelope transformedDirtyRegion = env.transform(declaredCrs, true, 1000);
-            merged.expandToInclude(transformedDirtyRegion);
-        }
-        return merged;
+        flush();
     }
 
     /**
@@ -156,7 +289,7 @@ public class GWCTransactionListener implements TransactionCallback {
     }
 
     /**
-     * Collects the per TileLayer affected bounds
+     * Collects the per TileLayer affected geometries
      *
      * @see
      *     org.geoserver.wfs.TransactionListener#dataStoreChange(org.geoserver.wfs.TransactionEvent)
@@ -196,27 +329,60 @@ public class GWCTransactionListener implements TransactionCallback {
         }
 
         final SimpleFeatureCollection affectedFeatures = event.getAffectedFeatures();
-        final ReferencedEnvelope affectedBounds = affectedFeatures.getBounds();
+        final AffectedGeometries affectedGeometries = getAffectedGeometries(affectedFeatures);
+        if (affectedGeometries.geometries.isEmpty()) {
+            return;
+        }
 
         final TransactionType transaction = event.getRequest();
         TransactionRequest request = TransactionRequest.adapt(transaction);
 
         for (String tileLayerName : affectedTileLayers) {
-            addLayerDirtyRegion(request, tileLayerName, affectedBounds);
+            addLayerDirtyRegion(request, tileLayerName, affectedGeometries);
+        }
+    }
+
+    /**
+     * Collects the geometries of the affected features, or their bounds if there are too many of
+     * them
+     */
+    private AffectedGeometries getAffectedGeometries(SimpleFeatureCollection features) {
+        CoordinateReferenceSystem crs = features.getSchema().getCoordinateReferenceSystem();
+        List<Geometry> geometries = new ArrayList<>();
+        try (SimpleFeatureIterator it = features.features()) {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                Object geometry = feature.getDefaultGeometry();
+                if (geometry instanceof Geometry && !((Geometry) geometry).isEmpty()) {
+                    geometries.add((Geometry) geometry);
+                    if (geometries.size() > MAX_GEOMETRIES) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (geometries.size() > MAX_GEOMETRIES) {
+            ReferencedEnvelope bounds = features.getBounds();
+            geometries.clear();
+            geometries.add(JTS.toGeometry((Envelope) bounds));
+            if (crs == null) {
+                crs = bounds.getCoordinateReferenceSystem();
+            }
         }
+        return new AffectedGeometries(geometries, crs);
     }
 
     @SuppressWarnings("unchecked")
-    private Map<String, List<ReferencedEnvelope>> getByLayerDirtyRegions(
+    private Map<String, List<AffectedGeometries>> getByLayerDirtyRegions(
             final TransactionRequest transaction) {
 
         final Map<Object, Object> extendedProperties = transaction.getExtendedProperties();
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions;
+        Map<String, List<AffectedGeometries>> byLayerDirtyRegions;
         byLayerDirtyRegions =
-                (Map<String, List<ReferencedEnvelope>>)
+                (Map<String, List<AffectedGeometries>>)
                         extendedProperties.get(GWC_TRANSACTION_INFO_PLACEHOLDER);
         if (byLayerDirtyRegions == null) {
-            byLayerDirtyRegions = new HashMap<String, List<ReferencedEnvelope>>();
+            byLayerDirtyRegions = new HashMap<String, List<AffectedGeometries>>();
             extendedProperties.put(GWC_TRANSACTION_INFO_PLACEHOLDER, byLayerDirtyRegions);
         }
         return byLayerDirtyRegions;
@@ -225,16 +391,16 @@ public class GWCTransactionListener implements TransactionCallback {
     private void addLayerDirtyRegion(
             final TransactionRequest transaction,
             final String tileLayerName,
-            final ReferencedEnvelope affectedBounds) {
+            final AffectedGeometries affectedGeometries) {
 
-        Map<String, List<ReferencedEnvelope>> byLayerDirtyRegions =
+        Map<String, List<AffectedGeometries>> byLayerDirtyRegions =
                 getByLayerDirtyRegions(transaction);
 
-        List<ReferencedEnvelope> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
+        List<AffectedGeometries> layerDirtyRegion = byLayerDirtyRegions.get(tileLayerName);
         if (layerDirtyRegion == null) {
-            layerDirtyRegion = new ArrayList<ReferencedEnvelope>(2);
+            layerDirtyRegion = new ArrayList<AffectedGeometries>(2);
             byLayerDirtyRegions.put(tileLayerName, layerDirtyRegion);
         }
-        layerDirtyRegion.add(affectedBounds);
+        layerDirtyRegion.add(affectedGeometries);
     }
 }
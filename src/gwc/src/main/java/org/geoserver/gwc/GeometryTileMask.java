@@ -0,0 +1,319 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.storage.TileRangeMask;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * A {@link TileRangeMask} selecting, for each zoom level, only the tiles touched by a set of
+ * geometries, buffered by a given amount of pixels. Used to truncate the tiles affected by a
+ * transaction without wiping out the whole bounding box of the modified features.
+ *
+ * <p>Each geometry is visited separately with a quadtree descent over the tile grid, so the cost
+ * depends on the number of tiles actually touched, not on the area between the geometries. The
+ * touched tiles are kept as a sorted array of tile keys per level. When a level would need more
+ * than a given amount of tiles, the mask falls back to testing the geometries directly at lookup
+ * time for that level.
+ *
+ * <p>When the tiles are rendered in meta tiles and the styles contain labels, a change can affect
+ * any tile of the meta tile due to label conflict resolution, the mask can be built to select
+ * whole meta tiles in this case.
+ */
+class GeometryTileMask implements TileRangeMask {
+
+    /** Maximum number of tiles recorded per level, beyond that the geometries are tested */
+    static final int MAX_LEVEL_TILES =
+            Integer.getInteger("org.geoserver.gwc.truncate.maxMaskTiles", 256 * 1024);
+
+    private static final long[] EMPTY = new long[0];
+
+    private final GridSubset gridSubset;
+
+    private final List<PreparedGeometry> geometries;
+
+    private final double bufferPixels;
+
+    private final int metaX;
+
+    private final int metaY;
+
+    private final int maxLevelTiles;
+
+    /** The coverage of the touched tiles for each level, indexed by zoom level */
+    private final long[][] coverages;
+
+    /** The sorted keys of the touched meta tiles (or tiles) for each level, null if not recorded */
+    private final long[][] keys;
+
+    private boolean empty = true;
+
+    /**
+     * Builds the mask
+     *
+     * @param gridSubset The grid subset of the tile layer
+     * @param geometry The affected geometries, in the grid set CRS, collections are split in their
+     *     components
+     * @param bufferPixels The distance, in pixels, at which the rendering of a geometry can affect
+     *     a tile
+     * @param metaTilingFactors The meta tiling factors, to select whole meta tiles, or null to
+     *     select single tiles
+     */
+    GeometryTileMask(
+            GridSubset gridSubset,
+            Geometry geometry,
+            double bufferPixels,
+            int[] metaTilingFactors) {
+        this(gridSubset, geometry, bufferPixels, metaTilingFactors, MAX_LEVEL_TILES);
+    }
+
+    GeometryTileMask(
+            GridSubset gridSubset,
+            Geometry geometry,
+            double bufferPixels,
+            int[] metaTilingFactors,
+            int maxLevelTiles) {
+        this.gridSubset = gridSubset;
+        this.bufferPixels = Math.max(0, bufferPixels);
+        this.metaX = metaTilingFactors == null ? 1 : Math.max(1, metaTilingFactors[0]);
+        this.metaY = metaTilingFactors == null ? 1 : Math.max(1, metaTilingFactors[1]);
+        this.maxLevelTiles = maxLevelTiles;
+        this.geometries = new ArrayList<>();
+        collect(geometry);
+
+        int levels = gridSubset.getGridSet().getNumLevels();
+        this.coverages = new long[levels][];
+        this.keys = new long[levels][];
+        for (int z = 0; z < levels; z++) {
+            coverages[z] = new long[] {0, 0, -1, -1, z};
+            keys[z] = EMPTY;
+        }
+        for (int z = gridSubset.getZoomStart(); z <= gridSubset.getZoomStop(); z++) {
+            buildLevel(z);
+        }
+    }
+
+    private void collect(Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            return;
+        }
+        if (geometry.getNumGeometries() > 1) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                collect(geometry.getGeometryN(i));
+            }
+        } else {
+            geometries.add(PreparedGeometryFactory.prepare(geometry));
+        }
+    }
+
+    /** Returns true if no tile is selected at any level */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    @Override
+    public long[][] getGridCoverages() {
+        return coverages;
+    }
+
+    @Override
+    public boolean lookup(long x, long y, int z) {
+        if (z < 0 || z >= coverages.length) {
+            return false;
+        }
+        long[] coverage = coverages[z];
+        if (x < coverage[0] || x > coverage[2] || y < coverage[1] || y > coverage[3]) {
+            return false;
+        }
+        long[] levelKeys = keys[z];
+        if (levelKeys != null) {
+            return Arrays.binarySearch(levelKeys, key(x / metaX, y / metaY)) >= 0;
+        }
+        // too many tiles at this level, test the geometries directly
+        long mx = x - x % metaX;
+        long my = y - y % metaY;
+        long[] block = {mx, my, mx + metaX - 1, my + metaY - 1, z};
+        Envelope envelope = toEnvelope(gridSubset.boundsFromRectangle(block));
+        envelope.expandBy(getBuffer(z));
+        Geometry test = geometries.get(0).getGeometry().getFactory().toGeometry(envelope);
+        for (PreparedGeometry geometry : geometries) {
+            if (geometry.intersects(test)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double getBuffer(int z) {
+        return bufferPixels * gridSubset.getGridSet().getGrid(z).getResolution();
+    }
+
+    private void buildLevel(int z) {
+        double buffer = getBuffer(z);
+        long[] levelCoverage = gridSubset.getCoverage(z);
+        LongList levelKeys = new LongList();
+        long[] touched = null;
+        for (PreparedGeometry geometry : geometries) {
+            Envelope envelope = new Envelope(geometry.getGeometry().getEnvelopeInternal());
+            envelope.expandBy(buffer);
+            long[] range = getRange(z, envelope, levelCoverage);
+            if (range == null) {
+                continue;
+            }
+            touched = union(touched, range);
+            if (levelKeys != null && !fill(geometry, range, buffer, levelKeys)) {
+                // too many tiles, will test the geometries at lookup time
+                levelKeys = null;
+            }
+        }
+        if (touched == null) {
+            return;
+        }
+
+        // align the coverage to the meta tiles, and keep it inside the grid subset
+        touched[0] = Math.max(levelCoverage[0], touched[0] - touched[0] % metaX);
+        touched[1] = Math.max(levelCoverage[1], touched[1] - touched[1] % metaY);
+        touched[2] = Math.min(levelCoverage[2], touched[2] - touched[2] % metaX + metaX - 1);
+        touched[3] = Math.min(levelCoverage[3], touched[3] - touched[3] % metaY + metaY - 1);
+        if (levelKeys == null) {
+            keys[z] = null;
+            coverages[z] = touched;
+            empty = false;
+        } else if (levelKeys.size() > 0) {
+            keys[z] = levelKeys.toSortedArray();
+            coverages[z] = touched;
+            empty = false;
+        }
+    }
+
+    /** Returns the tile range touched by the envelope at the given level, or null if none */
+    private long[] getRange(int z, Envelope envelope, long[] levelCoverage) {
+        BoundingBox bbox =
+                new BoundingBox(
+                        envelope.getMinX(),
+                        envelope.getMinY(),
+                        envelope.getMaxX(),
+                        envelope.getMaxY());
+        long[] range = gridSubset.getCoverageIntersection(z, bbox);
+        if (range == null) {
+            return null;
+        }
+        long minX = Math.max(range[0], levelCoverage[0]);
+        long minY = Math.max(range[1], levelCoverage[1]);
+        long maxX = Math.min(range[2], levelCoverage[2]);
+        long maxY = Math.min(range[3], levelCoverage[3]);
+        if (minX > maxX || minY > maxY) {
+            return null;
+        }
+        return new long[] {minX, minY, maxX, maxY, z};
+    }
+
+    private long[] union(long[] r1, long[] r2) {
+        if (r1 == null) {
+            return r2.clone();
+        }
+        r1[0] = Math.min(r1[0], r2[0]);
+        r1[1] = Math.min(r1[1], r2[1]);
+        r1[2] = Math.max(r1[2], r2[2]);
+        r1[3] = Math.max(r1[3], r2[3]);
+        return r1;
+    }
+
+    /**
+     * Collects the keys of the (meta) tiles in the range touched by the geometry, splitting the
+     * range recursively. Returns false if the maximum number of tiles has been exceeded.
+     */
+    private boolean fill(PreparedGeometry geometry, long[] range, double buffer, LongList keys) {
+        Envelope envelope = toEnvelope(gridSubset.boundsFromRectangle(range));
+        GeometryFactory factory = geometry.getGeometry().getFactory();
+        Envelope buffered = new Envelope(envelope);
+        buffered.expandBy(buffer);
+        if (!geometry.intersects(factory.toGeometry(buffered))) {
+            return true;
+        }
+
+        long width = range[2] - range[0] + 1;
+        long height = range[3] - range[1] + 1;
+        if ((width == 1 && height == 1) || geometry.contains(factory.toGeometry(envelope))) {
+            // all the tiles in the range are touched
+            long minX = range[0] / metaX;
+            long minY = range[1] / metaY;
+            long maxX = range[2] / metaX;
+            long maxY = range[3] / metaY;
+            if (keys.size() + (maxX - minX + 1) * (maxY - minY + 1) > maxLevelTiles) {
+                return false;
+            }
+            for (long y = minY; y <= maxY; y++) {
+                for (long x = minX; x <= maxX; x++) {
+                    keys.add(key(x, y));
+                }
+            }
+            return true;
+        }
+
+        // split along the longest side
+        long[] r1 = range.clone();
+        long[] r2 = range.clone();
+        if (width >= height) {
+            long mid = range[0] + width / 2;
+            r1[2] = mid - 1;
+            r2[0] = mid;
+        } else {
+            long mid = range[1] + height / 2;
+            r1[3] = mid - 1;
+            r2[1] = mid;
+        }
+        return fill(geometry, r1, buffer, keys) && fill(geometry, r2, buffer, keys);
+    }
+
+    private static long key(long x, long y) {
+        // tile indexes are well below 2^31 even for the deepest practical levels
+        return (x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static Envelope toEnvelope(BoundingBox bbox) {
+        return new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox.getMaxY());
+    }
+
+    /** A minimal growable list of primitive longs */
+    private static class LongList {
+        long[] values = new long[64];
+
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toSortedArray() {
+            long[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            // remove duplicates, geometries and meta tiles can touch the same keys
+            int unique = 0;
+            for (int i = 0; i < result.length; i++) {
+                if (i == 0 || result[i] != result[i - 1]) {
+                    result[unique++] = result[i];
+                }
+            }
+            return Arrays.copyOf(result, unique);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.conveyor.ConveyorTile;
+
+/**
+ * HTTP validators (ETag and Last-Modified) for cached tiles, and evaluation of the conditional and
+ * range request headers against them.
+ *
+ * <p>The ETag returned by {@link #getETag} is strong and computed out of the tile key, and the
+ * creation time and size of the stored blob, as recorded by the blob store when the tile was saved.
+ * A tile is rewritten as a whole every time its content changes, so the ETag changes along with the
+ * content, and it can be computed without reading the tile body, on any node sharing the same blob
+ * store. Callers mimicking the GWC services can evaluate the headers against the GWC ETags instead.
+ */
+public final class TileValidators {
+
+    static final Logger LOGGER = Logging.getLogger(TileValidators.class);
+
+    /** Returned by {@link #getRange} when the requested range cannot be satisfied */
+    public static final long[] UNSATISFIABLE = new long[0];
+
+    private TileValidators() {}
+
+    /** Returns the strong ETag of a tile retrieved from the cache, quoted */
+    public static String getETag(ConveyorTile tile) {
+        long size = tile.getBlob() == null ? -1 : tile.getBlob().getSize();
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(String.valueOf(tile.getLayerId()), StandardCharsets.UTF_8);
+        hasher.putString(String.valueOf(tile.getGridSetId()), StandardCharsets.UTF_8);
+        long[] index = tile.getTileIndex();
+        if (index != null) {
+            for (long ordinate : index) {
+                hasher.putLong(ordinate);
+            }
+        }
+        if (tile.getMimeType() != null) {
+            hasher.putString(tile.getMimeType().getFormat(), StandardCharsets.UTF_8);
+        }
+        hasher.putString(String.valueOf(tile.getParametersId()), StandardCharsets.UTF_8);
+        hasher.putLong(tile.getTSCreated());
+        hasher.putLong(size);
+        return "\"" + hasher.hash().toString() + "\"";
+    }
+
+    /** Formats a timestamp for the Last-Modified header */
+    public static String formatDate(long timestamp) {
+        return DateUtil.formatDate(new Date(timestamp));
+    }
+
+    /**
+     * Checks if the client copy is still current, in which case a 304 should be returned. As per
+     * RFC 7232 If-Modified-Since is ignored if If-None-Match is present.
+     *
+     * @param ifNoneMatch The If-None-Match header, or null
+     * @param ifModifiedSince The If-Modified-Since header, or null
+     * @param etag The tile ETag, or null if the tile has none
+     * @param lastModified The tile last modification time
+     */
+    public static boolean isNotModified(
+            String ifNoneMatch, String ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null && etag != null) {
+            return matches(ifNoneMatch, etag);
+        }
+        if (ifModifiedSince != null && !ifModifiedSince.isEmpty()) {
+            Date since = parseDate(ifModifiedSince);
+            if (since != null) {
+                // the HTTP header has second precision
+                return since.getTime() / 1000 >= lastModified / 1000;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range request, as {@code [first, last]} offsets. Multiple ranges are
+     * not supported, the whole tile is returned instead, as allowed by RFC 7233.
+     *
+     * @param range The Range header, or null
+     * @param ifRange The If-Range header, or null
+     * @param etag The tile ETag, or null if the tile has none
+     * @param lastModified The tile last modification time
+     * @param size The tile size
+     * @return The range, null if the whole tile should be returned, or {@link #UNSATISFIABLE}
+     */
+    public static long[] getRange(
+            String range, String ifRange, String etag, long lastModified, long size) {
+        if (range == null || !range.startsWith("bytes=") || size < 0) {
+            return null;
+        }
+        if (ifRange != null && !ifRange.equals(etag)) {
+            // an outdated client copy gets the whole tile
+            boolean entityTag = ifRange.startsWith("\"") || ifRange.startsWith("W/");
+            Date date = entityTag ? null : parseDate(ifRange);
+            if (date == null || date.getTime() / 1000 != lastModified / 1000) {
+                return null;
+            }
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        if (spec.contains(",")) {
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range, the last n bytes
+                long length = Long.parseLong(last);
+                if (length <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, size - length);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (end < start) {
+                    return start < size ? null : UNSATISFIABLE;
+                }
+            }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            // syntactically invalid ranges are ignored
+            return null;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // weak comparison, as mandated for If-None-Match
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Date parseDate(String value) {
+        try {
+            return DateUtil.parseDate(value);
+        } catch (DateParseException e) {
+            if (LOGGER.isLoggable(Level.FINER)) {
+                LOGGER.finer("Can't parse client's date header: '" + value + "'");
+            }
+            return null;
+        }
+    }
+}
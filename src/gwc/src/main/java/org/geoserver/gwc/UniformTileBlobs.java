@@ -0,0 +1,219 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.TileObject;
+
+/**
+ * Shared blobs of the uniform tiles (e.g., the fully transparent ones found outside of the data
+ * area). Each distinct encoding is saved only once, in the {@code gwc-uniform} directory of the
+ * data directory, named after its SHA-1 digest. The {@link ConfigurableBlobStore} stores a small
+ * marker referencing the shared blob in place of each uniform tile, and resolves it back when the
+ * tile is read, so the GWC services never see the markers.
+ *
+ * <p>The markers are what the disk quota sees for uniform tiles, the shared blobs are accounted for
+ * separately, see {@link ConfigurableQuotaStore#getUniformTilesQuota()}. Markers can be disabled
+ * with -DGWC_UNIFORM_TILE_MARKERS=false, tiles stored as markers are still resolved.
+ */
+public class UniformTileBlobs {
+
+    static final Logger LOGGER = Logging.getLogger(UniformTileBlobs.class);
+
+    /** Whether uniform tiles are stored as markers */
+    static boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("GWC_UNIFORM_TILE_MARKERS", "true"));
+
+    static final String DIRECTORY = "gwc-uniform";
+
+    /** Not a valid start for any of the tile formats, so that markers cannot be mistaken */
+    static final byte[] MARKER_PREFIX = "GWC-UNIFORM:".getBytes(StandardCharsets.US_ASCII);
+
+    /** Marker prefix followed by the hex SHA-1 digest of the shared blob */
+    static final int MARKER_SIZE = MARKER_PREFIX.length + 40;
+
+    /** The shared blobs, by digest */
+    private static final Cache<String, byte[]> BLOBS =
+            CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    /** Sizes of the registered blobs, to skip the tiles that cannot be uniform without hashing */
+    private static final Set<Long> SIZES = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong MARKERS = new AtomicLong();
+
+    private UniformTileBlobs() {}
+
+    /**
+     * Registers the encoding of a uniform tile, saving it in the data directory if not there yet.
+     * Tiles with the same content will then be stored as markers.
+     */
+    public static void register(byte[] encoded) {
+        String digest = digest(encoded);
+        if (BLOBS.getIfPresent(digest) != null) {
+            return;
+        }
+        org.geoserver.platform.resource.Resource directory = getDirectory();
+        if (directory == null) {
+            return;
+        }
+        org.geoserver.platform.resource.Resource resource = directory.get(digest);
+        if (resource.getType() != Type.RESOURCE) {
+            try (OutputStream os = resource.out()) {
+                os.write(encoded);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the uniform tile " + digest, e);
+                return;
+            }
+        }
+        BLOBS.put(digest, encoded);
+        SIZES.add((long) encoded.length);
+    }
+
+    /**
+     * Returns a copy of the tile with a marker in place of its blob if the blob is a registered
+     * uniform tile, or the tile itself otherwise
+     */
+    static TileObject toMarker(TileObject tile) throws IOException {
+        Resource blob = tile.getBlob();
+        if (!ENABLED || blob == null || !SIZES.contains(blob.getSize())) {
+            return tile;
+        }
+        byte[] contents = getContents(blob);
+        String digest = digest(contents);
+        byte[] shared = BLOBS.getIfPresent(digest);
+        if (shared == null || !Arrays.equals(shared, contents)) {
+            return tile;
+        }
+        byte[] marker = Arrays.copyOf(MARKER_PREFIX, MARKER_SIZE);
+        byte[] digestBytes = digest.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digestBytes, 0, marker, MARKER_PREFIX.length, digestBytes.length);
+        TileObject copy =
+                TileObject.createCompleteTileObject(
+                        tile.getLayerName(),
+                        tile.getXYZ(),
+                        tile.getGridSetId(),
+                        tile.getBlobFormat(),
+                        tile.getParameters(),
+                        new ByteArrayResource(marker));
+        copy.setParametersId(tile.getParametersId());
+        MARKERS.incrementAndGet();
+        return copy;
+    }
+
+    /**
+     * Replaces the blob of a tile read from the store with the shared one, if it is a marker.
+     *
+     * @return false if the tile is a marker whose shared blob is no longer available
+     */
+    static boolean resolve(TileObject tile) throws IOException {
+        Resource blob = tile.getBlob();
+        if (blob == null || blob.getSize() != MARKER_SIZE) {
+            return true;
+        }
+        byte[] contents = getContents(blob);
+        if (!Arrays.equals(MARKER_PREFIX, Arrays.copyOf(contents, MARKER_PREFIX.length))) {
+            return true;
+        }
+        String digest =
+                new String(
+                        contents,
+                        MARKER_PREFIX.length,
+                        MARKER_SIZE - MARKER_PREFIX.length,
+                        StandardCharsets.US_ASCII);
+        byte[] shared = getShared(digest);
+        if (shared == null) {
+            LOGGER.warning("Missing shared uniform tile " + digest + ", tile will be rebuilt");
+            return false;
+        }
+        tile.setBlob(new ByteArrayResource(shared));
+        tile.setBlobSize(shared.length);
+        return true;
+    }
+
+    private static byte[] getShared(String digest) throws IOException {
+        byte[] shared = BLOBS.getIfPresent(digest);
+        if (shared != null) {
+            return shared;
+        }
+        org.geoserver.platform.resource.Resource directory = getDirectory();
+        if (directory == null) {
+            return null;
+        }
+        org.geoserver.platform.resource.Resource resource = directory.get(digest);
+        if (resource.getType() != Type.RESOURCE) {
+            return null;
+        }
+        try (InputStream is = resource.in()) {
+            shared = ByteStreams.toByteArray(is);
+        }
+        BLOBS.put(digest, shared);
+        return shared;
+    }
+
+    private static byte[] getContents(Resource blob) throws IOException {
+        if (blob instanceof ByteArrayResource) {
+            return ((ByteArrayResource) blob).getContents();
+        }
+        try (InputStream is = blob.getInputStream()) {
+            return ByteStreams.toByteArray(is);
+        }
+    }
+
+    private static String digest(byte[] contents) {
+        return Hashing.sha1().hashBytes(contents).toString();
+    }
+
+    /** Returns the number of uniform tiles stored as markers since startup */
+    public static long getMarkersStored() {
+        return MARKERS.get();
+    }
+
+    /** Returns the disk space used by the shared blobs, in bytes */
+    public static long getSharedSize() {
+        org.geoserver.platform.resource.Resource directory = getDirectory();
+        if (directory == null) {
+            return 0;
+        }
+        long size = 0;
+        for (org.geoserver.platform.resource.Resource resource : directory.list()) {
+            if (resource.getType() == Type.RESOURCE) {
+                size += resource.file().length();
+            }
+        }
+        return size;
+    }
+
+    /** The directory of the shared blobs, or null if running outside of GeoServer */
+    private static org.geoserver.platform.resource.Resource getDirectory() {
+        GeoServerResourceLoader loader = GeoServerExtensions.bean(GeoServerResourceLoader.class);
+        return loader == null ? null : loader.get(DIRECTORY);
+    }
+
+    /** Drops the shared blobs kept in memory, the saved ones are kept */
+    static void clear() {
+        BLOBS.invalidateAll();
+        SIZES.clear();
+        MARKERS.set(0);
+    }
+}
@@ -0,0 +1,534 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.dispatch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.geoserver.config.GeoServer;
+import org.geoserver.filters.GeoServerFilter;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.TileValidators;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geoserver.gwc.wmts.WMTSInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.impl.ServiceAccessRule;
+import org.geoserver.security.impl.ServiceAccessRuleDAO;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.conveyor.Conveyor.CacheResult;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.filter.parameters.ParameterFilter;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.OutsideCoverageException;
+import org.geowebcache.io.FileResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.mime.MimeException;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageBroker;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Serves WMTS KVP and TMS GetTile cache hits straight from the storage broker, without going
+ * through the OWS {@link org.geoserver.ows.Dispatcher} and the GWC service machinery.
+ *
+ * <p>Only the plain requests are handled here, anything else falls through to the regular chain:
+ * virtual services, layers with parameter filters, If-Match preconditions, tiles that are not in
+ * the cache. Cache hits carry the same validators as the GWC dispatcher, Last-Modified and the
+ * strong {@link TileValidators#getETag tile ETag}. If-None-Match and If-Modified-Since are answered
+ * with a 304 without reading the tile, and single byte ranges are served out of the stored blob.
+ *
+ * <p>The filter runs after the security filter chain, the service access rules and, when enabled,
+ * the GWC data security checks are evaluated once per layer, grid set and user over the whole grid
+ * subset, and the outcome is kept for {@link #ACCESS_CACHE_SECONDS}.
+ *
+ * <p>Can be disabled setting the {@code GWC_TILE_FAST_PATH} system variable to false.
+ */
+public class CachedTileFilter implements GeoServerFilter {
+
+    static final Logger LOGGER = Logging.getLogger(CachedTileFilter.class);
+
+    static final boolean ENABLED =
+            !"false".equalsIgnoreCase(GeoServerExtensions.getProperty("GWC_TILE_FAST_PATH"));
+
+    /** How long the per layer and user access decisions are kept around */
+    static final int ACCESS_CACHE_SECONDS = 10;
+
+    static final String WMTS_PATH = "/gwc/service/wmts";
+
+    static final String TMS_PATH = "/gwc/service/tms/1.0.0/";
+
+    static final Set<String> WMTS_PARAMETERS =
+            new HashSet<>(
+                    Arrays.asList(
+                            "SERVICE",
+                            "VERSION",
+                            "REQUEST",
+                            "LAYER",
+                            "STYLE",
+                            "TILEMATRIXSET",
+                            "TILEMATRIX",
+                            "TILEROW",
+                            "TILECOL",
+                            "FORMAT"));
+
+    /** Preconditions not handled by the filter */
+    static final List<String> UNSUPPORTED_HEADERS =
+            Arrays.asList("If-Match", "If-Unmodified-Since");
+
+    private final GWC gwc;
+
+    private final GeoServer geoServer;
+
+    private final ServiceAccessRuleDAO serviceRules;
+
+    private final StorageBroker storageBroker;
+
+    private final Cache<String, Boolean> accessDecisions =
+            CacheBuilder.newBuilder()
+                    .maximumSize(10000)
+                    .expireAfterWrite(ACCESS_CACHE_SECONDS, TimeUnit.SECONDS)
+                    .build();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong hitNanos = new AtomicLong();
+
+    public CachedTileFilter(
+            GWC gwc,
+            GeoServer geoServer,
+            ServiceAccessRuleDAO serviceRules,
+            StorageBroker storageBroker) {
+        this.gwc = gwc;
+        this.geoServer = geoServer;
+        this.serviceRules = serviceRules;
+        this.storageBroker = storageBroker;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        // nothing to do
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        if (ENABLED
+                && req instanceof HttpServletRequest
+                && resp instanceof HttpServletResponse
+                && "GET".equals(((HttpServletRequest) req).getMethod())) {
+            long start = System.nanoTime();
+            HttpServletRequest request = (HttpServletRequest) req;
+            HttpServletResponse response = (HttpServletResponse) resp;
+            if (serveCachedTile(request, response)) {
+                hits.incrementAndGet();
+                hitNanos.addAndGet(System.nanoTime() - start);
+                return;
+            }
+        }
+        chain.doFilter(req, resp);
+    }
+
+    /** Returns true if the tile has been served from the cache */
+    boolean serveCachedTile(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        TileRequest tileRequest;
+        if (WMTS_PATH.equals(path)) {
+            tileRequest = parseWMTS(request);
+        } else if (path.startsWith(TMS_PATH)) {
+            tileRequest = parseTMS(request, path.substring(TMS_PATH.length()));
+        } else {
+            return false;
+        }
+        if (tileRequest == null) {
+            return false;
+        }
+        for (String header : UNSUPPORTED_HEADERS) {
+            if (request.getHeader(header) != null) {
+                return false;
+            }
+        }
+
+        GeoServerTileLayer layer = gwc.getTileLayerByName(tileRequest.layerName);
+        if (layer == null
+                || !layer.isEnabled()
+                || !layer.getMimeTypes().contains(tileRequest.mimeType)) {
+            return false;
+        }
+        List<ParameterFilter> parameterFilters = layer.getParameterFilters();
+        if (parameterFilters != null && !parameterFilters.isEmpty()) {
+            return false;
+        }
+        GridSubset gridSubset = layer.getGridSubset(tileRequest.gridSetId);
+        if (gridSubset == null) {
+            return false;
+        }
+        long[] index = tileRequest.getTileIndex(gridSubset);
+        if (index == null) {
+            return false;
+        }
+        try {
+            gridSubset.checkCoverage(index);
+        } catch (OutsideCoverageException e) {
+            return false;
+        }
+        if (!isAccessible(layer, gridSubset)) {
+            return false;
+        }
+
+        ConveyorTile tile =
+                new ConveyorTile(
+                        storageBroker,
+                        layer.getName(),
+                        gridSubset.getName(),
+                        index,
+                        tileRequest.mimeType,
+                        null,
+                        request,
+                        response);
+        tile.setTileLayer(layer);
+        ConveyorTile cached = layer.getCachedTile(tile);
+        if (cached == null) {
+            return false;
+        }
+
+        Resource blob = cached.getBlob();
+        long size = blob.getSize();
+        long lastModified = cached.getTSCreated();
+        // same strong ETag as the cache hits going through the GWC dispatcher
+        String etag = TileValidators.getETag(cached);
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", TileValidators.formatDate(lastModified));
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("geowebcache-cache-result", CacheResult.HIT.toString());
+        response.setHeader("geowebcache-gridset", gridSubset.getName());
+        response.setHeader("geowebcache-crs", gridSubset.getSRS().toString());
+        // same caching and tile headers as the GWC dispatcher
+        layer.setExpirationHeader(response, (int) index[2]);
+        response.setHeader("geowebcache-tile-index", Arrays.toString(index));
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (TileValidators.isNotModified(ifNoneMatch, ifModifiedSince, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.flushBuffer();
+            return true;
+        }
+
+        long[] range =
+                TileValidators.getRange(
+                        request.getHeader("Range"),
+                        request.getHeader("If-Range"),
+                        etag,
+                        lastModified,
+                        size);
+        if (range == TileValidators.UNSATISFIABLE) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            response.flushBuffer();
+            return true;
+        }
+        response.setContentType(tileRequest.mimeType.getMimeType());
+        if (range == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setHeader("Content-Length", String.valueOf(size));
+            // a plain copy through a buffer, the servlet stream is not a file or socket channel
+            blob.transferTo(Channels.newChannel(response.getOutputStream()));
+        } else {
+            long length = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            response.setHeader("Content-Length", String.valueOf(length));
+            transferRange(blob, range[0], length, response.getOutputStream());
+        }
+        response.flushBuffer();
+        return true;
+    }
+
+    /**
+     * Copies a part of the tile, positioning in the file rather than skipping through a stream
+     * when possible. The target is still a buffered copy into the servlet stream.
+     */
+    private void transferRange(Resource blob, long start, long length, OutputStream out)
+            throws IOException {
+        if (blob instanceof FileResource) {
+            File file = ((FileResource) blob).getFile();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                long remaining = length;
+                while (remaining > 0) {
+                    long transferred = channel.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        } else {
+            try (InputStream in = blob.getInputStream()) {
+                ByteStreams.skipFully(in, start);
+                ByteStreams.copy(ByteStreams.limit(in, length), out);
+            }
+        }
+    }
+
+    private TileRequest parseWMTS(HttpServletRequest request) {
+        Map<String, String> kvp = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : request.getParameterMap().entrySet()) {
+            String key = entry.getKey().toUpperCase(Locale.ENGLISH);
+            String[] values = entry.getValue();
+            if (!WMTS_PARAMETERS.contains(key) || values == null || values.length != 1) {
+                return null;
+            }
+            kvp.put(key, values[0]);
+        }
+        if (!"WMTS".equalsIgnoreCase(kvp.get("SERVICE"))
+                || !"GetTile".equalsIgnoreCase(kvp.get("REQUEST"))
+                || !geoServer.getService(WMTSInfo.class).isEnabled()) {
+            return null;
+        }
+        String layer = kvp.get("LAYER");
+        String gridSetId = kvp.get("TILEMATRIXSET");
+        String tileMatrix = kvp.get("TILEMATRIX");
+        String format = kvp.get("FORMAT");
+        if (layer == null || gridSetId == null || tileMatrix == null || format == null) {
+            return null;
+        }
+        try {
+            long column = Long.parseLong(kvp.get("TILECOL"));
+            long row = Long.parseLong(kvp.get("TILEROW"));
+            MimeType mimeType = MimeType.createFromFormat(format);
+            return new TileRequest(layer, gridSetId, mimeType, tileMatrix, -1, column, row, true);
+        } catch (NumberFormatException | MimeException e) {
+            return null;
+        }
+    }
+
+    /** Parses {@code <layer>@<gridset>@<extension>/<z>/<x>/<y>.<extension>} */
+    private TileRequest parseTMS(HttpServletRequest request, String tilePath) {
+        if (request.getQueryString() != null || !gwc.getConfig().isTMSEnabled()) {
+            return null;
+        }
+        String[] parts = tilePath.split("/");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            String[] layerParts = URLDecoder.decode(parts[0], "UTF-8").split("@");
+            if (layerParts.length != 3) {
+                return null;
+            }
+            int dot = parts[3].lastIndexOf('.');
+            if (dot < 0 || !parts[3].substring(dot + 1).equals(layerParts[2])) {
+                return null;
+            }
+            int z = Integer.parseInt(parts[1]);
+            long x = Long.parseLong(parts[2]);
+            long y = Long.parseLong(parts[3].substring(0, dot));
+            MimeType mimeType = MimeType.createFromExtension(layerParts[2]);
+            if (mimeType == null) {
+                return null;
+            }
+            return new TileRequest(layerParts[0], layerParts[1], mimeType, null, z, x, y, false);
+        } catch (NumberFormatException | MimeException | UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the service access rules and, if enabled, the GWC data security, for the whole grid
+     * subset, so that the decision holds for any tile in it
+     */
+    private boolean isAccessible(GeoServerTileLayer layer, GridSubset gridSubset) {
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        String key = layer.getName() + "@" + gridSubset.getName() + "@" + getUserKey(user);
+        try {
+            return accessDecisions.get(key, () -> computeAccess(user, layer, gridSubset));
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to check access to " + layer.getName(), e);
+            return false;
+        }
+    }
+
+    private boolean computeAccess(
+            Authentication user, GeoServerTileLayer layer, GridSubset gridSubset) {
+        if (!isServiceAccessible(user)) {
+            return false;
+        }
+        if (gwc.getConfig().isSecurityEnabled()) {
+            try {
+                BoundingBox bounds = gridSubset.getOriginalExtent();
+                ReferencedEnvelope envelope =
+                        new ReferencedEnvelope(
+                                bounds.getMinX(),
+                                bounds.getMaxX(),
+                                bounds.getMinY(),
+                                bounds.getMaxY(),
+                                CRS.decode(gridSubset.getSRS().toString()));
+                gwc.verifyAccessLayer(layer.getName(), envelope);
+            } catch (Exception e) {
+                // either denied, or limited to a part of the grid subset, let the full chain
+                // handle it
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Same rule matching as {@link org.geoserver.security.OperationSecurityCallback} */
+    private boolean isServiceAccessible(Authentication user) {
+        ServiceAccessRule bestMatch = null;
+        for (ServiceAccessRule rule : serviceRules.getRules()) {
+            if ((rule.getService().equals(ServiceAccessRule.ANY)
+                            || rule.getService().equalsIgnoreCase("gwc"))
+                    && (rule.getMethod().equals(ServiceAccessRule.ANY)
+                            || rule.getMethod().equalsIgnoreCase("dispatch"))) {
+                bestMatch = rule;
+            }
+        }
+        if (bestMatch == null) {
+            return true;
+        }
+        Set<String> allowedRoles = bestMatch.getRoles();
+        if (allowedRoles.isEmpty() || allowedRoles.contains(ServiceAccessRule.ANY)) {
+            return true;
+        }
+        if (user == null) {
+            return false;
+        }
+        for (GrantedAuthority role : user.getAuthorities()) {
+            if (allowedRoles.contains(role.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getUserKey(Authentication user) {
+        if (user == null) {
+            return "";
+        }
+        return user.getName() + user.getAuthorities();
+    }
+
+    /** Number of tiles served by this filter */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Average time taken to serve a tile by this filter, in milliseconds */
+    public double getAverageHitTime() {
+        long count = hits.get();
+        return count == 0 ? 0 : hitNanos.get() / (count * 1_000_000d);
+    }
+
+    @Override
+    public void destroy() {
+        accessDecisions.invalidateAll();
+        if (hits.get() > 0) {
+            LOGGER.info(
+                    String.format(
+                            "Served %,d cached tiles, %.3f ms on average",
+                            hits.get(), getAverageHitTime()));
+        }
+    }
+
+    /** The tile coordinates out of a WMTS or TMS request */
+    static final class TileRequest {
+
+        final String layerName;
+
+        final String gridSetId;
+
+        final MimeType mimeType;
+
+        final String tileMatrix;
+
+        final int z;
+
+        final long x;
+
+        final long y;
+
+        final boolean topLeft;
+
+        TileRequest(
+                String layerName,
+                String gridSetId,
+                MimeType mimeType,
+                String tileMatrix,
+                int z,
+                long x,
+                long y,
+                boolean topLeft) {
+            this.layerName = layerName;
+            this.gridSetId = gridSetId;
+            this.mimeType = mimeType;
+            this.tileMatrix = tileMatrix;
+            this.z = z;
+            this.x = x;
+            this.y = y;
+            this.topLeft = topLeft;
+        }
+
+        /** Returns the GWC tile index, or null if the tile matrix is not found */
+        long[] getTileIndex(GridSubset gridSubset) {
+            int level = z;
+            if (tileMatrix != null) {
+                level = -1;
+                for (int i = gridSubset.getZoomStart(); i <= gridSubset.getZoomStop(); i++) {
+                    if (tileMatrix.equals(gridSubset.getGridSet().getGrid(i).getName())) {
+                        level = i;
+                        break;
+                    }
+                }
+            }
+            if (level < 0 || level >= gridSubset.getGridSet().getNumLevels()) {
+                return null;
+            }
+            long row = y;
+            if (topLeft) {
+                // WMTS rows go from the top
+                row = gridSubset.getGridSet().getGrid(level).getNumTilesHigh() - y - 1;
+            }
+            return new long[] {x, row, level};
+        }
+    }
+}
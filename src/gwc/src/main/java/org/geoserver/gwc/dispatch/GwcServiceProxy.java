@@ -9,16 +9,19 @@ import com.google.common.collect.ImmutableList;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.ServiceInfoImpl;
+import org.geoserver.gwc.TileValidators;
 import org.geoserver.gwc.config.GWCServiceEnablementInterceptor;
 import org.geoserver.ows.DisabledServiceCheck;
 import org.geoserver.ows.Dispatcher;
@@ -89,10 +92,19 @@ public class GwcServiceProxy {
 
         ResponseWrapper responseWrapper = new ResponseWrapper(rawRespose);
 
-        gwcDispatcher.handleRequest(rawRequest, responseWrapper);
+        gwcDispatcher.handleRequest(new RequestWrapper(rawRequest), responseWrapper);
 
         final String contentType = responseWrapper.getContentType();
         final Map<String, String> headers = responseWrapper.getHeaders();
+
+        // GWC only checks the ETags of the layers using them, GeoServer ones send the tile ETag
+        String etag = headers.get("ETag");
+        String ifNoneMatch = rawRequest.getHeader("If-None-Match");
+        if (TileValidators.isNotModified(ifNoneMatch, null, etag, 0)) {
+            rawRespose.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return new GwcOperationProxy(contentType, headers, new byte[0]);
+        }
+
         final byte[] bytes = responseWrapper.out.getBytes();
 
         return new GwcOperationProxy(contentType, headers, bytes);
@@ -134,6 +146,39 @@ public class GwcServiceProxy {
         return parsed;
     }
 
+    /**
+     * Hides If-Modified-Since from GWC when If-None-Match is present, as the latter takes
+     * precedence (RFC 7232) and is evaluated once the tile ETag is known
+     */
+    private static final class RequestWrapper extends HttpServletRequestWrapper {
+
+        private final boolean ifNoneMatch;
+
+        private RequestWrapper(HttpServletRequest request) {
+            super(request);
+            this.ifNoneMatch = request.getHeader("If-None-Match") != null;
+        }
+
+        private boolean isHidden(String name) {
+            return ifNoneMatch && "If-Modified-Since".equalsIgnoreCase(name);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public long getDateHeader(String name) {
+            return isHidden(name) ? -1 : super.getDateHeader(name);
+        }
+    }
+
     /** */
     private final class ResponseWrapper extends HttpServletResponseWrapper {
 
@@ -9,7 +9,6 @@ import static com.google.common.base.Objects.equal;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagate;
-import static com.google.common.collect.Maps.newConcurrentMap;
 
 import com.google.common.base.Objects;
 import com.google.common.cache.CacheBuilder;
@@ -18,7 +17,6 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -52,10 +50,6 @@ import org.springframework.beans.factory.annotation.Qualifier;
  */
 public class CatalogConfiguration implements TileLayerConfiguration {
 
-    /** The configuration lock timeout, in seconds */
-    static final int GWC_CONFIGURATION_LOCK_TIMEOUT =
-            Integer.getInteger("gwc.configuration.lock.timeout", 60);
-
     /** {@link GeoServerTileLayer} cache loader */
     private final class TileLayerLoader extends CacheLoader<String, GeoServerTileLayer> {
         private final TileLayerCatalog tileLayerCatalog;
@@ -69,12 +63,15 @@ public class CatalogConfiguration implements TileLayerConfiguration {
             GeoServerTileLayer tileLayer = null;
             final GridSetBroker gridSetBroker = CatalogConfiguration.this.gridSetBroker;
 
-            lock.acquireReadLock();
-            try {
-                if (pendingDeletes.contains(layerId)) {
+            // the layer is built out of a snapshot of the pending changes, if a writer published
+            // new ones meanwhile build it again, the writer invalidation might have been missed
+            PendingChanges changes;
+            do {
+                changes = pending;
+                if (changes.deletes.contains(layerId)) {
                     throw new IllegalArgumentException("Tile layer '" + layerId + "' was deleted.");
                 }
-                GeoServerTileLayerInfo tileLayerInfo = pendingModications.get(layerId);
+                GeoServerTileLayerInfo tileLayerInfo = changes.modifications.get(layerId);
                 if (tileLayerInfo == null) {
                     tileLayerInfo = tileLayerCatalog.getLayerById(layerId);
                 }
@@ -86,9 +83,7 @@ public class CatalogConfiguration implements TileLayerConfiguration {
                 tileLayer =
                         new GeoServerTileLayer(
                                 geoServerCatalog, layerId, gridSetBroker, tileLayerInfo);
-            } finally {
-                lock.releaseReadLock();
-            }
+            } while (changes != pending);
             if (null == tileLayer) {
                 throw new IllegalArgumentException(
                         "GeoServer layer or layer group '" + layerId + "' does not exist");
@@ -97,6 +92,49 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         }
     }
 
+    /**
+     * The changes not yet saved to the {@link TileLayerCatalog}. Instances are immutable, writers
+     * publish a modified copy so that the tile layer lookups, which happen on every tile request,
+     * can read a consistent state without locking.
+     */
+    private static final class PendingChanges {
+
+        static final PendingChanges EMPTY =
+                new PendingChanges(Collections.emptyMap(), Collections.emptySet());
+
+        /** Maps pending modifications by {@link GeoServerTileLayerInfo#getId()} */
+        final Map<String, GeoServerTileLayerInfo> modifications;
+
+        /** Ids of pending deletes */
+        final Set<String> deletes;
+
+        private PendingChanges(
+                Map<String, GeoServerTileLayerInfo> modifications, Set<String> deletes) {
+            this.modifications = Collections.unmodifiableMap(modifications);
+            this.deletes = Collections.unmodifiableSet(deletes);
+        }
+
+        PendingChanges modify(GeoServerTileLayerInfo info) {
+            Map<String, GeoServerTileLayerInfo> modifications = new HashMap<>(this.modifications);
+            modifications.put(info.getId(), info);
+            return new PendingChanges(modifications, deletes);
+        }
+
+        PendingChanges delete(String layerId) {
+            Map<String, GeoServerTileLayerInfo> modifications = new HashMap<>(this.modifications);
+            modifications.remove(layerId);
+            Set<String> deletes = new HashSet<>(this.deletes);
+            deletes.add(layerId);
+            return new PendingChanges(modifications, deletes);
+        }
+
+        PendingChanges undelete(String layerId) {
+            Set<String> deletes = new HashSet<>(this.deletes);
+            deletes.remove(layerId);
+            return new PendingChanges(modifications, deletes);
+        }
+    }
+
     private static final Logger LOGGER = Logging.getLogger(CatalogConfiguration.class);
 
     private TileLayerCatalog tileLayerCatalog;
@@ -105,16 +143,15 @@ public class CatalogConfiguration implements TileLayerConfiguration {
 
     private GridSetBroker gridSetBroker;
 
-    /** Maps pending modifications by {@link GeoServerTileLayerInfo#getId()} */
-    private final Map<String, GeoServerTileLayerInfo> pendingModications = newConcurrentMap();
-
-    private final LoadingCache<String, GeoServerTileLayer> layerCache;
+    /**
+     * The pending changes, replaced as a whole by the writers, which are serialized by
+     * synchronizing on this object
+     */
+    private volatile PendingChanges pending = PendingChanges.EMPTY;
 
-    /** Ids of pending deletes */
-    private final Set<String> pendingDeletes = new CopyOnWriteArraySet<String>();
+    private final TileLayerLoader loader;
 
-    private final TimeoutReadWriteLock lock =
-            new TimeoutReadWriteLock(GWC_CONFIGURATION_LOCK_TIMEOUT * 1000, "GWC Configuration");
+    private final LoadingCache<String, GeoServerTileLayer> layerCache;
 
     public CatalogConfiguration(
             final Catalog catalog,
@@ -127,27 +164,42 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         this.geoServerCatalog = catalog;
         this.gridSetBroker = gridSetBroker;
 
+        this.loader = new TileLayerLoader(tileLayerCatalog);
         this.layerCache =
                 CacheBuilder.newBuilder() //
                         .concurrencyLevel(10) //
                         .expireAfterAccess(10, TimeUnit.MINUTES) //
                         .initialCapacity(10) //
                         .maximumSize(100) //
-                        .build(new TileLayerLoader(tileLayerCatalog));
+                        .build(loader);
 
         tileLayerCatalog.addListener(
                 new TileLayerCatalogListener() {
 
                     @Override
                     public void onEvent(String layerId, TileLayerCatalogListener.Type type) {
-                        if (type == TileLayerCatalogListener.Type.MODIFY
-                                || type == TileLayerCatalogListener.Type.DELETE) {
+                        if (type == TileLayerCatalogListener.Type.DELETE) {
                             layerCache.invalidate(layerId);
+                        } else {
+                            refresh(layerId);
                         }
                     }
                 });
     }
 
+    /**
+     * Replaces the cached tile layer with one built out of the current configuration, so that the
+     * next tile requests don't have to build it
+     */
+    private void refresh(String layerId) {
+        try {
+            layerCache.put(layerId, loader.load(layerId));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not load tile layer " + layerId, e);
+            layerCache.invalidate(layerId);
+        }
+    }
+
     /** @see TileLayerConfiguration#getIdentifier() */
     @Override
     public String getIdentifier() {
@@ -172,27 +224,21 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     /** @see TileLayerConfiguration#getLayers() */
     @Override
     public Collection<TileLayer> getLayers() {
-        lock.acquireReadLock();
-        try {
-            final Set<String> layerNames = tileLayerCatalog.getLayerNames();
-
-            Function<String, Optional<TileLayer>> lazyLayerFetch =
-                    CatalogConfiguration.this::getLayer;
-
-            // removing the NULL results
-            // TODO Should deep copy or wrap with modification proxies,
-            // see
-            // org.geoserver.gwc.layer.CatalogConfigurationLayerConformanceTest.testModifyCallRequiredToChangeInfoFromGetInfo()
-            return Lists.newArrayList(
-                    layerNames
-                            .stream()
-                            .map(lazyLayerFetch)
-                            .filter(Optional::isPresent)
-                            .map(Optional::get)
-                            .collect(Collectors.toList()));
-        } finally {
-            lock.releaseReadLock();
-        }
+        final Set<String> layerNames = tileLayerCatalog.getLayerNames();
+
+        Function<String, Optional<TileLayer>> lazyLayerFetch = CatalogConfiguration.this::getLayer;
+
+        // removing the NULL results
+        // TODO Should deep copy or wrap with modification proxies,
+        // see
+        // org.geoserver.gwc.layer.CatalogConfigurationLayerConformanceTest.testModifyCallRequiredToChangeInfoFromGetInfo()
+        return Lists.newArrayList(
+                layerNames
+                        .stream()
+                        .map(lazyLayerFetch)
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList()));
     }
 
     /**
@@ -202,38 +248,37 @@ public class CatalogConfiguration implements TileLayerConfiguration {
      */
     @Override
     public Set<String> getLayerNames() {
-        lock.acquireReadLock();
-        try {
-            final Set<String> storedNames = tileLayerCatalog.getLayerNames();
-            Set<String> names = null;
-            if (!pendingDeletes.isEmpty()) {
-                names = new HashSet<String>(storedNames);
-                for (String id : pendingDeletes) {
-                    GeoServerTileLayerInfo old = tileLayerCatalog.getLayerById(id);
+        final PendingChanges changes = pending;
+        final Set<String> storedNames = tileLayerCatalog.getLayerNames();
+        Set<String> names = null;
+        if (!changes.deletes.isEmpty()) {
+            names = new HashSet<String>(storedNames);
+            for (String id : changes.deletes) {
+                GeoServerTileLayerInfo old = tileLayerCatalog.getLayerById(id);
+                // might have been removed from the catalog already by a concurrent save
+                if (old != null) {
                     names.remove(old.getName());
                 }
             }
-            if (!pendingModications.isEmpty()) {
-                for (Map.Entry<String, GeoServerTileLayerInfo> e : pendingModications.entrySet()) {
-                    GeoServerTileLayerInfo old = tileLayerCatalog.getLayerById(e.getKey());
-                    if (old != null) {
-                        // it's a modification, not an addition. Make sure the name is not outdated
-                        String oldName = old.getName();
-                        String newName = e.getValue().getName();
-                        if (!Objects.equal(oldName, newName)) {
-                            if (names == null) {
-                                names = new HashSet<String>(storedNames);
-                            }
-                            names.remove(oldName);
-                            names.add(newName);
+        }
+        if (!changes.modifications.isEmpty()) {
+            for (Map.Entry<String, GeoServerTileLayerInfo> e : changes.modifications.entrySet()) {
+                GeoServerTileLayerInfo old = tileLayerCatalog.getLayerById(e.getKey());
+                if (old != null) {
+                    // it's a modification, not an addition. Make sure the name is not outdated
+                    String oldName = old.getName();
+                    String newName = e.getValue().getName();
+                    if (!Objects.equal(oldName, newName)) {
+                        if (names == null) {
+                            names = new HashSet<String>(storedNames);
                         }
+                        names.remove(oldName);
+                        names.add(newName);
                     }
                 }
             }
-            return names == null ? storedNames : Collections.unmodifiableSet(names);
-        } finally {
-            lock.releaseReadLock();
         }
+        return names == null ? storedNames : Collections.unmodifiableSet(names);
     }
 
     /**
@@ -250,17 +295,12 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     @Override
     public boolean containsLayer(String layerName) {
         checkNotNull(layerName, "layer id is null");
-        lock.acquireReadLock();
-        try {
-            if (pendingDeletes.contains(layerName)) {
-                return false;
-            }
-            Set<String> layerNames = tileLayerCatalog.getLayerNames();
-            boolean hasLayer = layerNames.contains(layerName);
-            return hasLayer;
-        } finally {
-            lock.releaseReadLock();
+        if (pending.deletes.contains(layerName)) {
+            return false;
         }
+        Set<String> layerNames = tileLayerCatalog.getLayerNames();
+        boolean hasLayer = layerNames.contains(layerName);
+        return hasLayer;
     }
 
     @Deprecated
@@ -269,7 +309,6 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         checkNotNull(layerId, "layer id is null");
 
         GeoServerTileLayer layer;
-        lock.acquireReadLock();
         try {
             layer = layerCache.get(layerId);
             // let's see if this a virtual service request
@@ -322,8 +361,6 @@ public class CatalogConfiguration implements TileLayerConfiguration {
             throw propagate(e.getCause());
         } catch (UncheckedExecutionException e) {
             throw propagate(e.getCause());
-        } finally {
-            lock.releaseReadLock();
         }
 
         return layer;
@@ -334,16 +371,9 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     public Optional<TileLayer> getLayer(final String layerName) {
         checkNotNull(layerName, "layer name is null");
 
-        final String layerId;
-
-        lock.acquireReadLock();
-        try {
-            layerId = getLayerId(layerName);
-            if (layerId == null) {
-                return Optional.ofNullable(null);
-            }
-        } finally {
-            lock.releaseReadLock();
+        final String layerId = getLayerId(layerName);
+        if (layerId == null) {
+            return Optional.ofNullable(null);
         }
         return Optional.ofNullable(getTileLayerById(layerId));
     }
@@ -356,11 +386,12 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     }
 
     private String getLayerId(final String layerName) {
+        final PendingChanges changes = pending;
 
         String storedName = layerName;
         // check pending modifs first in case name changed
-        if (!pendingModications.isEmpty()) {
-            for (GeoServerTileLayerInfo info : pendingModications.values()) {
+        if (!changes.modifications.isEmpty()) {
+            for (GeoServerTileLayerInfo info : changes.modifications.values()) {
                 String name = info.getName();
                 if (name.equals(layerName)) {
                     storedName = info.getName();
@@ -370,11 +401,11 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         }
 
         final String layerId = tileLayerCatalog.getLayerId(storedName);
-        if (layerId == null || pendingDeletes.contains(layerId)) {
+        if (layerId == null || changes.deletes.contains(layerId)) {
             return null;
         }
         // name changed?
-        GeoServerTileLayerInfo modifiedState = pendingModications.get(layerId);
+        GeoServerTileLayerInfo modifiedState = changes.modifications.get(layerId);
         if (modifiedState != null && !layerName.equals(modifiedState.getName())) {
             return null;
         }
@@ -382,11 +413,12 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     }
 
     private GeoServerTileLayerInfo getTileLayerInfoByName(final String layerName) {
+        final PendingChanges changes = pending;
         GeoServerTileLayerInfo tileLayerInfo = null;
 
         // check pending modifs first in case name changed
-        if (!pendingModications.isEmpty()) {
-            for (GeoServerTileLayerInfo info : pendingModications.values()) {
+        if (!changes.modifications.isEmpty()) {
+            for (GeoServerTileLayerInfo info : changes.modifications.values()) {
                 String name = info.getName();
                 if (name.equals(layerName)) {
                     tileLayerInfo = info;
@@ -400,10 +432,10 @@ public class CatalogConfiguration implements TileLayerConfiguration {
             if (null == tileLayerInfo) {
                 return null;
             }
-            if (pendingDeletes.contains(tileLayerInfo.getId())) {
+            if (changes.deletes.contains(tileLayerInfo.getId())) {
                 return null;
             }
-            if (pendingModications.containsKey(tileLayerInfo.getId())) {
+            if (changes.modifications.containsKey(tileLayerInfo.getId())) {
                 // found in catalog but not in pending modifications, means name changed
                 return null;
             }
@@ -414,22 +446,18 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     /** @see TileLayerConfiguration#getLayerCount() */
     @Override
     public int getLayerCount() {
+        final Set<String> deletes = pending.deletes;
         int count = 0;
-        lock.acquireReadLock();
-        try {
-            Set<String> layerIds = tileLayerCatalog.getLayerIds();
-            if (pendingDeletes.isEmpty()) {
-                count = layerIds.size();
-            } else {
-                for (String layerId : layerIds) {
-                    if (pendingDeletes.contains(layerId)) {
-                        continue;
-                    }
-                    ++count;
+        Set<String> layerIds = tileLayerCatalog.getLayerIds();
+        if (deletes.isEmpty()) {
+            count = layerIds.size();
+        } else {
+            for (String layerId : layerIds) {
+                if (deletes.contains(layerId)) {
+                    continue;
                 }
+                ++count;
             }
-        } finally {
-            lock.releaseReadLock();
         }
         return count;
     }
@@ -442,15 +470,10 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     }
 
     @Override
-    public void afterPropertiesSet() {
-        lock.acquireWriteLock();
-        try {
-            LOGGER.info("Initializing GWC configuration based on GeoServer's Catalog");
-            this.layerCache.invalidateAll();
-            this.tileLayerCatalog.initialize();
-        } finally {
-            lock.releaseWriteLock();
-        }
+    public synchronized void afterPropertiesSet() {
+        LOGGER.info("Initializing GWC configuration based on GeoServer's Catalog");
+        this.layerCache.invalidateAll();
+        this.tileLayerCatalog.initialize();
     }
 
     /**
@@ -487,25 +510,21 @@ public class CatalogConfiguration implements TileLayerConfiguration {
             return;
         }
 
-        lock.acquireWriteLock();
-        try {
-            boolean pending = pendingModications.containsKey(info.getId());
-            boolean exists = null != tileLayerCatalog.getLayerById(info.getId());
-            boolean notExists = !pending && !exists;
-
-            checkArgument(
-                    notExists,
-                    "A GeoServerTileLayer named '" + info.getName() + "' already exists");
-            if (pendingDeletes.remove(info.getId())) {
-                LOGGER.finer(
-                        "Adding a new layer "
-                                + info.getName()
-                                + " before saving the deleted one with the same id");
-            }
-            pendingModications.put(info.getId(), info);
-        } finally {
-            lock.releaseWriteLock();
+        PendingChanges changes = this.pending;
+        boolean pending = changes.modifications.containsKey(info.getId());
+        boolean exists = null != tileLayerCatalog.getLayerById(info.getId());
+        boolean notExists = !pending && !exists;
+
+        checkArgument(
+                notExists, "A GeoServerTileLayer named '" + info.getName() + "' already exists");
+        if (changes.deletes.contains(info.getId())) {
+            LOGGER.finer(
+                    "Adding a new layer "
+                            + info.getName()
+                            + " before saving the deleted one with the same id");
+            changes = changes.undelete(info.getId());
         }
+        this.pending = changes.modify(info);
         save();
     }
 
@@ -522,21 +541,16 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         checkNotNull(tileLayer.getInfo().getName(), "name is null");
 
         final GeoServerTileLayerInfo info = tileLayer.getInfo();
-        lock.acquireWriteLock();
-        try {
-            final String layerId = info.getId();
-            // check pendingModifications too to catch unsaved adds
-            boolean exists =
-                    pendingModications.containsKey(layerId) || tileLayerCatalog.exists(layerId);
-            if (!exists) {
-                throw new NoSuchElementException(
-                        "No GeoServerTileLayer named '" + info.getName() + "' exists");
-            }
-            pendingModications.put(layerId, info);
-            layerCache.invalidate(layerId);
-        } finally {
-            lock.releaseWriteLock();
+        final String layerId = info.getId();
+        // check pendingModifications too to catch unsaved adds
+        boolean exists =
+                pending.modifications.containsKey(layerId) || tileLayerCatalog.exists(layerId);
+        if (!exists) {
+            throw new NoSuchElementException(
+                    "No GeoServerTileLayer named '" + info.getName() + "' exists");
         }
+        pending = pending.modify(info);
+        refresh(layerId);
         save();
     }
 
@@ -559,19 +573,14 @@ public class CatalogConfiguration implements TileLayerConfiguration {
         checkNotNull(tileLayer.getInfo().getName(), "name is null");
 
         final GeoServerTileLayerInfo info = tileLayer.getInfo();
-        lock.acquireWriteLock();
-        try {
-            final String layerId = info.getId();
-            info.setName(newName);
-            // check pendingModifications too to catch unsaved adds
-            boolean exists =
-                    pendingModications.containsKey(layerId) || tileLayerCatalog.exists(layerId);
-            checkArgument(exists, "No GeoServerTileLayer named '" + info.getName() + "' exists");
-            pendingModications.put(layerId, info);
-            layerCache.invalidate(layerId);
-        } finally {
-            lock.releaseWriteLock();
-        }
+        final String layerId = info.getId();
+        info.setName(newName);
+        // check pendingModifications too to catch unsaved adds
+        boolean exists =
+                pending.modifications.containsKey(layerId) || tileLayerCatalog.exists(layerId);
+        checkArgument(exists, "No GeoServerTileLayer named '" + info.getName() + "' exists");
+        pending = pending.modify(info);
+        refresh(layerId);
         save();
     }
 
@@ -581,36 +590,28 @@ public class CatalogConfiguration implements TileLayerConfiguration {
      * @see TileLayerConfiguration#removeLayer(String)
      */
     @Override
-    public void removeLayer(final String layerName) throws NoSuchElementException {
+    public synchronized void removeLayer(final String layerName) throws NoSuchElementException {
         checkNotNull(layerName);
-        lock.acquireWriteLock();
-        try {
-            GeoServerTileLayerInfo tileLayerInfo = getTileLayerInfoByName(layerName);
-            if (tileLayerInfo != null) {
-                final String layerId = tileLayerInfo.getId();
-                pendingModications.remove(layerId);
-                // cache removal must occur before layerId is added to pendingDeletes
-                // otherwise brokers and blob stores will not be able to obtain
-                // the tile layer information they need to perform cache removal
-                // because the CatalogConfiguration will treat the layer as if
-                // it no longer exists
-                try {
-                    GWC.get().layerRemoved(tileLayerInfo.getName());
-                } catch (RuntimeException e) {
-                    LOGGER.log(
-                            Level.SEVERE,
-                            "Error deleting tile layer '"
-                                    + tileLayerInfo.getName()
-                                    + "' from cache",
-                            e);
-                }
-                pendingDeletes.add(layerId);
-                layerCache.invalidate(layerId);
-            } else {
-                throw new NoSuchElementException("Tile layer " + layerName + " does not exist");
+        GeoServerTileLayerInfo tileLayerInfo = getTileLayerInfoByName(layerName);
+        if (tileLayerInfo != null) {
+            final String layerId = tileLayerInfo.getId();
+            // cache removal must occur before layerId is added to pendingDeletes
+            // otherwise brokers and blob stores will not be able to obtain
+            // the tile layer information they need to perform cache removal
+            // because the CatalogConfiguration will treat the layer as if
+            // it no longer exists
+            try {
+                GWC.get().layerRemoved(tileLayerInfo.getName());
+            } catch (RuntimeException e) {
+                LOGGER.log(
+                        Level.SEVERE,
+                        "Error deleting tile layer '" + tileLayerInfo.getName() + "' from cache",
+                        e);
             }
-        } finally {
-            lock.releaseWriteLock();
+            pending = pending.delete(layerId);
+            layerCache.invalidate(layerId);
+        } else {
+            throw new NoSuchElementException("Tile layer " + layerName + " does not exist");
         }
         save();
     }
@@ -621,12 +622,11 @@ public class CatalogConfiguration implements TileLayerConfiguration {
 
         final List<GeoServerTileLayerInfo[ /* old, new */]> modifications = Lists.newLinkedList();
 
-        lock.acquireWriteLock();
-        // perform the transaction while holding the write lock, then downgrade to the read lock and
-        // issue the modification events (otherwise another thread asking for any changed layer
-        // would lock)
+        // readers keep on using the pending changes until the catalog has been updated, then the
+        // changes are dropped all at once, the events are issued afterwards
+        final PendingChanges changes = pending;
         try {
-            for (String deletedId : pendingDeletes) {
+            for (String deletedId : changes.deletes) {
                 try {
                     tileLayerCatalog.delete(deletedId);
                 } catch (RuntimeException e) {
@@ -637,7 +637,7 @@ public class CatalogConfiguration implements TileLayerConfiguration {
                 }
             }
 
-            for (GeoServerTileLayerInfo modified : pendingModications.values()) {
+            for (GeoServerTileLayerInfo modified : changes.modifications.values()) {
                 final GeoServerTileLayerInfo old;
                 try {
                     old = tileLayerCatalog.save(modified);
@@ -649,36 +649,29 @@ public class CatalogConfiguration implements TileLayerConfiguration {
                             e);
                 }
             }
-            this.pendingModications.clear();
-            this.pendingDeletes.clear();
         } finally {
-            // Downgrade to read
-            lock.downgradeToReadLock();
-            try {
-                // issue notifications
-                for (GeoServerTileLayerInfo[] oldNew : modifications) {
-                    final GeoServerTileLayerInfo old = oldNew[0];
-                    final GeoServerTileLayerInfo modified = oldNew[1];
-                    try {
-                        if (old == null) {
-                            // it's an addition
-                            String layerName = modified.getName();
-                            mediator.layerAdded(layerName);
-                        } else {
-                            // it's a modification
-                            issueTileLayerInfoChangeNotifications(old, modified);
-                        }
-                    } catch (RuntimeException e) {
-                        LOGGER.log(
-                                Level.SEVERE,
-                                "Error issuing change events for tile layer "
-                                        + modified
-                                        + ".  This may result in leaked tiles that will not be truncated.",
-                                e);
+            this.pending = PendingChanges.EMPTY;
+            // issue notifications
+            for (GeoServerTileLayerInfo[] oldNew : modifications) {
+                final GeoServerTileLayerInfo old = oldNew[0];
+                final GeoServerTileLayerInfo modified = oldNew[1];
+                try {
+                    if (old == null) {
+                        // it's an addition
+                        String layerName = modified.getName();
+                        mediator.layerAdded(layerName);
+                    } else {
+                        // it's a modification
+                        issueTileLayerInfoChangeNotifications(old, modified);
                     }
+                } catch (RuntimeException e) {
+                    LOGGER.log(
+                            Level.SEVERE,
+                            "Error issuing change events for tile layer "
+                                    + modified
+                                    + ".  This may result in leaked tiles that will not be truncated.",
+                            e);
                 }
-            } finally {
-                lock.releaseReadLock();
             }
         }
     }
@@ -753,14 +746,9 @@ public class CatalogConfiguration implements TileLayerConfiguration {
     }
 
     /** Invalidates the later cache and resets the tile layer catalog. */
-    public void reset() {
-        lock.acquireWriteLock();
-        try {
-            this.layerCache.invalidateAll();
-            this.tileLayerCatalog.reset();
-        } finally {
-            lock.releaseWriteLock();
-        }
+    public synchronized void reset() {
+        this.layerCache.invalidateAll();
+        this.tileLayerCatalog.reset();
     }
 
     /**
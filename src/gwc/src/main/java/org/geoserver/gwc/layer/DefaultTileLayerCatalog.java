@@ -46,10 +46,11 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private static final String LAYERINFO_DIRECTORY = "gwc-layers";
 
-    private Map<String, GeoServerTileLayerInfo> layersById;
-
-    /** View of layer ids by name */
-    private Map<String, String> layersByName;
+    /**
+     * The loaded layers, null until the catalog is initialized. Lookups do not lock, so the maps
+     * are built aside on (re)initialization and then replaced as a whole.
+     */
+    private volatile LayerMaps layers;
 
     private final XStream serializer;
 
@@ -57,8 +58,6 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     private final String baseDirectory;
 
-    private volatile boolean initialized;
-
     private Map<String, ResourceListener> listenersByFileName;
 
     private List<TileLayerCatalogListener> listeners;
@@ -78,11 +77,8 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         this.resourceLoader = resourceLoader;
         this.baseDirectory = LAYERINFO_DIRECTORY;
 
-        this.layersByName = new ConcurrentHashMap<>();
-        this.layersById = new ConcurrentHashMap<>();
         this.listenersByFileName = new ConcurrentHashMap<>();
         this.listeners = new ArrayList<>();
-        this.initialized = false;
 
         // setup xstream security for local classes
         this.serializer = configuredXstream;
@@ -108,7 +104,8 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
                                                 load(
                                                         resourceLoader
                                                                 .get(baseDirectory)
-                                                                .get(event.getPath()));
+                                                                .get(event.getPath()),
+                                                        getLayers());
                                         if (info != null) {
                                             for (TileLayerCatalogListener listener : listeners) {
                                                 listener.onEvent(
@@ -124,81 +121,86 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     @Override
     public void reset() {
-        layersById.clear();
-        layersByName.clear();
-        this.initialized = false;
+        // the next lookup will load the layers again
+        this.layers = null;
     }
 
     @Override
-    public void initialize() {
-        reset();
-
+    public synchronized void initialize() {
         Resource baseDir = resourceLoader.get(baseDirectory);
 
         LOGGER.info("GeoServer TileLayer store base directory is: " + baseDir.path());
         LOGGER.info("Loading tile layers from " + baseDir.path());
 
         ExtensionFilter xmlFilter = new Resources.ExtensionFilter("XML");
+        LayerMaps loaded = new LayerMaps();
         baseDir.list()
                 .parallelStream()
                 .filter(r -> xmlFilter.accept(r))
                 .forEach(
                         res -> {
-                            load(res);
+                            load(res, loaded);
                         });
-        this.initialized = true;
+        this.layers = loaded;
     }
 
     @Override
     public GeoServerTileLayerInfo getLayerById(final String id) {
-        checkInitialized();
-        GeoServerTileLayerInfo layer = layersById.get(id);
+        GeoServerTileLayerInfo layer = getLayers().byId.get(id);
         return layer == null ? null : layer.clone();
     }
 
-    private synchronized void checkInitialized() {
-        if (!initialized) {
-            initialize();
+    /** Returns the current layers, loading them if needed */
+    private LayerMaps getLayers() {
+        // double checked, lookups happen on every tile request and should not contend a lock
+        LayerMaps current = layers;
+        if (current == null) {
+            synchronized (this) {
+                current = layers;
+                if (current == null) {
+                    initialize();
+                    current = layers;
+                }
+            }
         }
+        return current;
     }
 
     @Override
     public GeoServerTileLayerInfo getLayerByName(String layerName) {
-        checkInitialized();
-        String id = layersByName.get(layerName);
+        LayerMaps current = getLayers();
+        String id = current.byName.get(layerName);
         if (id == null) {
             return null;
         }
-        return getLayerById(id);
+        GeoServerTileLayerInfo layer = current.byId.get(id);
+        return layer == null ? null : layer.clone();
     }
 
     @Override
     public Set<String> getLayerIds() {
-        checkInitialized();
-        return ImmutableSet.copyOf(layersById.keySet());
+        return ImmutableSet.copyOf(getLayers().byId.keySet());
     }
 
     @Override
     public boolean exists(String layerId) {
-        checkInitialized();
-        return layersById.containsKey(layerId);
+        return getLayers().byId.containsKey(layerId);
     }
 
     @Override
     public Set<String> getLayerNames() {
-        checkInitialized();
-        return ImmutableSet.copyOf(layersByName.keySet());
+        return ImmutableSet.copyOf(getLayers().byName.keySet());
     }
 
     @Override
-    public GeoServerTileLayerInfo delete(final String tileLayerId) {
-        checkInitialized();
+    public synchronized GeoServerTileLayerInfo delete(final String tileLayerId) {
+        LayerMaps current = getLayers();
         try {
             GeoServerTileLayerInfo info = getLayerById(tileLayerId);
             if (info != null) {
                 Resource file = getFile(tileLayerId);
-                layersById.remove(tileLayerId);
-                layersByName.remove(info.getName());
+                current.byId.remove(tileLayerId);
+                current.byName.remove(info.getName());
                 stopListening(file);
                 file.delete();
                 listenersByFileName.remove(file.name());
@@ -211,8 +213,8 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     }
 
     @Override
-    public GeoServerTileLayerInfo save(final GeoServerTileLayerInfo newValue) {
-        checkInitialized();
+    public synchronized GeoServerTileLayerInfo save(final GeoServerTileLayerInfo newValue) {
+        LayerMaps current = getLayers();
         GeoServerTileLayerInfoImpl oldValue = null;
 
         final String tileLayerId = newValue.getId();
@@ -228,7 +230,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
             }
 
             if (oldValue == null) {
-                final String duplicateNameId = layersByName.get(newValue.getName());
+                final String duplicateNameId = current.byName.get(newValue.getName());
                 if (null != duplicateNameId) {
                     throw new IllegalArgumentException(
                             "TileLayer with same name already exists: "
@@ -238,12 +240,12 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
                                     + ">");
                 }
             } else {
-                layersByName.remove(oldValue.getName());
+                current.byName.remove(oldValue.getName());
             }
 
             persist(newValue);
-            layersByName.put(newValue.getName(), newValue.getId());
-            layersById.put(newValue.getId(), newValue.clone());
+            current.byName.put(newValue.getName(), newValue.getId());
+            current.byId.put(newValue.getId(), newValue.clone());
 
         } catch (Exception e) {
             if (e instanceof ExecutionException) {
@@ -254,7 +256,7 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         return oldValue;
     }
 
-    private GeoServerTileLayerInfoImpl load(Resource res) {
+    private GeoServerTileLayerInfoImpl load(Resource res, LayerMaps target) {
         GeoServerTileLayerInfoImpl info;
         try {
             info = depersist(res);
@@ -267,8 +269,8 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
             return null;
         }
 
-        layersByName.put(info.getName(), info.getId());
-        layersById.put(info.getId(), info);
+        target.byName.put(info.getName(), info.getId());
+        target.byId.put(info.getId(), info);
 
         if (LOGGER.isLoggable(Level.FINER)) {
             LOGGER.finer("Loaded tile layer '" + info.getName() + "'");
@@ -277,12 +279,13 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
         return info;
     }
 
-    private void reload(String id, Resource res) {
-        GeoServerTileLayerInfo old = layersById.remove(id);
+    private synchronized void reload(String id, Resource res) {
+        LayerMaps current = getLayers();
+        GeoServerTileLayerInfo old = current.byId.remove(id);
         if (old != null) {
-            layersByName.remove(old.getName());
+            current.byName.remove(old.getName());
         }
-        load(res);
+        load(res, current);
     }
 
     private void startListening(Resource file, String tileLayerId) {
@@ -415,14 +418,12 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
 
     @Override
     public String getLayerId(String layerName) {
-        checkInitialized();
-        return layersByName.get(layerName);
+        return getLayers().byName.get(layerName);
     }
 
     @Override
     public String getLayerName(String layerId) {
-        checkInitialized();
-        return layersById.get(layerId).getName();
+        return getLayers().byId.get(layerId).getName();
     }
 
     @Override
@@ -434,4 +435,11 @@ public class DefaultTileLayerCatalog implements TileLayerCatalog {
     public void addListener(TileLayerCatalogListener listener) {
         listeners.add(listener);
     }
+
+    /** The layers by id, and their ids by name */
+    private static class LayerMaps {
+        final Map<String, GeoServerTileLayerInfo> byId = new ConcurrentHashMap<>();
+
+        final Map<String, String> byName = new ConcurrentHashMap<>();
+    }
 }
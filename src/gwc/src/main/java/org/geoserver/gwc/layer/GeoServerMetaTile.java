@@ -7,6 +7,7 @@ package org.geoserver.gwc.layer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.io.ByteStreams;
 import it.geosolutions.jaiext.BufferedImageAdapter;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -14,12 +15,17 @@ import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
 import javax.media.jai.PlanarImage;
 import org.geoserver.gwc.GWC;
 import org.geoserver.ows.Response;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.map.MetaTiledMap;
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
@@ -38,6 +44,12 @@ public class GeoServerMetaTile extends MetaTile {
 
     private WebMap metaTileMap;
 
+    /** Tells whether copies of the encoded tiles are needed, checked as each tile is written */
+    private BooleanSupplier keepEncodedTiles;
+
+    /** Copies of the encoded tiles, by tile index, when requested */
+    private byte[][] encodedTiles;
+
     public GeoServerMetaTile(
             GridSubset gridSubset,
             MimeType responseFormat,
@@ -57,6 +69,37 @@ public class GeoServerMetaTile extends MetaTile {
         }
     }
 
+    /**
+     * Sets the condition under which a copy of the tiles encoded by {@link #writeTileToStream}
+     * should be kept, to share them with other requests for the same meta tile. The condition is
+     * checked before copying each tile, so that no copies are made while no one needs them.
+     */
+    public void setKeepEncodedTiles(BooleanSupplier keep) {
+        this.keepEncodedTiles = keep;
+    }
+
+    /**
+     * Returns the tiles copied so far, indexed like {@link #getTilesGridPositions()}, with null for
+     * the ones not copied, or null if no tile has been copied
+     */
+    public byte[][] getEncodedTiles() {
+        return encodedTiles;
+    }
+
+    @Override
+    public boolean writeTileToStream(final int tileIdx, Resource target) throws IOException {
+        boolean written = encodeTile(tileIdx, target);
+        if (written && keepEncodedTiles != null && keepEncodedTiles.getAsBoolean()) {
+            if (encodedTiles == null) {
+                encodedTiles = new byte[tiles.length][];
+            }
+            try (InputStream in = target.getInputStream()) {
+                encodedTiles[tileIdx] = ByteStreams.toByteArray(in);
+            }
+        }
+        return written;
+    }
+
     /**
      * Creates the {@link RenderedImage} corresponding to the tile at index {@code tileIdx} and uses
      * a {@link RenderedImageMapResponse} to encode it into the {@link #getResponseFormat() response
@@ -65,11 +108,20 @@ public class GeoServerMetaTile extends MetaTile {
      * @see org.geowebcache.layer.MetaTile#writeTileToStream(int, org.geowebcache.io.Resource)
      * @see RenderedImageMapResponse#write
      */
-    @Override
-    public boolean writeTileToStream(final int tileIdx, Resource target) throws IOException {
+    private boolean encodeTile(final int tileIdx, Resource target) throws IOException {
 
         checkNotNull(metaTileMap, "webMap is not set");
 
+        if (metaTileMap instanceof MetaTiledMap) {
+            // tiles encoded one by one by the output format, pick the one at the tile position
+            final Rectangle tileDim = this.tiles[tileIdx];
+            int x = tileDim.x / gridSubset.getTileWidth();
+            int y = tileDim.y / gridSubset.getTileHeight();
+            try (OutputStream outStream = target.getOutputStream()) {
+                ((MetaTiledMap) metaTileMap).writeTile(x, y, outStream);
+            }
+            return true;
+        }
         if (metaTileMap instanceof RawMap) {
             OutputStream outStream = target.getOutputStream();
             try {
@@ -96,8 +148,32 @@ public class GeoServerMetaTile extends MetaTile {
 
         RenderedImage tile = metaTileMap.getImage();
         WMSMapContent tileContext = metaTileMap.getMapContext();
+        final boolean split = this.tiles.length > 1 || (this.tiles.length == 1 && metaHasGutter());
 
-        if (this.tiles.length > 1 || (this.tiles.length == 1 && metaHasGutter())) {
+        // uniform tiles (e.g., the empty ones) are checked on the meta tile, and if already
+        // encoded, neither split nor encoded again
+        UniformTiles.Key uniformKey = null;
+        if (UniformTiles.ENABLED) {
+            Rectangle area = split ? this.tiles[tileIdx] : null;
+            GetMapRequest request = tileContext.getRequest();
+            uniformKey =
+                    UniformTiles.getKey(
+                            tile,
+                            area,
+                            responseFormat.getFormat(),
+                            request == null ? null : request.getFormatOptions(),
+                            tileContext.getPalette(),
+                            WMS.get());
+            byte[] encoded = uniformKey == null ? null : UniformTiles.getEncoded(uniformKey);
+            if (encoded != null) {
+                try (OutputStream outStream = target.getOutputStream()) {
+                    outStream.write(encoded);
+                }
+                return true;
+            }
+        }
+
+        if (split) {
             final Rectangle tileDim = this.tiles[tileIdx];
             tile = createTile(tileDim.x, tileDim.y, tileDim.width, tileDim.height);
             disposeLater(tile);
@@ -132,10 +208,15 @@ public class GeoServerMetaTile extends MetaTile {
             // when processing a tile from a metatile and instead defer it to this class' dispose()
             // method
             mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
-            return true;
         } finally {
             outStream.close();
         }
+        if (uniformKey != null) {
+            try (InputStream in = target.getInputStream()) {
+                UniformTiles.putEncoded(uniformKey, ByteStreams.toByteArray(in));
+            }
+        }
+        return true;
     }
 
     /** Checks if this meta tile has a gutter, or not */
@@ -28,6 +28,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.Cookie;
@@ -43,6 +48,7 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.TileValidators;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.gwc.dispatch.GwcServiceDispatcherCallback;
 import org.geoserver.ows.Dispatcher;
@@ -58,6 +64,7 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.capabilities.CapabilityUtil;
 import org.geoserver.wms.capabilities.LegendSample;
+import org.geoserver.wms.map.MetaTiledMap;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.util.NumberRange;
@@ -66,6 +73,7 @@ import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.config.ConfigurationException;
 import org.geowebcache.config.XMLGridSubset;
 import org.geowebcache.config.legends.LegendInfoBuilder;
+import org.geowebcache.conveyor.Conveyor.CacheResult;
 import org.geowebcache.conveyor.ConveyorTile;
 import org.geowebcache.filter.parameters.ParameterException;
 import org.geowebcache.filter.parameters.ParameterFilter;
@@ -76,6 +84,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.grid.SRS;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.ExpirationRule;
 import org.geowebcache.layer.LayerListenerList;
@@ -114,6 +123,26 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
     public static final ThreadLocal<WebMap> WEB_MAP = new ThreadLocal<WebMap>();
 
+    /**
+     * Whether meta tiles are rendered calling the WMS directly, rather than dispatching a GetMap
+     * request through the OWS dispatcher, see {@link GWC#dispatchGetMap}
+     */
+    static boolean DIRECT_GETMAP =
+            Boolean.parseBoolean(System.getProperty("GWC_DIRECT_GETMAP", "true"));
+
+    /**
+     * The meta tiles being rendered in this node, by lock key. Concurrent requests for tiles of the
+     * same meta tile wait for the rendering and get their tile straight out of it, the {@link
+     * org.geowebcache.locks.LockProvider} still coordinates the rendering across nodes.
+     */
+    static final ConcurrentMap<String, MetaTileFlight> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * How long, in seconds, a request waits for a meta tile being rendered by another request in
+     * this node, before going on and rendering on its own
+     */
+    static int FLIGHT_TIMEOUT = Integer.getInteger("GWC_METATILE_FLIGHT_TIMEOUT", 60);
+
     private String configErrorMessage;
 
     private Map<String, GridSubset> subSets;
@@ -567,22 +596,33 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
         ConveyorTile returnTile;
 
-        int metaX;
-        int metaY;
-        if (mime.supportsTiling()) {
-            metaX = info.getMetaTilingX();
-            metaY = info.getMetaTilingY();
-        } else {
-            metaX = metaY = 1;
-        }
+        int[] metaTiling = getMetaTiling(mime, info.getMetaTilingX(), info.getMetaTilingY());
 
-        returnTile = getMetatilingReponse(tile, true, metaX, metaY);
+        returnTile = getMetatilingReponse(tile, true, metaTiling[0], metaTiling[1]);
 
         sendTileRequestedEvent(returnTile);
 
         return returnTile;
     }
 
+    /**
+     * Returns the tile if it can be served straight from the cache, with the same checks, response
+     * headers and listener notifications as {@link #getTile}, or null otherwise. Allows serving
+     * cache hits without going through the whole GWC service machinery.
+     */
+    public ConveyorTile getCachedTile(ConveyorTile tile) {
+        final GridSubset gridSubset = getGridSubset(tile.getGridSetId());
+        if (gridSubset == null || !gridSubset.shouldCacheAtZoom((int) tile.getTileIndex()[2])) {
+            return null;
+        }
+        if (!tryCacheFetch(tile)) {
+            return null;
+        }
+        ConveyorTile returnTile = finalizeTile(tile);
+        sendTileRequestedEvent(returnTile);
+        return returnTile;
+    }
+
     @Override
     public void addLayerListener(final TileLayerListener listener) {
         listeners.addListener(listener);
@@ -613,10 +653,23 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
 
         final GeoServerMetaTile metaTile = createMetaTile(tile, metaX, metaY);
+        final String lockKey = buildLockKey(tile, metaTile);
+        /* ****************** Join a meta tile being rendered in this node ******************* */
+        // the lock key only has the format extension, several formats can share it
+        final String flightKey = lockKey + ";" + tile.getMimeType().getFormat();
+        MetaTileFlight flight = new MetaTileFlight();
+        MetaTileFlight current = IN_FLIGHT.putIfAbsent(flightKey, flight);
+        if (current != null) {
+            flight = null;
+            if (tryCache && fetchFromFlight(tile, current)) {
+                metaTile.dispose();
+                return finalizeTile(tile);
+            }
+        }
         Lock lock = null;
         try {
             /* ****************** Acquire lock ******************* */
-            lock = GWC.get().getLockProvider().getLock(buildLockKey(tile, metaTile));
+            lock = GWC.get().getLockProvider().getLock(lockKey);
             // got the lock on the meta tile, try again
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest(
@@ -638,7 +691,15 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
+                    if (flight != null) {
+                        metaTile.setKeepEncodedTiles(flight::hasWaiters);
+                    }
                     saveTiles(metaTile, tile, requestTime);
+                    if (flight != null) {
+                        flight.positions = metaTile.getTilesGridPositions();
+                        flight.tiles = metaTile.getEncodedTiles();
+                        flight.created = requestTime;
+                    }
                 } catch (Exception e) {
                     Throwables.propagateIfInstanceOf(e, GeoWebCacheException.class);
                     throw new GeoWebCacheException("Problem communicating with GeoServer", e);
@@ -649,12 +710,55 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             if (lock != null) {
                 lock.release();
             }
+            if (flight != null) {
+                IN_FLIGHT.remove(flightKey, flight);
+                flight.done.countDown();
+            }
             metaTile.dispose();
         }
 
         return finalizeTile(tile);
     }
 
+    /**
+     * Waits for a meta tile rendered by another request in this node, and takes the tile out of
+     * it. Falls back on the cache if the other request did not copy it (e.g., it found the meta
+     * tile in the cache, encoded it before this request joined, or failed).
+     *
+     * @return true if the tile contents have been found, false if the tile is not available or the
+     *     rendering did not complete in {@link #FLIGHT_TIMEOUT} seconds
+     */
+    private boolean fetchFromFlight(ConveyorTile tile, MetaTileFlight flight)
+            throws GeoWebCacheException {
+        flight.waiters.incrementAndGet();
+        try {
+            if (!flight.done.await(FLIGHT_TIMEOUT, TimeUnit.SECONDS)) {
+                LOGGER.fine(
+                        "Gave up waiting for a concurrent rendering of "
+                                + Arrays.toString(tile.getTileIndex())
+                                + ", rendering it again");
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException(e);
+        } finally {
+            flight.waiters.decrementAndGet();
+        }
+        byte[] contents = flight.getTile(tile.getTileIndex());
+        if (contents != null) {
+            LOGGER.finest(
+                    "--> "
+                            + Thread.currentThread().getName()
+                            + " returns tile rendered by a concurrent request "
+                            + Arrays.toString(tile.getTileIndex()));
+            tile.setBlob(new ByteArrayResource(contents));
+            tile.getStorageObject().setCreated(flight.created);
+            return true;
+        }
+        return tryCacheFetch(tile);
+    }
+
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
         StringBuilder metaKey = new StringBuilder();
 
@@ -681,8 +785,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return metaKey.toString();
     }
 
-    private WebMap dispatchGetMap(final ConveyorTile tile, final MetaTile metaTile)
-            throws Exception {
+    WebMap dispatchGetMap(final ConveyorTile tile, final MetaTile metaTile) throws Exception {
 
         Map<String, String> params = buildGetMap(tile, metaTile);
         WebMap map;
@@ -690,7 +793,16 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             HttpServletRequest actualRequest = tile.servletReq;
             Cookie[] cookies = actualRequest == null ? null : actualRequest.getCookies();
 
-            GWC.get().dispatchOwsRequest(params, cookies);
+            // only the tile layer is allowed to ask for meta tiled vector maps
+            MetaTiledMap.callMetaTiled(
+                    () -> {
+                        if (DIRECT_GETMAP) {
+                            GWC.get().dispatchGetMap(params, cookies);
+                        } else {
+                            GWC.get().dispatchOwsRequest(params, cookies);
+                        }
+                        return null;
+                    });
             map = WEB_MAP.get();
             if (!(map instanceof WebMap)) {
                 throw new IllegalStateException("Expected: RenderedImageMap, got " + map);
@@ -760,6 +872,28 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         }
         params.putAll(filteredParams);
 
+        // vector tiles cannot be split after encoding, ask the output format to build them apart
+        if (mimeType.isVector()) {
+            int tilesX = width / gridSubset.getTileWidth();
+            int tilesY = height / gridSubset.getTileHeight();
+            if (tilesX * tilesY > 1) {
+                String metaTiling = MetaTiledMap.FORMAT_OPTION + ":" + tilesX + "x" + tilesY;
+                // parameter filters might have a format options key in any case
+                String key = "FORMAT_OPTIONS";
+                for (String name : params.keySet()) {
+                    if (key.equalsIgnoreCase(name)) {
+                        key = name;
+                    }
+                }
+                String formatOptions = params.get(key);
+                params.put(
+                        key,
+                        formatOptions == null || formatOptions.isEmpty()
+                                ? metaTiling
+                                : formatOptions + ";" + metaTiling);
+            }
+        }
+
         return params;
     }
 
@@ -785,6 +919,10 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         if (tile.servletResp != null) {
             setExpirationHeader(tile.servletResp, (int) tile.getTileIndex()[2]);
             setTileIndexHeader(tile);
+            // only the stored tiles have a stable creation time the client can revalidate against
+            if (tile.getCacheResult() == CacheResult.HIT && tile.getBlob() != null) {
+                tile.servletResp.setHeader("ETag", TileValidators.getETag(tile));
+            }
         }
 
         tile.setTileLayer(this);
@@ -833,10 +971,41 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
 
         int metaX = info.getMetaTilingX();
         int metaY = info.getMetaTilingY();
-        if (!tile.getMimeType().supportsTiling()) {
-            metaX = metaY = 1;
+        seedTile(tile, tryCache, metaX, metaY);
+    }
+
+    /**
+     * Seeds the meta tile containing the given tile, using the given meta tiling factors instead of
+     * the layer ones. Used to render larger areas at once when seeding.
+     */
+    public void seedTile(ConveyorTile tile, boolean tryCache, int metaX, int metaY)
+            throws GeoWebCacheException, IOException {
+        int[] metaTiling = getMetaTiling(tile.getMimeType(), metaX, metaY);
+        getMetatilingReponse(tile, tryCache, metaTiling[0], metaTiling[1]);
+    }
+
+    /**
+     * Returns the meta tiling factors to be used for the given format, no meta tiling if the format
+     * does not support it, and at most {@link MetaTiledMap#MAX_TILES} tiles for the vector formats,
+     * as the WMS refuses to build larger vector meta tiles
+     */
+    static int[] getMetaTiling(MimeType mime, int metaX, int metaY) {
+        if (!supportsMetaTiling(mime)) {
+            return new int[] {1, 1};
+        }
+        if (mime.isVector()) {
+            metaX = Math.min(metaX, MetaTiledMap.MAX_TILES);
+            metaY = Math.max(1, Math.min(metaY, MetaTiledMap.MAX_TILES / metaX));
         }
-        getMetatilingReponse(tile, tryCache, metaX, metaY);
+        return new int[] {metaX, metaY};
+    }
+
+    /**
+     * Raster formats are split after rendering, vector ones only if the output format can build
+     * the tiles of a meta tile separately
+     */
+    private static boolean supportsMetaTiling(MimeType mime) {
+        return mime.supportsTiling() || (mime.isVector() && GWC.get().isMetaTilingSupported(mime));
     }
 
     /** @see org.geowebcache.layer.TileLayer#getGridSubsets() */
@@ -1492,4 +1661,37 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         // no HTTP request is in progress
         return null;
     }
+
+    /** A meta tile being rendered, with the tiles it encoded once done */
+    static class MetaTileFlight {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /** Number of requests waiting on this meta tile, tiles are copied only while positive */
+        final AtomicInteger waiters = new AtomicInteger();
+
+        // set by the rendering thread before counting down
+        long[][] positions;
+
+        byte[][] tiles;
+
+        long created;
+
+        boolean hasWaiters() {
+            return waiters.get() > 0;
+        }
+
+        /** Returns the encoded tile at the given grid position, or null if not available */
+        byte[] getTile(long[] tileIndex) {
+            if (positions == null || tiles == null) {
+                return null;
+            }
+            for (int i = 0; i < positions.length; i++) {
+                if (Arrays.equals(positions[i], tileIndex)) {
+                    return tiles[i];
+                }
+            }
+            return null;
+        }
+    }
 }
@@ -0,0 +1,282 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import org.geoserver.gwc.UniformTileBlobs;
+import org.geoserver.wms.WMS;
+
+/**
+ * Detects tiles made of a single color, such as the fully transparent tiles found outside of the
+ * data area, and keeps their encoded form around, so that they are encoded only once per format,
+ * size and color instead of once per tile.
+ *
+ * <p>Any encoding of a uniform tile is visually equivalent to any other, so the encoded bytes are
+ * shared even if the tiles come from different layers or meta tiles. The palettes, format options
+ * and global WMS encoder settings (PNG and JPEG compression, PNG encoder) are part of the key, as
+ * they change the encoded bytes, and changing the settings must not keep serving tiles encoded with
+ * the old ones. The encodings are also registered as {@link UniformTileBlobs}, so that the blob
+ * store saves each of them only once.
+ */
+class UniformTiles {
+
+    /** Whether uniform tiles are detected at all */
+    static boolean ENABLED = Boolean.parseBoolean(System.getProperty("GWC_UNIFORM_TILES", "true"));
+
+    private static final Cache<Key, byte[]> ENCODED =
+            CacheBuilder.newBuilder().maximumSize(1024).build();
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    /**
+     * Returns a key identifying the encoded form of an area of the image, if all its pixels have
+     * the same value, or null otherwise. The scan works directly on the image tiles, and stops at
+     * the first pixel that differs from the first one.
+     *
+     * @param image The (meta tile) image
+     * @param area The area of the image making up the tile, or null for the whole image
+     * @param format The output format
+     * @param formatOptions The format options of the request, if any
+     * @param palette The palette the tile will be encoded with, if any
+     * @param wms The WMS configuration, providing the encoder settings, if available
+     */
+    static Key getKey(
+            RenderedImage image,
+            Rectangle area,
+            String format,
+            Map<String, ?> formatOptions,
+            IndexColorModel palette,
+            WMS wms) {
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel == null) {
+            return null;
+        }
+        Rectangle imageBounds =
+                new Rectangle(
+                        image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        if (area == null) {
+            area = imageBounds;
+        }
+        imageBounds = imageBounds.intersection(area);
+        if (imageBounds.isEmpty()) {
+            return null;
+        }
+        int minTileX = tileIndex(imageBounds.x, image.getTileGridXOffset(), image.getTileWidth());
+        int minTileY = tileIndex(imageBounds.y, image.getTileGridYOffset(), image.getTileHeight());
+        int maxTileX =
+                tileIndex(
+                        imageBounds.x + imageBounds.width - 1,
+                        image.getTileGridXOffset(),
+                        image.getTileWidth());
+        int maxTileY =
+                tileIndex(
+                        imageBounds.y + imageBounds.height - 1,
+                        image.getTileGridYOffset(),
+                        image.getTileHeight());
+        int[] first = null;
+        Object firstElements = null;
+        int[] row = null;
+        for (int ty = minTileY; ty <= maxTileY; ty++) {
+            for (int tx = minTileX; tx <= maxTileX; tx++) {
+                Raster raster = image.getTile(tx, ty);
+                Rectangle bounds = raster.getBounds().intersection(imageBounds);
+                if (bounds.isEmpty()) {
+                    continue;
+                }
+                int bands = raster.getNumBands();
+                if (row == null || row.length < bounds.width * bands) {
+                    row = new int[bounds.width * bands];
+                }
+                if (first == null) {
+                    first = raster.getPixel(bounds.x, bounds.y, (int[]) null);
+                    firstElements = raster.getDataElements(bounds.x, bounds.y, null);
+                }
+                for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                    raster.getPixels(bounds.x, y, bounds.width, 1, row);
+                    for (int i = 0, n = bounds.width * bands; i < n; i++) {
+                        if (row[i] != first[i % bands]) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+        if (first == null) {
+            return null;
+        }
+        int rgb;
+        try {
+            rgb = colorModel.getRGB(firstElements);
+        } catch (RuntimeException e) {
+            // not a color model that can be turned into sRGB, don't bother
+            return null;
+        }
+        return new Key(
+                format,
+                area.width,
+                area.height,
+                rgb,
+                colorModel,
+                formatOptions,
+                getRGBs(palette),
+                getEncoderSettings(wms));
+    }
+
+    /** Returns the colors of an indexed color model, or null for any other color model */
+    private static int[] getRGBs(ColorModel colorModel) {
+        if (!(colorModel instanceof IndexColorModel)) {
+            return null;
+        }
+        IndexColorModel icm = (IndexColorModel) colorModel;
+        int[] rgbs = new int[icm.getMapSize()];
+        icm.getRGBs(rgbs);
+        return rgbs;
+    }
+
+    /** Returns the global settings affecting how tiles are encoded */
+    private static List<Object> getEncoderSettings(WMS wms) {
+        if (wms == null) {
+            return null;
+        }
+        return Arrays.asList(
+                wms.getPngCompression(), wms.getJpegCompression(), wms.getPNGEncoderType());
+    }
+
+    private static int tileIndex(int pixel, int offset, int tileSize) {
+        return Math.floorDiv(pixel - offset, tileSize);
+    }
+
+    /** Returns the encoded form of the uniform tile, or null if not available yet */
+    static byte[] getEncoded(Key key) {
+        byte[] encoded = ENCODED.getIfPresent(key);
+        if (encoded != null) {
+            HITS.incrementAndGet();
+        }
+        return encoded;
+    }
+
+    static void putEncoded(Key key, byte[] encoded) {
+        ENCODED.put(key, encoded);
+        UniformTileBlobs.register(encoded);
+    }
+
+    /** Returns the number of uniform tiles served without encoding them */
+    static long getHits() {
+        return HITS.get();
+    }
+
+    static void clear() {
+        ENCODED.invalidateAll();
+        HITS.set(0);
+    }
+
+    /** Identifies the encoded form of a uniform tile */
+    static final class Key {
+
+        final String format;
+
+        final int width;
+
+        final int height;
+
+        final int rgb;
+
+        final Class<?> colorModelClass;
+
+        final int pixelSize;
+
+        final int transparency;
+
+        /** The colors of the image color model, if indexed */
+        final int[] colors;
+
+        /** The colors of the palette the tile is encoded with, if any */
+        final int[] palette;
+
+        final Map<String, ?> formatOptions;
+
+        final List<Object> encoderSettings;
+
+        Key(
+                String format,
+                int width,
+                int height,
+                int rgb,
+                ColorModel colorModel,
+                Map<String, ?> formatOptions,
+                int[] palette,
+                List<Object> encoderSettings) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.rgb = rgb;
+            this.colorModelClass = colorModel.getClass();
+            this.pixelSize = colorModel.getPixelSize();
+            this.transparency = colorModel.getTransparency();
+            this.colors = getRGBs(colorModel);
+            this.palette = palette;
+            this.formatOptions = formatOptions == null ? null : new HashMap<>(formatOptions);
+            this.encoderSettings = encoderSettings;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return width == other.width
+                    && height == other.height
+                    && rgb == other.rgb
+                    && pixelSize == other.pixelSize
+                    && transparency == other.transparency
+                    && colorModelClass == other.colorModelClass
+                    && Arrays.equals(colors, other.colors)
+                    && Arrays.equals(palette, other.palette)
+                    && Objects.equals(format, other.format)
+                    && Objects.equals(formatOptions, other.formatOptions)
+                    && Objects.equals(encoderSettings, other.encoderSettings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                            format,
+                            width,
+                            height,
+                            rgb,
+                            colorModelClass,
+                            formatOptions,
+                            encoderSettings)
+                    + 31 * Arrays.hashCode(colors)
+                    + Arrays.hashCode(palette);
+        }
+
+        @Override
+        public String toString() {
+            return "UniformTile["
+                    + format
+                    + ", "
+                    + width
+                    + "x"
+                    + height
+                    + ", "
+                    + Integer.toHexString(rgb)
+                    + "]";
+        }
+    }
+}
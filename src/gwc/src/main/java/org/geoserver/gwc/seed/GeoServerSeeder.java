@@ -0,0 +1,488 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.MimeException;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.StorageBroker;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Seeds {@link GeoServerTileLayer GeoServer tile layers} from within GeoServer, as an alternative
+ * to the GeoWebCache seeder for the layers backed by the catalog.
+ *
+ * <p>Compared to the GeoWebCache seeder, it takes advantage of knowing what the layer contains:
+ *
+ * <ul>
+ *   <li>Tiles are rendered in super meta tiles, large meta tiles (by default 2048 pixels wide,
+ *       controlled by the {@code org.geoserver.gwc.seed.superMetaTileSize} system variable) that
+ *       are rendered with a single GetMap and then split in tiles. Layers with labels are rendered
+ *       with their own meta tiling instead, as label placement depends on the rendered area
+ *   <li>Before rendering, each super meta tile is checked against the data footprint of the
+ *       layer: the bounds of the resources, and for vector data, a query for a single feature in
+ *       the area (buffered by the distance at which the styles can paint). Areas without data are
+ *       skipped
+ *   <li>Each zoom level is split recursively in its super meta tiles on a work stealing pool, so
+ *       that all threads are kept busy regardless of the level sizes. The pool size is controlled
+ *       by the {@code org.geoserver.gwc.seed.threads} system variable, and defaults to the number
+ *       of available processors
+ * </ul>
+ *
+ * <p>The progress and throughput of each job is tracked in a {@link SeedJob}.
+ */
+public class GeoServerSeeder implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(GeoServerSeeder.class);
+
+    static final int THREADS =
+            Integer.getInteger(
+                    "org.geoserver.gwc.seed.threads", Runtime.getRuntime().availableProcessors());
+
+    static final int SUPER_METATILE_SIZE =
+            Integer.getInteger("org.geoserver.gwc.seed.superMetaTileSize", 2048);
+
+    /** Maximum number of stopped jobs kept around to report about them */
+    static final int MAX_STOPPED_JOBS = 100;
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    private final GWC gwc;
+
+    private final StorageBroker storageBroker;
+
+    private final ForkJoinPool pool;
+
+    private final int superMetaTileSize;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final Map<Long, SeedJob> jobs = new ConcurrentSkipListMap<>();
+
+    public GeoServerSeeder(GWC gwc, StorageBroker storageBroker) {
+        this(gwc, storageBroker, THREADS, SUPER_METATILE_SIZE);
+    }
+
+    GeoServerSeeder(GWC gwc, StorageBroker storageBroker, int threads, int superMetaTileSize) {
+        this.gwc = checkNotNull(gwc);
+        this.storageBroker = checkNotNull(storageBroker);
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.superMetaTileSize = superMetaTileSize;
+    }
+
+    /**
+     * Starts seeding a layer
+     *
+     * @param layerName The tile layer name
+     * @param gridSetId The grid set to seed, must be one of the layer grid subsets
+     * @param format The tile format, must be one of the layer formats
+     * @param zoomStart The first zoom level to seed, or -1 to start from the first one
+     * @param zoomStop The last zoom level to seed, or -1 to stop at the last one
+     * @param reseed Whether to render again the tiles already in the cache
+     * @return The job, running in background
+     * @throws IllegalArgumentException If the layer, grid set or format are not valid
+     */
+    public SeedJob seed(
+            String layerName,
+            String gridSetId,
+            String format,
+            int zoomStart,
+            int zoomStop,
+            boolean reseed) {
+        TileLayer tileLayer = gwc.getTileLayerByName(layerName);
+        if (!(tileLayer instanceof GeoServerTileLayer)) {
+            throw new IllegalArgumentException(
+                    "Layer " + layerName + " is not backed by the GeoServer catalog");
+        }
+        GeoServerTileLayer layer = (GeoServerTileLayer) tileLayer;
+        GridSubset gridSubset = layer.getGridSubset(gridSetId);
+        if (gridSubset == null) {
+            throw new IllegalArgumentException(
+                    "Layer " + layerName + " is not cached for grid set " + gridSetId);
+        }
+        MimeType mimeType;
+        try {
+            mimeType = MimeType.createFromFormat(format);
+        } catch (MimeException e) {
+            throw new IllegalArgumentException("Unknown format " + format, e);
+        }
+        if (!layer.getMimeTypes().contains(mimeType)) {
+            throw new IllegalArgumentException(
+                    "Layer " + layerName + " is not cached in format " + format);
+        }
+        int start = zoomStart < 0 ? gridSubset.getZoomStart() : zoomStart;
+        int stop = zoomStop < 0 ? gridSubset.getZoomStop() : zoomStop;
+        start = Math.max(start, gridSubset.getZoomStart());
+        stop = Math.min(stop, gridSubset.getZoomStop());
+        if (start > stop) {
+            throw new IllegalArgumentException(
+                    "Invalid zoom level range " + zoomStart + " - " + zoomStop);
+        }
+
+        long total = 0;
+        for (int z = start; z <= stop; z++) {
+            long[] coverage = gridSubset.getCoverage(z);
+            total += (coverage[2] - coverage[0] + 1) * (coverage[3] - coverage[1] + 1);
+        }
+        SeedJob job =
+                new SeedJob(
+                        ids.incrementAndGet(),
+                        layerName,
+                        gridSubset.getName(),
+                        mimeType,
+                        start,
+                        stop,
+                        reseed,
+                        total);
+        pruneJobs();
+        jobs.put(job.getId(), job);
+        pool.execute(new JobTask(new SeedContext(job, layer, gridSubset)));
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Started " + job);
+        }
+        return job;
+    }
+
+    /** Returns all the tracked jobs, running or stopped, in submission order */
+    public List<SeedJob> getJobs() {
+        return Collections.unmodifiableList(new ArrayList<>(jobs.values()));
+    }
+
+    /** Returns the job with the given id, or null if not found */
+    public SeedJob getJob(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels the job with the given id, the tiles being rendered are completed but no new one is
+     * started. Returns the job, or null if not found.
+     */
+    public SeedJob cancel(long id) {
+        SeedJob job = jobs.get(id);
+        if (job != null) {
+            job.cancel();
+        }
+        return job;
+    }
+
+    private void pruneJobs() {
+        List<Long> stopped = new ArrayList<>();
+        for (SeedJob job : jobs.values()) {
+            if (job.isStopped()) {
+                stopped.add(job.getId());
+            }
+        }
+        for (int i = 0; i < stopped.size() - MAX_STOPPED_JOBS; i++) {
+            jobs.remove(stopped.get(i));
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (SeedJob job : jobs.values()) {
+            job.cancel();
+        }
+        pool.shutdownNow();
+    }
+
+    /** The state shared by all the tasks of a job */
+    private class SeedContext {
+        final SeedJob job;
+
+        final GeoServerTileLayer layer;
+
+        final GridSubset gridSubset;
+
+        final int superX;
+
+        final int superY;
+
+        final int buffer;
+
+        final CoordinateReferenceSystem crs;
+
+        SeedContext(SeedJob job, GeoServerTileLayer layer, GridSubset gridSubset) {
+            this.job = job;
+            this.layer = layer;
+            this.gridSubset = gridSubset;
+            // super meta tiles contain whole meta tiles. Labels are placed looking at the whole
+            // rendered area though, rendering a larger one would move them compared to the tiles
+            // rendered on demand, so layers with labels keep their own meta tiling
+            int[] metaTiling = layer.getMetaTilingFactors();
+            if (gwc.hasLabels(layer, gridSubset)) {
+                this.superX = Math.max(1, metaTiling[0]);
+                this.superY = Math.max(1, metaTiling[1]);
+            } else {
+                int superSize = Math.max(superMetaTileSize, 1);
+                this.superX = alignedFactor(metaTiling[0], superSize / gridSubset.getTileWidth());
+                this.superY = alignedFactor(metaTiling[1], superSize / gridSubset.getTileHeight());
+            }
+            this.buffer = gwc.getRenderingBuffer(layer, gridSubset);
+            CoordinateReferenceSystem crs = null;
+            try {
+                crs = CRS.decode("EPSG:" + gridSubset.getSRS().getNumber(), true);
+            } catch (Exception e) {
+                LOGGER.log(
+                        Level.FINE,
+                        "Could not decode the CRS of grid set "
+                                + gridSubset.getName()
+                                + ", the data footprint won't be checked",
+                        e);
+            }
+            this.crs = crs;
+        }
+
+        private int alignedFactor(int metaFactor, int superFactor) {
+            int factor = Math.max(1, metaFactor);
+            return Math.max(factor, superFactor - superFactor % factor);
+        }
+    }
+
+    /** Seeds all the levels of a job, in parallel */
+    private class JobTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final SeedContext context;
+
+        JobTask(SeedContext context) {
+            this.context = context;
+        }
+
+        @Override
+        protected void compute() {
+            SeedJob job = context.job;
+            try {
+                List<RangeTask> levels = new ArrayList<>();
+                for (int z = job.getZoomStart(); z <= job.getZoomStop(); z++) {
+                    long[] coverage = context.gridSubset.getCoverage(z);
+                    levels.add(
+                            new RangeTask(
+                                    context,
+                                    z,
+                                    coverage[0] / context.superX,
+                                    coverage[1] / context.superY,
+                                    coverage[2] / context.superX,
+                                    coverage[3] / context.superY));
+                }
+                invokeAll(levels);
+                job.complete();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Seeding failed for " + job, e);
+                job.fail(e);
+            }
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info(
+                        "Stopped "
+                                + job
+                                + ", "
+                                + job.getTilesRendered()
+                                + " tiles rendered, "
+                                + job.getTilesSkipped()
+                                + " tiles skipped");
+            }
+        }
+    }
+
+    /**
+     * Seeds a range of super meta tiles of a level, splitting it in halves until a single super
+     * meta tile is left
+     */
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final SeedContext context;
+
+        final int z;
+
+        final long minX;
+
+        final long minY;
+
+        final long maxX;
+
+        final long maxY;
+
+        RangeTask(SeedContext context, int z, long minX, long minY, long maxX, long maxY) {
+            this.context = context;
+            this.z = z;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        @Override
+        protected void compute() {
+            if (context.job.isStopped()) {
+                return;
+            }
+            long width = maxX - minX + 1;
+            long height = maxY - minY + 1;
+            if (width == 1 && height == 1) {
+                seed();
+            } else if (width >= height) {
+                long mid = minX + width / 2;
+                invokeAll(
+                        new RangeTask(context, z, minX, minY, mid - 1, maxY),
+                        new RangeTask(context, z, mid, minY, maxX, maxY));
+            } else {
+                long mid = minY + height / 2;
+                invokeAll(
+                        new RangeTask(context, z, minX, minY, maxX, mid - 1),
+                        new RangeTask(context, z, minX, mid, maxX, maxY));
+            }
+        }
+
+        private void seed() {
+            SeedJob job = context.job;
+            long[] coverage = context.gridSubset.getCoverage(z);
+            long[] range = {
+                Math.max(coverage[0], minX * context.superX),
+                Math.max(coverage[1], minY * context.superY),
+                Math.min(coverage[2], minX * context.superX + context.superX - 1),
+                Math.min(coverage[3], minY * context.superY + context.superY - 1),
+                z
+            };
+            long tiles = (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+            if (!hasData(context, range)) {
+                job.tilesSkipped.addAndGet(tiles);
+                return;
+            }
+            ConveyorTile tile =
+                    new ConveyorTile(
+                            storageBroker,
+                            context.layer.getName(),
+                            context.gridSubset.getName(),
+                            new long[] {range[0], range[1], z},
+                            job.getFormat(),
+                            null,
+                            null,
+                            null);
+            tile.setTileLayer(context.layer);
+            try {
+                context.layer.seedTile(tile, !job.isReseed(), context.superX, context.superY);
+            } catch (GeoWebCacheException | IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to seed " + tile, e);
+                job.fail(e);
+                return;
+            }
+            job.tilesRendered.addAndGet(tiles);
+            job.metaTilesRendered.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks if any of the layers making up the tile layer has data in the given tile range,
+     * buffered by the rendering buffer. Errors are logged and considered as data being present.
+     */
+    private boolean hasData(SeedContext context, long[] range) {
+        if (context.crs == null) {
+            return true;
+        }
+        BoundingBox bounds = context.gridSubset.boundsFromRectangle(range);
+        double resolution = context.gridSubset.getGridSet().getGrid((int) range[4]).getResolution();
+        double buffer = context.buffer * resolution;
+        ReferencedEnvelope envelope =
+                new ReferencedEnvelope(
+                        bounds.getMinX() - buffer,
+                        bounds.getMaxX() + buffer,
+                        bounds.getMinY() - buffer,
+                        bounds.getMaxY() + buffer,
+                        context.crs);
+
+        PublishedInfo published = context.layer.getPublishedInfo();
+        List<LayerInfo> layers;
+        if (published instanceof LayerGroupInfo) {
+            layers = ((LayerGroupInfo) published).layers();
+        } else if (published instanceof LayerInfo) {
+            layers = Collections.singletonList((LayerInfo) published);
+        } else {
+            return true;
+        }
+        for (LayerInfo layer : layers) {
+            if (layer != null && hasData(layer.getResource(), envelope)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasData(ResourceInfo resource, ReferencedEnvelope envelope) {
+        if (resource == null) {
+            return false;
+        }
+        try {
+            ReferencedEnvelope nativeBounds = resource.boundingBox();
+            if (nativeBounds == null || nativeBounds.getCoordinateReferenceSystem() == null) {
+                return true;
+            }
+            ReferencedEnvelope area =
+                    envelope.transform(nativeBounds.getCoordinateReferenceSystem(), true);
+            if (!area.intersects((Envelope) nativeBounds)) {
+                return false;
+            }
+            if (!(resource instanceof FeatureTypeInfo)) {
+                return true;
+            }
+
+            FeatureSource<?, ?> source = ((FeatureTypeInfo) resource).getFeatureSource(null, null);
+            GeometryDescriptor geometry = source.getSchema().getGeometryDescriptor();
+            if (geometry == null) {
+                return true;
+            }
+            Filter filter = FF.bbox(FF.property(geometry.getLocalName()), area);
+            Query query = new Query(source.getSchema().getName().getLocalPart(), filter);
+            query.setMaxFeatures(1);
+            query.setPropertyNames(Query.NO_NAMES);
+            try (FeatureIterator<?> features = source.getFeatures(query).features()) {
+                return features.hasNext();
+            }
+        } catch (Exception e) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Could not check the data footprint of "
+                            + resource.prefixedName()
+                            + ", assuming data is present",
+                    e);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.geoserver.rest.ResourceNotFoundException;
+import org.geoserver.rest.RestBaseController;
+import org.geoserver.rest.RestException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * REST endpoint to start, monitor and cancel the jobs of the {@link GeoServerSeeder}:
+ *
+ * <ul>
+ *   <li>{@code GET /rest/gwc/seeding} lists the jobs
+ *   <li>{@code POST /rest/gwc/seeding?layer=...&gridSet=...} starts a job, the optional {@code
+ *       format}, {@code zoomStart}, {@code zoomStop} and {@code reseed} parameters control what is
+ *       seeded
+ *   <li>{@code GET /rest/gwc/seeding/{id}} reports the progress and throughput of a job
+ *   <li>{@code DELETE /rest/gwc/seeding/{id}} cancels a job
+ * </ul>
+ */
+@RestController
+@RequestMapping(
+    path = RestBaseController.ROOT_PATH + "/gwc/seeding",
+    produces = MediaType.APPLICATION_JSON_VALUE
+)
+public class SeedController extends RestBaseController {
+
+    private final GeoServerSeeder seeder;
+
+    public SeedController(GeoServerSeeder seeder) {
+        this.seeder = seeder;
+    }
+
+    @GetMapping
+    public Map<String, Object> jobsGet() {
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        for (SeedJob job : seeder.getJobs()) {
+            jobs.add(toMap(job));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("jobs", jobs);
+        return result;
+    }
+
+    @GetMapping(path = "/{jobId}")
+    public Map<String, Object> jobGet(@PathVariable long jobId) {
+        return toMap(getJob(jobId));
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Map<String, Object> jobPost(
+            @RequestParam String layer,
+            @RequestParam String gridSet,
+            @RequestParam(defaultValue = "image/png") String format,
+            @RequestParam(defaultValue = "-1") int zoomStart,
+            @RequestParam(defaultValue = "-1") int zoomStop,
+            @RequestParam(defaultValue = "false") boolean reseed) {
+        try {
+            return toMap(seeder.seed(layer, gridSet, format, zoomStart, zoomStop, reseed));
+        } catch (IllegalArgumentException e) {
+            throw new RestException(e.getMessage(), HttpStatus.BAD_REQUEST, e);
+        }
+    }
+
+    @DeleteMapping(path = "/{jobId}")
+    public Map<String, Object> jobDelete(@PathVariable long jobId) {
+        getJob(jobId);
+        return toMap(seeder.cancel(jobId));
+    }
+
+    private SeedJob getJob(long jobId) {
+        SeedJob job = seeder.getJob(jobId);
+        if (job == null) {
+            throw new ResourceNotFoundException("No such seeding job: " + jobId);
+        }
+        return job;
+    }
+
+    static Map<String, Object> toMap(SeedJob job) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", job.getId());
+        map.put("layer", job.getLayerName());
+        map.put("gridSet", job.getGridSetId());
+        map.put("format", job.getFormat().getFormat());
+        map.put("zoomStart", job.getZoomStart());
+        map.put("zoomStop", job.getZoomStop());
+        map.put("reseed", job.isReseed());
+        map.put("state", job.getState().name());
+        map.put("tilesTotal", job.getTilesTotal());
+        map.put("tilesRendered", job.getTilesRendered());
+        map.put("tilesSkipped", job.getTilesSkipped());
+        map.put("metaTilesRendered", job.getMetaTilesRendered());
+        map.put("progress", job.getProgress());
+        map.put("elapsedTime", job.getElapsedTime());
+        map.put("tilesPerSecond", job.getThroughput());
+        if (job.getError() != null) {
+            map.put("error", job.getError());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,188 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.geowebcache.mime.MimeType;
+
+/** A seed job run by the {@link GeoServerSeeder}, with its progress */
+public class SeedJob {
+
+    public enum State {
+        RUNNING,
+        DONE,
+        CANCELLED,
+        FAILED
+    }
+
+    private final long id;
+
+    private final String layerName;
+
+    private final String gridSetId;
+
+    private final MimeType format;
+
+    private final int zoomStart;
+
+    private final int zoomStop;
+
+    private final boolean reseed;
+
+    private final long tilesTotal;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long endTime;
+
+    private volatile State state = State.RUNNING;
+
+    private volatile String error;
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    final AtomicLong tilesRendered = new AtomicLong();
+
+    final AtomicLong tilesSkipped = new AtomicLong();
+
+    final AtomicLong metaTilesRendered = new AtomicLong();
+
+    SeedJob(
+            long id,
+            String layerName,
+            String gridSetId,
+            MimeType format,
+            int zoomStart,
+            int zoomStop,
+            boolean reseed,
+            long tilesTotal) {
+        this.id = id;
+        this.layerName = layerName;
+        this.gridSetId = gridSetId;
+        this.format = format;
+        this.zoomStart = zoomStart;
+        this.zoomStop = zoomStop;
+        this.reseed = reseed;
+        this.tilesTotal = tilesTotal;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public String getGridSetId() {
+        return gridSetId;
+    }
+
+    public MimeType getFormat() {
+        return format;
+    }
+
+    public int getZoomStart() {
+        return zoomStart;
+    }
+
+    public int getZoomStop() {
+        return zoomStop;
+    }
+
+    /** Returns true if the existing tiles are rendered again, false if they are kept */
+    public boolean isReseed() {
+        return reseed;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Returns the error that made the job fail, if any */
+    public String getError() {
+        return error;
+    }
+
+    /** Number of tiles in the grid subset, for the seeded zoom levels */
+    public long getTilesTotal() {
+        return tilesTotal;
+    }
+
+    /** Number of tiles rendered (or found in the cache when not reseeding) so far */
+    public long getTilesRendered() {
+        return tilesRendered.get();
+    }
+
+    /** Number of tiles skipped so far, as there is no data around them */
+    public long getTilesSkipped() {
+        return tilesSkipped.get();
+    }
+
+    /** Number of meta tiles rendered so far, each one being split in many tiles */
+    public long getMetaTilesRendered() {
+        return metaTilesRendered.get();
+    }
+
+    /** Returns the fraction of the tiles processed so far, between 0 and 1 */
+    public double getProgress() {
+        if (tilesTotal <= 0) {
+            return state == State.RUNNING ? 0 : 1;
+        }
+        return Math.min(1, (getTilesRendered() + getTilesSkipped()) / (double) tilesTotal);
+    }
+
+    /** Time spent seeding so far, or until the job ended, in milliseconds */
+    public long getElapsedTime() {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        return end - startTime;
+    }
+
+    /** Number of tiles rendered per second */
+    public double getThroughput() {
+        long elapsed = getElapsedTime();
+        return elapsed > 0 ? getTilesRendered() * 1000d / elapsed : 0;
+    }
+
+    /** Returns true if the job is not running anymore, or has been asked to stop */
+    public boolean isStopped() {
+        return state != State.RUNNING;
+    }
+
+    /**
+     * Waits for the job to stop, returns true if it did within the given time, false otherwise
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return stopped.await(timeout, unit);
+    }
+
+    void cancel() {
+        end(State.CANCELLED, null);
+    }
+
+    void fail(Throwable t) {
+        end(State.FAILED, t.getMessage() == null ? t.toString() : t.getMessage());
+    }
+
+    void complete() {
+        end(State.DONE, null);
+    }
+
+    private synchronized void end(State state, String error) {
+        if (this.state == State.RUNNING) {
+            this.state = state;
+            this.error = error;
+            this.endTime = System.currentTimeMillis();
+            stopped.countDown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SeedJob[" + id + ", " + layerName + ", " + gridSetId + ", " + state + "]";
+    }
+}
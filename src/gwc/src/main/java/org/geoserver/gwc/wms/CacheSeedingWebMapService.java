@@ -22,11 +22,11 @@ import org.geotools.util.logging.Logging;
 /**
  * {@link WebMapService#getMap(GetMapRequest)} Spring's AOP method interceptor to seed a (meta)tile
  *
- * <p>{@link GeoServerTileLayer} issues a GetMap request that will be handled by this interceptor
- * instead of directly calling {@link WebMapService#getMap(GetMapRequest)} in order to respect the
- * normal flow of operations through the GeoServer {@link Dispatcher} and hence avoid overwhelming
- * the server with too many requests. That is, adheres to the expectations of the control-flow and
- * monitoring modules by not bypassing the dispatcher.
+ * <p>{@link GeoServerTileLayer} issues a GetMap request that will be handled by this interceptor,
+ * either calling the WMS service directly (see {@link
+ * org.geoserver.gwc.GWC#dispatchGetMap(Map, javax.servlet.http.Cookie[])}) or, when the {@code
+ * GWC_DIRECT_GETMAP} system property is set to false, going through the GeoServer {@link
+ * Dispatcher} to adhere to the expectations of the control-flow and monitoring modules.
  *
  * @author Gabriel Roldan
  */
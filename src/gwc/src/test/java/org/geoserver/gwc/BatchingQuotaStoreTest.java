@@ -0,0 +1,204 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class BatchingQuotaStoreTest {
+
+    private QuotaStore delegate;
+
+    private BatchingQuotaStore store;
+
+    private TileSet tileSet;
+
+    @Before
+    public void setUp() {
+        delegate = mock(QuotaStore.class);
+        when(delegate.addHitsAndSetAccesTime(anyCollection()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        // long interval, the tests flush explicitly
+        store = new BatchingQuotaStore(delegate, 3_600_000);
+        tileSet = new TileSet("layer", "EPSG:4326", "image/png", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    private PageStatsPayload tiles(TilePage page, int count) {
+        PageStatsPayload payload = new PageStatsPayload(page);
+        payload.setNumTiles(count);
+        return payload;
+    }
+
+    private PageStatsPayload hits(TilePage page, int count, long time) {
+        PageStatsPayload payload = new PageStatsPayload(page, tileSet);
+        payload.setNumHits(count);
+        payload.setLastAccessTime(time);
+        return payload;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAggregateTileCounts() throws Exception {
+        TilePage page1 = new TilePage(tileSet.getId(), 0, 0, 1);
+        TilePage page2 = new TilePage(tileSet.getId(), 1, 0, 1);
+        for (int i = 0; i < 10; i++) {
+            store.addToQuotaAndTileCounts(
+                    tileSet,
+                    new Quota(BigInteger.valueOf(100)),
+                    Arrays.asList(tiles(page1, 1), tiles(page2, 2)));
+        }
+        verify(delegate, never()).addToQuotaAndTileCounts(any(), any(), any());
+
+        store.flush();
+        ArgumentCaptor<Quota> quota = ArgumentCaptor.forClass(Quota.class);
+        ArgumentCaptor<Collection> counts = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate, times(1))
+                .addToQuotaAndTileCounts(eq(tileSet), quota.capture(), counts.capture());
+        assertEquals(BigInteger.valueOf(1000), quota.getValue().getBytes());
+        List<PageStatsPayload> payloads = new ArrayList<>(counts.getValue());
+        assertEquals(2, payloads.size());
+        for (PageStatsPayload payload : payloads) {
+            int expected = payload.getPage().equals(page1) ? 10 : 20;
+            assertEquals(expected, payload.getNumTiles());
+        }
+
+        // nothing left
+        store.flush();
+        verify(delegate, times(1)).addToQuotaAndTileCounts(any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAggregateHits() throws Exception {
+        TilePage page = new TilePage(tileSet.getId(), 0, 0, 1);
+        store.addHitsAndSetAccesTime(Collections.singletonList(hits(page, 3, 1000)));
+        store.addHitsAndSetAccesTime(Collections.singletonList(hits(page, 2, 500)));
+        verify(delegate, never()).addHitsAndSetAccesTime(anyCollection());
+
+        // eviction lookups see the aggregated view
+        store.getLeastRecentlyUsedPage(Collections.singleton("layer"));
+        ArgumentCaptor<Collection> updates = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate).addHitsAndSetAccesTime(updates.capture());
+        PageStatsPayload payload = (PageStatsPayload) updates.getValue().iterator().next();
+        assertEquals(5, payload.getNumHits());
+        assertEquals(1000, payload.getLastAccessTime());
+        assertEquals(tileSet, payload.getTileSet());
+    }
+
+    @Test
+    public void testFailedUpdateRetried() throws Exception {
+        TilePage page = new TilePage(tileSet.getId(), 0, 0, 1);
+        doThrow(new IllegalStateException("database down"))
+                .doNothing()
+                .when(delegate)
+                .addToQuotaAndTileCounts(any(), any(), any());
+        store.addToQuotaAndTileCounts(
+                tileSet,
+                new Quota(BigInteger.valueOf(100)),
+                Collections.singletonList(tiles(page, 1)));
+        store.flush();
+        store.addToQuotaAndTileCounts(
+                tileSet,
+                new Quota(BigInteger.valueOf(50)),
+                Collections.singletonList(tiles(page, 1)));
+        store.flush();
+
+        ArgumentCaptor<Quota> quota = ArgumentCaptor.forClass(Quota.class);
+        verify(delegate, times(2)).addToQuotaAndTileCounts(eq(tileSet), quota.capture(), any());
+        assertEquals(BigInteger.valueOf(150), quota.getValue().getBytes());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInterruptedFlushRequeued() throws Exception {
+        TileSet other = new TileSet("other", "EPSG:4326", "image/png", null);
+        TilePage page = new TilePage(tileSet.getId(), 0, 0, 1);
+        TilePage otherPage = new TilePage(other.getId(), 0, 0, 1);
+        doThrow(new InterruptedException())
+                .doNothing()
+                .when(delegate)
+                .addToQuotaAndTileCounts(any(), any(), any());
+        store.addToQuotaAndTileCounts(
+                tileSet,
+                new Quota(BigInteger.valueOf(100)),
+                Collections.singletonList(tiles(page, 1)));
+        store.addToQuotaAndTileCounts(
+                other,
+                new Quota(BigInteger.valueOf(10)),
+                Collections.singletonList(tiles(otherPage, 2)));
+        Future<List<PageStats>> stats =
+                store.addHitsAndSetAccesTime(Collections.singletonList(hits(page, 3, 1000)));
+
+        try {
+            store.flush();
+            fail("Expected the flush to be interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        // the callers waiting for the stats are not left hanging
+        assertTrue(stats.isDone());
+        verify(delegate, never()).addHitsAndSetAccesTime(anyCollection());
+
+        // nothing got lost
+        store.flush();
+        ArgumentCaptor<TileSet> tileSets = ArgumentCaptor.forClass(TileSet.class);
+        ArgumentCaptor<Quota> quotas = ArgumentCaptor.forClass(Quota.class);
+        ArgumentCaptor<Collection> counts = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate, times(3))
+                .addToQuotaAndTileCounts(tileSets.capture(), quotas.capture(), counts.capture());
+        for (int i = 1; i < 3; i++) {
+            TileSet written = tileSets.getAllValues().get(i);
+            PageStatsPayload payload =
+                    (PageStatsPayload) counts.getAllValues().get(i).iterator().next();
+            if (written.equals(tileSet)) {
+                assertEquals(BigInteger.valueOf(100), quotas.getAllValues().get(i).getBytes());
+                assertEquals(1, payload.getNumTiles());
+            } else {
+                assertEquals(other, written);
+                assertEquals(BigInteger.valueOf(10), quotas.getAllValues().get(i).getBytes());
+                assertEquals(2, payload.getNumTiles());
+            }
+        }
+        ArgumentCaptor<Collection> updates = ArgumentCaptor.forClass(Collection.class);
+        verify(delegate).addHitsAndSetAccesTime(updates.capture());
+        PageStatsPayload payload = (PageStatsPayload) updates.getValue().iterator().next();
+        assertEquals(3, payload.getNumHits());
+        assertEquals(1000, payload.getLastAccessTime());
+    }
+}
@@ -19,6 +19,7 @@ import org.apache.commons.io.IOUtils;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geotools.util.logging.Logging;
+import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.storage.BlobStore;
@@ -269,6 +270,64 @@ public class ConfigurableBlobStoreTest extends GeoServerSystemTestSupport {
                 .addListener(Mockito.any(BlobStoreListener.class));
     }
 
+    @Test
+    public void testUniformTileMarkers() throws Exception {
+        GWCConfig gwcConfig = new GWCConfig();
+        gwcConfig.setInnerCachingEnabled(false);
+        blobStore.setChanged(gwcConfig, false);
+
+        byte[] uniform = "uniform tile".getBytes();
+        UniformTileBlobs.register(uniform);
+        try {
+            long[] xyz = {1L, 2L, 3L};
+            Map<String, String> parameters = new HashMap<String, String>();
+            TileObject to =
+                    TileObject.createCompleteTileObject(
+                            "test:uniform",
+                            xyz,
+                            "EPSG:4326",
+                            "image/png",
+                            parameters,
+                            new ByteArrayResource(uniform));
+            blobStore.put(to);
+            assertEquals(1, UniformTileBlobs.getMarkersStored());
+            // the caller tile is left untouched
+            assertArrayEquals(uniform, IOUtils.toByteArray(to.getBlob().getInputStream()));
+
+            // the file store only got the marker
+            TileObject stored =
+                    TileObject.createQueryTileObject(
+                            "test:uniform", xyz, "EPSG:4326", "image/png", parameters);
+            assertTrue(defaultStore.get(stored));
+            assertEquals(UniformTileBlobs.MARKER_SIZE, stored.getBlob().getSize());
+
+            // but reads resolve the shared blob, also once it is no longer in memory
+            UniformTileBlobs.clear();
+            TileObject read =
+                    TileObject.createQueryTileObject(
+                            "test:uniform", xyz, "EPSG:4326", "image/png", parameters);
+            assertTrue(blobStore.get(read));
+            assertArrayEquals(uniform, IOUtils.toByteArray(read.getBlob().getInputStream()));
+            assertEquals(uniform.length, read.getBlobSize());
+            Quota shared = new ConfigurableQuotaStore(null).getUniformTilesQuota();
+            assertTrue(shared.getBytes().longValue() >= uniform.length);
+
+            // other tiles are stored as is
+            TileObject other =
+                    TileObject.createCompleteTileObject(
+                            "test:uniform",
+                            new long[] {2L, 2L, 3L},
+                            "EPSG:4326",
+                            "image/png",
+                            parameters,
+                            new ByteArrayResource("other tile".getBytes()));
+            blobStore.put(other);
+            assertEquals(0, UniformTileBlobs.getMarkersStored());
+        } finally {
+            UniformTileBlobs.clear();
+        }
+    }
+
     /** Checks if the streams are equals, note that the {@link InputStream}s are also closed. */
     private void checkInputStreams(InputStream is, InputStream is2) throws IOException {
         try {
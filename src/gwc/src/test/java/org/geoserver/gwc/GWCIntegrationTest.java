@@ -19,6 +19,7 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
@@ -75,6 +76,7 @@ import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geoserver.test.TestSetup;
 import org.geoserver.test.TestSetupFrequency;
+import org.geoserver.wms.WMSInfo;
 import org.geotools.feature.NameImpl;
 import org.geowebcache.GeoWebCacheDispatcher;
 import org.geowebcache.GeoWebCacheException;
@@ -238,6 +240,39 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals("image/png", sr.getContentType());
     }
 
+    @Test
+    public void testTileETag() throws Exception {
+        String layerId = getLayerId(MockData.BASIC_POLYGONS);
+        String request =
+                "gwc/service/wmts?request=GetTile&layer="
+                        + layerId
+                        + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:1"
+                        + "&tilerow=0&tilecol=1";
+        // make sure the tile is cached, hits carry the strong tile ETag
+        getAsServletResponse(request);
+        MockHttpServletResponse response = getAsServletResponse(request);
+        assertEquals(200, response.getStatus());
+        assertThat(response.getHeader("geowebcache-cache-result"), equalToIgnoringCase("HIT"));
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+
+        MockHttpServletRequest httpReq = createGetRequest(request);
+        httpReq.addHeader("If-None-Match", etag);
+        response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        // If-None-Match takes precedence over If-Modified-Since
+        httpReq = createGetRequest(request);
+        httpReq.addHeader("If-None-Match", "\"abcd\"");
+        httpReq.addHeader("If-Modified-Since", DateUtils.formatDate(new Date()));
+        response = dispatch(httpReq, "UTF-8");
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals("image/png", response.getContentType());
+        assertEquals(etag, response.getHeader("ETag"));
+    }
+
     @Test
     public void testGetLegendGraphics() throws Exception {
         String layerId = getLayerId(MockData.BASIC_POLYGONS);
@@ -1104,6 +1139,36 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(THE_HOST, fake.getRemoteHost());
     }
 
+    @Test
+    public void testDirectGetMapDispatcherCallbacks() throws Exception {
+        final String layerName = MockData.LAKES.getPrefix() + ":" + MockData.LAKES.getLocalPart();
+        final String request =
+                "gwc/service/wmts?request=GetTile&layer="
+                        + layerName
+                        + "&format=image/png&tilematrixset=EPSG:4326&tilematrix=EPSG:4326:";
+
+        // the meta tile is rendered calling the WMS directly, the callbacks still run
+        HttpRequestRecorderCallback.reset();
+        MockHttpServletResponse response =
+                getAsServletResponse(request + "4&tilerow=7&tilecol=16");
+        assertEquals(200, response.getStatus());
+        ArrayList<HttpServletRequest> requests = HttpRequestRecorderCallback.getRequests();
+        assertEquals(2, requests.size());
+        assertThat(requests.get(1), instanceOf(FakeHttpServletRequest.class));
+
+        // and the disabled service check applies, on another zoom level
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        wms.setEnabled(false);
+        getGeoServer().save(wms);
+        try {
+            response = getAsServletResponse(request + "5&tilerow=15&tilecol=32");
+            assertNotEquals(200, response.getStatus());
+        } finally {
+            wms.setEnabled(true);
+            getGeoServer().save(wms);
+        }
+    }
+
     @Test
     public void testReloadConfiguration() throws Exception {
         String path = "/gwc/rest/reload";
@@ -1342,7 +1407,11 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
 
     private QuotaStore getActualStore(ConfigurableQuotaStoreProvider provider)
             throws ConfigurationException, IOException {
-        return ((ConfigurableQuotaStore) provider.getQuotaStore()).getStore();
+        QuotaStore store = ((ConfigurableQuotaStore) provider.getQuotaStore()).getStore();
+        if (store instanceof BatchingQuotaStore) {
+            return ((BatchingQuotaStore) store).getDelegate();
+        }
+        return store;
     }
 
     @Test
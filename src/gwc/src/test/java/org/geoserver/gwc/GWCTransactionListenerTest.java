@@ -6,15 +6,19 @@
 package org.geoserver.gwc;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.geoserver.gwc.GWCTransactionListener.GEOMETRY_FACTORY;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -26,12 +30,17 @@ import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.geometry.jts.ReferencedEnvelope3D;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
 import org.junit.Before;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.mockito.ArgumentCaptor;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 public class GWCTransactionListenerTest {
@@ -43,7 +52,8 @@ public class GWCTransactionListenerTest {
     @Before
     public void setUp() throws Exception {
         mediator = mock(GWC.class);
-        listener = new GWCTransactionListener(mediator);
+        // truncate right after the transaction
+        listener = new GWCTransactionListener(mediator, 0);
     }
 
     @Test
@@ -140,34 +150,37 @@ public class GWCTransactionListenerTest {
     public void testDataStoreChangeInsert() {
 
         Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
-        ReferencedEnvelope affectedBounds = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+        Geometry affected = point(-90, 45);
 
-        issueInsert(extendedProperties, affectedBounds);
+        issueInsert(extendedProperties, collection(WGS84, affected));
 
         assertTrue(
                 extendedProperties.containsKey(
                         GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER));
 
         @SuppressWarnings("unchecked")
-        Map<String, List<ReferencedEnvelope>> placeHolder =
-                (Map<String, List<ReferencedEnvelope>>)
+        Map<String, List<GWCTransactionListener.AffectedGeometries>> placeHolder =
+                (Map<String, List<GWCTransactionListener.AffectedGeometries>>)
                         extendedProperties.get(
                                 GWCTransactionListener.GWC_TRANSACTION_INFO_PLACEHOLDER);
 
         assertNotNull(placeHolder.get("theLayer"));
 
-        assertSame(affectedBounds, placeHolder.get("theLayer").get(0));
-        assertSame(affectedBounds, placeHolder.get("theGroup").get(0));
+        assertEquals(
+                Collections.singletonList(affected),
+                placeHolder.get("theLayer").get(0).geometries);
+        assertEquals(
+                Collections.singletonList(affected),
+                placeHolder.get("theGroup").get(0).geometries);
     }
 
     @Test
     public void testAfterTransactionCompoundCRS() throws Exception {
         Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
         final CoordinateReferenceSystem compoundCrs = CRS.decode("EPSG:7415");
-        ReferencedEnvelope3D transactionBounds =
-                new ReferencedEnvelope3D(142892, 470783, 142900, 470790, 16, 20, compoundCrs);
+        Geometry affected = point(142892, 470783);
 
-        issueInsert(extendedProperties, transactionBounds);
+        issueInsert(extendedProperties, collection(compoundCrs, affected));
 
         TransactionRequest request = mock(TransactionRequest.class);
         TransactionResponse result = mock(TransactionResponse.class);
@@ -176,22 +189,20 @@ public class GWCTransactionListenerTest {
         when(mediator.getDeclaredCrs(anyString())).thenReturn(compoundCrs);
         listener.afterTransaction(request, result, true);
 
-        ReferencedEnvelope expectedBounds =
-                new ReferencedEnvelope(transactionBounds, CRS.getHorizontalCRS(compoundCrs));
-
-        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedBounds));
-        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedBounds));
+        CoordinateReferenceSystem expectedCrs = CRS.getHorizontalCRS(compoundCrs);
+        verify(mediator, times(1)).truncate(eq("theLayer"), eq(affected), eq(expectedCrs));
+        verify(mediator, times(1)).truncate(eq("theGroup"), eq(affected), eq(expectedCrs));
     }
 
     @Test
     public void testAfterTransaction() throws Exception {
         Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
-        ReferencedEnvelope affectedBounds1 = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
-        ReferencedEnvelope affectedBounds2 = new ReferencedEnvelope(0, 180, 0, 90, WGS84);
+        Geometry affected1 = point(-170, 80);
+        Geometry affected2 = point(170, -80);
 
-        issueInsert(extendedProperties, affectedBounds1);
+        issueInsert(extendedProperties, collection(WGS84, affected1));
 
-        issueInsert(extendedProperties, affectedBounds2);
+        issueInsert(extendedProperties, collection(WGS84, affected2));
 
         TransactionRequest request = mock(TransactionRequest.class);
         TransactionResponse result = mock(TransactionResponse.class);
@@ -200,11 +211,63 @@ public class GWCTransactionListenerTest {
         when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
         listener.afterTransaction(request, result, true);
 
-        ReferencedEnvelope expectedEnv = new ReferencedEnvelope(affectedBounds1);
-        expectedEnv.expandToInclude(affectedBounds2);
+        // the two points are truncated separately, not as the whole world envelope
+        ArgumentCaptor<Geometry> captor = ArgumentCaptor.forClass(Geometry.class);
+        verify(mediator, times(1)).truncate(eq("theLayer"), captor.capture(), eq(WGS84));
+        assertEquals(2, captor.getValue().getNumGeometries());
+        assertEquals(affected1, captor.getValue().getGeometryN(0));
+        assertEquals(affected2, captor.getValue().getGeometryN(1));
+        verify(mediator, times(1)).truncate(eq("theGroup"), any(Geometry.class), eq(WGS84));
+    }
+
+    @Test
+    public void testTransactionsCoalesced() throws Exception {
+        // a delay long enough to never trigger during the test
+        listener = new GWCTransactionListener(mediator, 3600 * 1000);
+        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
+        Geometry affected1 = point(-170, 80);
+        Geometry affected2 = point(170, -80);
+
+        for (Geometry affected : Arrays.asList(affected1, affected2)) {
+            Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+            issueInsert(extendedProperties, collection(WGS84, affected));
+            TransactionRequest request = mock(TransactionRequest.class);
+            when(request.getExtendedProperties()).thenReturn(extendedProperties);
+            listener.afterTransaction(request, mock(TransactionResponse.class), true);
+        }
+        verify(mediator, never())
+                .truncate(anyString(), any(Geometry.class), any(CoordinateReferenceSystem.class));
+
+        // both transactions are truncated in a single call
+        listener.flush();
+        ArgumentCaptor<Geometry> captor = ArgumentCaptor.forClass(Geometry.class);
+        verify(mediator, times(1)).truncate(eq("theLayer"), captor.capture(), eq(WGS84));
+        assertEquals(2, captor.getValue().getNumGeometries());
+        verify(mediator, times(1)).truncate(eq("theGroup"), any(Geometry.class), eq(WGS84));
+
+        // nothing left to truncate
+        listener.flush();
+        verify(mediator, times(2))
+                .truncate(anyString(), any(Geometry.class), any(CoordinateReferenceSystem.class));
+        listener.destroy();
+    }
+
+    private Geometry point(double x, double y) {
+        return GEOMETRY_FACTORY.createPoint(new Coordinate(x, y));
+    }
 
-        verify(mediator, times(1)).truncate(eq("theLayer"), eq(expectedEnv));
-        verify(mediator, times(1)).truncate(eq("theGroup"), eq(expectedEnv));
+    private SimpleFeatureCollection collection(
+            CoordinateReferenceSystem crs, Geometry... geometries) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("testType");
+        tb.setCRS(crs);
+        tb.add("geom", Geometry.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+        ListFeatureCollection collection = new ListFeatureCollection(type);
+        for (Geometry geometry : geometries) {
+            collection.add(SimpleFeatureBuilder.build(type, new Object[] {geometry}, null));
+        }
+        return collection;
     }
 
     /**
@@ -212,7 +275,7 @@ public class GWCTransactionListenerTest {
      * "theGroup"
      */
     private void issueInsert(
-            Map<Object, Object> extendedProperties, ReferencedEnvelope affectedBounds) {
+            Map<Object, Object> extendedProperties, SimpleFeatureCollection affectedFeatures) {
 
         TransactionType transaction = mock(TransactionType.class);
         when(transaction.getExtendedProperties()).thenReturn(extendedProperties);
@@ -233,8 +296,6 @@ public class GWCTransactionListenerTest {
                         eq(layerName.getNamespaceURI()), eq(layerName.getLocalPart())))
                 .thenReturn(ImmutableSet.of("theLayer", "theGroup"));
 
-        SimpleFeatureCollection affectedFeatures = mock(SimpleFeatureCollection.class);
-        when(affectedFeatures.getBounds()).thenReturn(affectedBounds);
         when(event.getAffectedFeatures()).thenReturn(affectedFeatures);
 
         listener.dataStoreChange(event);
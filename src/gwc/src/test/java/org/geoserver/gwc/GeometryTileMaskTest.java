@@ -0,0 +1,105 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+public class GeometryTileMaskTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private GridSubset gridSubset;
+
+    @Before
+    public void setUp() {
+        // 2x1 tiles at level 0, at level 10 tiles are 180/1024 degrees wide
+        gridSubset =
+                GridSubsetFactory.createGridSubSet(new DefaultGridsets(true, true).worldEpsg4326());
+    }
+
+    @Test
+    public void testDistantPoints() {
+        Geometry points =
+                FACTORY.createMultiPoint(
+                        new Coordinate[] {new Coordinate(-170, 80), new Coordinate(170, -80)});
+        GeometryTileMask mask = new GeometryTileMask(gridSubset, points, 0, null);
+
+        assertFalse(mask.isEmpty());
+        assertArrayEquals(new long[] {0, 0, 1, 0, 0}, mask.getGridCoverages()[0]);
+        assertArrayEquals(new long[] {56, 56, 1991, 967, 10}, mask.getGridCoverages()[10]);
+
+        assertTrue(mask.lookup(56, 967, 10));
+        assertTrue(mask.lookup(1991, 56, 10));
+        // the area in between the two points is not touched
+        assertFalse(mask.lookup(57, 967, 10));
+        assertFalse(mask.lookup(1000, 500, 10));
+        assertFalse(mask.lookup(1991, 967, 10));
+        assertFalse(mask.lookup(56, 56, 10));
+    }
+
+    @Test
+    public void testBuffer() {
+        Geometry point = FACTORY.createPoint(new Coordinate(-170, 80));
+        // a full tile of buffer
+        GeometryTileMask mask = new GeometryTileMask(gridSubset, point, 256, null);
+
+        assertArrayEquals(new long[] {55, 966, 57, 968, 10}, mask.getGridCoverages()[10]);
+        for (int x = 55; x <= 57; x++) {
+            for (int y = 966; y <= 968; y++) {
+                assertTrue(mask.lookup(x, y, 10));
+            }
+        }
+        assertFalse(mask.lookup(58, 967, 10));
+        assertFalse(mask.lookup(56, 965, 10));
+    }
+
+    @Test
+    public void testMetaTiles() {
+        Geometry point = FACTORY.createPoint(new Coordinate(-170, 80));
+        GeometryTileMask mask = new GeometryTileMask(gridSubset, point, 0, new int[] {4, 4});
+
+        // the whole 4x4 meta tile containing the point is selected
+        assertArrayEquals(new long[] {56, 964, 59, 967, 10}, mask.getGridCoverages()[10]);
+        assertTrue(mask.lookup(56, 967, 10));
+        assertTrue(mask.lookup(59, 964, 10));
+        assertFalse(mask.lookup(55, 967, 10));
+        assertFalse(mask.lookup(60, 967, 10));
+    }
+
+    @Test
+    public void testTooManyTiles() {
+        Geometry polygon = FACTORY.toGeometry(new Envelope(-10, 10, -10, 10));
+        GeometryTileMask mask = new GeometryTileMask(gridSubset, polygon, 0, null, 10);
+
+        // lookups are still correct when falling back on the geometry tests
+        long[] coverage = mask.getGridCoverages()[10];
+        assertArrayEquals(new long[] {967, 455, 1080, 568, 10}, coverage);
+        assertTrue(mask.lookup(1024, 512, 10));
+        assertTrue(mask.lookup(967, 455, 10));
+        assertFalse(mask.lookup(966, 455, 10));
+        assertFalse(mask.lookup(0, 0, 10));
+    }
+
+    @Test
+    public void testEmpty() {
+        GeometryTileMask mask =
+                new GeometryTileMask(
+                        gridSubset, FACTORY.createGeometryCollection(new Geometry[0]), 0, null);
+        assertTrue(mask.isEmpty());
+        assertFalse(mask.lookup(0, 0, 0));
+    }
+}
@@ -0,0 +1,85 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TileValidatorsTest {
+
+    private static final String ETAG = "\"abcd\"";
+
+    private static final long LAST_MODIFIED = 1_500_000_000_500L;
+
+    @Test
+    public void testNotModified() {
+        assertTrue(TileValidators.isNotModified(ETAG, null, ETAG, LAST_MODIFIED));
+        assertTrue(TileValidators.isNotModified("\"x\", W/" + ETAG, null, ETAG, LAST_MODIFIED));
+        assertTrue(TileValidators.isNotModified("*", null, ETAG, LAST_MODIFIED));
+        assertFalse(TileValidators.isNotModified("\"x\"", null, ETAG, LAST_MODIFIED));
+
+        // second precision
+        String date = TileValidators.formatDate(LAST_MODIFIED);
+        assertTrue(TileValidators.isNotModified(null, date, ETAG, LAST_MODIFIED));
+        String before = TileValidators.formatDate(LAST_MODIFIED - 1000);
+        assertFalse(TileValidators.isNotModified(null, before, ETAG, LAST_MODIFIED));
+        // If-None-Match wins
+        assertFalse(TileValidators.isNotModified("\"x\"", date, ETAG, LAST_MODIFIED));
+        assertFalse(TileValidators.isNotModified(null, "not a date", ETAG, LAST_MODIFIED));
+
+        // without an ETag If-None-Match is ignored
+        assertFalse(TileValidators.isNotModified("*", null, null, LAST_MODIFIED));
+        assertTrue(TileValidators.isNotModified("\"x\"", date, null, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testRange() {
+        assertNull(TileValidators.getRange(null, null, ETAG, LAST_MODIFIED, 100));
+        assertArrayEquals(
+                new long[] {10, 19},
+                TileValidators.getRange("bytes=10-19", null, ETAG, LAST_MODIFIED, 100));
+        assertArrayEquals(
+                new long[] {10, 99},
+                TileValidators.getRange("bytes=10-", null, ETAG, LAST_MODIFIED, 100));
+        assertArrayEquals(
+                new long[] {10, 99},
+                TileValidators.getRange("bytes=10-1000", null, ETAG, LAST_MODIFIED, 100));
+        assertArrayEquals(
+                new long[] {90, 99},
+                TileValidators.getRange("bytes=-10", null, ETAG, LAST_MODIFIED, 100));
+        assertSame(
+                TileValidators.UNSATISFIABLE,
+                TileValidators.getRange("bytes=100-", null, ETAG, LAST_MODIFIED, 100));
+        // multiple ranges and garbage are ignored
+        assertNull(TileValidators.getRange("bytes=1-2,5-6", null, ETAG, LAST_MODIFIED, 100));
+        assertNull(TileValidators.getRange("bytes=a-b", null, ETAG, LAST_MODIFIED, 100));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertArrayEquals(
+                new long[] {0, 9},
+                TileValidators.getRange("bytes=0-9", ETAG, ETAG, LAST_MODIFIED, 100));
+        assertNull(TileValidators.getRange("bytes=0-9", "\"x\"", ETAG, LAST_MODIFIED, 100));
+        String date = TileValidators.formatDate(LAST_MODIFIED);
+        assertArrayEquals(
+                new long[] {0, 9},
+                TileValidators.getRange("bytes=0-9", date, ETAG, LAST_MODIFIED, 100));
+        String before = TileValidators.formatDate(LAST_MODIFIED - 1000);
+        assertNull(TileValidators.getRange("bytes=0-9", before, ETAG, LAST_MODIFIED, 100));
+
+        // unquoted ETags, as sent by GWC
+        String hexTag = Long.toHexString(LAST_MODIFIED);
+        assertArrayEquals(
+                new long[] {0, 9},
+                TileValidators.getRange("bytes=0-9", hexTag, hexTag, LAST_MODIFIED, 100));
+        assertNull(TileValidators.getRange("bytes=0-9", hexTag, null, LAST_MODIFIED, 100));
+    }
+}
@@ -0,0 +1,242 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.dispatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import org.geoserver.config.GeoServer;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.TileValidators;
+import org.geoserver.gwc.config.GWCConfig;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geoserver.gwc.wmts.WMTSInfo;
+import org.geoserver.security.impl.ServiceAccessRule;
+import org.geoserver.security.impl.ServiceAccessRuleDAO;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.StorageBroker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class CachedTileFilterTest {
+
+    private static final byte[] TILE = {1, 2, 3, 4};
+
+    private static final long CREATED = 1_500_000_000_000L;
+
+    private GeoServerTileLayer layer;
+
+    private ConveyorTile cached;
+
+    private ServiceAccessRuleDAO serviceRules;
+
+    private CachedTileFilter filter;
+
+    @Before
+    public void setUp() {
+        // 4x2 tiles at level 1
+        GridSubset gridSubset =
+                GridSubsetFactory.createGridSubSet(new DefaultGridsets(true, true).worldEpsg4326());
+
+        layer = mock(GeoServerTileLayer.class);
+        when(layer.getName()).thenReturn("test");
+        when(layer.isEnabled()).thenReturn(true);
+        when(layer.getGridSubset("EPSG:4326")).thenReturn(gridSubset);
+        when(layer.getMimeTypes()).thenReturn(Collections.singletonList(ImageMime.png));
+        when(layer.getParameterFilters()).thenReturn(Collections.emptyList());
+        cached = mock(ConveyorTile.class);
+        when(cached.getBlob()).thenReturn(new ByteArrayResource(TILE));
+        when(cached.getTSCreated()).thenReturn(CREATED);
+        when(layer.getCachedTile(any(ConveyorTile.class))).thenReturn(cached);
+
+        GWCConfig config = mock(GWCConfig.class);
+        when(config.isTMSEnabled()).thenReturn(true);
+        GWC gwc = mock(GWC.class);
+        when(gwc.getConfig()).thenReturn(config);
+        when(gwc.getTileLayerByName("test")).thenReturn(layer);
+
+        WMTSInfo wmts = mock(WMTSInfo.class);
+        when(wmts.isEnabled()).thenReturn(true);
+        GeoServer geoServer = mock(GeoServer.class);
+        when(geoServer.getService(WMTSInfo.class)).thenReturn(wmts);
+
+        serviceRules = mock(ServiceAccessRuleDAO.class);
+        when(serviceRules.getRules()).thenReturn(Collections.emptyList());
+
+        filter = new CachedTileFilter(gwc, geoServer, serviceRules, mock(StorageBroker.class));
+    }
+
+    private MockHttpServletRequest wmtsRequest() {
+        MockHttpServletRequest request =
+                new MockHttpServletRequest("GET", "/geoserver/gwc/service/wmts");
+        request.setContextPath("/geoserver");
+        request.addParameter("service", "WMTS");
+        request.addParameter("request", "GetTile");
+        request.addParameter("layer", "test");
+        request.addParameter("tileMatrixSet", "EPSG:4326");
+        request.addParameter("tileMatrix", "EPSG:4326:1");
+        request.addParameter("tileRow", "0");
+        request.addParameter("tileCol", "3");
+        request.addParameter("format", "image/png");
+        return request;
+    }
+
+    @Test
+    public void testWMTSHit() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(wmtsRequest(), response, chain);
+
+        // served by the filter
+        assertNull(chain.getRequest());
+        assertEquals(200, response.getStatus());
+        assertEquals("image/png", response.getContentType());
+        assertEquals("HIT", response.getHeader("geowebcache-cache-result"));
+        assertArrayEquals(TILE, response.getContentAsByteArray());
+        assertEquals(1, filter.getHits());
+        assertEquals("[3, 1, 1]", response.getHeader("geowebcache-tile-index"));
+        assertEquals("EPSG:4326", response.getHeader("geowebcache-gridset"));
+        verify(layer).setExpirationHeader(response, 1);
+
+        // WMTS rows start from the top
+        ArgumentCaptor<ConveyorTile> tile = ArgumentCaptor.forClass(ConveyorTile.class);
+        verify(layer).getCachedTile(tile.capture());
+        assertArrayEquals(new long[] {3, 1, 1}, tile.getValue().getTileIndex());
+    }
+
+    @Test
+    public void testTMSHit() throws Exception {
+        String path = "/geoserver/gwc/service/tms/1.0.0/test%40EPSG%3A4326%40png/1/3/1.png";
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setContextPath("/geoserver");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+
+        assertNull(chain.getRequest());
+        assertArrayEquals(TILE, response.getContentAsByteArray());
+        ArgumentCaptor<ConveyorTile> tile = ArgumentCaptor.forClass(ConveyorTile.class);
+        verify(layer).getCachedTile(tile.capture());
+        assertArrayEquals(new long[] {3, 1, 1}, tile.getValue().getTileIndex());
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        when(layer.getCachedTile(any(ConveyorTile.class))).thenReturn(null);
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(wmtsRequest(), new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        assertEquals(0, filter.getHits());
+    }
+
+    @Test
+    public void testUnknownParameter() throws Exception {
+        MockHttpServletRequest request = wmtsRequest();
+        request.addParameter("time", "2018-01-01");
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        verify(layer, never()).getCachedTile(any(ConveyorTile.class));
+    }
+
+    @Test
+    public void testConditionalRequest() throws Exception {
+        // same strong ETag as the cache hits going through the GWC dispatcher
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(wmtsRequest(), response, new MockFilterChain());
+        String etag = response.getHeader("ETag");
+        assertEquals(TileValidators.getETag(cached), etag);
+        String lastModified = response.getHeader("Last-Modified");
+        assertNotNull(lastModified);
+
+        MockHttpServletRequest request = wmtsRequest();
+        request.addHeader("If-Modified-Since", lastModified);
+        response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        assertEquals(304, response.getStatus());
+
+        // matching ETag, no body
+        request = wmtsRequest();
+        request.addHeader("If-None-Match", etag);
+        MockFilterChain chain = new MockFilterChain();
+        response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        assertNull(chain.getRequest());
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        // outdated copy, If-None-Match takes precedence over If-Modified-Since
+        request = wmtsRequest();
+        request.addHeader("If-None-Match", "\"abcd\"");
+        request.addHeader("If-Modified-Since", lastModified);
+        response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(TILE, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testUnsupportedPrecondition() throws Exception {
+        MockHttpServletRequest request = wmtsRequest();
+        request.addHeader("If-Match", "\"abcd\"");
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        verify(layer, never()).getCachedTile(any(ConveyorTile.class));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        MockHttpServletRequest request = wmtsRequest();
+        request.addHeader("Range", "bytes=1-2");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 1-2/4", response.getHeader("Content-Range"));
+        assertArrayEquals(new byte[] {2, 3}, response.getContentAsByteArray());
+
+        request = wmtsRequest();
+        request.addHeader("Range", "bytes=10-");
+        response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */4", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void testServiceRules() throws Exception {
+        when(serviceRules.getRules())
+                .thenReturn(
+                        Collections.singletonList(
+                                new ServiceAccessRule("gwc", "*", "ROLE_ADMINISTRATOR")));
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(wmtsRequest(), new MockHttpServletResponse(), chain);
+
+        // anonymous cannot access, let the dispatcher report the error
+        assertNotNull(chain.getRequest());
+        verify(layer, never()).getCachedTile(any(ConveyorTile.class));
+    }
+}
@@ -27,9 +27,11 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
@@ -523,6 +525,46 @@ public class CatalogConfigurationTest {
         }
     }
 
+    @Test
+    public void testLookupsDuringSave() throws Exception {
+        // block the catalog save until the lookups are done
+        final CountDownLatch saving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final GeoServerTileLayerInfo newState = TileLayerInfoUtil.loadOrCreate(layer1, defaults);
+        newState.setMetaTilingX(5);
+        when(tileLayerCatalog.save(same(newState)))
+                .thenAnswer(
+                        invocation -> {
+                            saving.countDown();
+                            release.await();
+                            return layerInfo1;
+                        });
+
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> save =
+                    service.submit(
+                            () ->
+                                    config.modifyLayer(
+                                            new GeoServerTileLayer(
+                                                    layer1, gridSetBroker, newState)));
+            assertTrue(saving.await(10, TimeUnit.SECONDS));
+
+            // lookups don't wait for the save, and see the modified state
+            GeoServerTileLayer tileLayer =
+                    (GeoServerTileLayer) config.getLayer(tileLayerName(layer1)).get();
+            assertEquals(5, tileLayer.getInfo().getMetaTilingX());
+            assertTrue(config.getLayerNames().contains(tileLayerName(layer1)));
+            assertEquals(4, config.getLayerCount());
+
+            release.countDown();
+            save.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            service.shutdown();
+        }
+    }
+
     @Test
     public void getLayerByIdWithLocalWorkspace() {
         try {
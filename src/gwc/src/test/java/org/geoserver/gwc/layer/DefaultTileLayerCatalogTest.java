@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.config.util.SecureXStream;
@@ -167,6 +168,41 @@ public class DefaultTileLayerCatalogTest {
         assertEquals(ImmutableSet.of("image/gif"), modified.getMimeFormats());
     }
 
+    @Test
+    public void testReloadWhileReading() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            GeoServerTileLayerInfo info = new GeoServerTileLayerInfoImpl();
+            info.setId("id" + i);
+            info.setName("name" + i);
+            catalog.save(info);
+        }
+
+        // lookups running while the catalog reloads always see the layers
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger misses = new AtomicInteger();
+        Thread reader =
+                new Thread(
+                        () -> {
+                            while (!stop.get()) {
+                                if (catalog.getLayerByName("name10") == null
+                                        || !catalog.exists("id19")) {
+                                    misses.incrementAndGet();
+                                }
+                            }
+                        });
+        reader.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                catalog.initialize();
+            }
+        } finally {
+            stop.set(true);
+            reader.join();
+        }
+        assertEquals(0, misses.get());
+        assertEquals(20, catalog.getLayerIds().size());
+    }
+
     @Test
     public void testEvents() throws IOException, InterruptedException {
 
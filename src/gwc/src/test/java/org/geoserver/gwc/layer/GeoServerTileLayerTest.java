@@ -25,13 +25,17 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -43,6 +47,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -71,9 +80,12 @@ import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.Request;
 import org.geoserver.wms.GetLegendGraphicOutputFormat;
+import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.capabilities.LegendSample;
+import org.geoserver.wms.map.MetaTiledMap;
+import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -672,6 +684,188 @@ public class GeoServerTileLayerTest {
 
         verify(storageBroker, atLeastOnce()).get((TileObject) anyObject());
         verify(mockGWC, times(1)).getResponseEncoder(eq(mimeType), isA(RenderedImageMap.class));
+        // rendered calling the WMS directly
+        verify(mockGWC, times(1)).dispatchGetMap((Map) anyObject(), (Cookie[]) anyObject());
+        verify(mockGWC, never()).dispatchOwsRequest((Map) anyObject(), (Cookie[]) anyObject());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testGetTileDispatched() throws Exception {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        RenderedImageMap fakeDispatchedMap =
+                new RenderedImageMap(new WMSMapContent(), image, "image/png");
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject()))
+                .thenReturn(mock(RenderedImageMapResponse.class));
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        GeoServerTileLayer.DIRECT_GETMAP = false;
+        try {
+            GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+            ConveyorTile returned = layerInfoTileLayer.getTile(tile(storageBroker, 0));
+            assertEquals(200, returned.getStatus());
+        } finally {
+            GeoServerTileLayer.DIRECT_GETMAP = true;
+        }
+
+        verify(mockGWC, times(1)).dispatchOwsRequest((Map) anyObject(), (Cookie[]) anyObject());
+        verify(mockGWC, never()).dispatchGetMap((Map) anyObject(), (Cookie[]) anyObject());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testConcurrentMetaTileRequestsCoalesced() throws Exception {
+        // whole world, at level zero the two tiles are in the same meta tile
+        resource.setLatLonBoundingBox(
+                new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84));
+        BufferedImage image = new BufferedImage(512, 256, BufferedImage.TYPE_INT_ARGB);
+        final RenderedImageMap fakeDispatchedMap =
+                new RenderedImageMap(new WMSMapContent(), image, "image/png");
+        final CountDownLatch dispatching = new CountDownLatch(1);
+        doAnswer(
+                        invocation -> {
+                            dispatching.countDown();
+                            // wait for the other request to join this rendering
+                            long timeout = System.currentTimeMillis() + 10000;
+                            while (System.currentTimeMillis() < timeout
+                                    && GeoServerTileLayer.IN_FLIGHT
+                                            .values()
+                                            .stream()
+                                            .noneMatch(f -> f.waiters.get() > 0)) {
+                                Thread.sleep(10);
+                            }
+                            GeoServerTileLayer.WEB_MAP.set(fakeDispatchedMap);
+                            return null;
+                        })
+                .when(mockGWC)
+                .dispatchGetMap((Map) anyObject(), (Cookie[]) anyObject());
+
+        RenderedImageMapResponse fakeResponseEncoder = mock(RenderedImageMapResponse.class);
+        doAnswer(
+                        invocation -> {
+                            ((OutputStream) invocation.getArguments()[1]).write(new byte[] {1, 2});
+                            return null;
+                        })
+                .when(fakeResponseEncoder)
+                .formatImageOutputStream(
+                        any(RenderedImage.class),
+                        any(OutputStream.class),
+                        any(WMSMapContent.class));
+        MimeType mimeType = MimeType.createFromFormat("image/png");
+        when(mockGWC.getResponseEncoder(eq(mimeType), (RenderedImageMap) anyObject()))
+                .thenReturn(fakeResponseEncoder);
+
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ConveyorTile> first =
+                    executor.submit(() -> layerInfoTileLayer.getTile(tile(storageBroker, 0)));
+            assertTrue(dispatching.await(10, TimeUnit.SECONDS));
+            Future<ConveyorTile> second =
+                    executor.submit(() -> layerInfoTileLayer.getTile(tile(storageBroker, 1)));
+
+            ConveyorTile firstTile = first.get(10, TimeUnit.SECONDS);
+            ConveyorTile secondTile = second.get(10, TimeUnit.SECONDS);
+            assertEquals(200, firstTile.getStatus());
+            assertEquals(200, secondTile.getStatus());
+            assertTrue(Arrays.equals(new byte[] {1, 2}, secondTile.getContent()));
+        } finally {
+            executor.shutdown();
+        }
+
+        // a single rendering, the second tile is taken straight out of it
+        verify(mockGWC, times(1)).dispatchGetMap((Map) anyObject(), (Cookie[]) anyObject());
+        assertTrue(GeoServerTileLayer.IN_FLIGHT.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void testVectorMetaTiling() throws Exception {
+        resource.setLatLonBoundingBox(
+                new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84));
+        MimeType mimeType = MimeType.createFromFormat("application/vnd.mapbox-vector-tile");
+        when(mockGWC.isMetaTilingSupported(mimeType)).thenReturn(true);
+        GetMapRequest request = new GetMapRequest();
+        List<int[]> factors = new ArrayList<>();
+        doAnswer(
+                        invocation -> {
+                            Map<String, String> params =
+                                    (Map<String, String>) invocation.getArguments()[0];
+                            String option = params.get("FORMAT_OPTIONS");
+                            assertEquals(MetaTiledMap.FORMAT_OPTION + ":4x4", option);
+                            request.getFormatOptions()
+                                    .put(
+                                            MetaTiledMap.FORMAT_OPTION,
+                                            option.substring(option.indexOf(':') + 1));
+                            // the WMS accepts the option while the tile layer dispatches it
+                            factors.add(MetaTiledMap.getMetaTilingFactors(request));
+                            GeoServerTileLayer.WEB_MAP.set(
+                                    new RawMap(null, new byte[] {1}, mimeType.getMimeType()));
+                            return null;
+                        })
+                .when(mockGWC)
+                .dispatchGetMap((Map) anyObject(), (Cookie[]) anyObject());
+        StorageBroker storageBroker = mock(StorageBroker.class);
+        when(storageBroker.get((TileObject) anyObject())).thenReturn(false);
+        layerInfoTileLayer = new GeoServerTileLayer(layerInfo, defaults, gridSetBroker);
+
+        ConveyorTile tile =
+                new ConveyorTile(
+                        storageBroker,
+                        layerInfoTileLayer.getName(),
+                        "EPSG:4326",
+                        new long[] {0, 0, 2},
+                        mimeType,
+                        null,
+                        new MockHttpServletRequest(),
+                        new MockHttpServletResponse());
+        assertEquals(200, layerInfoTileLayer.getTile(tile).getStatus());
+        assertEquals(1, factors.size());
+        assertTrue(Arrays.equals(new int[] {4, 4}, factors.get(0)));
+
+        // but not in any other request
+        assertNull(MetaTiledMap.getMetaTilingFactors(request));
+    }
+
+    @Test
+    public void testVectorMetaTilingCapped() throws Exception {
+        MimeType vector = MimeType.createFromFormat("application/vnd.mapbox-vector-tile");
+        when(mockGWC.isMetaTilingSupported(vector)).thenReturn(true);
+        int max = MetaTiledMap.MAX_TILES;
+        int[] factors = GeoServerTileLayer.getMetaTiling(vector, max * 2, max * 2);
+        assertEquals(max, factors[0]);
+        assertEquals(1, factors[1]);
+        factors = GeoServerTileLayer.getMetaTiling(vector, 4, 4);
+        assertTrue(Arrays.equals(new int[] {4, 4}, factors));
+
+        // raster meta tiles are split after rendering, no need to cap them
+        MimeType png = MimeType.createFromFormat("image/png");
+        factors = GeoServerTileLayer.getMetaTiling(png, max * 2, max * 2);
+        assertTrue(Arrays.equals(new int[] {max * 2, max * 2}, factors));
+
+        // no meta tiling if the output format does not support it
+        when(mockGWC.isMetaTilingSupported(vector)).thenReturn(false);
+        factors = GeoServerTileLayer.getMetaTiling(vector, 4, 4);
+        assertTrue(Arrays.equals(new int[] {1, 1}, factors));
+    }
+
+    private ConveyorTile tile(StorageBroker storageBroker, long x) throws Exception {
+        return new ConveyorTile(
+                storageBroker,
+                layerInfoTileLayer.getName(),
+                "EPSG:4326",
+                new long[] {x, 0, 0},
+                MimeType.createFromFormat("image/png"),
+                null,
+                new MockHttpServletRequest(),
+                new MockHttpServletResponse());
     }
 
     @Test
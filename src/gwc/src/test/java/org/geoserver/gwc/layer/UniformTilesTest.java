@@ -0,0 +1,161 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import javax.media.jai.TiledImage;
+import org.geoserver.wms.WMS;
+import org.junit.After;
+import org.junit.Test;
+
+public class UniformTilesTest {
+
+    @After
+    public void tearDown() {
+        UniformTiles.clear();
+    }
+
+    @Test
+    public void testEmptyImage() {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        UniformTiles.Key key = getKey(image, null, "image/png");
+        assertNotNull(key);
+        assertEquals(0, key.rgb >>> 24);
+        assertEquals(256, key.width);
+    }
+
+    @Test
+    public void testNotUniform() {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setRGB(255, 255, Color.RED.getRGB());
+        assertNull(getKey(image, null, "image/png"));
+    }
+
+    @Test
+    public void testArea() {
+        BufferedImage image = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 256, 256);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(256, 0, 256, 256);
+        graphics.dispose();
+
+        UniformTiles.Key left = getKey(image, new Rectangle(0, 0, 256, 256), "image/png");
+        assertEquals(Color.RED.getRGB(), left.rgb);
+        UniformTiles.Key right = getKey(image, new Rectangle(256, 0, 256, 256), "image/png");
+        assertEquals(Color.BLUE.getRGB(), right.rgb);
+        assertNull(getKey(image, new Rectangle(128, 0, 256, 256), "image/png"));
+    }
+
+    @Test
+    public void testTiledImage() {
+        BufferedImage source = new BufferedImage(512, 512, BufferedImage.TYPE_4BYTE_ABGR);
+        source.setRGB(511, 511, Color.RED.getRGB());
+        // 100 pixels tiles, not aligned with the 256 pixels area
+        TiledImage image =
+                new TiledImage(
+                        0,
+                        0,
+                        512,
+                        512,
+                        0,
+                        0,
+                        source.getSampleModel().createCompatibleSampleModel(100, 100),
+                        source.getColorModel());
+        image.setData(source.getRaster());
+
+        assertNotNull(getKey(image, new Rectangle(0, 0, 256, 256), "image/png"));
+        assertNotNull(getKey(image, new Rectangle(256, 0, 256, 256), "image/png"));
+        assertNull(getKey(image, new Rectangle(256, 256, 256, 256), "image/png"));
+    }
+
+    @Test
+    public void testSharedEncoding() {
+        BufferedImage image1 = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage image2 = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        UniformTiles.Key key1 = getKey(image1, null, "image/png");
+        UniformTiles.Key key2 = getKey(image2, null, "image/png");
+        assertEquals(key1, key2);
+        assertNull(UniformTiles.getEncoded(key1));
+
+        byte[] encoded = {1, 2, 3};
+        UniformTiles.putEncoded(key1, encoded);
+        assertArrayEquals(encoded, UniformTiles.getEncoded(key2));
+        assertEquals(1, UniformTiles.getHits());
+
+        // other formats are encoded separately
+        assertNull(UniformTiles.getEncoded(getKey(image1, null, "image/jpeg")));
+    }
+
+    @Test
+    public void testEncoderSettings() {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR);
+        WMS wms = mock(WMS.class);
+        when(wms.getJpegCompression()).thenReturn(25);
+        UniformTiles.Key key = UniformTiles.getKey(image, null, "image/jpeg", null, null, wms);
+        assertEquals(key, UniformTiles.getKey(image, null, "image/jpeg", null, null, wms));
+
+        // tiles encoded with the old settings are not used once they change
+        UniformTiles.putEncoded(key, new byte[] {1, 2, 3});
+        when(wms.getJpegCompression()).thenReturn(10);
+        UniformTiles.Key changed = UniformTiles.getKey(image, null, "image/jpeg", null, null, wms);
+        assertNotEquals(key, changed);
+        assertNull(UniformTiles.getEncoded(changed));
+    }
+
+    @Test
+    public void testPalettes() {
+        IndexColorModel palette1 = getPalette(Color.RED, Color.BLUE);
+        IndexColorModel palette2 = getPalette(Color.RED, Color.GREEN);
+        BufferedImage image1 =
+                new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_INDEXED, palette1);
+        BufferedImage image2 =
+                new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_INDEXED, palette2);
+        UniformTiles.Key key1 = getKey(image1, null, "image/png");
+        UniformTiles.Key key2 = getKey(image2, null, "image/png");
+        // same color, but the palette ends up in the encoded tile
+        assertEquals(key1.rgb, key2.rgb);
+        assertNotEquals(key1, key2);
+
+        // same for the palette requested for the output
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        assertNotEquals(
+                UniformTiles.getKey(image, null, "image/png", null, palette1, null),
+                UniformTiles.getKey(image, null, "image/png", null, palette2, null));
+        assertEquals(
+                UniformTiles.getKey(image, null, "image/png", null, palette1, null),
+                UniformTiles.getKey(image, null, "image/png", null, palette1, null));
+    }
+
+    private IndexColorModel getPalette(Color... colors) {
+        byte[] r = new byte[colors.length];
+        byte[] g = new byte[colors.length];
+        byte[] b = new byte[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            r[i] = (byte) colors[i].getRed();
+            g[i] = (byte) colors[i].getGreen();
+            b[i] = (byte) colors[i].getBlue();
+        }
+        return new IndexColorModel(8, colors.length, r, g, b);
+    }
+
+    private UniformTiles.Key getKey(RenderedImage image, Rectangle area, String format) {
+        return UniformTiles.getKey(image, area, format, null, null, null);
+    }
+}
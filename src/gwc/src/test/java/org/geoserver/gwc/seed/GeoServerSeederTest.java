@@ -0,0 +1,141 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.layer.GeoServerTileLayer;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geowebcache.config.DefaultGridsets;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.StorageBroker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoServerSeederTest {
+
+    private GeoServerTileLayer layer;
+
+    private CoverageInfo coverage;
+
+    private GWC gwc;
+
+    private GeoServerSeeder seeder;
+
+    @Before
+    public void setUp() {
+        // 2x1 tiles at level 0, 4x2 at level 1, 8x4 at level 2
+        GridSubset gridSubset =
+                GridSubsetFactory.createGridSubSet(new DefaultGridsets(true, true).worldEpsg4326());
+
+        coverage = mock(CoverageInfo.class);
+        LayerInfo layerInfo = mock(LayerInfo.class);
+        when(layerInfo.getResource()).thenReturn(coverage);
+
+        layer = mock(GeoServerTileLayer.class);
+        when(layer.getName()).thenReturn("test");
+        when(layer.getGridSubset("EPSG:4326")).thenReturn(gridSubset);
+        when(layer.getMimeTypes()).thenReturn(Collections.singletonList(ImageMime.png));
+        when(layer.getMetaTilingFactors()).thenReturn(new int[] {1, 1});
+        when(layer.getPublishedInfo()).thenReturn(layerInfo);
+
+        gwc = mock(GWC.class);
+        when(gwc.getTileLayerByName("test")).thenReturn(layer);
+
+        // one tile per super meta tile, to check the footprint on each tile
+        seeder = new GeoServerSeeder(gwc, mock(StorageBroker.class), 2, 256);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        seeder.destroy();
+    }
+
+    @Test
+    public void testSeedWholeWorld() throws Exception {
+        when(coverage.boundingBox())
+                .thenReturn(new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84));
+
+        SeedJob job = seeder.seed("test", "EPSG:4326", "image/png", 0, 2, false);
+        assertTrue(job.await(10, TimeUnit.SECONDS));
+
+        assertEquals(SeedJob.State.DONE, job.getState());
+        assertEquals(42, job.getTilesTotal());
+        assertEquals(42, job.getTilesRendered());
+        assertEquals(0, job.getTilesSkipped());
+        assertEquals(1, job.getProgress(), 0d);
+        verify(layer, times(42)).seedTile(any(ConveyorTile.class), eq(true), eq(1), eq(1));
+    }
+
+    @Test
+    public void testSkipEmptyAreas() throws Exception {
+        when(coverage.boundingBox())
+                .thenReturn(new ReferencedEnvelope(10, 20, 10, 20, DefaultGeographicCRS.WGS84));
+
+        SeedJob job = seeder.seed("test", "EPSG:4326", "image/png", 0, 2, true);
+        assertTrue(job.await(10, TimeUnit.SECONDS));
+
+        // a single tile per level contains data
+        assertEquals(SeedJob.State.DONE, job.getState());
+        assertEquals(3, job.getTilesRendered());
+        assertEquals(39, job.getTilesSkipped());
+        verify(layer, times(3)).seedTile(any(ConveyorTile.class), eq(false), eq(1), eq(1));
+    }
+
+    @Test
+    public void testSuperMetaTiles() throws Exception {
+        when(coverage.boundingBox())
+                .thenReturn(new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84));
+        seeder.destroy();
+        seeder = new GeoServerSeeder(gwc, mock(StorageBroker.class), 2, 512);
+
+        SeedJob job = seeder.seed("test", "EPSG:4326", "image/png", 0, 2, false);
+        assertTrue(job.await(10, TimeUnit.SECONDS));
+
+        // 2x2 tiles per super meta tile, 1 at level 0 (clipped), 2 at level 1, 8 at level 2
+        assertEquals(SeedJob.State.DONE, job.getState());
+        assertEquals(42, job.getTilesRendered());
+        verify(layer, times(11)).seedTile(any(ConveyorTile.class), eq(true), eq(2), eq(2));
+    }
+
+    @Test
+    public void testLabelsKeepMetaTiling() throws Exception {
+        when(coverage.boundingBox())
+                .thenReturn(new ReferencedEnvelope(-180, 180, -90, 90, DefaultGeographicCRS.WGS84));
+        when(gwc.hasLabels(eq(layer), any(GridSubset.class))).thenReturn(true);
+        seeder.destroy();
+        seeder = new GeoServerSeeder(gwc, mock(StorageBroker.class), 2, 512);
+
+        SeedJob job = seeder.seed("test", "EPSG:4326", "image/png", 0, 2, false);
+        assertTrue(job.await(10, TimeUnit.SECONDS));
+
+        // labels would be placed differently on larger areas, the layer meta tiling is used
+        assertEquals(SeedJob.State.DONE, job.getState());
+        assertEquals(42, job.getTilesRendered());
+        verify(layer, times(42)).seedTile(any(ConveyorTile.class), eq(true), eq(1), eq(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGridSet() {
+        seeder.seed("test", "EPSG:3857", "image/png", 0, 2, false);
+    }
+}
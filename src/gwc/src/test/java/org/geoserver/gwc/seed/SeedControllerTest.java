@@ -0,0 +1,79 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.seed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.geoserver.data.test.MockData;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class SeedControllerTest extends GeoServerSystemTestSupport {
+
+    static final String SEEDING = "rest/gwc/seeding";
+
+    @Test
+    public void testSeedingJob() throws Exception {
+        String layer = getLayerId(MockData.BASIC_POLYGONS);
+        MockHttpServletResponse response =
+                postAsServletResponse(
+                        SEEDING + "?layer=" + layer + "&gridSet=EPSG:4326&zoomStart=0&zoomStop=2",
+                        "",
+                        "application/json");
+        assertEquals(201, response.getStatus());
+        JSONObject job = (JSONObject) JSONSerializer.toJSON(response.getContentAsString());
+        assertEquals(layer, job.getString("layer"));
+        assertEquals("EPSG:4326", job.getString("gridSet"));
+        assertEquals("image/png", job.getString("format"));
+        assertEquals(0, job.getInt("zoomStart"));
+        assertEquals(2, job.getInt("zoomStop"));
+        long id = job.getLong("id");
+
+        // wait for the job to complete
+        long timeout = System.currentTimeMillis() + 30000;
+        while ("RUNNING".equals(job.getString("state")) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+            job = (JSONObject) getAsJSON(SEEDING + "/" + id);
+        }
+        assertEquals("DONE", job.getString("state"));
+        long total = job.getLong("tilesTotal");
+        assertTrue(total > 0);
+        assertEquals(total, job.getLong("tilesRendered") + job.getLong("tilesSkipped"));
+        assertEquals(1, job.getDouble("progress"), 0d);
+
+        // the job is listed
+        JSONArray jobs = ((JSONObject) getAsJSON(SEEDING)).getJSONArray("jobs");
+        boolean found = false;
+        for (int i = 0; i < jobs.size(); i++) {
+            found |= jobs.getJSONObject(i).getLong("id") == id;
+        }
+        assertTrue(found);
+
+        // cancelling a completed job leaves it as is
+        response = deleteAsServletResponse(SEEDING + "/" + id);
+        assertEquals(200, response.getStatus());
+        job = (JSONObject) JSONSerializer.toJSON(response.getContentAsString());
+        assertEquals("DONE", job.getString("state"));
+    }
+
+    @Test
+    public void testInvalidLayer() throws Exception {
+        MockHttpServletResponse response =
+                postAsServletResponse(
+                        SEEDING + "?layer=notThere&gridSet=EPSG:4326", "", "application/json");
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testUnknownJob() throws Exception {
+        assertEquals(404, getAsServletResponse(SEEDING + "/123456").getStatus());
+        assertEquals(404, deleteAsServletResponse(SEEDING + "/123456").getStatus());
+    }
+}
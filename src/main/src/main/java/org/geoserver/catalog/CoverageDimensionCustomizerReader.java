@@ -25,6 +25,7 @@ import javax.media.jai.PropertySource;
 import javax.media.jai.PropertySourceImpl;
 import org.geoserver.catalog.CoverageView.CoverageBand;
 import org.geoserver.catalog.impl.CoverageDimensionImpl;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -136,7 +137,10 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         public List<HarvestedSource> harvest(
                 String defaultTargetCoverage, Object source, Hints hints)
                 throws IOException, UnsupportedOperationException {
-            return structuredDelegate.harvest(defaultTargetCoverage, source, hints);
+            List<HarvestedSource> result =
+                    structuredDelegate.harvest(defaultTargetCoverage, source, hints);
+            ReaderDimensionsAccessor.clearDomainCache(structuredDelegate.getSource());
+            return result;
         }
 
         @Override
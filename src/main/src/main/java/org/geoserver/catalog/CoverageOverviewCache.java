@@ -0,0 +1,537 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.platform.resource.Paths;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.security.decorators.DecoratingGridCoverage2DReader;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.URLs;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.geometry.Envelope;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Builds, in background, reduced resolution overviews for the coverage stores whose metadata
+ * contains {@link #OVERVIEWS} set to true, and whose readers do not provide overviews of their own.
+ *
+ * <p>Each level halves the resolution of the previous one, until the whole coverage fits in a
+ * single tile, and is stored as a tiled, deflate compressed GeoTIFF in the {@code overviews}
+ * directory of the data directory. Once all levels are available, the store reader is wrapped so
+ * that reads at lower resolutions are served by the most appropriate level, making the cost of
+ * zoomed out requests independent of the source resolution. The overviews are rebuilt when the
+ * source file is modified, and removed along with the store.
+ */
+public class CoverageOverviewCache {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageOverviewCache.class);
+
+    /** Store metadata key, when true reduced resolution overviews are built for the store */
+    public static final String OVERVIEWS = "coverageOverviews";
+
+    static final String DIRECTORY = "overviews";
+
+    static final String LEVELS_FILE = "levels.properties";
+
+    static final int TILE_SIZE = 512;
+
+    private static ExecutorService BUILDER;
+
+    private final ResourcePool resourcePool;
+
+    /** Overviews are built until the coverage largest side gets to this size */
+    int minSize = TILE_SIZE;
+
+    private final Map<String, Overviews> overviews = new ConcurrentHashMap<>();
+
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    CoverageOverviewCache(ResourcePool resourcePool) {
+        this.resourcePool = resourcePool;
+    }
+
+    private static synchronized ExecutorService getBuilder() {
+        if (BUILDER == null) {
+            ThreadPoolExecutor executor =
+                    new ThreadPoolExecutor(
+                            1,
+                            1,
+                            60L,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(),
+                            r -> {
+                                Thread thread = new Thread(r, "Coverage overviews builder");
+                                thread.setDaemon(true);
+                                thread.setPriority(Thread.MIN_PRIORITY);
+                                return thread;
+                            });
+            executor.allowCoreThreadTimeOut(true);
+            BUILDER = executor;
+        }
+        return BUILDER;
+    }
+
+    static boolean isEnabled(CoverageStoreInfo store) {
+        MetadataMap metadata = store.getMetadata();
+        return metadata != null && Boolean.TRUE.equals(metadata.get(OVERVIEWS, Boolean.class));
+    }
+
+    /**
+     * Wraps the reader so that its low resolution reads are served by the overviews, if the store
+     * is configured to have them and they are available. If they are missing, their build is
+     * started in background, and the reader is returned as is.
+     */
+    GridCoverageReader wrap(CoverageStoreInfo store, GridCoverageReader reader) {
+        if (store.getId() == null
+                || !isEnabled(store)
+                || !(reader instanceof GridCoverage2DReader)
+                || reader instanceof StructuredGridCoverage2DReader) {
+            return reader;
+        }
+        GridCoverage2DReader gridReader = (GridCoverage2DReader) reader;
+        try {
+            Overviews levels = getOverviews(store, gridReader);
+            if (levels != null && !levels.levels.isEmpty()) {
+                return new OverviewsReader(gridReader, levels);
+            }
+        } catch (IOException e) {
+            LOGGER.log(
+                    Level.WARNING, "Failed to load the overviews of store " + store.getName(), e);
+        }
+        return reader;
+    }
+
+    /** Returns the overviews of the store, or null if they are not available (yet) */
+    Overviews getOverviews(CoverageStoreInfo store, GridCoverage2DReader reader)
+            throws IOException {
+        String id = store.getId();
+        Overviews result = overviews.get(id);
+        if (result != null && result.sourceModified != getSourceModified(reader)) {
+            // stale, the levels get released once the reads using them are done
+            if (overviews.remove(id, result)) {
+                result.dispose();
+            }
+            result = null;
+        }
+        if (result != null || failed.contains(id) || building.contains(id)) {
+            return result;
+        }
+        if (!needsOverviews(reader)) {
+            // nothing to do, remember it
+            result = new Overviews(Collections.emptyList(), getSourceModified(reader));
+            overviews.put(id, result);
+            return result;
+        }
+        result = load(store, reader);
+        if (result != null) {
+            overviews.put(id, result);
+        } else if (building.add(id)) {
+            getBuilder().submit(() -> build(store, reader));
+        }
+        return result;
+    }
+
+    private boolean needsOverviews(GridCoverage2DReader reader) throws IOException {
+        // multidimensional or multi-coverage sources are not handled
+        String[] names = reader.getGridCoverageNames();
+        if (names == null || names.length != 1 || reader.getNumOverviews() > 0) {
+            return false;
+        }
+        String hasTime = reader.getMetadataValue(GridCoverage2DReader.HAS_TIME_DOMAIN);
+        String hasElevation = reader.getMetadataValue(GridCoverage2DReader.HAS_ELEVATION_DOMAIN);
+        if ("true".equals(hasTime) || "true".equals(hasElevation)) {
+            return false;
+        }
+        GridEnvelope2D range = reader.getOriginalGridRange();
+        return Math.max(range.width, range.height) > minSize;
+    }
+
+    private Resource getDirectory(CoverageStoreInfo store) {
+        String path = Paths.path(DIRECTORY, store.getId());
+        return resourcePool.getCatalog().getResourceLoader().get(path);
+    }
+
+    /** The last modification time of the file backing the reader, or 0 if not a file */
+    private long getSourceModified(GridCoverage2DReader reader) {
+        Object source = reader.getSource();
+        File file = null;
+        if (source instanceof File) {
+            file = (File) source;
+        } else if (source instanceof URL) {
+            file = URLs.urlToFile((URL) source);
+        }
+        return file != null ? file.lastModified() : 0;
+    }
+
+    /** Loads the overviews from the data directory, if they are complete and up to date */
+    private Overviews load(CoverageStoreInfo store, GridCoverage2DReader reader)
+            throws IOException {
+        Resource directory = getDirectory(store);
+        Resource levelsFile = directory.get(LEVELS_FILE);
+        if (levelsFile.getType() != Resource.Type.RESOURCE) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = levelsFile.in()) {
+            properties.load(is);
+        }
+        long modified = Long.parseLong(properties.getProperty("sourceModified", "-1"));
+        if (modified != getSourceModified(reader)) {
+            LOGGER.info("Source of store " + store.getName() + " changed, rebuilding overviews");
+            directory.delete();
+            return null;
+        }
+        int count = Integer.parseInt(properties.getProperty("levels", "0"));
+        List<OverviewLevel> levels = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            levels.add(new OverviewLevel(directory.get(getLevelName(i)).file()));
+        }
+        return new Overviews(levels, modified);
+    }
+
+    private String getLevelName(int level) {
+        return "level" + level + ".tif";
+    }
+
+    /**
+     * Builds all the overview levels, each one from the previous one. The first level is read from
+     * a reader of its own, as the cached one can be disposed while the build is running.
+     */
+    void build(CoverageStoreInfo store, GridCoverage2DReader reader) {
+        String id = store.getId();
+        long start = System.currentTimeMillis();
+        try {
+            Resource directory = getDirectory(store);
+            directory.delete();
+            File dir = directory.dir();
+            long sourceModified = getSourceModified(reader);
+
+            GridCoverage2DReader original =
+                    ((AbstractGridFormat) reader.getFormat()).getReader(reader.getSource());
+            if (original == null) {
+                throw new IOException("Could not open " + reader.getSource());
+            }
+            GridEnvelope2D range = original.getOriginalGridRange();
+            GeneralEnvelope envelope = original.getOriginalEnvelope();
+            int width = range.width;
+            int height = range.height;
+            int level = 0;
+            GridCoverage2DReader source = original;
+            try {
+                while (Math.max(width, height) > minSize) {
+                    level++;
+                    width = (width + 1) / 2;
+                    height = (height + 1) / 2;
+                    GridGeometry2D gg =
+                            new GridGeometry2D(new GridEnvelope2D(0, 0, width, height), envelope);
+                    ParameterValue<GridGeometry2D> readGG =
+                            AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+                    readGG.setValue(gg);
+                    GridCoverage2D coverage = source.read(new GeneralParameterValue[] {readGG});
+                    if (coverage == null) {
+                        throw new IOException("Could not read overview level " + level);
+                    }
+                    File file = new File(dir, getLevelName(level));
+                    write(coverage, file);
+
+                    source.dispose();
+                    source = new GeoTiffReader(file);
+                }
+            } finally {
+                source.dispose();
+            }
+
+            // written last, marks the overviews as complete
+            Properties properties = new Properties();
+            properties.setProperty("levels", String.valueOf(level));
+            properties.setProperty("sourceModified", String.valueOf(sourceModified));
+            try (OutputStream os = directory.get(LEVELS_FILE).out()) {
+                properties.store(os, null);
+            }
+            LOGGER.info(
+                    "Built "
+                            + level
+                            + " overviews for store "
+                            + store.getName()
+                            + " in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to build overviews for store " + store.getName(), e);
+            failed.add(id);
+        } finally {
+            building.remove(id);
+        }
+    }
+
+    private void write(GridCoverage2D coverage, File file) throws IOException {
+        GridEnvelope2D range = coverage.getGridGeometry().getGridRange2D();
+        GeoTiffWriteParams writeParams = new GeoTiffWriteParams();
+        writeParams.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+        writeParams.setTiling(Math.min(TILE_SIZE, range.width), Math.min(TILE_SIZE, range.height));
+        writeParams.setCompressionMode(GeoToolsWriteParams.MODE_EXPLICIT);
+        writeParams.setCompressionType("Deflate");
+        ParameterValue<GeoToolsWriteParams> params =
+                GeoTiffFormat.GEOTOOLS_WRITE_PARAMS.createValue();
+        params.setValue(writeParams);
+
+        // write on a temporary file, so that no one sees a partial level
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        GeoTiffWriter writer = new GeoTiffWriter(temp);
+        try {
+            writer.write(coverage, new GeneralParameterValue[] {params});
+        } finally {
+            writer.dispose();
+            coverage.dispose(true);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+
+    /** Releases the overview readers of the store, they will be reopened on the next lookup */
+    void clear(CoverageStoreInfo store) {
+        failed.remove(store.getId());
+        Overviews removed = overviews.remove(store.getId());
+        if (removed != null) {
+            removed.dispose();
+        }
+    }
+
+    /** Releases the overview readers and removes the overview files of the store */
+    void delete(CoverageStoreInfo store) {
+        clear(store);
+        if (store.getId() != null && !building.contains(store.getId())) {
+            getDirectory(store).delete();
+        }
+    }
+
+    /** Releases all the overview readers */
+    void dispose() {
+        for (Overviews levels : overviews.values()) {
+            levels.dispose();
+        }
+        overviews.clear();
+    }
+
+    /** The overview levels of a store, from the most detailed to the least detailed one */
+    static class Overviews {
+
+        final List<OverviewLevel> levels;
+
+        /** Last modification time of the source the levels have been built from */
+        final long sourceModified;
+
+        Overviews(List<OverviewLevel> levels, long sourceModified) {
+            this.levels = levels;
+            this.sourceModified = sourceModified;
+        }
+
+        /**
+         * Returns the least detailed level whose resolution is still as good as the requested one,
+         * or null if the request should go to the original reader
+         */
+        OverviewLevel select(GridCoverage2DReader reader, GeneralParameterValue[] params)
+                throws IOException {
+            if (params == null) {
+                return null;
+            }
+            GridGeometry2D requested = null;
+            for (GeneralParameterValue param : params) {
+                if (!(param instanceof ParameterValue)) {
+                    continue;
+                }
+                Object value = ((ParameterValue<?>) param).getValue();
+                String code = param.getDescriptor().getName().getCode();
+                if (AbstractGridFormat.OVERVIEW_POLICY.getName().getCode().equals(code)
+                        && value == OverviewPolicy.IGNORE) {
+                    return null;
+                } else if (AbstractGridFormat.READ_GRIDGEOMETRY2D
+                                .getName()
+                                .getCode()
+                                .equals(code)
+                        && value instanceof GridGeometry2D) {
+                    requested = (GridGeometry2D) value;
+                }
+            }
+            if (requested == null) {
+                return null;
+            }
+            double[] resolution = getResolution(requested, reader.getCoordinateReferenceSystem());
+            OverviewLevel selected = null;
+            for (OverviewLevel level : levels) {
+                double[] levelResolution = level.getResolution();
+                if (levelResolution[0] > resolution[0] || levelResolution[1] > resolution[1]) {
+                    break;
+                }
+                selected = level;
+            }
+            return selected;
+        }
+
+        private double[] getResolution(GridGeometry2D gg, CoordinateReferenceSystem nativeCRS)
+                throws IOException {
+            GeneralEnvelope envelope = new GeneralEnvelope((Envelope) gg.getEnvelope2D());
+            CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D();
+            if (crs != null && nativeCRS != null && !CRS.equalsIgnoreMetadata(crs, nativeCRS)) {
+                try {
+                    envelope = CRS.transform(envelope, nativeCRS);
+                } catch (Exception e) {
+                    throw new IOException("Failed to compute the requested resolution", e);
+                }
+            }
+            GridEnvelope2D range = gg.getGridRange2D();
+            return new double[] {
+                envelope.getSpan(0) / range.width, envelope.getSpan(1) / range.height
+            };
+        }
+
+        void dispose() {
+            for (OverviewLevel level : levels) {
+                level.dispose();
+            }
+        }
+    }
+
+    /**
+     * A single overview level, its reader is opened on demand and leased to the reads using it, so
+     * that it is disposed only after the last one completes. The GeoTIFF reader opens a new stream
+     * for each read, so deferred images can still be computed after that.
+     */
+    static class OverviewLevel {
+
+        final File file;
+
+        private GeoTiffReader reader;
+
+        private double[] resolution;
+
+        private int leases;
+
+        private boolean disposed;
+
+        OverviewLevel(File file) {
+            this.file = file;
+        }
+
+        /** Returns the reader, which must be given back with {@link #release()} */
+        synchronized GridCoverage2DReader acquire() throws IOException {
+            if (reader == null) {
+                reader = new GeoTiffReader(file);
+            }
+            leases++;
+            return reader;
+        }
+
+        synchronized void release() {
+            leases--;
+            if (disposed && leases == 0) {
+                close();
+            }
+        }
+
+        /** The level native resolution */
+        synchronized double[] getResolution() throws IOException {
+            if (resolution == null) {
+                GridCoverage2DReader levelReader = acquire();
+                try {
+                    resolution = levelReader.getResolutionLevels()[0];
+                } finally {
+                    release();
+                }
+            }
+            return resolution;
+        }
+
+        /** Disposes the reader, at once if not in use, otherwise when the last lease is released */
+        synchronized void dispose() {
+            disposed = true;
+            if (leases == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (reader != null) {
+                reader.dispose();
+                reader = null;
+            }
+        }
+    }
+
+    /** Serves the low resolution reads from the overviews, all others from the delegate */
+    static class OverviewsReader extends DecoratingGridCoverage2DReader {
+
+        GridCoverage2DReader reader;
+
+        Overviews overviews;
+
+        OverviewsReader(GridCoverage2DReader reader, Overviews overviews) {
+            super(reader);
+            this.reader = reader;
+            this.overviews = overviews;
+        }
+
+        @Override
+        public GridCoverage2D read(GeneralParameterValue[] parameters) throws IOException {
+            OverviewLevel level = overviews.select(reader, parameters);
+            if (level != null) {
+                GridCoverage2DReader overview = level.acquire();
+                try {
+                    return overview.read(parameters);
+                } finally {
+                    level.release();
+                }
+            }
+            return super.read(parameters);
+        }
+
+        @Override
+        public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+                throws IOException {
+            String[] names = reader.getGridCoverageNames();
+            if (names.length == 1 && names[0].equals(coverageName)) {
+                return read(parameters);
+            }
+            return super.read(coverageName, parameters);
+        }
+    }
+}
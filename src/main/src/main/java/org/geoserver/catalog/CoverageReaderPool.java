@@ -0,0 +1,548 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.decorators.DecoratingGridCoverage2DReader;
+import org.geoserver.security.decorators.DecoratingStructuredGridCoverage2DReader;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.util.decorate.Wrapper;
+import org.geotools.util.factory.GeoTools;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.Format;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterNotFoundException;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.referencing.ReferenceIdentifier;
+
+/**
+ * Manages the life cycle of the coverage readers cached by the {@link ResourcePool}, on a store by
+ * store basis:
+ *
+ * <ul>
+ *   <li>Stores whose metadata contains {@link #WARM_UP} set to true get their readers opened in
+ *       background at startup, and are never evicted for being idle
+ *   <li>Stores whose metadata contains {@link #MAX_CONCURRENT_READS} get their reads limited to
+ *       that many at any given time, the others are queued. The limit is held only while the
+ *       reader read method runs, so the deferred JAI ImageRead loading is disabled for them, making
+ *       the readers supporting {@link AbstractGridFormat#USE_JAI_IMAGEREAD} read the pixels within
+ *       the limit. Readers returning deferred images regardless, e.g. the ones building a mosaic
+ *       out of several granules, only get their setup limited
+ *   <li>When the {@code COVERAGE_READER_IDLE_TIMEOUT} variable is set (in seconds), the readers of
+ *       the stores that have not been looked up for that long are removed from the cache. They are
+ *       disposed only after another timeout period, as requests that looked them up earlier might
+ *       still be using them, e.g., computing deferred image tiles
+ * </ul>
+ *
+ * <p>Usage statistics are collected for each store, see {@link #getStatistics(String)}.
+ */
+public class CoverageReaderPool {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageReaderPool.class);
+
+    /** Store metadata key, when true the store readers are opened at startup */
+    public static final String WARM_UP = "coverageReaderWarmUp";
+
+    /** Store metadata key, the maximum number of concurrent reads against the store */
+    public static final String MAX_CONCURRENT_READS = "coverageReaderMaxConcurrentReads";
+
+    static final String IDLE_TIMEOUT_KEY = "COVERAGE_READER_IDLE_TIMEOUT";
+
+    private static ScheduledExecutorService EVICTOR;
+
+    private final ResourcePool resourcePool;
+
+    private final Map<String, StoreStatistics> statistics = new ConcurrentHashMap<>();
+
+    private final long idleTimeout;
+
+    /** Readers removed from the cache, waiting to be disposed */
+    private final Queue<EvictedReader> evicted = new ConcurrentLinkedQueue<>();
+
+    CoverageReaderPool(ResourcePool resourcePool) {
+        this(resourcePool, getIdleTimeout());
+    }
+
+    CoverageReaderPool(ResourcePool resourcePool, long idleTimeout) {
+        this.resourcePool = resourcePool;
+        this.idleTimeout = idleTimeout;
+        if (idleTimeout > 0) {
+            long period = Math.max(1000, idleTimeout / 4);
+            EvictionTask task = new EvictionTask(this);
+            task.future =
+                    getEvictor()
+                            .scheduleWithFixedDelay(task, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long getIdleTimeout() {
+        String value = GeoServerExtensions.getProperty(IDLE_TIMEOUT_KEY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + IDLE_TIMEOUT_KEY + " value: " + value);
+            }
+        }
+        return 0;
+    }
+
+    private static synchronized ScheduledExecutorService getEvictor() {
+        if (EVICTOR == null) {
+            EVICTOR =
+                    Executors.newSingleThreadScheduledExecutor(
+                            r -> {
+                                Thread thread = new Thread(r, "Coverage reader eviction");
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+        }
+        return EVICTOR;
+    }
+
+    /** Returns the statistics of the specified store, or null if it has not been used yet */
+    public StoreStatistics getStatistics(String storeId) {
+        return statistics.get(storeId);
+    }
+
+    /** Returns the statistics of all the stores used so far, by store id */
+    public Map<String, StoreStatistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    StoreStatistics statistics(String storeId) {
+        if (storeId == null) {
+            // store not yet in the catalog, nothing to track
+            return new StoreStatistics();
+        }
+        return statistics.computeIfAbsent(storeId, id -> new StoreStatistics());
+    }
+
+    /** Records a reader lookup, returns the store statistics */
+    StoreStatistics accessed(String storeId, boolean cacheHit) {
+        StoreStatistics stats = statistics(storeId);
+        stats.lastAccess = System.currentTimeMillis();
+        if (cacheHit) {
+            stats.cacheHits.incrementAndGet();
+        }
+        return stats;
+    }
+
+    /** Records the creation of a new reader */
+    void created(String storeId, long elapsedMillis) {
+        StoreStatistics stats = statistics(storeId);
+        stats.readersCreated.incrementAndGet();
+        stats.creationTime.addAndGet(elapsedMillis);
+    }
+
+    /**
+     * Wraps the reader so that its reads are counted and, if the store is configured to do so,
+     * limited in number
+     */
+    GridCoverageReader limit(CoverageStoreInfo store, GridCoverageReader reader) {
+        StoreStatistics stats = statistics(store.getId());
+        MetadataMap metadata = store.getMetadata();
+        Integer maxReads =
+                metadata != null ? metadata.get(MAX_CONCURRENT_READS, Integer.class) : null;
+        if (maxReads == null || maxReads <= 0) {
+            stats.setMaxConcurrentReads(0);
+            return reader;
+        }
+        stats.setMaxConcurrentReads(maxReads);
+        if (reader instanceof StructuredGridCoverage2DReader) {
+            return new LimitedStructuredReader((StructuredGridCoverage2DReader) reader, stats);
+        } else if (reader instanceof GridCoverage2DReader) {
+            return new LimitedReader((GridCoverage2DReader) reader, stats);
+        }
+        return reader;
+    }
+
+    /**
+     * Removes from the cache the readers of the stores that have not been used for longer than the
+     * timeout, and disposes the ones removed at least a timeout ago
+     */
+    void evictIdle(long now) {
+        disposeEvicted(now - idleTimeout);
+        Catalog catalog = resourcePool.getCatalog();
+        for (Map.Entry<String, StoreStatistics> entry : statistics.entrySet()) {
+            StoreStatistics stats = entry.getValue();
+            if (now - stats.lastAccess < idleTimeout || stats.getActiveReads() > 0) {
+                continue;
+            }
+            CoverageStoreInfo store = catalog.getCoverageStore(entry.getKey());
+            if (store == null) {
+                statistics.remove(entry.getKey());
+            } else if (!isWarmUp(store)) {
+                Map<ResourcePool.CoverageHintReaderKey, GridCoverageReader> readers =
+                        resourcePool.evict(store);
+                if (!readers.isEmpty()) {
+                    readers.forEach((k, r) -> evicted.add(new EvictedReader(k, r, now)));
+                    stats.evictions.incrementAndGet();
+                    LOGGER.fine("Evicted the idle readers of coverage store " + store.getName());
+                }
+            }
+        }
+    }
+
+    /** Disposes the evicted readers removed from the cache up to the specified time */
+    private void disposeEvicted(long evictedBefore) {
+        EvictedReader reader;
+        while ((reader = evicted.peek()) != null && reader.evictedAt <= evictedBefore) {
+            // readers are queued in eviction order, the removal guards against concurrent disposal
+            if (evicted.remove(reader)) {
+                resourcePool.dispose(reader.key, reader.reader);
+            }
+        }
+    }
+
+    private boolean isWarmUp(CoverageStoreInfo store) {
+        MetadataMap metadata = store.getMetadata();
+        return metadata != null && Boolean.TRUE.equals(metadata.get(WARM_UP, Boolean.class));
+    }
+
+    /** Opens, in background, the readers of all the stores flagged for warm up */
+    void warmUp() {
+        Catalog catalog = resourcePool.getCatalog();
+        Thread thread =
+                new Thread(
+                        () -> {
+                            for (CoverageStoreInfo store : catalog.getCoverageStores()) {
+                                if (store.isEnabled() && isWarmUp(store)) {
+                                    warmUp(catalog, store);
+                                }
+                            }
+                        },
+                        "Coverage reader warm up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp(Catalog catalog, CoverageStoreInfo store) {
+        long start = System.currentTimeMillis();
+        try {
+            // same hints as the services use, so that the cached reader gets reused
+            for (CoverageInfo coverage : catalog.getCoveragesByCoverageStore(store)) {
+                coverage.getGridCoverageReader(null, GeoTools.getDefaultHints());
+            }
+            LOGGER.info(
+                    "Opened readers for coverage store "
+                            + store.getName()
+                            + " in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+        } catch (Exception e) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to open readers for coverage store " + store.getName(),
+                    e);
+        }
+    }
+
+    /**
+     * Disposes the evicted readers and clears the statistics, called when the resource pool gets
+     * reset. The pool stays usable afterwards.
+     */
+    void dispose() {
+        disposeEvicted(Long.MAX_VALUE);
+        statistics.clear();
+    }
+
+    /** A reader removed from the cache, to be disposed once no longer in use */
+    static class EvictedReader {
+
+        final ResourcePool.CoverageHintReaderKey key;
+
+        final GridCoverageReader reader;
+
+        final long evictedAt;
+
+        EvictedReader(
+                ResourcePool.CoverageHintReaderKey key, GridCoverageReader reader, long evictedAt) {
+            this.key = key;
+            this.reader = reader;
+            this.evictedAt = evictedAt;
+        }
+    }
+
+    /**
+     * Periodically evicts the idle readers. Holds the pool weakly, so that pools no longer in use
+     * can be garbage collected, in which case the task cancels itself
+     */
+    static class EvictionTask implements Runnable {
+
+        final WeakReference<CoverageReaderPool> pool;
+
+        volatile ScheduledFuture<?> future;
+
+        EvictionTask(CoverageReaderPool pool) {
+            this.pool = new WeakReference<>(pool);
+        }
+
+        @Override
+        public void run() {
+            CoverageReaderPool readerPool = pool.get();
+            if (readerPool != null) {
+                readerPool.evictIdle(System.currentTimeMillis());
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /** Usage statistics for the readers of a single coverage store */
+    public static class StoreStatistics {
+
+        final AtomicLong readersCreated = new AtomicLong();
+
+        final AtomicLong creationTime = new AtomicLong();
+
+        final AtomicLong cacheHits = new AtomicLong();
+
+        final AtomicLong reads = new AtomicLong();
+
+        final AtomicLong queuedReads = new AtomicLong();
+
+        final AtomicInteger activeReads = new AtomicInteger();
+
+        final AtomicLong evictions = new AtomicLong();
+
+        volatile long lastAccess = System.currentTimeMillis();
+
+        volatile int maxConcurrentReads;
+
+        volatile Semaphore limiter;
+
+        synchronized void setMaxConcurrentReads(int maxConcurrentReads) {
+            if (this.maxConcurrentReads != maxConcurrentReads) {
+                // reads in progress will release the semaphore they acquired
+                this.limiter =
+                        maxConcurrentReads > 0 ? new Semaphore(maxConcurrentReads, true) : null;
+                this.maxConcurrentReads = maxConcurrentReads;
+            }
+        }
+
+        GridCoverage2D read(Read read) throws IOException {
+            Semaphore semaphore = limiter;
+            if (semaphore != null && !semaphore.tryAcquire()) {
+                queuedReads.incrementAndGet();
+                try {
+                    semaphore.acquire();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting to read");
+                }
+            }
+            activeReads.incrementAndGet();
+            reads.incrementAndGet();
+            try {
+                return read.read();
+            } finally {
+                activeReads.decrementAndGet();
+                if (semaphore != null) {
+                    semaphore.release();
+                }
+            }
+        }
+
+        /** Number of readers opened */
+        public long getReadersCreated() {
+            return readersCreated.get();
+        }
+
+        /** Total time spent opening readers, in milliseconds */
+        public long getCreationTime() {
+            return creationTime.get();
+        }
+
+        /** Number of reader lookups served by the cache */
+        public long getCacheHits() {
+            return cacheHits.get();
+        }
+
+        /** Number of reads performed, only counted for stores with a concurrency limit */
+        public long getReads() {
+            return reads.get();
+        }
+
+        /** Number of reads that had to wait for the concurrency limit */
+        public long getQueuedReads() {
+            return queuedReads.get();
+        }
+
+        /** Number of reads currently in progress */
+        public int getActiveReads() {
+            return activeReads.get();
+        }
+
+        /** Number of times the store readers have been disposed for being idle */
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /** The last time a reader of the store has been looked up */
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        /** The maximum number of concurrent reads, or zero if unlimited */
+        public int getMaxConcurrentReads() {
+            return maxConcurrentReads;
+        }
+    }
+
+    interface Read {
+        GridCoverage2D read() throws IOException;
+    }
+
+    /**
+     * Returns the read parameters with the deferred JAI ImageRead loading disabled, if the reader
+     * format supports the option
+     */
+    static GeneralParameterValue[] readImmediately(
+            GridCoverage2DReader reader, GeneralParameterValue[] parameters) {
+        ReferenceIdentifier name = AbstractGridFormat.USE_JAI_IMAGEREAD.getName();
+        Format format = reader.getFormat();
+        ParameterValueGroup readParameters = format != null ? format.getReadParameters() : null;
+        if (readParameters == null) {
+            return parameters;
+        }
+        try {
+            readParameters.parameter(name.getCode());
+        } catch (ParameterNotFoundException e) {
+            return parameters;
+        }
+        List<GeneralParameterValue> result = new ArrayList<>();
+        if (parameters != null) {
+            for (GeneralParameterValue parameter : parameters) {
+                if (parameter != null && !name.equals(parameter.getDescriptor().getName())) {
+                    result.add(parameter);
+                }
+            }
+        }
+        ParameterValue<Boolean> immediate = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+        immediate.setValue(false);
+        result.add(immediate);
+        return result.toArray(new GeneralParameterValue[result.size()]);
+    }
+
+    static boolean isWrapperFor(Object delegate, Class<?> iface) {
+        if (iface.isInstance(delegate)) {
+            return true;
+        }
+        return delegate instanceof Wrapper && ((Wrapper) delegate).isWrapperFor(iface);
+    }
+
+    static <T> T unwrap(Object delegate, Class<T> iface) {
+        if (iface.isInstance(delegate)) {
+            return iface.cast(delegate);
+        }
+        if (delegate instanceof Wrapper) {
+            return ((Wrapper) delegate).unwrap(iface);
+        }
+        throw new IllegalArgumentException("Cannot unwrap to the requested interface " + iface);
+    }
+
+    /**
+     * Limits the reads of a reader, the wrapped reader can be retrieved with {@link
+     * #unwrap(Class)}
+     */
+    static class LimitedReader extends DecoratingGridCoverage2DReader implements Wrapper {
+
+        final GridCoverage2DReader reader;
+
+        StoreStatistics stats;
+
+        LimitedReader(GridCoverage2DReader delegate, StoreStatistics stats) {
+            super(delegate);
+            this.reader = delegate;
+            this.stats = stats;
+        }
+
+        @Override
+        public GridCoverage2D read(GeneralParameterValue[] parameters) throws IOException {
+            return stats.read(() -> super.read(readImmediately(reader, parameters)));
+        }
+
+        @Override
+        public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+                throws IOException {
+            return stats.read(
+                    () -> super.read(coverageName, readImmediately(reader, parameters)));
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return CoverageReaderPool.isWrapperFor(reader, iface);
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws IllegalArgumentException {
+            return CoverageReaderPool.unwrap(reader, iface);
+        }
+    }
+
+    /**
+     * Limits the reads of a structured reader, the wrapped reader can be retrieved with {@link
+     * #unwrap(Class)}
+     */
+    static class LimitedStructuredReader extends DecoratingStructuredGridCoverage2DReader
+            implements Wrapper {
+
+        final StructuredGridCoverage2DReader reader;
+
+        StoreStatistics stats;
+
+        LimitedStructuredReader(StructuredGridCoverage2DReader delegate, StoreStatistics stats) {
+            super(delegate);
+            this.reader = delegate;
+            this.stats = stats;
+        }
+
+        @Override
+        public GridCoverage2D read(GeneralParameterValue[] parameters) throws IOException {
+            return stats.read(() -> super.read(readImmediately(reader, parameters)));
+        }
+
+        @Override
+        public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters)
+                throws IOException {
+            return stats.read(
+                    () -> super.read(coverageName, readImmediately(reader, parameters)));
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return CoverageReaderPool.isWrapperFor(reader, iface);
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws IllegalArgumentException {
+            return CoverageReaderPool.unwrap(reader, iface);
+        }
+    }
+}
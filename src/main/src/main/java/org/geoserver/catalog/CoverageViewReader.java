@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
@@ -77,6 +79,11 @@ import org.opengis.referencing.operation.TransformException;
  * A {@link CoverageView} reader which takes care of doing underlying coverage read operations and
  * recompositions.
  *
+ * <p>Each source coverage is read and band selected once per read, whatever the order of the bands
+ * it contributes to the view. Nothing is shared across reads: every read builds its own image
+ * chain, and the JAI tile cache is keyed by the owning image, so concurrent reads of the same view
+ * read the source tiles independently.
+ *
  * @author Daniele Romagnoli, GeoSolutions SAS
  */
 public class CoverageViewReader implements GridCoverage2DReader {
@@ -230,7 +237,6 @@ public class CoverageViewReader implements GridCoverage2DReader {
         }
 
         List<CoverageBand> bands = coverageView.getCoverageBands();
-        List<GridCoverage2D> coverages = new ArrayList<GridCoverage2D>();
         CoveragesConsistencyChecker checker = null;
 
         int coverageBandsSize = bands.size();
@@ -355,136 +361,134 @@ public class CoverageViewReader implements GridCoverage2DReader {
             }
         }
 
-        // Group together bands that come from the same coverage
-        ArrayList<CoverageBand> mergedBands = new ArrayList<CoverageBand>();
-
-        int idx = 0;
-        CoverageBand mBand = null;
-        while (idx < selectedBandIndices.size()) {
-
-            if (mBand == null) {
-                // Create a temporary CoverageBand, to use later for SelectSampleDimension
-                // operations
-                mBand = new CoverageBand();
-                mBand.setInputCoverageBands(
-                        bands.get(selectedBandIndices.get(idx)).getInputCoverageBands());
-            }
-
-            // peek to the next band. Is it from the same coverage?
-            String coverageName =
-                    bands.get(selectedBandIndices.get(idx))
-                            .getInputCoverageBands()
-                            .get(0)
-                            .getCoverageName();
-
-            if (idx + 1 < selectedBandIndices.size()
-                    && bands.get(selectedBandIndices.get(idx + 1))
-                            .getInputCoverageBands()
-                            .get(0)
-                            .getCoverageName()
-                            .equals(coverageName)) {
-                // Same coverage, add its bands to the previous
-                ArrayList<InputCoverageBand> groupBands = new ArrayList<InputCoverageBand>();
-                groupBands.addAll(mBand.getInputCoverageBands());
-                groupBands.addAll(
-                        bands.get(selectedBandIndices.get(idx + 1)).getInputCoverageBands());
-                mBand.setInputCoverageBands(groupBands);
-            } else {
-                mergedBands.add(mBand);
-                mBand = null;
-            }
-            idx++;
-        }
-
-        // perform the band selects as needed
-        int index = 0;
-        int transformationChoice = index;
-        CoverageViewHandler.CoverageResolutionChooser resolutionChooser =
-                handler.getCoverageResolutionChooser();
-        for (CoverageBand band : mergedBands) {
-            List<InputCoverageBand> selectedBands = band.getInputCoverageBands();
-
-            // Peek for coverage name
-            String coverageName = selectedBands.get(0).getCoverageName();
-
-            // Get band indices for band selection
-            ArrayList<Integer> bandIndices = new ArrayList<Integer>(selectedBands.size());
-            for (InputCoverageBand icb : selectedBands) {
-                int bandIdx = 0;
-                final String bandString = icb.getBand();
-                if (bandString != null && !bandString.isEmpty()) {
-                    bandIdx = Integer.parseInt(bandString);
+        // Plan the band selection: each source coverage gets a single band selection, with the
+        // distinct bands it contributes, so that its tiles are computed only once even if its
+        // bands are interleaved with other coverages ones. The position of each requested band
+        // in the band merge result is tracked, to reorder them later if needed
+        Map<String, List<Integer>> sourceBands = new LinkedHashMap<>();
+        List<String> requestedCoverages = new ArrayList<>();
+        List<Integer> requestedBands = new ArrayList<>();
+        for (int bIdx : selectedBandIndices) {
+            for (InputCoverageBand icb : bands.get(bIdx).getInputCoverageBands()) {
+                String coverageName = icb.getCoverageName();
+                int bandIdx = getBandIndex(icb);
+                List<Integer> indices =
+                        sourceBands.computeIfAbsent(coverageName, k -> new ArrayList<>());
+                if (!indices.contains(bandIdx)) {
+                    indices.add(bandIdx);
                 }
-                bandIndices.add(bandIdx);
+                requestedCoverages.add(coverageName);
+                requestedBands.add(bandIdx);
             }
+        }
 
+        if (sourceBands.size() == 1) {
+            String coverageName = requestedCoverages.get(0);
             GridCoverage2D coverage = inputCoverages.get(coverageName);
+            List<Integer> bandIndices = requestedBands;
 
             // special case for dynamic alpha on single input, no need to actually select away the
             // alpha
             Hints localHints = new Hints(hints);
             if (dynamicAlphaSource != null
-                    && mergedBands.size() == 1
                     && (bandIndices.size() == 1 || bandIndices.size() == 3)) {
                 final int alphaBandIndex = getAlphaBandIndex(coverage);
                 addAlphaColorModelHint(localHints, bandIndices.size());
                 bandIndices.add(alphaBandIndex);
             }
 
-            coverage = retainBands(bandIndices, coverage, localHints);
-            if (mergedBands.size() > 1) {
-                coverage = prepareForBandMerge(coverage);
-            }
+            GridCoverage2D result = retainBands(bandIndices, coverage, localHints);
+            logRead(coverageName, result);
+            return result;
+        }
+
+        // perform the band selects, one per source coverage
+        List<GridCoverage2D> coverages = new ArrayList<GridCoverage2D>();
+        Map<String, Integer> offsets = new HashMap<>();
+        int index = 0;
+        int transformationChoice = index;
+        int offset = 0;
+        CoverageViewHandler.CoverageResolutionChooser resolutionChooser =
+                handler.getCoverageResolutionChooser();
+        for (Map.Entry<String, List<Integer>> entry : sourceBands.entrySet()) {
+            String coverageName = entry.getKey();
+            GridCoverage2D coverage = inputCoverages.get(coverageName);
+            coverage = retainBands(entry.getValue(), coverage, new Hints(hints));
+            coverage = prepareForBandMerge(coverage);
             coverages.add(coverage);
             if (resolutionChooser.visit(coverage)) {
                 transformationChoice = index;
             }
             index++;
+            offsets.put(coverageName, offset);
+            offset += entry.getValue().size();
+            logRead(coverageName, coverage);
+        }
 
-            if (LOGGER.isLoggable(Level.FINE)) {
-                LOGGER.log(
-                        Level.FINE,
-                        "Read coverage "
-                                + coverageName
-                                + ", result has envelope "
-                                + coverage.getEnvelope2D());
-            }
+        // position of the requested bands in the band merge output
+        List<Integer> positions = new ArrayList<>(requestedBands.size());
+        boolean reorder = requestedBands.size() != offset;
+        for (int i = 0; i < requestedBands.size(); i++) {
+            String coverageName = requestedCoverages.get(i);
+            int position =
+                    offsets.get(coverageName)
+                            + sourceBands.get(coverageName).indexOf(requestedBands.get(i));
+            positions.add(position);
+            reorder |= position != i;
         }
 
-        GridCoverage2D result;
-        if (coverages.size() > 1) {
-            // dynamic alpha but more than one source
-            Hints localHints = new Hints(hints);
-            if (dynamicAlphaSource != null) {
-                int currentBandCount = countBands(coverages);
-                // and the output is suitable for getting an alpha band
-                if (currentBandCount == 1 || currentBandCount == 3) {
-                    final int alphaBandIndex = getAlphaBandIndex(dynamicAlphaSource);
-                    GridCoverage2D alphaBandCoverage =
-                            retainBands(Arrays.asList(alphaBandIndex), dynamicAlphaSource, hints);
-                    coverages.add(alphaBandCoverage);
-
-                    addAlphaColorModelHint(localHints, currentBandCount);
-                }
+        // dynamic alpha but more than one source
+        Hints localHints = new Hints(hints);
+        if (dynamicAlphaSource != null) {
+            int currentBandCount = positions.size();
+            // and the output is suitable for getting an alpha band
+            if (currentBandCount == 1 || currentBandCount == 3) {
+                final int alphaBandIndex = getAlphaBandIndex(dynamicAlphaSource);
+                GridCoverage2D alphaBandCoverage =
+                        retainBands(Arrays.asList(alphaBandIndex), dynamicAlphaSource, hints);
+                coverages.add(alphaBandCoverage);
+                positions.add(offset);
+
+                addAlphaColorModelHint(localHints, currentBandCount);
             }
+        }
 
-            // perform final band merge
-            String operationName = "BandMerge";
-            final ParameterValueGroup param = PROCESSOR.getOperation(operationName).getParameters();
-            if (!handler.isHomogeneousCoverages()) {
-                param.parameter("transform_choice").setValue("index");
-                param.parameter("coverage_idx").setValue(transformationChoice);
-            }
-            param.parameter("sources").setValue(coverages);
-            result = (GridCoverage2D) PROCESSOR.doOperation(param, localHints);
-        } else {
-            // optimize out, no need to do a band merge
-            result = coverages.get(0);
+        // perform final band merge, the color model is set up by the reordering, if any
+        String operationName = "BandMerge";
+        final ParameterValueGroup param = PROCESSOR.getOperation(operationName).getParameters();
+        if (!handler.isHomogeneousCoverages()) {
+            param.parameter("transform_choice").setValue("index");
+            param.parameter("coverage_idx").setValue(transformationChoice);
+        }
+        param.parameter("sources").setValue(coverages);
+        GridCoverage2D result =
+                (GridCoverage2D) PROCESSOR.doOperation(param, reorder ? hints : localHints);
+        if (reorder) {
+            result = retainBands(positions, result, localHints);
         }
 
         return result;
     }
 
+    private int getBandIndex(InputCoverageBand icb) {
+        final String bandString = icb.getBand();
+        if (bandString != null && !bandString.isEmpty()) {
+            return Integer.parseInt(bandString);
+        }
+        return 0;
+    }
+
+    private void logRead(String coverageName, GridCoverage2D coverage) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Read coverage "
+                            + coverageName
+                            + ", result has envelope "
+                            + coverage.getEnvelope2D());
+        }
+    }
+
     /**
      * The BandMerge operation takes indexed images and expands them, however in the context of
      * coverage view band merging we don't normally want that, e.g., raster mask bands are
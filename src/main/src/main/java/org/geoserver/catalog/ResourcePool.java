@@ -32,6 +32,7 @@ import org.eclipse.xsd.XSDTypeDefinition;
 import org.geoserver.catalog.event.*;
 import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.catalog.impl.StoreInfoImpl;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
@@ -168,6 +169,8 @@ public class ResourcePool {
     Map<String, WebMapServer> wmsCache;
     Map<String, WebMapTileServer> wmtsCache;
     Map<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderCache;
+    CoverageReaderPool coverageReaderPool;
+    CoverageOverviewCache coverageOverviewCache;
     Map<StyleInfo, StyledLayerDescriptor> sldCache;
     Map<StyleInfo, Style> styleCache;
     List<Listener> listeners;
@@ -196,6 +199,8 @@ public class ResourcePool {
 
         featureTypeAttributeCache = createFeatureTypeAttributeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         hintCoverageReaderCache = createHintCoverageReaderCache();
+        coverageReaderPool = new CoverageReaderPool(this);
+        coverageOverviewCache = new CoverageOverviewCache(this);
 
         wmsCache = createWmsCache();
         wmtsCache = createWmtsCache();
@@ -312,6 +317,19 @@ public class ResourcePool {
         return new CoverageHintReaderCache();
     }
 
+    /**
+     * Returns the pool managing warm up, concurrency limits and idle eviction of the cached
+     * coverage readers, as well as their usage statistics
+     */
+    public CoverageReaderPool getCoverageReaderPool() {
+        return coverageReaderPool;
+    }
+
+    /** Returns the cache of the reduced resolution overviews built for raw coverages */
+    public CoverageOverviewCache getCoverageOverviewCache() {
+        return coverageOverviewCache;
+    }
+
     /**
      * Returns the cache for {@link StyledLayerDescriptor} objects for a particular style.
      *
@@ -1473,6 +1491,7 @@ public class ResourcePool {
         // look into the cache
         Object key = new CoverageHintReaderKey(info.getId(), hints);
         GridCoverageReader reader = hintCoverageReaderCache.get(key);
+        coverageReaderPool.accessed(info.getId(), reader != null);
 
         // if not found in cache, create it
         if (reader == null) {
@@ -1490,6 +1509,7 @@ public class ResourcePool {
                     Object readObject = getObjectToRead(urlString);
 
                     // readers might change the provided hints, pass down a defensive copy
+                    long start = System.currentTimeMillis();
                     reader = gridFormat.getReader(readObject, hints);
                     if (reader == null) {
                         throw new IOException(
@@ -1498,12 +1518,15 @@ public class ResourcePool {
                                         + " and hints "
                                         + hints);
                     }
+                    coverageReaderPool.created(info.getId(), System.currentTimeMillis() - start);
                     if (key != null) {
                         hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
                     }
                 }
             }
         }
+        reader = coverageOverviewCache.wrap(info, reader);
+        reader = coverageReaderPool.limit(info, reader);
 
         if (coverageInfo == null && coverageName != null) {
             coverageInfo = getCoverageInfo(coverageName, info);
@@ -1586,14 +1609,68 @@ public class ResourcePool {
         return readObject;
     }
 
-    /** Clears any cached readers for the coverage. */
-    public void clear(CoverageStoreInfo info) {
+    /**
+     * Clears any cached readers for the coverage.
+     *
+     * @return true if at least one reader has been removed
+     */
+    public boolean clear(CoverageStoreInfo info) {
         String storeId = info.getId();
         HashSet<CoverageHintReaderKey> keys =
                 new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
+        boolean cleared = false;
         for (CoverageHintReaderKey key : keys) {
             if (key.id != null && key.id.equals(storeId)) {
-                hintCoverageReaderCache.remove(key);
+                cleared |= hintCoverageReaderCache.remove(key) != null;
+            }
+        }
+        coverageOverviewCache.clear(info);
+        return cleared;
+    }
+
+    /**
+     * Removes the cached readers of the store without disposing them, as they might still be in
+     * use. They must be disposed later with {@link #dispose(CoverageHintReaderKey,
+     * GridCoverageReader)}.
+     *
+     * @return the removed readers, by cache key
+     */
+    @SuppressWarnings("unchecked")
+    Map<CoverageHintReaderKey, GridCoverageReader> evict(CoverageStoreInfo info) {
+        String storeId = info.getId();
+        Map<CoverageHintReaderKey, GridCoverageReader> evicted = new HashMap<>();
+        for (CoverageHintReaderKey key : new HashSet<>(hintCoverageReaderCache.keySet())) {
+            if (key.id != null && key.id.equals(storeId)) {
+                GridCoverageReader reader;
+                if (hintCoverageReaderCache instanceof CatalogResourceCache) {
+                    reader =
+                            ((CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader>)
+                                            hintCoverageReaderCache)
+                                    .evict(key);
+                } else {
+                    reader = hintCoverageReaderCache.remove(key);
+                }
+                if (reader != null) {
+                    evicted.put(key, reader);
+                }
+            }
+        }
+        coverageOverviewCache.clear(info);
+        return evicted;
+    }
+
+    /** Disposes a reader removed from the cache by {@link #evict(CoverageStoreInfo)} */
+    @SuppressWarnings("unchecked")
+    void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
+        if (hintCoverageReaderCache instanceof CatalogResourceCache) {
+            ((CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader>)
+                            hintCoverageReaderCache)
+                    .dispose(key, reader);
+        } else {
+            try {
+                reader.dispose();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Error occured disposing coverage reader", e);
             }
         }
     }
@@ -2167,6 +2244,8 @@ public class ResourcePool {
         featureTypeCache.clear();
         featureTypeAttributeCache.clear();
         hintCoverageReaderCache.clear();
+        coverageReaderPool.dispose();
+        coverageOverviewCache.dispose();
         wmsCache.clear();
         wmtsCache.clear();
         styleCache.clear();
@@ -2208,6 +2287,11 @@ public class ResourcePool {
             return object;
         }
 
+        /** Removes the entry without disposing it */
+        V evict(Object key) {
+            return super.remove(key);
+        }
+
         @Override
         public void clear() {
             for (Entry entry : entrySet()) {
@@ -2316,6 +2400,7 @@ public class ResourcePool {
 
                 fireDisposed(info, reader);
             }
+            ReaderDimensionsAccessor.clearDomainCache(reader.getSource());
             try {
                 reader.dispose();
             } catch (Exception e) {
@@ -2436,6 +2521,8 @@ public class ResourcePool {
 
             if (source instanceof FeatureTypeInfo) {
                 flushDataStore((FeatureTypeInfo) source);
+            } else if (source instanceof CoverageStoreInfo) {
+                coverageOverviewCache.delete((CoverageStoreInfo) source);
             }
         }
 
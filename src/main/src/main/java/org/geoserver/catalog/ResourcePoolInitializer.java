@@ -58,5 +58,6 @@ public class ResourcePoolInitializer implements GeoServerReinitializer {
                 });
 
         gs.getCatalog().getResourcePool().setEntityResolverProvider(resolverProvider);
+        gs.getCatalog().getResourcePool().getCoverageReaderPool().warmUp();
     }
 }
@@ -10,6 +10,8 @@ import static org.geotools.coverage.grid.io.GridCoverage2DReader.HAS_ELEVATION_D
 import static org.geotools.coverage.grid.io.GridCoverage2DReader.HAS_TIME_DOMAIN;
 import static org.geotools.coverage.grid.io.GridCoverage2DReader.TIME_DOMAIN;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -24,10 +26,14 @@ import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.catalog.StructuredCoverageViewReader;
 import org.geoserver.ows.kvp.TimeParser;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.DimensionDescriptor;
 import org.geotools.coverage.grid.io.GranuleSource;
@@ -125,6 +131,25 @@ public class ReaderDimensionsAccessor {
                 }
             };
 
+    /**
+     * Time to live of the cached time and elevation domains, in seconds, controlled by the {@code
+     * DIMENSION_DOMAIN_CACHE_TTL} variable. Zero disables the cache
+     */
+    public static final long DOMAIN_CACHE_TTL = getDomainCacheTTL();
+
+    /**
+     * Parsed time and elevation domains, by reader source, coverage and dimension. Avoids going
+     * back to the reader, which might have to run a unique visitor against a large granule index,
+     * for each capabilities or describe request
+     */
+    private static final Cache<String, TreeSet<Object>> DOMAIN_CACHE =
+            DOMAIN_CACHE_TTL > 0
+                    ? CacheBuilder.newBuilder()
+                            .expireAfterWrite(DOMAIN_CACHE_TTL, TimeUnit.SECONDS)
+                            .maximumSize(1000)
+                            .build()
+                    : null;
+
     private final GridCoverage2DReader reader;
 
     private final List<String> metadataNames = new ArrayList<String>();
@@ -138,6 +163,62 @@ public class ReaderDimensionsAccessor {
         }
     }
 
+    private static long getDomainCacheTTL() {
+        String value = GeoServerExtensions.getProperty("DIMENSION_DOMAIN_CACHE_TTL");
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid DIMENSION_DOMAIN_CACHE_TTL value: " + value);
+            }
+        }
+        return 60;
+    }
+
+    /**
+     * Drops the cached domains of the readers working against the specified source, to be called
+     * when granules are added or removed
+     */
+    public static void clearDomainCache(Object source) {
+        if (DOMAIN_CACHE != null && source != null) {
+            String prefix = source + "|";
+            DOMAIN_CACHE.asMap().keySet().removeIf(k -> k.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Returns a copy of the cached domain for the specified dimension, computing it if not
+     * available
+     */
+    private TreeSet<Object> getCachedDomain(String dimension, Callable<TreeSet<Object>> loader)
+            throws IOException {
+        Object source = reader.getSource();
+        if (DOMAIN_CACHE == null || source == null) {
+            return callLoader(loader);
+        }
+        String names = Arrays.toString(reader.getGridCoverageNames());
+        String key = source + "|" + names + "|" + dimension;
+        try {
+            // copy, callers are free to modify the set
+            return new TreeSet<>(DOMAIN_CACHE.get(key, loader));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private TreeSet<Object> callLoader(Callable<TreeSet<Object>> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * True if the reader has a time dimension
      *
@@ -158,6 +239,10 @@ public class ReaderDimensionsAccessor {
         if (!hasTime()) {
             Collections.emptySet();
         }
+        return getCachedDomain(TIME_DOMAIN, this::readTimeDomain);
+    }
+
+    private TreeSet<Object> readTimeDomain() throws IOException {
         final SimpleDateFormat df = getTimeFormat();
         String domain = reader.getMetadataValue(TIME_DOMAIN);
         String[] timeInstants = domain.split("\\s*,\\s*");
@@ -327,6 +412,10 @@ public class ReaderDimensionsAccessor {
         if (!hasElevation()) {
             return null;
         }
+        return getCachedDomain(ELEVATION_DOMAIN, this::readElevationDomain);
+    }
+
+    private TreeSet<Object> readElevationDomain() throws IOException {
         // parse the values from the reader, they are exposed as strings...
         String[] elevationValues = reader.getMetadataValue(ELEVATION_DOMAIN).split(",");
         TreeSet<Object> elevations = new TreeSet<Object>(ELEVATION_COMPARATOR);
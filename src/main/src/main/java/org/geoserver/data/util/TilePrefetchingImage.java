@@ -0,0 +1,243 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.data.util;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedImageAdapter;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.opengis.coverage.grid.GridCoverage;
+
+/**
+ * Wraps a deferred image that is going to be read one tile at a time, in row major order, and asks
+ * the JAI tile scheduler to compute the next tiles in parallel while the current one is being
+ * consumed (e.g., compressed and written by an encoder).
+ *
+ * <p>At most {@code prefetch} tiles are queued ahead of the last one requested, the computed tiles
+ * end up in the JAI tile cache, so the memory used is bounded by the tile cache size.
+ *
+ * <p>Shared by the raster encoders of the different services, e.g., the WCS GeoTIFF output and the
+ * WPS raster download.
+ */
+public class TilePrefetchingImage implements RenderedImage {
+
+    private final RenderedImage delegate;
+
+    private final PlanarImage planar;
+
+    private final int prefetch;
+
+    private final int tilesX;
+
+    private final long numTiles;
+
+    /** The last tile (in row major order) queued for computation */
+    private long lastQueued = -1;
+
+    /**
+     * Returns a coverage whose image prefetches as many tiles as the JAI tile scheduler can compute
+     * in parallel, or the coverage itself if prefetching does not make sense for it
+     */
+    public static GridCoverage2D wrap(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        RenderedImage prefetching = wrap(image);
+        if (prefetching == image) {
+            return coverage;
+        }
+        GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
+        return factory.create(
+                coverage.getName(),
+                prefetching,
+                coverage.getGridGeometry(),
+                coverage.getSampleDimensions(),
+                new GridCoverage[] {coverage},
+                coverage.getProperties());
+    }
+
+    /**
+     * Wraps the image, prefetching as many tiles as the JAI tile scheduler can compute in parallel
+     */
+    public static RenderedImage wrap(RenderedImage image) {
+        return wrap(image, JAI.getDefaultInstance().getTileScheduler().getParallelism());
+    }
+
+    /**
+     * Wraps the image, if prefetching makes sense for it, otherwise returns it as is
+     *
+     * @param image The image to be wrapped
+     * @param prefetch How many tiles can be computed ahead of the one being read
+     */
+    public static RenderedImage wrap(RenderedImage image, int prefetch) {
+        if (!(image instanceof PlanarImage)
+                || isPrefetching(image)
+                || prefetch <= 0
+                || (image.getNumXTiles() == 1 && image.getNumYTiles() == 1)) {
+            return image;
+        }
+        return new TilePrefetchingImage(image, prefetch);
+    }
+
+    /** Coverages wrap their images in an adapter, look inside it too */
+    private static boolean isPrefetching(RenderedImage image) {
+        return image instanceof RenderedImageAdapter
+                && ((RenderedImageAdapter) image).getWrappedImage()
+                        instanceof TilePrefetchingImage;
+    }
+
+    TilePrefetchingImage(RenderedImage delegate, int prefetch) {
+        this.delegate = delegate;
+        this.planar = (PlanarImage) delegate;
+        this.prefetch = prefetch;
+        this.tilesX = delegate.getNumXTiles();
+        this.numTiles = (long) tilesX * delegate.getNumYTiles();
+    }
+
+    /** Queues the tiles following the one at the specified position */
+    private synchronized void prefetchAfter(int tileX, int tileY) {
+        long current =
+                (long) (tileY - delegate.getMinTileY()) * tilesX
+                        + (tileX - delegate.getMinTileX());
+        long last = Math.min(numTiles - 1, current + prefetch);
+        long first = Math.max(current + 1, lastQueued + 1);
+        if (first > last) {
+            return;
+        }
+        List<Point> tiles = new ArrayList<>();
+        for (long i = first; i <= last; i++) {
+            tiles.add(
+                    new Point(
+                            (int) (i % tilesX) + delegate.getMinTileX(),
+                            (int) (i / tilesX) + delegate.getMinTileY()));
+        }
+        lastQueued = last;
+        planar.queueTiles(tiles.toArray(new Point[tiles.size()]));
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        prefetchAfter(tileX, tileY);
+        return delegate.getTile(tileX, tileY);
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        // the encoder tiling might not match the image one, prefetch after the last tile touched
+        int tileX = planar.XToTileX(rect.x + rect.width - 1);
+        int tileY = planar.YToTileY(rect.y + rect.height - 1);
+        prefetchAfter(
+                Math.min(tileX, delegate.getMinTileX() + tilesX - 1),
+                Math.min(tileY, delegate.getMinTileY() + delegate.getNumYTiles() - 1));
+        return delegate.getData(rect);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        Vector<RenderedImage> sources = new Vector<>();
+        sources.add(delegate);
+        return sources;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return delegate.getPropertyNames();
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return delegate.getColorModel();
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return delegate.getSampleModel();
+    }
+
+    @Override
+    public int getWidth() {
+        return delegate.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return delegate.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+        return delegate.getMinX();
+    }
+
+    @Override
+    public int getMinY() {
+        return delegate.getMinY();
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return delegate.getNumXTiles();
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return delegate.getNumYTiles();
+    }
+
+    @Override
+    public int getMinTileX() {
+        return delegate.getMinTileX();
+    }
+
+    @Override
+    public int getMinTileY() {
+        return delegate.getMinTileY();
+    }
+
+    @Override
+    public int getTileWidth() {
+        return delegate.getTileWidth();
+    }
+
+    @Override
+    public int getTileHeight() {
+        return delegate.getTileHeight();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return delegate.getTileGridXOffset();
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return delegate.getTileGridYOffset();
+    }
+
+    @Override
+    public Raster getData() {
+        return delegate.getData();
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        return delegate.copyData(raster);
+    }
+}
@@ -412,6 +412,33 @@ public class CoverageViewTest extends GeoServerSystemTestSupport {
         }
     }
 
+    @Test
+    public void testRGBIrToRedIrGreen() throws IOException {
+        Catalog cat = getCatalog();
+        CoverageInfo coverageInfo = cat.getCoverageByName(RGB_IR_VIEW);
+        final ResourcePool rp = cat.getResourcePool();
+        GridCoverageReader reader = rp.getGridCoverageReader(coverageInfo, RGB_IR_VIEW, null);
+
+        // rgb bands interleaved with the ir one, rgb gets read and band selected once
+        GeneralParameterValue[] params =
+                buildFootprintBandParams(FootprintBehavior.None, new int[] {0, 3, 1});
+        GridCoverage solidCoverage = reader.read(RGB_IR_VIEW, params);
+        try {
+            assertBandNames(solidCoverage, "Red", "Infrared", "Green");
+        } finally {
+            disposeCoverage(solidCoverage);
+        }
+
+        // dynamic tx due to footprint, the alpha band stays last
+        params = buildFootprintBandParams(FootprintBehavior.Transparent, new int[] {0, 3, 1});
+        GridCoverage txCoverage = reader.read(RGB_IR_VIEW, params);
+        try {
+            assertBandNames(txCoverage, "Red", "Infrared", "Green", "ALPHA_BAND");
+        } finally {
+            disposeCoverage(txCoverage);
+        }
+    }
+
     @Test
     public void testRGBIrToRed() throws IOException {
         Catalog cat = getCatalog();
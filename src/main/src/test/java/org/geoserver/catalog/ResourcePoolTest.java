@@ -11,6 +11,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -21,6 +22,7 @@ import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -42,12 +44,17 @@ import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.TestData;
 import org.geoserver.platform.GeoServerEnvironment;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.Paths;
+import org.geoserver.platform.resource.Resource;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geoserver.test.RunTestSetup;
 import org.geoserver.test.SystemTest;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
 import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
 import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.data.DataAccess;
@@ -62,6 +69,7 @@ import org.geotools.feature.NameImpl;
 import org.geotools.feature.collection.DecoratingFeatureCollection;
 import org.geotools.feature.collection.SortedSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.image.util.ImageUtilities;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
@@ -74,6 +82,7 @@ import org.geotools.styling.Style;
 import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.URLs;
 import org.geotools.util.Version;
+import org.geotools.util.decorate.Wrapper;
 import org.geotools.util.factory.GeoTools;
 import org.geotools.util.factory.Hints;
 import org.junit.Test;
@@ -86,6 +95,8 @@ import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.sort.SortBy;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
 import org.opengis.style.ExternalGraphic;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -818,4 +829,193 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         assertEquals("pointProperty", schemaDefaultGeometry.getLocalName());
         assertEquals(schemaDefaultGeometry, featureDefaultGeometry);
     }
+
+    @Test
+    public void testCoverageReaderConcurrencyLimit() throws Exception {
+        Catalog catalog = getCatalog();
+        CoverageInfo ci = catalog.getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        CoverageStoreInfo store = ci.getStore();
+        store.getMetadata().put(CoverageReaderPool.MAX_CONCURRENT_READS, 1);
+        catalog.save(store);
+        try {
+            ci = catalog.getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+            GridCoverageReader reader = ci.getGridCoverageReader(null, null);
+            // the wrapped reader is still reachable
+            assertTrue(reader instanceof Wrapper);
+            assertTrue(((Wrapper) reader).isWrapperFor(GeoTiffReader.class));
+            assertNotNull(((Wrapper) reader).unwrap(GeoTiffReader.class));
+
+            // the pixels are read within the limit, not deferred until the image is used
+            GridCoverage2D coverage = (GridCoverage2D) reader.read(null);
+            assertThat(coverage.getRenderedImage(), instanceOf(BufferedImage.class));
+            coverage.dispose(true);
+
+            CoverageReaderPool.StoreStatistics stats =
+                    catalog.getResourcePool().getCoverageReaderPool().getStatistics(store.getId());
+            assertEquals(1, stats.getMaxConcurrentReads());
+            assertEquals(1, stats.getReads());
+            assertEquals(0, stats.getActiveReads());
+        } finally {
+            store = catalog.getCoverageStore(store.getId());
+            store.getMetadata().remove(CoverageReaderPool.MAX_CONCURRENT_READS);
+            catalog.save(store);
+        }
+    }
+
+    @Test
+    public void testCoverageReaderIdleEviction() throws Exception {
+        Catalog catalog = getCatalog();
+        ResourcePool pool = catalog.getResourcePool();
+        CoverageInfo ci = catalog.getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        CoverageStoreInfo store = ci.getStore();
+        ci.getGridCoverageReader(null, null);
+        CoverageReaderPool.StoreStatistics stats =
+                pool.getCoverageReaderPool().getStatistics(store.getId());
+        long evictions = stats.getEvictions();
+
+        // warmed up stores are kept
+        store.getMetadata().put(CoverageReaderPool.WARM_UP, true);
+        catalog.save(store);
+        ci.getGridCoverageReader(null, null);
+        pool.getCoverageReaderPool().evictIdle(System.currentTimeMillis() + 1000);
+        assertEquals(evictions, stats.getEvictions());
+
+        store = catalog.getCoverageStore(store.getId());
+        store.getMetadata().remove(CoverageReaderPool.WARM_UP);
+        catalog.save(store);
+        ci.getGridCoverageReader(null, null);
+        List<GridCoverageReader> disposed = new ArrayList<>();
+        ResourcePool.Listener listener =
+                new ResourcePool.Listener() {
+
+                    @Override
+                    public void disposed(DataStoreInfo dataStore, DataAccess da) {}
+
+                    @Override
+                    public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+                        disposed.add(gcr);
+                    }
+
+                    @Override
+                    public void disposed(FeatureTypeInfo featureType, FeatureType ft) {}
+                };
+        pool.addListener(listener);
+        try {
+            long now = System.currentTimeMillis() + 1000;
+            pool.getCoverageReaderPool().evictIdle(now);
+            assertEquals(evictions + 1, stats.getEvictions());
+            for (ResourcePool.CoverageHintReaderKey key :
+                    pool.getHintCoverageReaderCache().keySet()) {
+                assertNotEquals(store.getId(), key.id);
+            }
+            // in flight requests might still be using the evicted reader, not disposed yet
+            assertTrue(disposed.isEmpty());
+
+            // disposed at the next round
+            pool.getCoverageReaderPool().evictIdle(now + 1000);
+            assertEquals(1, disposed.size());
+        } finally {
+            pool.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testCoverageOverviews() throws Exception {
+        Catalog catalog = getCatalog();
+        ResourcePool pool = catalog.getResourcePool();
+        CoverageInfo ci = catalog.getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        CoverageStoreInfo store = ci.getStore();
+        ci.getGridCoverageReader(null, null);
+        GridCoverage2DReader reader = null;
+        for (Map.Entry<ResourcePool.CoverageHintReaderKey, GridCoverageReader> entry :
+                pool.getHintCoverageReaderCache().entrySet()) {
+            if (store.getId().equals(entry.getKey().id)) {
+                reader = (GridCoverage2DReader) entry.getValue();
+            }
+        }
+        assertNotNull(reader);
+
+        // not flagged, not wrapped
+        CoverageOverviewCache cache = pool.getCoverageOverviewCache();
+        assertSame(reader, cache.wrap(store, reader));
+
+        // the DEM is 120x240, build levels down to 15x30
+        store.getMetadata().put(CoverageOverviewCache.OVERVIEWS, true);
+        cache.minSize = 32;
+        try {
+            cache.build(store, reader);
+            Resource directory =
+                    getDataDirectory()
+                            .get(Paths.path(CoverageOverviewCache.DIRECTORY, store.getId()));
+            assertEquals(Resource.Type.RESOURCE, directory.get("level3.tif").getType());
+            assertEquals(Resource.Type.UNDEFINED, directory.get("level4.tif").getType());
+
+            GridCoverageReader wrapped = cache.wrap(store, reader);
+            assertThat(wrapped, instanceOf(CoverageOverviewCache.OverviewsReader.class));
+            CoverageOverviewCache.Overviews overviews =
+                    ((CoverageOverviewCache.OverviewsReader) wrapped).overviews;
+            assertEquals(
+                    directory.get("level3.tif").file(),
+                    overviews.select(reader, getReadParameters(reader, 15, 30)).file);
+            GridCoverage2D coverage = readAtSize((GridCoverage2DReader) wrapped, 15, 30);
+            assertEquals(15, coverage.getRenderedImage().getWidth());
+            assertEquals(
+                    directory.get("level3.tif").file().getAbsolutePath(),
+                    coverage.getProperty(GridCoverage2DReader.FILE_SOURCE_PROPERTY));
+            coverage.dispose(true);
+            // full resolution reads go to the original file
+            assertNull(overviews.select(reader, getReadParameters(reader, 120, 240)));
+            coverage = readAtSize((GridCoverage2DReader) wrapped, 120, 240);
+            assertEquals(120, coverage.getRenderedImage().getWidth());
+            Object readerSource = reader.getSource();
+            File source =
+                    readerSource instanceof URL
+                            ? URLs.urlToFile((URL) readerSource)
+                            : (File) readerSource;
+            assertEquals(
+                    source.getAbsolutePath(),
+                    coverage.getProperty(GridCoverage2DReader.FILE_SOURCE_PROPERTY));
+            coverage.dispose(true);
+
+            // once the source changes the overviews are no longer used, and get rebuilt
+            long lastModified = source.lastModified();
+            assertTrue(source.setLastModified(lastModified + 10000));
+            try {
+                assertSame(reader, cache.wrap(store, reader));
+                long timeout = System.currentTimeMillis() + 30000;
+                while (cache.getOverviews(store, reader) == null
+                        && System.currentTimeMillis() < timeout) {
+                    Thread.sleep(100);
+                }
+                overviews = cache.getOverviews(store, reader);
+                assertNotNull(overviews);
+                assertEquals(source.lastModified(), overviews.sourceModified);
+                assertEquals(3, overviews.levels.size());
+            } finally {
+                source.setLastModified(lastModified);
+            }
+
+            cache.delete(store);
+            assertEquals(Resource.Type.UNDEFINED, directory.getType());
+        } finally {
+            cache.minSize = CoverageOverviewCache.TILE_SIZE;
+            store.getMetadata().remove(CoverageOverviewCache.OVERVIEWS);
+        }
+    }
+
+    private GridCoverage2D readAtSize(GridCoverage2DReader reader, int width, int height)
+            throws IOException {
+        return reader.read(getReadParameters(reader, width, height));
+    }
+
+    private GeneralParameterValue[] getReadParameters(
+            GridCoverage2DReader reader, int width, int height) {
+        GridGeometry2D gg =
+                new GridGeometry2D(
+                        new GridEnvelope2D(0, 0, width, height), reader.getOriginalEnvelope());
+        ParameterValue<GridGeometry2D> readGG =
+                AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        readGG.setValue(gg);
+        return new GeneralParameterValue[] {readGG};
+    }
 }
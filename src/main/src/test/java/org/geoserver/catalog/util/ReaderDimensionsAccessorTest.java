@@ -0,0 +1,56 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.geotools.coverage.grid.io.GridCoverage2DReader.HAS_TIME_DOMAIN;
+import static org.geotools.coverage.grid.io.GridCoverage2DReader.TIME_DOMAIN;
+import static org.junit.Assert.assertEquals;
+
+import java.util.TreeSet;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.junit.Test;
+
+public class ReaderDimensionsAccessorTest {
+
+    private GridCoverage2DReader buildReader(String source, int timeDomainReads) throws Exception {
+        GridCoverage2DReader reader = createMock(GridCoverage2DReader.class);
+        expect(reader.getMetadataNames()).andReturn(null).anyTimes();
+        expect(reader.getSource()).andReturn(source).anyTimes();
+        expect(reader.getGridCoverageNames()).andReturn(new String[] {"test"}).anyTimes();
+        expect(reader.getMetadataValue(HAS_TIME_DOMAIN)).andReturn("true").anyTimes();
+        expect(reader.getMetadataValue(TIME_DOMAIN))
+                .andReturn("2018-01-01T00:00:00.000Z,2018-01-02T00:00:00.000Z")
+                .times(timeDomainReads);
+        replay(reader);
+        return reader;
+    }
+
+    @Test
+    public void testTimeDomainCached() throws Exception {
+        GridCoverage2DReader reader = buildReader("cached", 1);
+
+        ReaderDimensionsAccessor accessor = new ReaderDimensionsAccessor(reader);
+        TreeSet<Object> domain = accessor.getTimeDomain();
+        assertEquals(2, domain.size());
+        // callers can modify the returned set without affecting the cache
+        domain.clear();
+        assertEquals(2, new ReaderDimensionsAccessor(reader).getTimeDomain().size());
+        verify(reader);
+    }
+
+    @Test
+    public void testClearDomainCache() throws Exception {
+        GridCoverage2DReader reader = buildReader("cleared", 2);
+
+        assertEquals(2, new ReaderDimensionsAccessor(reader).getTimeDomain().size());
+        ReaderDimensionsAccessor.clearDomainCache("cleared");
+        assertEquals(2, new ReaderDimensionsAccessor(reader).getTimeDomain().size());
+        verify(reader);
+    }
+}
@@ -0,0 +1,137 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.data.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TileRequest;
+import javax.media.jai.TiledImage;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class TilePrefetchingImageTest {
+
+    /** A 4x2 tiles image recording the tiles queued for computation */
+    static class QueueRecordingImage extends TiledImage {
+
+        List<Point> queued = new ArrayList<>();
+
+        QueueRecordingImage() {
+            super(0, 0, 40, 20, 0, 0, sampleModel(), null);
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    setSample(x, y, 0, x + y);
+                }
+            }
+        }
+
+        static SampleModel sampleModel() {
+            return RasterFactory.createBandedSampleModel(DataBuffer.TYPE_BYTE, 10, 10, 1);
+        }
+
+        @Override
+        public synchronized TileRequest queueTiles(Point[] tileIndices) {
+            queued.addAll(Arrays.asList(tileIndices));
+            return null;
+        }
+    }
+
+    @Test
+    public void testNotWrapped() {
+        // single tile
+        TiledImage single =
+                new TiledImage(0, 0, 10, 10, 0, 0, QueueRecordingImage.sampleModel(), null);
+        assertSame(single, TilePrefetchingImage.wrap(single, 2));
+        // not a planar image
+        BufferedImage buffered = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        assertSame(buffered, TilePrefetchingImage.wrap(buffered, 2));
+        // no prefetch
+        QueueRecordingImage image = new QueueRecordingImage();
+        assertSame(image, TilePrefetchingImage.wrap(image, 0));
+        // already prefetching
+        RenderedImage prefetching = TilePrefetchingImage.wrap(image, 2);
+        assertTrue(prefetching instanceof TilePrefetchingImage);
+        assertSame(prefetching, TilePrefetchingImage.wrap(prefetching, 2));
+    }
+
+    @Test
+    public void testPrefetchTiles() {
+        QueueRecordingImage image = new QueueRecordingImage();
+        RenderedImage prefetching = TilePrefetchingImage.wrap(image, 2);
+
+        Raster tile = prefetching.getTile(0, 0);
+        assertSame(image.getTile(0, 0), tile);
+        assertEquals(Arrays.asList(new Point(1, 0), new Point(2, 0)), image.queued);
+
+        // only the tiles not queued yet are added
+        image.queued.clear();
+        prefetching.getTile(1, 0);
+        assertEquals(Arrays.asList(new Point(3, 0)), image.queued);
+
+        // moving to the next row
+        image.queued.clear();
+        prefetching.getTile(3, 0);
+        assertEquals(Arrays.asList(new Point(0, 1), new Point(1, 1)), image.queued);
+
+        // nothing after the last tile
+        image.queued.clear();
+        prefetching.getTile(1, 1);
+        assertEquals(Arrays.asList(new Point(2, 1), new Point(3, 1)), image.queued);
+        image.queued.clear();
+        prefetching.getTile(3, 1);
+        assertTrue(image.queued.isEmpty());
+    }
+
+    @Test
+    public void testPrefetchData() {
+        QueueRecordingImage image = new QueueRecordingImage();
+        RenderedImage prefetching = TilePrefetchingImage.wrap(image, 1);
+
+        // a strip crossing the first two tiles, prefetches after the last one touched
+        Rectangle strip = new Rectangle(0, 0, 15, 5);
+        Raster data = prefetching.getData(strip);
+        assertEquals(strip, data.getBounds());
+        assertArrayEquals(
+                image.getData(strip).getSamples(0, 0, 15, 5, 0, (int[]) null),
+                data.getSamples(0, 0, 15, 5, 0, (int[]) null));
+        assertEquals(Arrays.asList(new Point(2, 0)), image.queued);
+    }
+
+    @Test
+    public void testWrapCoverage() {
+        QueueRecordingImage image = new QueueRecordingImage();
+        GridCoverage2D coverage =
+                new GridCoverageFactory()
+                        .create(
+                                "test",
+                                image,
+                                new ReferencedEnvelope(0, 40, 0, 20, DefaultGeographicCRS.WGS84));
+        GridCoverage2D wrapped = TilePrefetchingImage.wrap(coverage);
+        assertEquals(coverage.getGridGeometry(), wrapped.getGridGeometry());
+        assertEquals(coverage.getName(), wrapped.getName());
+        // the coverage image adapter is recognized, no double wrapping
+        assertSame(wrapped, TilePrefetchingImage.wrap(wrapped));
+
+        wrapped.getRenderedImage().getTile(0, 0);
+        assertTrue(image.queued.contains(new Point(1, 0)));
+    }
+}
@@ -19,6 +19,7 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.SingleGridCoverage2DReader;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.resource.Paths;
@@ -115,6 +116,7 @@ public class CoverageStoreFileController extends AbstractStoreUploadController {
         }
         // File Harvesting
         sr.harvest(null, uploadedFiles, GeoTools.getDefaultHints());
+        ReaderDimensionsAccessor.clearDomainCache(sr.getSource());
     }
 
     @PutMapping(produces = {MediaType.APPLICATION_XML_VALUE, MediaType.APPLICATION_JSON_VALUE})
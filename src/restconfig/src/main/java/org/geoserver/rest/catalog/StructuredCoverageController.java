@@ -23,6 +23,7 @@ import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.AttributeTypeInfoImpl;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.feature.RetypingFeatureCollection;
 import org.geoserver.rest.ResourceNotFoundException;
@@ -243,6 +244,11 @@ public class StructuredCoverageController extends AbstractCatalogController {
         } else {
             store.removeGranules(filter);
         }
+        // the time and elevation domains might have changed
+        CoverageInfo coverage =
+                getExistingStructuredCoverage(workspaceName, storeName, coverageName);
+        ReaderDimensionsAccessor.clearDomainCache(
+                coverage.getGridCoverageReader(null, null).getSource());
     }
 
     private GranuleRemovalPolicy mapRemovalPolicy(String key) {
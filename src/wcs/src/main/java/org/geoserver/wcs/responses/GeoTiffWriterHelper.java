@@ -4,14 +4,27 @@
  */
 package org.geoserver.wcs.responses;
 
+import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.logging.Logger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
 import javax.media.jai.OpImage;
 import javax.media.jai.RenderedOp;
 import org.apache.commons.io.FileUtils;
+import org.geoserver.data.util.TilePrefetchingImage;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.platform.resource.Paths;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
@@ -23,6 +36,7 @@ import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.util.ImageUtilities;
+import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.geometry.Envelope;
 import org.opengis.parameter.GeneralParameterValue;
@@ -42,6 +56,20 @@ public class GeoTiffWriterHelper {
 
     private static final GeoTiffFormat TIFF_FORMAT = new GeoTiffFormat();
 
+    /** Leaves some room for the headers and the tile offsets below the 4GB classic TIFF limit */
+    static final long BIG_TIFF_THRESHOLD = 4_000_000_000L;
+
+    /**
+     * Outputs up to this size (uncompressed, in bytes) are written straight to the output stream,
+     * larger ones go through a temporary file
+     */
+    static final long DIRECT_WRITE_THRESHOLD =
+            Long.getLong("wcs.geotiff.directWriteThreshold", 16 * 1024 * 1024);
+
+    private static final ImageWriterSpi TIFF_WRITER_SPI = new TIFFImageWriterSpi();
+
+    static final Logger LOGGER = Logging.getLogger(GeoTiffWriterHelper.class);
+
     private GridCoverage2D coverage;
 
     private File sourceFile;
@@ -147,59 +175,153 @@ public class GeoTiffWriterHelper {
         this.sourceFile = null;
     }
 
+    /**
+     * Writes the coverage to the stream. Unless the source file can be copied as is, or the output
+     * is small enough to be cached in memory, the GeoTIFF is first encoded, tile by tile, into a
+     * temporary file and then streamed back: the TIFF writer needs to seek back to fill in offsets,
+     * which on a plain output stream would force it to keep the whole output cached. While a tile
+     * is being encoded, the following ones are computed in parallel by the JAI tile scheduler.
+     */
     public void write(OutputStream stream) throws IOException {
         if (sourceFile != null) {
             FileUtils.copyFile(sourceFile, stream);
-        } else {
-            CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
-            boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
-
-            if (unreferenced) {
-                RenderedImage ri = coverage.getRenderedImage();
-                int tileWidth, tileHeight;
-                if (imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
-                    tileWidth = imageIoWriteParams.getTileWidth();
-                    tileHeight = imageIoWriteParams.getTileHeight();
-                } else {
-                    tileWidth = ri.getTileWidth();
-                    tileHeight = ri.getTileHeight();
-                }
-                float quality = DEFAULT_QUALITY;
-                String compression = null;
-                if (imageIoWriteParams.getCompressionMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
-                    compression = imageIoWriteParams.getCompressionType();
-                    quality = imageIoWriteParams.getCompressionQuality();
-                }
+            return;
+        }
+
+        if (getUncompressedSize(coverage.getRenderedImage()) <= DIRECT_WRITE_THRESHOLD) {
+            encode(stream);
+            return;
+        }
+
+        File tempFile = File.createTempFile("wcs", ".tif", getTempDirectory());
+        try {
+            encode(tempFile);
+            FileUtils.copyFile(tempFile, stream);
+        } finally {
+            if (!FileUtils.deleteQuietly(tempFile)) {
+                LOGGER.warning("Could not delete temp file: " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /** Returns the GeoServer temporary directory, or null to use the system one */
+    private static File getTempDirectory() {
+        GeoServerResourceLoader loader = GeoServerExtensions.bean(GeoServerResourceLoader.class);
+        if (loader == null) {
+            return null;
+        }
+        return loader.get(Paths.path("temp", "geotiff")).dir();
+    }
+
+    /** Writes the coverage to the destination, either a {@link File} or an {@link OutputStream} */
+    private void encode(Object destination) throws IOException {
+        CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
+        boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
+        RenderedImage ri = coverage.getRenderedImage();
+        boolean bigTIFF = isBigTIFFRequired(ri);
+        if (bigTIFF) {
+            imageIoWriteParams.setForceToBigTIFF(true);
+        }
 
-                new ImageWorker(ri).writeTIFF(stream, compression, quality, tileWidth, tileHeight);
+        if (unreferenced) {
+            int tileWidth, tileHeight;
+            if (imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
+                tileWidth = imageIoWriteParams.getTileWidth();
+                tileHeight = imageIoWriteParams.getTileHeight();
             } else {
-                final GeneralParameterValue[] wps =
-                        (GeneralParameterValue[])
-                                geotoolsWriteParams
-                                        .values()
-                                        .toArray(
-                                                new GeneralParameterValue
-                                                        [geotoolsWriteParams.values().size()]);
-
-                // write out the coverage
-                AbstractGridCoverageWriter writer =
-                        (AbstractGridCoverageWriter) TIFF_FORMAT.getWriter(stream);
-                if (writer == null)
-                    throw new ServiceException(
-                            "Could not find the GeoTIFF writer, please check it's in the classpath");
+                tileWidth = ri.getTileWidth();
+                tileHeight = ri.getTileHeight();
+            }
+            float quality = DEFAULT_QUALITY;
+            String compression = null;
+            if (imageIoWriteParams.getCompressionMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
+                compression = imageIoWriteParams.getCompressionType();
+                quality = imageIoWriteParams.getCompressionQuality();
+            }
+
+            RenderedImage prefetching = TilePrefetchingImage.wrap(ri);
+            if (bigTIFF) {
+                // the image worker cannot write BigTIFF files
+                writeBigTIFF(destination, prefetching, compression, quality, tileWidth, tileHeight);
+            } else {
+                new ImageWorker(prefetching)
+                        .writeTIFF(destination, compression, quality, tileWidth, tileHeight);
+            }
+        } else {
+            final GeneralParameterValue[] wps =
+                    (GeneralParameterValue[])
+                            geotoolsWriteParams
+                                    .values()
+                                    .toArray(
+                                            new GeneralParameterValue
+                                                    [geotoolsWriteParams.values().size()]);
+
+            GridCoverage2D target = TilePrefetchingImage.wrap(coverage);
+
+            // write out the coverage
+            AbstractGridCoverageWriter writer =
+                    (AbstractGridCoverageWriter) TIFF_FORMAT.getWriter(destination);
+            if (writer == null)
+                throw new ServiceException(
+                        "Could not find the GeoTIFF writer, please check it's in the classpath");
+            try {
+                writer.write(target, wps);
+            } finally {
                 try {
-                    writer.write(coverage, wps);
-                } finally {
-                    try {
-                        writer.dispose();
-                    } catch (Exception e) {
-                        // swallow, silent close
-                    }
+                    writer.dispose();
+                } catch (Exception e) {
+                    // swallow, silent close
                 }
             }
         }
     }
 
+    private void writeBigTIFF(
+            Object destination,
+            RenderedImage image,
+            String compression,
+            float quality,
+            int tileWidth,
+            int tileHeight)
+            throws IOException {
+        ImageWriter writer = TIFF_WRITER_SPI.createWriterInstance();
+        TIFFImageWriteParam param = (TIFFImageWriteParam) writer.getDefaultWriteParam();
+        param.setForceToBigTIFF(true);
+        param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setTiling(tileWidth, tileHeight, 0, 0);
+        if (compression != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(compression);
+            param.setCompressionQuality(quality);
+        }
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(destination)) {
+            if (ios == null) {
+                throw new IOException("Could not create an image output stream on " + destination);
+            }
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Returns true if the uncompressed image might not fit in a classic TIFF, which uses 32 bits
+     * offsets. Compression might make the output smaller, but there is no way to tell in advance.
+     */
+    static boolean isBigTIFFRequired(RenderedImage ri) {
+        return getUncompressedSize(ri) > BIG_TIFF_THRESHOLD;
+    }
+
+    /** Returns the size in bytes of the image pixels, without any compression */
+    static long getUncompressedSize(RenderedImage ri) {
+        long pixelBits = 0;
+        for (int size : ri.getSampleModel().getSampleSize()) {
+            pixelBits += size;
+        }
+        return (long) ri.getWidth() * ri.getHeight() * pixelBits / 8;
+    }
+
     /**
      * Returns true if the coverage has not been processed in any way since it has been read
      *
@@ -0,0 +1,73 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import javax.media.jai.operator.ConstantDescriptor;
+import org.apache.commons.io.FileUtils;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class GeoTiffWriterHelperTest {
+
+    @Test
+    public void testBigTIFFRequired() {
+        // 3 bytes per pixel, about 30MB
+        RenderedImage small =
+                ConstantDescriptor.create(
+                        3000f, 3000f, new Byte[] {(byte) 1, (byte) 2, (byte) 3}, null);
+        assertEquals(27_000_000L, GeoTiffWriterHelper.getUncompressedSize(small));
+        assertFalse(GeoTiffWriterHelper.isBigTIFFRequired(small));
+
+        // 8 bytes per pixel, the image is never computed
+        RenderedImage large = ConstantDescriptor.create(25000f, 25000f, new Double[] {0d}, null);
+        assertEquals(5_000_000_000L, GeoTiffWriterHelper.getUncompressedSize(large));
+        assertTrue(GeoTiffWriterHelper.isBigTIFFRequired(large));
+    }
+
+    @Test
+    public void testWriteToStream() throws Exception {
+        RenderedImage image = ConstantDescriptor.create(200f, 100f, new Byte[] {(byte) 7}, null);
+        ReferencedEnvelope envelope =
+                new ReferencedEnvelope(0, 20, 0, 10, DefaultGeographicCRS.WGS84);
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", image, envelope);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new GeoTiffWriterHelper(coverage).write(bos);
+
+        File file = File.createTempFile("geotiff", ".tif", new File("./target"));
+        GeoTiffReader reader = null;
+        try {
+            FileUtils.writeByteArrayToFile(file, bos.toByteArray());
+            reader = new GeoTiffReader(file);
+            GridCoverage2D read = reader.read(null);
+            RenderedImage ri = read.getRenderedImage();
+            assertEquals(200, ri.getWidth());
+            assertEquals(100, ri.getHeight());
+            assertEquals(7, ri.getData().getSample(10, 10, 0));
+            ReferencedEnvelope readEnvelope = new ReferencedEnvelope(read.getEnvelope2D());
+            assertEquals(envelope.getMinX(), readEnvelope.getMinX(), 1e-9);
+            assertEquals(envelope.getMaxX(), readEnvelope.getMaxX(), 1e-9);
+            assertEquals(envelope.getMinY(), readEnvelope.getMinY(), 1e-9);
+            assertEquals(envelope.getMaxY(), readEnvelope.getMaxY(), 1e-9);
+            read.dispose(true);
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            FileUtils.deleteQuietly(file);
+        }
+    }
+}
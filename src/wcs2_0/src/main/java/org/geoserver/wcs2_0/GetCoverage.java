@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -323,22 +324,36 @@ public class GetCoverage {
                 // the GranuleStack
                 stack.addCoverage(firstCoverage);
 
-                // Get a coverage for each subrequest
+                // Get a coverage for each subrequest, reading them in parallel
+                List<Callable<GridCoverage2D>> reads = new ArrayList<>();
                 while (requestsIterator.hasNext()) {
                     GridCoverageRequest subRequest = requestsIterator.next();
-                    GridCoverage2D singleCoverage =
-                            setupCoverage(
-                                    helper,
-                                    subRequest,
-                                    request,
-                                    reader,
-                                    hints,
-                                    extensions,
-                                    dimensions,
-                                    incrementalOutputSize,
-                                    incrementalInputSize,
-                                    coverageFactory);
-                    stack.addCoverage(singleCoverage);
+                    // the scaling step adds to the hints, each read needs its own copy
+                    Hints readHints = new Hints(hints);
+                    reads.add(
+                            () ->
+                                    setupCoverage(
+                                            helper,
+                                            subRequest,
+                                            request,
+                                            reader,
+                                            readHints,
+                                            extensions,
+                                            dimensions,
+                                            incrementalOutputSize,
+                                            incrementalInputSize,
+                                            coverageFactory));
+                }
+                try {
+                    GranuleReadExecutor.readAll(
+                            reads,
+                            actual,
+                            GranuleReadExecutor.loadCoverage(coverageFactory),
+                            stack::addCoverage);
+                } catch (Exception e) {
+                    // the loaded slices hold part of the read budget until disposed
+                    stack.dispose(true);
+                    throw e;
                 }
                 coverage = stack;
             } else {
@@ -1995,7 +2010,7 @@ public class GetCoverage {
      * @author Nicola Lagomarsini
      */
     static class ImageSizeRecorder {
-        /** Incremental value for the size */
+        /** Incremental value for the size, updated by the parallel granule reads */
         private long incrementalSize = 0;
 
         private final long limit;
@@ -2012,7 +2027,7 @@ public class GetCoverage {
          *
          * @param GridCoverage2D
          */
-        public void addSize(GridCoverage2D coverage) {
+        public synchronized void addSize(GridCoverage2D coverage) {
             incrementalSize +=
                     getCoverageSize(
                             coverage.getGridGeometry().getGridRange2D(),
@@ -2021,7 +2036,7 @@ public class GetCoverage {
         }
 
         /** Return the total size accumulated */
-        public long finalSize() {
+        public synchronized long finalSize() {
             return incrementalSize;
         }
 
@@ -2040,7 +2055,7 @@ public class GetCoverage {
         }
 
         /** Reset the total size stored to 0 */
-        public void reset() {
+        public synchronized void reset() {
             incrementalSize = 0;
         }
 
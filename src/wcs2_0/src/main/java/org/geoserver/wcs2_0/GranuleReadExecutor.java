@@ -0,0 +1,342 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.media.jai.TiledImage;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Runs the reads of the slices of a multidimensional GetCoverage concurrently, on a thread pool
+ * shared by all requests.
+ *
+ * <p>Each request keeps at most {@link #THREADS} reads in flight, and the results are handed over
+ * in the original order, each one as soon as it and all the ones preceding it are available. Reads
+ * that only set up a deferred image, such as the JAI ImageRead ones, are loaded in memory in the
+ * pool thread, see {@link #loadCoverage(GridCoverageFactory)}, otherwise the actual reading would
+ * happen later, serially. A slice is loaded only if its estimated size can be taken from a memory
+ * budget shared by all requests, and the budget is given back only when the loaded slice is
+ * disposed, so the slices waiting to be encoded are accounted for. Once the budget is exhausted
+ * the following slices are handed over deferred, and read while being encoded.
+ *
+ * <p>The number of threads and the budget, in megabytes, are controlled by the {@code
+ * WCS_GRANULE_READ_THREADS} and {@code WCS_GRANULE_READ_MEMORY} system variables, the defaults are
+ * the number of processors and a quarter of the maximum heap. Using a single thread disables the
+ * parallel reads.
+ */
+class GranuleReadExecutor {
+
+    static final Logger LOGGER = Logging.getLogger(GranuleReadExecutor.class);
+
+    static final int THREADS =
+            getIntProperty("WCS_GRANULE_READ_THREADS", Runtime.getRuntime().availableProcessors());
+
+    /** The budget in kilobytes, as a semaphore can only count up to Integer.MAX_VALUE */
+    static final int BUDGET_KB = getBudget();
+
+    private static final Semaphore BUDGET = new Semaphore(BUDGET_KB, true);
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private GranuleReadExecutor() {}
+
+    private static ExecutorService createExecutor() {
+        if (THREADS <= 1) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        THREADS,
+                        THREADS,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            Thread thread =
+                                    new Thread(r, "WCS granule reader " + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getBudget() {
+        int defaultMegabytes = (int) (Runtime.getRuntime().maxMemory() / 4 / 1024 / 1024);
+        long megabytes = getIntProperty("WCS_GRANULE_READ_MEMORY", defaultMegabytes);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, megabytes * 1024));
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + name + " value: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Runs the reads and passes their results, in order, to the consumer. The first failure stops
+     * the whole process, cancelling the reads still pending, and is rethrown.
+     *
+     * @param reads The reads to perform
+     * @param consumer Receives the read results, in the calling thread
+     */
+    static <T> void readAll(List<Callable<T>> reads, Consumer<T> consumer) throws Exception {
+        readAll(reads, 0, null, consumer);
+    }
+
+    /**
+     * Runs the reads and passes their results, in order, to the consumer. The first failure stops
+     * the whole process, cancelling the reads still pending, and is rethrown.
+     *
+     * @param reads The reads to perform
+     * @param estimatedSize The estimated memory footprint of a single loaded result, in bytes
+     * @param load Applied to the results of the parallel reads, in the pool thread, when their
+     *     estimated size can be taken from the budget. Loads the data in memory and takes over the
+     *     budget, the loaded result must run the given callback once it is disposed. Not used when
+     *     reading serially or when null.
+     * @param consumer Receives the read results, in the calling thread
+     */
+    static <T> void readAll(
+            List<Callable<T>> reads,
+            long estimatedSize,
+            BiFunction<T, Runnable, T> load,
+            Consumer<T> consumer)
+            throws Exception {
+        if (EXECUTOR == null || reads.size() <= 1) {
+            for (Callable<T> read : reads) {
+                consumer.accept(read.call());
+            }
+            return;
+        }
+
+        int permits = (int) Math.max(1, Math.min(BUDGET_KB, estimatedSize / 1024));
+        Deque<Future<Slot<T>>> pending = new ArrayDeque<>();
+        Unclaimed unclaimed = new Unclaimed();
+        boolean completed = false;
+        try {
+            for (Callable<T> read : reads) {
+                while (pending.size() >= THREADS) {
+                    consumer.accept(unclaimed.claim(get(pending.poll())));
+                }
+                pending.add(submit(read, load, permits, unclaimed));
+            }
+            while (!pending.isEmpty()) {
+                consumer.accept(unclaimed.claim(get(pending.poll())));
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Future<Slot<T>> future : pending) {
+                    future.cancel(true);
+                }
+                // the loaded results no one will dispose give back their budget
+                unclaimed.abandon();
+            }
+        }
+    }
+
+    private static <T> Future<Slot<T>> submit(
+            Callable<T> read, BiFunction<T, Runnable, T> load, int permits, Unclaimed unclaimed) {
+        ThreadLocalsTransfer threadLocalTransfer = new ThreadLocalsTransfer();
+        return EXECUTOR.submit(
+                () -> {
+                    threadLocalTransfer.apply();
+                    try {
+                        T result = read.call();
+                        // never wait for the budget, it is held by slices waiting to be encoded
+                        if (load == null || !BUDGET.tryAcquire(permits)) {
+                            return new Slot<>(result, null);
+                        }
+                        Runnable release = new Release(permits);
+                        try {
+                            result = load.apply(result, release);
+                        } catch (RuntimeException | Error e) {
+                            release.run();
+                            throw e;
+                        }
+                        Slot<T> slot = new Slot<>(result, release);
+                        unclaimed.add(slot);
+                        return slot;
+                    } finally {
+                        threadLocalTransfer.cleanup();
+                    }
+                });
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            LOGGER.log(Level.FINE, "Granule read failed", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a function copying the pixels of a coverage in memory, so that a deferred read, such
+     * as a JAI ImageRead one, actually happens when the function is called. The original coverage
+     * is disposed, releasing the reader resources. Disposing the loaded coverage runs the callback.
+     */
+    static BiFunction<GridCoverage2D, Runnable, GridCoverage2D> loadCoverage(
+            GridCoverageFactory factory) {
+        return (coverage, release) -> {
+            RenderedImage image = coverage.getRenderedImage();
+            if (image instanceof BufferedImage || image instanceof TiledImage) {
+                // already in memory
+                return new LoadedCoverage(coverage, release);
+            }
+            TiledImage loaded =
+                    new TiledImage(
+                            image.getMinX(),
+                            image.getMinY(),
+                            image.getWidth(),
+                            image.getHeight(),
+                            image.getTileGridXOffset(),
+                            image.getTileGridYOffset(),
+                            image.getSampleModel(),
+                            image.getColorModel());
+            loaded.set(image);
+            GridCoverage2D result =
+                    factory.create(
+                            coverage.getName().toString(),
+                            loaded,
+                            coverage.getGridGeometry(),
+                            coverage.getSampleDimensions(),
+                            null,
+                            coverage.getProperties());
+            coverage.dispose(true);
+            return new LoadedCoverage(result, release);
+        };
+    }
+
+    /** The memory currently available for parallel reads, in kilobytes */
+    static int getAvailableBudget() {
+        return BUDGET.availablePermits();
+    }
+
+    /** A read result, and the callback giving back its budget if it was loaded */
+    private static final class Slot<T> {
+
+        final T result;
+
+        final Runnable release;
+
+        Slot(T result, Runnable release) {
+            this.result = result;
+            this.release = release;
+        }
+    }
+
+    /** Gives back the budget of a loaded result, only once */
+    private static final class Release implements Runnable {
+
+        private final AtomicInteger permits;
+
+        Release(int permits) {
+            this.permits = new AtomicInteger(permits);
+        }
+
+        @Override
+        public void run() {
+            int released = permits.getAndSet(0);
+            if (released > 0) {
+                BUDGET.release(released);
+            }
+        }
+    }
+
+    /**
+     * The loaded results of a request not handed over to the consumer yet, released if the request
+     * fails, as they will never be disposed
+     */
+    private static final class Unclaimed {
+
+        private final Set<Slot<?>> slots = new HashSet<>();
+
+        private boolean abandoned;
+
+        synchronized void add(Slot<?> slot) {
+            if (abandoned) {
+                slot.release.run();
+            } else {
+                slots.add(slot);
+            }
+        }
+
+        synchronized <T> T claim(Slot<T> slot) {
+            slots.remove(slot);
+            return slot.result;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            for (Slot<?> slot : slots) {
+                slot.release.run();
+            }
+            slots.clear();
+        }
+    }
+
+    /** A coverage loaded in memory, giving back its budget when disposed */
+    private static final class LoadedCoverage extends GridCoverage2D {
+
+        private static final long serialVersionUID = 1L;
+
+        private final GridCoverage2D loaded;
+
+        private final transient Runnable release;
+
+        LoadedCoverage(GridCoverage2D loaded, Runnable release) {
+            super(loaded.getName(), loaded);
+            this.loaded = loaded;
+            this.release = release;
+        }
+
+        @Override
+        public boolean dispose(boolean force) {
+            boolean disposed = loaded.dispose(force);
+            if (disposed) {
+                release.run();
+            }
+            return disposed;
+        }
+    }
+}
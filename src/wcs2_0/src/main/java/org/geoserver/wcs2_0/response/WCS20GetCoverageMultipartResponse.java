@@ -7,29 +7,25 @@ package org.geoserver.wcs2_0.response;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import javax.activation.DataHandler;
-import javax.mail.BodyPart;
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
+import java.util.UUID;
 import net.opengis.wcs20.ExtensionItemType;
 import net.opengis.wcs20.ExtensionType;
 import net.opengis.wcs20.GetCoverageType;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.eclipse.emf.common.util.EList;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
-import org.geoserver.wcs.responses.CoverageEncoder;
 import org.geoserver.wcs.responses.CoverageResponseDelegate;
 import org.geoserver.wcs.responses.CoverageResponseDelegateFinder;
 import org.geoserver.wcs2_0.response.GMLCovHandler.CoverageData;
 import org.geoserver.wcs2_0.util.EnvelopeAxesLabelsMapper;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.coverage.grid.GridCoverage;
-import org.vfny.geoserver.wcs.WcsException;
 
 /**
  * Returns a single coverage encoded in the specified output format (eventually the native one)
@@ -39,6 +35,8 @@ import org.vfny.geoserver.wcs.WcsException;
  */
 public class WCS20GetCoverageMultipartResponse extends Response {
 
+    private static final String CRLF = "\r\n";
+
     CoverageResponseDelegateFinder responseFactory;
 
     EnvelopeAxesLabelsMapper envelopeDimensionsMapper;
@@ -98,51 +96,62 @@ public class WCS20GetCoverageMultipartResponse extends Response {
         // grab the delegate
         CoverageResponseDelegate delegate = responseFactory.encoderFor(format);
 
-        // use javamail classes to actually encode the document
-        try {
-            MimeMultipart multipart = new MimeMultipart();
-            multipart.setSubType("related");
-
-            String fileName =
-                    "/coverages/"
-                            + getCoverage.getCoverageId()
-                            + "."
-                            + delegate.getFileExtension(format);
-
-            // coverages xml structure, which is very close to the DescribeFeatureType output
-            BodyPart coveragesPart = new MimeBodyPart();
-            FileReference reference =
-                    new FileReference(
-                            fileName,
-                            delegate.getMimeType(format),
-                            delegate.getConformanceClass(format));
-            final CoverageData coveragesData =
-                    new CoverageData(coverage, reference, envelopeDimensionsMapper);
-            coveragesPart.setDataHandler(new DataHandler(coveragesData, "geoserver/coverages20"));
-            coveragesPart.setHeader("Content-ID", "wcs");
-            coveragesPart.setHeader("Content-Type", "application/gml+xml");
-            multipart.addBodyPart(coveragesPart);
-
-            // the actual coverage
-            BodyPart coveragePart = new MimeBodyPart();
-            CoverageEncoder encoder =
-                    new CoverageEncoder(delegate, coverage, format, encodingParameters);
-            coveragePart.setDataHandler(new DataHandler(encoder, "geoserver/coverageDelegate"));
-            coveragePart.setHeader("Content-ID", fileName);
-            coveragePart.setHeader("Content-Type", delegate.getMimeType(format));
-            coveragePart.setHeader("Content-Transfer-Encoding", "binary");
-            multipart.addBodyPart(coveragePart);
-
-            // write out the multipart (we need to use mime message trying to
-            // encode directly with multipart or BodyPart does not set properly
-            // the encodings and binary files gets ruined
-            MimeMessage message = new GeoServerMimeMessage();
-            message.setContent(multipart);
-            message.writeTo(output);
-            output.flush();
-        } catch (MessagingException e) {
-            throw new WcsException("Error occurred while encoding the mime multipart response", e);
+        String fileName =
+                "/coverages/"
+                        + getCoverage.getCoverageId()
+                        + "."
+                        + delegate.getFileExtension(format);
+
+        // write the multipart by hand, streaming each part straight to the output, javamail
+        // would encode the xml part twice to pick its transfer encoding
+        String boundary = "----=_Part_" + UUID.randomUUID();
+        OutputStream os = new CloseShieldOutputStream(output);
+        Writer headers = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+        headers.write("MIME-Version: 1.0" + CRLF);
+        headers.write("Content-Type: multipart/related; boundary=\"" + boundary + "\"" + CRLF);
+        headers.write(CRLF);
+
+        // coverages xml structure, which is very close to the DescribeFeatureType output
+        writePartHeaders(
+                headers,
+                boundary,
+                "Content-ID: wcs",
+                "Content-Type: application/gml+xml",
+                "Content-Transfer-Encoding: binary");
+        FileReference reference =
+                new FileReference(
+                        fileName,
+                        delegate.getMimeType(format),
+                        delegate.getConformanceClass(format));
+        CoverageData coveragesData =
+                new CoverageData(coverage, reference, envelopeDimensionsMapper);
+        new GMLCovHandler().writeTo(coveragesData, "geoserver/coverages20", os);
+        os.flush();
+        headers.write(CRLF);
+
+        // the actual coverage
+        writePartHeaders(
+                headers,
+                boundary,
+                "Content-ID: " + fileName,
+                "Content-Type: " + delegate.getMimeType(format),
+                "Content-Transfer-Encoding: binary");
+        delegate.encode(coverage, format, encodingParameters, os);
+        os.flush();
+        headers.write(CRLF + "--" + boundary + "--" + CRLF);
+        headers.flush();
+        output.flush();
+    }
+
+    /** Writes the boundary opening a new part, followed by the part headers */
+    private void writePartHeaders(Writer writer, String boundary, String... headers)
+            throws IOException {
+        writer.write("--" + boundary + CRLF);
+        for (String header : headers) {
+            writer.write(header + CRLF);
         }
+        writer.write(CRLF);
+        writer.flush();
     }
 
     @Override
@@ -152,21 +161,4 @@ public class WCS20GetCoverageMultipartResponse extends Response {
         GetCoverageType getCoverage = (GetCoverageType) operation.getParameters()[0];
         return getCoverage.getCoverageId() + ".eml";
     }
-
-    /**
-     * A special mime message that does not set any header other than the content type
-     *
-     * @author Andrea Aime - GeoSolutions
-     */
-    private static class GeoServerMimeMessage extends MimeMessage {
-        public GeoServerMimeMessage() {
-            super((Session) null);
-        }
-
-        @Override
-        protected void updateMessageID() throws MessagingException {
-            // it's just ugly to see ...
-            removeHeader("Message-ID");
-        }
-    }
 }
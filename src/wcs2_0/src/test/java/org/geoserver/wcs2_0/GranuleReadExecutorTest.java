@@ -0,0 +1,225 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TiledImage;
+import javax.media.jai.operator.ConstantDescriptor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class GranuleReadExecutorTest {
+
+    @Test
+    public void testOrderPreserved() throws Exception {
+        List<Callable<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int value = i;
+            reads.add(
+                    () -> {
+                        // finish out of order
+                        Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                        return value;
+                    });
+        }
+        List<Integer> results = new ArrayList<>();
+        GranuleReadExecutor.readAll(reads, results::add);
+
+        assertEquals(50, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+        // all the budget is given back
+        assertEquals(GranuleReadExecutor.BUDGET_KB, GranuleReadExecutor.getAvailableBudget());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        List<Callable<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            reads.add(
+                    () -> {
+                        if (value == 3) {
+                            throw new IOException("Failed to read granule 3");
+                        }
+                        return value;
+                    });
+        }
+        List<Integer> results = new ArrayList<>();
+        try {
+            GranuleReadExecutor.readAll(reads, results::add);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Failed to read granule 3", e.getMessage());
+        }
+        // the granules before the failure have been handed over
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    public void testLargerThanBudget() throws Exception {
+        List<Callable<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            reads.add(() -> value);
+        }
+        List<Integer> results = new ArrayList<>();
+        List<Runnable> releases = Collections.synchronizedList(new ArrayList<>());
+        // a granule larger than the whole budget is still loaded, if nothing else is
+        GranuleReadExecutor.readAll(
+                reads,
+                Long.MAX_VALUE,
+                (value, release) -> {
+                    releases.add(release);
+                    return value;
+                },
+                results::add);
+        assertEquals(5, results.size());
+        if (GranuleReadExecutor.THREADS > 1) {
+            // the others are handed over as read, while the loaded one holds the whole budget
+            assertEquals(1, releases.size());
+            assertEquals(0, GranuleReadExecutor.getAvailableBudget());
+            releases.get(0).run();
+        }
+        assertEquals(GranuleReadExecutor.BUDGET_KB, GranuleReadExecutor.getAvailableBudget());
+    }
+
+    @Test
+    public void testLoadHoldsBudget() throws Exception {
+        List<Callable<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int value = i;
+            reads.add(() -> value);
+        }
+        List<Runnable> releases = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> results = new ArrayList<>();
+        GranuleReadExecutor.readAll(
+                reads,
+                1024 * 1024,
+                (value, release) -> {
+                    releases.add(release);
+                    return value * 2;
+                },
+                results::add);
+
+        assertEquals(10, results.size());
+        assertEquals(18, (int) results.get(9));
+        if (GranuleReadExecutor.THREADS > 1) {
+            // the budget is held by the loaded results until they are disposed
+            int permits = Math.min(GranuleReadExecutor.BUDGET_KB, 1024);
+            int loaded = Math.min(10, GranuleReadExecutor.BUDGET_KB / permits);
+            assertEquals(loaded, releases.size());
+            assertEquals(
+                    GranuleReadExecutor.BUDGET_KB - loaded * permits,
+                    GranuleReadExecutor.getAvailableBudget());
+            for (Runnable release : releases) {
+                release.run();
+                // only once
+                release.run();
+            }
+        }
+        assertEquals(GranuleReadExecutor.BUDGET_KB, GranuleReadExecutor.getAvailableBudget());
+    }
+
+    @Test
+    public void testFailureReleasesBudget() throws Exception {
+        List<Callable<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            reads.add(
+                    () -> {
+                        if (value == 3) {
+                            throw new IOException("Failed to read granule 3");
+                        }
+                        return value;
+                    });
+        }
+        List<Runnable> releases = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> results = new ArrayList<>();
+        try {
+            GranuleReadExecutor.readAll(
+                    reads,
+                    1024,
+                    (value, release) -> {
+                        releases.add(release);
+                        return value;
+                    },
+                    results::add);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Failed to read granule 3", e.getMessage());
+        }
+        // the results handed over keep their budget, the others gave it back
+        assertEquals(3, results.size());
+        for (Runnable release : releases) {
+            release.run();
+        }
+        // reads cancelled while running may still be completing
+        long deadline = System.currentTimeMillis() + 1000;
+        while (GranuleReadExecutor.getAvailableBudget() != GranuleReadExecutor.BUDGET_KB
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(GranuleReadExecutor.BUDGET_KB, GranuleReadExecutor.getAvailableBudget());
+    }
+
+    @Test
+    public void testLoadCoverage() throws Exception {
+        // a deferred image, computed only when its tiles are requested
+        RenderedOp image = ConstantDescriptor.create(100f, 50f, new Byte[] {(byte) 7}, null);
+        GridCoverageFactory factory = new GridCoverageFactory();
+        GridCoverage2D coverage =
+                factory.create(
+                        "test",
+                        image,
+                        new ReferencedEnvelope(0, 10, 0, 5, DefaultGeographicCRS.WGS84),
+                        null,
+                        null,
+                        Collections.singletonMap("test", "value"));
+
+        AtomicInteger released = new AtomicInteger();
+        GridCoverage2D loaded =
+                GranuleReadExecutor.loadCoverage(factory)
+                        .apply(coverage, released::incrementAndGet);
+        assertNotSame(coverage, loaded);
+        assertThat(loaded.getRenderedImage(), instanceOf(TiledImage.class));
+        assertEquals(coverage.getGridGeometry(), loaded.getGridGeometry());
+        assertEquals("value", loaded.getProperty("test"));
+        Raster data = loaded.getRenderedImage().getData();
+        assertEquals(100, data.getWidth());
+        assertEquals(50, data.getHeight());
+        assertEquals(7, data.getSample(99, 49, 0));
+
+        // already in memory
+        GridCoverage2D reloaded =
+                GranuleReadExecutor.loadCoverage(factory)
+                        .apply(loaded, released::incrementAndGet);
+        assertSame(loaded.getRenderedImage(), reloaded.getRenderedImage());
+
+        // the budget is given back on dispose
+        assertEquals(0, released.get());
+        loaded.dispose(true);
+        assertEquals(1, released.get());
+    }
+}
@@ -5,13 +5,18 @@
 package org.geoserver.wcs2_0.kvp;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 
 import java.awt.image.Raster;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
+import javax.mail.BodyPart;
+import javax.mail.Multipart;
 import javax.xml.namespace.QName;
 import net.opengis.wcs20.GetCoverageType;
 import net.opengis.wcs20.InterpolationType;
@@ -25,6 +30,7 @@ import net.opengis.wcs20.ScaleToSizeType;
 import net.opengis.wcs20.ScalingType;
 import net.opengis.wcs20.TargetAxisExtentType;
 import net.opengis.wcs20.TargetAxisSizeType;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.emf.common.util.EList;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
@@ -36,6 +42,7 @@ import org.geotools.wcs.v2_0.RangeSubset;
 import org.geotools.wcs.v2_0.Scaling;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.w3c.dom.Document;
 
 public class GetCoverageKvpTest extends WCSKVPTestSupport {
 
@@ -102,6 +109,38 @@ public class GetCoverageKvpTest extends WCSKVPTestSupport {
         assertEquals("image/tiff", response.getContentType());
     }
 
+    @Test
+    public void testGetCoverageMultipart() throws Exception {
+        String request =
+                "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+                        + "&coverageId=wcs__BlueMarble&format=image/tiff";
+        MockHttpServletResponse response =
+                getAsServletResponse(request + "&mediaType=multipart/related");
+        assertEquals("multipart/related", response.getContentType());
+
+        Multipart multipart = getMultipart(response);
+        assertEquals(2, multipart.getCount());
+
+        // the xml lines are not bounded in length, so the part cannot be declared as 8bit
+        BodyPart xmlPart = multipart.getBodyPart(0);
+        assertEquals("wcs", xmlPart.getHeader("Content-ID")[0]);
+        assertEquals("application/gml+xml", xmlPart.getHeader("Content-Type")[0]);
+        assertEquals("binary", xmlPart.getHeader("Content-Transfer-Encoding")[0]);
+        Document gml = dom(xmlPart.getInputStream());
+        assertXpathEvaluatesTo(
+                "cid:/coverages/wcs__BlueMarble.tif",
+                "//gml:rangeSet/gml:File/gml:fileReference",
+                gml);
+
+        // the coverage part is the same as the plain GetCoverage output
+        BodyPart coveragePart = multipart.getBodyPart(1);
+        assertEquals("/coverages/wcs__BlueMarble.tif", coveragePart.getHeader("Content-ID")[0]);
+        assertEquals("image/tiff", coveragePart.getContentType());
+        assertEquals("binary", coveragePart.getHeader("Content-Transfer-Encoding")[0]);
+        byte[] tiff = IOUtils.toByteArray(coveragePart.getInputStream());
+        assertTrue(Arrays.equals(getBinary(getAsServletResponse(request)), tiff));
+    }
+
     @Test
     public void testExtensionScaleFactor() throws Exception {
         GetCoverageType gc =
@@ -54,6 +54,7 @@ import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategy;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategyFactory;
 import org.geoserver.wms.dimension.DimensionFilterBuilder;
+import org.geoserver.wms.dimension.VectorDimensionDomainCache;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
@@ -233,6 +234,8 @@ public class WMS implements ApplicationContextAware {
 
     private DimensionDefaultValueSelectionStrategyFactory defaultDimensionValueFactory;
 
+    private VectorDimensionDomainCache dimensionDomainCache;
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -1273,6 +1276,16 @@ public class WMS implements ApplicationContextAware {
                     "Layer " + typeInfo.prefixedName() + " does not have time support enabled");
         }
 
+        VectorDimensionDomainCache cache = getDimensionDomainCache();
+        if (cache == null) {
+            return readFeatureTypeTimes(typeInfo, time);
+        }
+        return cache.getDomain(
+                typeInfo, ResourceInfo.TIME, () -> readFeatureTypeTimes(typeInfo, time));
+    }
+
+    private TreeSet<Date> readFeatureTypeTimes(FeatureTypeInfo typeInfo, DimensionInfo time)
+            throws IOException {
         FeatureCollection collection = getDimensionCollection(typeInfo, time);
 
         TreeSet<Date> result = new TreeSet<Date>();
@@ -1357,6 +1370,18 @@ public class WMS implements ApplicationContextAware {
                             + " does not have elevation support enabled");
         }
 
+        VectorDimensionDomainCache cache = getDimensionDomainCache();
+        if (cache == null) {
+            return readFeatureTypeElevations(typeInfo, elevation);
+        }
+        return cache.getDomain(
+                typeInfo,
+                ResourceInfo.ELEVATION,
+                () -> readFeatureTypeElevations(typeInfo, elevation));
+    }
+
+    private TreeSet<Double> readFeatureTypeElevations(
+            FeatureTypeInfo typeInfo, DimensionInfo elevation) throws IOException {
         FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
 
         TreeSet<Double> result = new TreeSet<Double>();
@@ -1392,6 +1417,15 @@ public class WMS implements ApplicationContextAware {
         return result;
     }
 
+    /** The cache of the vector time and elevation domains, or null if not available */
+    private VectorDimensionDomainCache getDimensionDomainCache() {
+        if (dimensionDomainCache == null && applicationContext != null) {
+            dimensionDomainCache =
+                    GeoServerExtensions.bean(VectorDimensionDomainCache.class, applicationContext);
+        }
+        return dimensionDomainCache;
+    }
+
     /** Query and returns the times for the given layer, in the given time range */
     public TreeSet<Object> queryFeatureTypeElevations(
             FeatureTypeInfo typeInfo, NumberRange range, int maxItems) throws IOException {
@@ -0,0 +1,210 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.util.ReaderDimensionsAccessor;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Caches the time and elevation domains of the vector layers, which are computed with unique or
+ * min/max visitors over the whole layer, for each capabilities document.
+ *
+ * <p>Entries expire after the same time as the raster domains cached by {@link
+ * ReaderDimensionsAccessor}, see {@link ReaderDimensionsAccessor#DOMAIN_CACHE_TTL}, zero disables
+ * the cache. The whole cache is wiped out on committed WFS transactions and catalog changes.
+ * Changes made to the data outside of GeoServer become visible once the entries expire. Layers
+ * subject to data security limits are not cached, as their domain depends on the user.
+ */
+public class VectorDimensionDomainCache
+        implements TransactionCallback, CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(VectorDimensionDomainCache.class);
+
+    /** The domains by layer and dimension, empty if the layer has no values */
+    private final Cache<List<String>, Optional<TreeSet<?>>> cache;
+
+    public VectorDimensionDomainCache(GeoServer geoServer) {
+        this(ReaderDimensionsAccessor.DOMAIN_CACHE_TTL);
+        geoServer.getCatalog().addListener(this);
+    }
+
+    /**
+     * Builds a cache not attached to any configuration, for testing purposes
+     *
+     * @param timeToLive The entries time to live, in seconds, zero disables caching
+     */
+    VectorDimensionDomainCache(long timeToLive) {
+        if (timeToLive > 0) {
+            this.cache =
+                    CacheBuilder.newBuilder()
+                            .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                            .maximumSize(1000)
+                            .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns a copy of the cached domain of the layer dimension, computing it with the loader if
+     * missing
+     *
+     * @param typeInfo The layer
+     * @param dimensionName The dimension, e.g. {@link
+     *     org.geoserver.catalog.ResourceInfo#TIME}
+     * @param loader Computes the domain, can return null if the layer has no values
+     */
+    @SuppressWarnings("unchecked")
+    public <T> TreeSet<T> getDomain(
+            FeatureTypeInfo typeInfo, String dimensionName, Callable<TreeSet<T>> loader)
+            throws IOException {
+        if (cache == null
+                || typeInfo.getId() == null
+                || typeInfo instanceof SecuredFeatureTypeInfo) {
+            return call(loader);
+        }
+        List<String> key = Arrays.asList(typeInfo.getId(), dimensionName);
+        try {
+            Optional<TreeSet<?>> domain =
+                    cache.get(key, () -> Optional.<TreeSet<?>>ofNullable(call(loader)));
+            // copy, callers are free to modify the set
+            return domain.isPresent() ? new TreeSet<>((TreeSet<T>) domain.get()) : null;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private <T> TreeSet<T> call(Callable<TreeSet<T>> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Returns the number of cached domains */
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /** Removes all the cached domains */
+    public void clear() {
+        if (cache != null) {
+            if (LOGGER.isLoggable(Level.FINE) && cache.size() > 0) {
+                LOGGER.fine("Clearing the vector dimension domain cache");
+            }
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(
+            TransactionRequest request, TransactionResponse result, boolean committed) {
+        // clearing before the commit would let concurrent requests cache the old domain again.
+        // Several layers can publish the same table, just wipe out everything
+        if (committed) {
+            clear();
+        }
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // the changes are not committed yet, wait for afterTransaction
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // new layers have no cached domain yet
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        // dimension configuration, filters and stores can all change the domain
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
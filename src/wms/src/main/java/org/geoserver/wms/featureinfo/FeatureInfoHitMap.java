@@ -0,0 +1,162 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Records, for each pixel of a map, the features whose rendering touched it, in painting order.
+ * Built once by painting the whole map, then used to answer GetFeatureInfo requests at any pixel of
+ * the same map without rendering again.
+ *
+ * <p>The per pixel lists are stored as singly linked lists in a couple of int arrays, to keep the
+ * memory footprint small. Building is not thread safe, lookups are, once the map is built.
+ */
+class FeatureInfoHitMap {
+
+    /** Marks maps that could not be turned into a hit map (too many features, failures) */
+    static final FeatureInfoHitMap UNCACHEABLE = new FeatureInfoHitMap(0, 0);
+
+    private static final int INITIAL_HITS = 1024;
+
+    private final int width;
+
+    private final int height;
+
+    /** Index of the last hit recorded for each pixel, or -1 if the pixel was never painted */
+    private final int[] heads;
+
+    /** The feature index of each hit */
+    private int[] hitFeatures = new int[INITIAL_HITS];
+
+    /** The index of the previous hit on the same pixel, or -1 */
+    private int[] hitNext = new int[INITIAL_HITS];
+
+    private int hitCount;
+
+    private final List<SimpleFeature> features = new ArrayList<>();
+
+    /** Estimated memory used by the features, in bytes */
+    private long featuresMemory;
+
+    public FeatureInfoHitMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.heads = new int[width * height];
+        Arrays.fill(heads, -1);
+    }
+
+    /** Adds a feature to the map, returning the index to be used when recording its hits */
+    int addFeature(SimpleFeature feature) {
+        features.add(feature);
+        featuresMemory += estimateMemoryUse(feature);
+        return features.size() - 1;
+    }
+
+    /** Records that the specified feature painted the pixel */
+    void addHit(int x, int y, int featureIndex) {
+        int pixel = y * width + x;
+        int head = heads[pixel];
+        if (head >= 0 && hitFeatures[head] == featureIndex) {
+            // same feature painted again by another rule
+            return;
+        }
+        if (hitCount == hitFeatures.length) {
+            int size = hitCount * 2;
+            hitFeatures = Arrays.copyOf(hitFeatures, size);
+            hitNext = Arrays.copyOf(hitNext, size);
+        }
+        hitFeatures[hitCount] = featureIndex;
+        hitNext[hitCount] = head;
+        heads[pixel] = hitCount;
+        hitCount++;
+    }
+
+    /** Releases the unused space in the hit arrays, to be called once the map is complete */
+    void trim() {
+        hitFeatures = Arrays.copyOf(hitFeatures, hitCount);
+        hitNext = Arrays.copyOf(hitNext, hitCount);
+    }
+
+    /** Returns the number of features that painted at least one pixel */
+    int getFeatureCount() {
+        return features.size();
+    }
+
+    /** Returns the number of pixels in the map */
+    int getPixelCount() {
+        return heads.length;
+    }
+
+    /** Returns an estimate of the memory used by this map, in bytes */
+    long getMemoryUse() {
+        return heads.length * 4L + hitFeatures.length * 8L + featuresMemory;
+    }
+
+    /**
+     * Estimates the memory used by a feature, walking its attribute values. Geometries are
+     * accounted for by their number of points, strings by their length, anything else as a small
+     * boxed value.
+     */
+    static long estimateMemoryUse(SimpleFeature feature) {
+        // feature object, id, attribute array and list slot
+        long size = 96 + 8L * feature.getAttributeCount();
+        for (Object value : feature.getAttributes()) {
+            if (value instanceof Geometry) {
+                // geometry object, envelope, plus a coordinate object and its reference per point
+                size += 128 + ((Geometry) value).getNumPoints() * 48L;
+            } else if (value instanceof CharSequence) {
+                size += 40 + ((CharSequence) value).length() * 2L;
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 24;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the features that painted any pixel in the square area centered on the specified
+     * pixel, in painting order
+     *
+     * @param x The pixel column
+     * @param y The pixel row
+     * @param buffer The half size of the area to be checked, in pixels
+     * @param maxFeatures The maximum number of features to return
+     */
+    List<SimpleFeature> getFeatures(int x, int y, int buffer, int maxFeatures) {
+        int minX = Math.max(0, x - buffer);
+        int maxX = Math.min(width - 1, x + buffer);
+        int minY = Math.max(0, y - buffer);
+        int maxY = Math.min(height - 1, y + buffer);
+        if (minX > maxX || minY > maxY || features.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        BitSet hits = new BitSet(features.size());
+        for (int row = minY; row <= maxY; row++) {
+            for (int col = minX; col <= maxX; col++) {
+                for (int hit = heads[row * width + col]; hit >= 0; hit = hitNext[hit]) {
+                    hits.set(hitFeatures[hit]);
+                }
+            }
+        }
+
+        List<SimpleFeature> result = new ArrayList<>();
+        int index = hits.nextSetBit(0);
+        while (index >= 0 && result.size() < maxFeatures) {
+            result.add(features.get(index));
+            index = hits.nextSetBit(index + 1);
+        }
+        return result;
+    }
+}
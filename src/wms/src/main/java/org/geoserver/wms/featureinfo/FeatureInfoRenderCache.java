@@ -0,0 +1,250 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A short lived cache of {@link FeatureInfoHitMap}, used by {@link VectorRenderingLayerIdentifier}
+ * to answer GetFeatureInfo requests hitting different pixels of the same map without painting it
+ * again. Map viewers showing feature information on hover generate lots of such requests.
+ *
+ * <p>Entries expire after a few seconds, and the whole cache is wiped out on catalog and
+ * configuration changes, as well as on committed WFS transactions. The cache can be disabled by
+ * setting the time to live to zero.
+ */
+public class FeatureInfoRenderCache
+        implements TransactionCallback, CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureInfoRenderCache.class);
+
+    /** Time to live of the cache entries, in seconds. Zero disables the cache */
+    static final int TIME_TO_LIVE =
+            Integer.getInteger("org.geoserver.wms.featureinfo.render.cache.ttl", 30);
+
+    /** Maximum memory used by the cache entries, in megabytes */
+    static final int MAX_MEMORY =
+            Integer.getInteger("org.geoserver.wms.featureinfo.render.cache.maxMemory", 64);
+
+    /** Maps with more pixels than this are not cached */
+    static final int MAX_PIXELS =
+            Integer.getInteger("org.geoserver.wms.featureinfo.render.cache.maxPixels", 2048 * 2048);
+
+    /** Maps displaying more features than this are not cached */
+    static final int MAX_FEATURES =
+            Integer.getInteger("org.geoserver.wms.featureinfo.render.cache.maxFeatures", 10000);
+
+    private final Cache<List<Object>, FeatureInfoHitMap> cache;
+
+    private final int maxPixels;
+
+    private final int maxFeatures;
+
+    public FeatureInfoRenderCache(GeoServer geoServer) {
+        this(TIME_TO_LIVE, MAX_MEMORY * 1024L * 1024L, MAX_PIXELS, MAX_FEATURES);
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    public void handleGlobalChange(
+                            GeoServerInfo global,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        clear();
+                    }
+
+                    public void handleServiceChange(
+                            ServiceInfo service,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        clear();
+                    }
+
+                    public void reloaded() {
+                        clear();
+                    }
+                });
+    }
+
+    /**
+     * Builds a cache not attached to any configuration, for testing purposes
+     *
+     * @param timeToLive The entries time to live, in seconds, zero disables caching
+     * @param maxMemory The maximum memory used by the cached maps, in bytes
+     * @param maxPixels The maximum size of a cacheable map, in pixels
+     * @param maxFeatures The maximum number of features in a cacheable map
+     */
+    FeatureInfoRenderCache(int timeToLive, long maxMemory, int maxPixels, int maxFeatures) {
+        this.maxPixels = maxPixels;
+        this.maxFeatures = maxFeatures;
+        if (timeToLive > 0) {
+            this.cache =
+                    CacheBuilder.newBuilder()
+                            .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                            .maximumWeight(Math.max(1, maxMemory / 1024))
+                            .<List<Object>, FeatureInfoHitMap>weigher(
+                                    (k, v) -> (int) Math.max(1, v.getMemoryUse() / 1024))
+                            .build();
+        } else {
+            this.cache = null;
+            LOGGER.info("Rendering based GetFeatureInfo cache disabled");
+        }
+    }
+
+    /** Returns true if the cache is enabled */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /** Returns the maximum size of a cacheable map, in pixels */
+    public int getMaxPixels() {
+        return maxPixels;
+    }
+
+    /** Returns the maximum number of features a cacheable map can display */
+    public int getMaxFeatures() {
+        return maxFeatures;
+    }
+
+    /**
+     * Returns the hit map associated to the key, building it with the loader if missing. Concurrent
+     * requests for the same key wait for a single load.
+     *
+     * @param key The map key, a list of all the request elements affecting the rendering
+     * @param loader Builds the hit map, returning {@link FeatureInfoHitMap#UNCACHEABLE} if the map
+     *     cannot be cached
+     * @return The hit map, or null if the map cannot be cached or the cache is disabled
+     */
+    FeatureInfoHitMap getHitMap(List<Object> key, Callable<FeatureInfoHitMap> loader)
+            throws Exception {
+        if (cache == null) {
+            return null;
+        }
+        try {
+            FeatureInfoHitMap hitMap = cache.get(key, loader);
+            return hitMap == FeatureInfoHitMap.UNCACHEABLE ? null : hitMap;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Returns the number of cached maps */
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /** Removes all the cached maps */
+    public void clear() {
+        if (cache != null) {
+            if (LOGGER.isLoggable(Level.FINE) && cache.size() > 0) {
+                LOGGER.fine("Clearing the rendering based GetFeatureInfo cache");
+            }
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(
+            TransactionRequest request, TransactionResponse result, boolean committed) {
+        // clearing before the commit would let concurrent requests cache the old data again.
+        // The same data can be published by several layers (e.g., sql views), just wipe out
+        // everything, transactions are rare compared to GetFeatureInfo calls
+        if (committed) {
+            clear();
+        }
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // the changes are not committed yet, wait for afterTransaction
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
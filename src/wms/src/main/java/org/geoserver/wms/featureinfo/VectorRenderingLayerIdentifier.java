@@ -13,6 +13,7 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.RenderingHints.Key;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DirectColorModel;
@@ -54,6 +55,7 @@ import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
 import org.geotools.renderer.RenderListener;
 import org.geotools.renderer.lite.GraphicsAwareDpiRescaleStyleVisitor;
@@ -61,24 +63,38 @@ import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.style.StyleAttributeExtractor;
+import org.geotools.styling.Displacement;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Graphic;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
 import org.geotools.styling.visitor.DpiRescaleStyleVisitor;
 import org.geotools.styling.visitor.UomRescaleStyleVisitor;
 import org.geotools.util.factory.Hints;
 import org.geotools.util.logging.Logging;
 import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
 import org.opengis.feature.Feature;
 import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 /**
  * Painting based layer identifier: this method actually paints a reduced version of the map to find
@@ -101,6 +117,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
 
     private WMS wms;
     private VectorBasicLayerIdentifier fallback;
+    private FeatureInfoRenderCache renderCache;
     private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
 
     static {
@@ -116,8 +133,22 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     }
 
     public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback) {
+        this(wms, fallback, null);
+    }
+
+    /**
+     * Builds the identifier
+     *
+     * @param wms The WMS configuration
+     * @param fallback The identifier used for non simple features
+     * @param renderCache The cache of rendered maps, used to answer requests on the same map
+     *     without painting it again, can be null
+     */
+    public VectorRenderingLayerIdentifier(
+            WMS wms, VectorBasicLayerIdentifier fallback, FeatureInfoRenderCache renderCache) {
         this.wms = wms;
         this.fallback = fallback;
+        this.renderCache = renderCache;
     }
 
     @Override
@@ -153,6 +184,20 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
         GetMapRequest getMap = params.getGetMapRequest();
         getMap.getFormatOptions().put("antialias", "NONE");
+
+        // see if we can answer from a hit map of the whole map, saving the rendering
+        if (isHitMapCacheable(params, style)) {
+            FeatureInfoHitMap hitMap =
+                    renderCache.getHitMap(
+                            getHitMapKey(params),
+                            () -> buildHitMap(params, style, new ArrayList<>(rules)));
+            if (hitMap != null) {
+                List<SimpleFeature> features =
+                        hitMap.getFeatures(params.getX(), params.getY(), buffer, maxFeatures);
+                return aggregateByFeatureType(features, params.getRequestedCRS());
+            }
+        }
+
         WMSMapContent mc = new WMSMapContent(getMap);
         try {
             // prepare the fake web map content
@@ -255,6 +300,16 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                 return graphics;
             }
 
+            @Override
+            protected boolean isBandedRenderingEnabled(
+                    WMSMapContent mapContent,
+                    Rectangle paintArea,
+                    IndexColorModel palette,
+                    boolean tiled) {
+                // we need to paint on the provided image
+                return false;
+            }
+
             @Override
             protected void onBeforeRender(StreamingRenderer renderer) {
                 // force the renderer into serial painting mode, as we need to check what
@@ -263,6 +318,10 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                 hints.put(StreamingRenderer.OPTIMIZE_FTS_RENDERING_KEY, Boolean.FALSE);
                 // disable antialiasing to speed up rendering
                 hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+                if (featureInfoListener instanceof HitMapRenderListener) {
+                    // wrapped copies would be painted outside of the areas checked for hits
+                    hints.put(StreamingRenderer.CONTINUOUS_MAP_WRAPPING, Boolean.FALSE);
+                }
 
                 // TODO: should we disable the screenmap as well?
                 featureInfoListener.setGraphics(graphics);
@@ -272,6 +331,215 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         };
     }
 
+    /**
+     * Checks if the request can be answered using a {@link FeatureInfoHitMap} of the whole map.
+     * This is possible only if the features are painted where their default geometry is, as the
+     * hit map is built checking only the area around each geometry
+     */
+    private boolean isHitMapCacheable(FeatureInfoRequestParameters params, Style style)
+            throws IOException {
+        if (renderCache == null || !renderCache.isEnabled()) {
+            return false;
+        }
+        GetMapRequest getMap = params.getGetMapRequest();
+        long pixels = (long) params.getWidth() * params.getHeight();
+        if (pixels <= 0 || pixels > renderCache.getMaxPixels() || getMap.getAngle() != 0) {
+            return false;
+        }
+
+        // a map crossing the dateline would have features painted more than once
+        ReferencedEnvelope bounds = params.getRequestedBounds();
+        CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+        if (crs != null) {
+            ReferencedEnvelope domain = ReferencedEnvelope.reference(CRS.getEnvelope(crs));
+            if (domain != null && !domain.contains((Envelope) bounds)) {
+                return false;
+            }
+        }
+
+        FeatureType schema = params.getLayer().getFeatureSource(true).getSchema();
+        return hasDefaultGeometriesOnly(style, schema.getGeometryDescriptor());
+    }
+
+    /**
+     * Returns true if the style has no rendering transformations, and all symbolizers use the
+     * default geometry
+     */
+    private boolean hasDefaultGeometriesOnly(Style style, GeometryDescriptor defaultGeometry) {
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return false;
+            }
+            for (Rule rule : fts.rules()) {
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    Expression geometry = symbolizer.getGeometry();
+                    if (geometry == null) {
+                        continue;
+                    }
+                    if (!(geometry instanceof PropertyName)) {
+                        return false;
+                    }
+                    String name = ((PropertyName) geometry).getPropertyName();
+                    if (!"".equals(name)
+                            && (defaultGeometry == null
+                                    || !defaultGeometry.getLocalName().equals(name))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key identifying the map in the {@link FeatureInfoRenderCache}, listing all the
+     * request elements that can affect the map rendering, as well as the current user, as the data
+     * visible to each user can be different
+     */
+    private List<Object> getHitMapKey(FeatureInfoRequestParameters params) {
+        GetMapRequest getMap = params.getGetMapRequest();
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        return Arrays.asList(
+                user == null ? null : user.getName(),
+                user == null ? null : new HashSet<>(user.getAuthorities()),
+                params.getLayer().getName(),
+                params.getStyle(),
+                params.getRequestedBounds(),
+                params.getWidth(),
+                params.getHeight(),
+                params.getBuffer(),
+                params.getFilter(),
+                params.getSort() == null ? null : Arrays.asList(params.getSort()),
+                params.getTimes(),
+                params.getElevations(),
+                params.getViewParams(),
+                params.getPropertyNames() == null ? null : Arrays.asList(params.getPropertyNames()),
+                getMap.getEnv(),
+                getMap.getFormatOptions(),
+                getMap.getFeatureVersion(),
+                getMap.getStartIndex(),
+                getMap.getMaxFeatures());
+    }
+
+    /**
+     * Paints the whole map, recording the features painted on each pixel
+     *
+     * @return The hit map, or {@link FeatureInfoHitMap#UNCACHEABLE} if the map cannot be cached
+     */
+    private FeatureInfoHitMap buildHitMap(
+            FeatureInfoRequestParameters params, Style style, List<Rule> rules) throws Exception {
+        LOGGER.log(Level.FINER, "Building a GetFeatureInfo hit map for the whole map");
+        GetMapRequest getMap = params.getGetMapRequest();
+        WMSMapContent mc = new WMSMapContent(getMap);
+        try {
+            mc.setTransparent(true);
+            mc.setBuffer(params.getBuffer());
+            mc.getViewport().setBounds(new ReferencedEnvelope(getMap.getBbox(), getMap.getCrs()));
+            mc.setMapWidth(params.getWidth());
+            mc.setMapHeight(params.getHeight());
+            FeatureLayer layer = getLayer(params, style);
+            mc.addLayer(layer);
+            RenderingVariables.setupEnvironmentVariables(mc);
+
+            // the hit map records painted pixels around the feature geometries, the symbol
+            // sizes have to be known in advance
+            rescaleRules(rules, params);
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            for (Rule rule : rules) {
+                rule.accept(estimator);
+            }
+            int offset = getSymbolOffset(rules);
+            if (!estimator.isEstimateAccurate() || offset < 0) {
+                return FeatureInfoHitMap.UNCACHEABLE;
+            }
+            int margin = Math.max(estimator.getBuffer() / 2, MIN_BUFFER_SIZE) + offset + 1;
+
+            AffineTransform worldToScreen =
+                    RendererUtilities.worldToScreenTransform(
+                            params.getRequestedBounds(),
+                            new Rectangle(params.getWidth(), params.getHeight()));
+            final BufferedImage image =
+                    ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB)
+                            .createBufferedImage(params.getWidth(), params.getHeight());
+            image.setAccelerationPriority(0);
+            FeatureInfoHitMap hitMap = new FeatureInfoHitMap(params.getWidth(), params.getHeight());
+            HitMapRenderListener listener =
+                    new HitMapRenderListener(
+                            image,
+                            hitMap,
+                            renderCache.getMaxFeatures(),
+                            params.getPropertyNames(),
+                            worldToScreen,
+                            getMap.getCrs(),
+                            margin);
+
+            GetMapOutputFormat rim = createMapOutputFormat(image, listener);
+            rim.produceMap(mc);
+
+            // anything left on the image was painted outside of the checked areas
+            if (listener.isFailed() || !isEmpty(image)) {
+                return FeatureInfoHitMap.UNCACHEABLE;
+            }
+            hitMap.trim();
+            return hitMap;
+        } finally {
+            mc.dispose();
+        }
+    }
+
+    /**
+     * Returns the largest static displacement or perpendicular offset found in the rules, in
+     * pixels, or -1 if any of them is not static
+     */
+    private int getSymbolOffset(List<Rule> rules) {
+        double offset = 0;
+        for (Rule rule : rules) {
+            for (Symbolizer symbolizer : rule.symbolizers()) {
+                List<Expression> expressions = new ArrayList<>();
+                Displacement displacement = null;
+                if (symbolizer instanceof PointSymbolizer) {
+                    Graphic graphic = ((PointSymbolizer) symbolizer).getGraphic();
+                    displacement = graphic != null ? graphic.getDisplacement() : null;
+                } else if (symbolizer instanceof LineSymbolizer) {
+                    expressions.add(((LineSymbolizer) symbolizer).getPerpendicularOffset());
+                } else if (symbolizer instanceof PolygonSymbolizer) {
+                    PolygonSymbolizer ps = (PolygonSymbolizer) symbolizer;
+                    displacement = ps.getDisplacement();
+                    expressions.add(ps.getPerpendicularOffset());
+                }
+                if (displacement != null) {
+                    expressions.add(displacement.getDisplacementX());
+                    expressions.add(displacement.getDisplacementY());
+                }
+                for (Expression expression : expressions) {
+                    if (expression == null) {
+                        continue;
+                    }
+                    if (!(expression instanceof Literal)) {
+                        return -1;
+                    }
+                    Double value = expression.evaluate(null, Double.class);
+                    if (value == null) {
+                        return -1;
+                    }
+                    offset = Math.max(offset, Math.abs(value));
+                }
+            }
+        }
+        return (int) Math.ceil(offset);
+    }
+
+    /** Returns true if no pixel on the image has been painted */
+    private boolean isEmpty(BufferedImage image) {
+        int[] pixels = ((java.awt.image.DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void rescaleRules(List<Rule> rules, FeatureInfoRequestParameters params) {
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
         Integer requestedDpi = ((Integer) params.getGetMapRequest().getFormatOptions().get("dpi"));
@@ -544,8 +812,8 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
      *
      * @author Andrea Aime - GeoSolutions
      */
-    static final class FeatureInfoRenderListener implements RenderListener {
-        private final int scanlineStride;
+    static class FeatureInfoRenderListener implements RenderListener {
+        final int scanlineStride;
 
         private Rectangle hitArea;
 
@@ -603,7 +871,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             }
         }
 
-        private Raster getRaster(BufferedImage image) {
+        Raster getRaster(BufferedImage image) {
             // in case the raster has a parent, this is likely a subimage, we have to force
             // a copy of the raster to get a data buffer we can scroll over without issues
             Raster raster = image.getRaster();
@@ -661,7 +929,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             cleanHitArea();
         }
 
-        private SimpleFeature retype(SimpleFeature feature) {
+        SimpleFeature retype(SimpleFeature feature) {
             if (propertyNames == null) {
                 return feature;
             } else {
@@ -676,10 +944,14 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
 
         private void cleanHitArea() {
+            cleanArea(hitArea);
+        }
+
+        void cleanArea(Rectangle area) {
             Composite oldComposite = graphics.getComposite();
             graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC));
             graphics.setColor(new Color(0, true));
-            graphics.fillRect(hitArea.x, hitArea.y, hitArea.width, hitArea.height);
+            graphics.fillRect(area.x, area.y, area.width, area.height);
             graphics.setComposite(oldComposite);
         }
 
@@ -689,6 +961,142 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
     }
 
+    /**
+     * Records all the features painted on each pixel of the map into a {@link FeatureInfoHitMap}.
+     * Only the area around each feature geometry, expanded by the symbol size, is checked and
+     * cleaned after painting, so the symbolizers must paint the default geometry.
+     */
+    static final class HitMapRenderListener extends FeatureInfoRenderListener {
+
+        private final FeatureInfoHitMap hitMap;
+
+        private final int maxFeatures;
+
+        private final AffineTransform worldToScreen;
+
+        private final CoordinateReferenceSystem mapCrs;
+
+        private final int margin;
+
+        private final Rectangle imageArea;
+
+        private CoordinateReferenceSystem lastCrs;
+
+        private boolean lastCrsTransformed;
+
+        private int previousIndex = -1;
+
+        private boolean failed;
+
+        public HitMapRenderListener(
+                BufferedImage bi,
+                FeatureInfoHitMap hitMap,
+                int maxFeatures,
+                String[] propertyNames,
+                AffineTransform worldToScreen,
+                CoordinateReferenceSystem mapCrs,
+                int margin) {
+            super(bi, new Rectangle(bi.getWidth(), bi.getHeight()), maxFeatures, propertyNames);
+            this.hitMap = hitMap;
+            this.maxFeatures = maxFeatures;
+            this.worldToScreen = worldToScreen;
+            this.mapCrs = mapCrs;
+            this.margin = margin;
+            this.imageArea = new Rectangle(bi.getWidth(), bi.getHeight());
+        }
+
+        /** Returns true if the hit map could not be built */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public void featureRenderer(SimpleFeature feature) {
+            if (failed) {
+                return;
+            }
+            Rectangle area = getPaintedArea(feature);
+            if (area == null) {
+                fail();
+                return;
+            }
+            if (area.isEmpty()) {
+                return;
+            }
+
+            // feature caught by more than one rule, keep the same index
+            int index = feature == previous ? previousIndex : -1;
+            Raster raster = getRaster(bi);
+            int[] pixels = ((java.awt.image.DataBufferInt) raster.getDataBuffer()).getData();
+            for (int row = area.y; row < area.y + area.height; row++) {
+                int idx = row * scanlineStride + area.x;
+                for (int col = area.x; col < area.x + area.width; col++) {
+                    if (cm.getAlpha(pixels[idx]) > 0) {
+                        if (index < 0) {
+                            if (hitMap.getFeatureCount() >= maxFeatures) {
+                                fail();
+                                return;
+                            }
+                            index = hitMap.addFeature(retype(feature));
+                        }
+                        hitMap.addHit(col, row, index);
+                    }
+                    idx++;
+                }
+            }
+            previous = feature;
+            previousIndex = index;
+
+            cleanArea(area);
+        }
+
+        private void fail() {
+            failed = true;
+            renderer.stopRendering();
+        }
+
+        /**
+         * Returns the image area the feature could have been painted onto, or null if it cannot be
+         * determined
+         */
+        private Rectangle getPaintedArea(SimpleFeature feature) {
+            Object geometry = feature.getDefaultGeometry();
+            if (!(geometry instanceof Geometry)) {
+                return new Rectangle();
+            }
+            Envelope envelope = ((Geometry) geometry).getEnvelopeInternal();
+            CoordinateReferenceSystem crs = feature.getFeatureType().getCoordinateReferenceSystem();
+            try {
+                if (isTransformed(crs)) {
+                    envelope = new ReferencedEnvelope(envelope, crs).transform(mapCrs, true);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not locate feature " + feature.getID(), e);
+                return null;
+            }
+            Rectangle area =
+                    worldToScreen
+                            .createTransformedShape(
+                                    new Rectangle2D.Double(
+                                            envelope.getMinX(),
+                                            envelope.getMinY(),
+                                            envelope.getWidth(),
+                                            envelope.getHeight()))
+                            .getBounds();
+            area.grow(margin, margin);
+            return area.intersection(imageArea);
+        }
+
+        private boolean isTransformed(CoordinateReferenceSystem crs) {
+            if (crs != lastCrs) {
+                lastCrs = crs;
+                lastCrsTransformed =
+                        crs != null && mapCrs != null && !CRS.equalsIgnoreMetadata(crs, mapCrs);
+            }
+            return lastCrsTransformed;
+        }
+    }
+
     /**
      * A tiny wrapper that forces the attributes needed by getfeatureinfo to be returned: the
      * renderer normally tries to get only the attributes it needs for performance reasons
@@ -0,0 +1,104 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+/**
+ * A {@link RenderedImage} made of full width horizontal strips, each one painted on demand when the
+ * corresponding tile is requested. Used to stream very large maps to encoders that pull the image
+ * one row of tiles at a time, so that peak memory scales with the strip size rather than the image
+ * size.
+ *
+ * <p>Tiles are computed sequentially, the image is meant to be consumed once, top to bottom. Only
+ * the last painted strip is kept, so that consumers accessing it more than once (e.g., one row of
+ * pixels at a time) do not cause it to be painted again.
+ */
+class BandedRenderedImage extends PlanarImage {
+
+    /** Paints a strip of the image */
+    @FunctionalInterface
+    interface StripPainter {
+
+        /**
+         * Paints the specified strip of the image
+         *
+         * @param strip the strip area, in image coordinates
+         * @return a raster whose pixel at 0,0 corresponds to the strip origin, covering at least
+         *     the strip area
+         */
+        Raster paint(Rectangle strip);
+    }
+
+    private final StripPainter painter;
+
+    private int lastTileY = Integer.MIN_VALUE;
+
+    private Raster lastTile;
+
+    /**
+     * Builds a new banded image
+     *
+     * @param width The image width
+     * @param height The image height
+     * @param stripHeight The height of each strip
+     * @param colorModel The color model of the images returned by the painter
+     * @param sampleModel A sample model compatible with the images returned by the painter
+     * @param painter The strip painter
+     */
+    public BandedRenderedImage(
+            int width,
+            int height,
+            int stripHeight,
+            ColorModel colorModel,
+            SampleModel sampleModel,
+            StripPainter painter) {
+        super(
+                new ImageLayout(
+                        0,
+                        0,
+                        width,
+                        height,
+                        0,
+                        0,
+                        width,
+                        stripHeight,
+                        sampleModel.createCompatibleSampleModel(width, stripHeight),
+                        colorModel),
+                null,
+                null);
+        this.painter = painter;
+    }
+
+    @Override
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileX != 0 || tileY < getMinTileY() || tileY > getMaxTileY()) {
+            return null;
+        }
+
+        if (tileY == lastTileY) {
+            return lastTile;
+        }
+
+        Rectangle strip = getTileRect(tileX, tileY);
+        Raster painted = painter.paint(strip);
+        // copy the painted pixels into a compact tile, the painter might have used a larger
+        // surface to account for the rendering buffer
+        WritableRaster tile =
+                Raster.createWritableRaster(sampleModel, new Point(strip.x, strip.y));
+        tile.setRect(strip.x, strip.y, painted);
+        lastTileY = tileY;
+        lastTile = tile;
+        return tile;
+    }
+}
@@ -0,0 +1,92 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.geoserver.wms.GetMapRequest;
+
+/**
+ * A map made of a grid of separately encoded tiles, produced by a {@link
+ * MetaTilingMapOutputFormat} when the request asks for it with the {@link #FORMAT_OPTION} format
+ * option, e.g. {@code format_options=metatile:4x4}. Allows the tile caches to get all the tiles of
+ * a meta tile out of a single GetMap, for formats that cannot be split after encoding, such as the
+ * vector tiles.
+ *
+ * <p>Meta tiling multiplies the work done by a single request, so the format option is honored only
+ * for the requests issued by the tile caches inside {@link #callMetaTiled(Callable)}, and up to
+ * {@link #MAX_TILES} tiles.
+ */
+public interface MetaTiledMap {
+
+    /** The format option controlling the number of tiles, as {@code <columns>x<rows>} */
+    String FORMAT_OPTION = "metatile";
+
+    /**
+     * The maximum number of tiles in a meta tile, can be changed with the {@code
+     * wms.metatile.maxTiles} system property
+     */
+    int MAX_TILES = Math.max(1, Integer.getInteger("wms.metatile.maxTiles", 64));
+
+    /** The number of tile columns */
+    int getTilesX();
+
+    /** The number of tile rows */
+    int getTilesY();
+
+    /**
+     * Writes out an encoded tile
+     *
+     * @param x The tile column, starting from the left
+     * @param y The tile row, starting from the top
+     */
+    void writeTile(int x, int y, OutputStream out) throws IOException;
+
+    /**
+     * Returns the number of tile columns and rows requested via the {@link #FORMAT_OPTION} format
+     * option, or null if the option is missing, invalid, asks for a single tile or for more than
+     * {@link #MAX_TILES}, or if the request has not been issued inside {@link
+     * #callMetaTiled(Callable)}
+     */
+    static int[] getMetaTilingFactors(GetMapRequest request) {
+        if (!MetaTilingScope.isEnabled()) {
+            return null;
+        }
+        Map<?, ?> options = request.getFormatOptions();
+        Object value = options == null ? null : options.get(FORMAT_OPTION);
+        if (value == null) {
+            return null;
+        }
+        String[] factors = value.toString().trim().toLowerCase().split("x");
+        if (factors.length != 2) {
+            return null;
+        }
+        try {
+            int x = Integer.parseInt(factors[0].trim());
+            int y = Integer.parseInt(factors[1].trim());
+            // check each factor first, the product might overflow
+            if (x < 1 || y < 1 || x > MAX_TILES || y > MAX_TILES) {
+                return null;
+            }
+            if (x * y == 1 || x * y > MAX_TILES) {
+                return null;
+            }
+            return new int[] {x, y};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the call allowing the GetMap requests it performs in the current thread to use the
+     * {@link #FORMAT_OPTION}. Meant for the tile caches, the option is ignored in any other
+     * request.
+     */
+    static <T> T callMetaTiled(Callable<T> call) throws Exception {
+        return MetaTilingScope.call(call);
+    }
+}
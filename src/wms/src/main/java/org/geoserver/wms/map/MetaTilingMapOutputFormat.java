@@ -0,0 +1,13 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import org.geoserver.wms.GetMapOutputFormat;
+
+/**
+ * Marks the {@link GetMapOutputFormat} that return a {@link MetaTiledMap} when the {@link
+ * MetaTiledMap#FORMAT_OPTION} format option is set in the request
+ */
+public interface MetaTilingMapOutputFormat extends GetMapOutputFormat {}
@@ -0,0 +1,33 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.concurrent.Callable;
+
+/** Tracks the threads allowed to issue meta tiled GetMap requests, see {@link MetaTiledMap} */
+final class MetaTilingScope {
+
+    private static final ThreadLocal<Boolean> ENABLED = new ThreadLocal<>();
+
+    private MetaTilingScope() {}
+
+    static boolean isEnabled() {
+        return Boolean.TRUE.equals(ENABLED.get());
+    }
+
+    static <T> T call(Callable<T> call) throws Exception {
+        Boolean previous = ENABLED.get();
+        ENABLED.set(Boolean.TRUE);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                ENABLED.remove();
+            } else {
+                ENABLED.set(previous);
+            }
+        }
+    }
+}
@@ -11,6 +11,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.geoserver.config.JAIInfo;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -40,6 +42,9 @@ public class PNGMapResponse extends RenderedImageMapResponse {
 
     private static final String[] OUTPUT_FORMATS = {MIME_TYPE, MIME_TYPE_8BIT, "image/png8"};
 
+    /** Encoded banded images up to this size are kept in memory until complete */
+    static final int BANDED_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+
     /** The two quantizers available for PNG images */
     public enum QuantizeMethod {
         Octree,
@@ -100,7 +105,9 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         image = applyPalette(image, mapContent, f -> f != null && f.contains("png8"), true);
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         JAIInfo.PngEncoderType encoder = wms.getPNGEncoderType();
-        if (encoder == JAIInfo.PngEncoderType.PNGJ) {
+        if (encoder == JAIInfo.PngEncoderType.PNGJ && image instanceof BandedRenderedImage) {
+            writeBanded(image, outStream, quality, mapContent);
+        } else if (encoder == JAIInfo.PngEncoderType.PNGJ) {
             image = new PNGJWriter().writePNG(image, outStream, quality, mapContent);
             RasterCleaner.addImage(image);
         } else {
@@ -120,6 +127,32 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
 
+    /**
+     * Banded images are painted while being encoded, a rendering failure in one of the strips
+     * would leave a truncated image in the response. The encoded image is kept aside, in memory or
+     * in a temporary file if large, and sent only once all the strips have been painted, so that
+     * failures can still be reported as service exceptions.
+     */
+    private void writeBanded(
+            RenderedImage image, OutputStream outStream, float quality, WMSMapContent mapContent)
+            throws IOException {
+        DeferredFileOutputStream deferred =
+                new DeferredFileOutputStream(BANDED_MEMORY_THRESHOLD, "banded", ".png", null);
+        try {
+            try {
+                image = new PNGJWriter().writePNG(image, deferred, quality, mapContent);
+                RasterCleaner.addImage(image);
+            } finally {
+                deferred.close();
+            }
+            deferred.writeTo(outStream);
+        } finally {
+            if (!deferred.isInMemory()) {
+                FileUtils.deleteQuietly(deferred.getFile());
+            }
+        }
+    }
+
     @Override
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
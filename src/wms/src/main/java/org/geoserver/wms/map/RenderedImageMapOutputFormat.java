@@ -44,6 +44,7 @@ import javax.media.jai.ROIShape;
 import javax.media.jai.operator.ConstantDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.JAIInfo.PngEncoderType;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
@@ -166,6 +167,23 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
     private static final int MAX_TILE_SIZE = 1024;
 
+    private static final String PNG_MIME_TYPE = "image/png";
+
+    /**
+     * Maps with at least this many pixels are painted one strip at a time while being encoded, if
+     * the output format allows it. Zero or negative values disable banded rendering.
+     */
+    static final long BANDED_RENDERING_THRESHOLD =
+            Long.getLong("org.geoserver.wms.map.bandedThreshold", 4096L * 4096L);
+
+    /** Height of the strips used in banded rendering */
+    static final int BANDED_RENDERING_STRIP_HEIGHT =
+            Integer.getInteger("org.geoserver.wms.map.bandedStripHeight", 512);
+
+    /** Extra rows painted above and below each strip in banded rendering */
+    static final int BANDED_RENDERING_BUFFER =
+            Integer.getInteger("org.geoserver.wms.map.bandedBuffer", 64);
+
     /** The lookup table used for data type transformation (it's really the identity one) */
     private static LookupTableJAI IDENTITY_TABLE = new LookupTableJAI(getTable());
 
@@ -364,16 +382,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // is enabled, since apparently the Crop operation inside the meta-tiler
         // generates striped images in that case (see GEOS-
         boolean useAlpha = transparent || MetatileMapOutputFormat.isRequestTiled(request, this);
+        // very large images are painted one strip at a time while encoding, in that case
+        // the full drawing surface is never allocated
+        final boolean banded = isBandedRenderingEnabled(mapContent, paintArea, palette, tiled);
         final RenderedImage preparedImage =
-                prepareImage(paintArea.width, paintArea.height, palette, useAlpha);
+                banded ? null : prepareImage(paintArea.width, paintArea.height, palette, useAlpha);
         final Map<RenderingHints.Key, Object> hintsMap = new HashMap<RenderingHints.Key, Object>();
 
-        final Graphics2D graphic = getGraphics(transparent, bgColor, preparedImage, hintsMap);
+        final Graphics2D graphic =
+                banded ? null : getGraphics(transparent, bgColor, preparedImage, hintsMap);
 
         // set up the antialias hints
         if (AA_NONE.equals(antialias)) {
             hintsMap.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-            if (preparedImage.getColorModel() instanceof IndexColorModel) {
+            if (preparedImage != null
+                    && preparedImage.getColorModel() instanceof IndexColorModel) {
                 // otherwise we end up with dithered colors where the match is
                 // not 100%
                 hintsMap.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
@@ -420,7 +443,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         }
 
         // make sure the hints are set before we start rendering the map
-        graphic.setRenderingHints(hintsMap);
+        if (graphic != null) {
+            graphic.setRenderingHints(hintsMap);
+        }
 
         RenderingHints hints = new RenderingHints(hintsMap);
         StreamingRenderer renderer = buildRenderer();
@@ -548,6 +573,20 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         onBeforeRender(renderer);
 
+        if (banded) {
+            RenderedImage image =
+                    buildBandedImage(
+                            mapContent,
+                            renderer,
+                            layout,
+                            paintArea,
+                            useAlpha,
+                            hintsMap,
+                            errorChecker,
+                            nonIgnorableExceptionListener);
+            return buildMap(mapContent, image);
+        }
+
         int maxRenderingTime = wms.getMaxRenderingTime(request);
         ServiceException serviceException = null;
         boolean saveMap =
@@ -634,6 +673,174 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         throw serviceException;
     }
 
+    /**
+     * Returns true if the map should be painted one horizontal strip at a time while being encoded,
+     * instead of being fully painted in memory first. This happens only for large images and for
+     * encoders that pull the image one row of tiles at a time, as others would end up
+     * materializing it in memory anyways
+     */
+    protected boolean isBandedRenderingEnabled(
+            WMSMapContent mapContent, Rectangle paintArea, IndexColorModel palette, boolean tiled) {
+        if (BANDED_RENDERING_THRESHOLD <= 0
+                || tiled
+                || palette != null
+                || mapContent.getPalette() != null
+                || MetatileMapOutputFormat.isRequestTiled(mapContent.getRequest(), this)
+                || ((long) paintArea.width) * paintArea.height < BANDED_RENDERING_THRESHOLD) {
+            return false;
+        }
+
+        // only the PNGJ encoder streams the image, paletted outputs need to scan it fully
+        // to build the palette
+        return PNG_MIME_TYPE.equals(getMimeType())
+                && wms.getPNGEncoderType() == PngEncoderType.PNGJ;
+    }
+
+    /** Returns the height of the strips used by banded rendering */
+    protected int getBandedStripHeight() {
+        return BANDED_RENDERING_STRIP_HEIGHT;
+    }
+
+    /**
+     * Builds an image that paints the map one strip at a time, as the encoder requests them. Each
+     * strip is painted on a surface extended by {@link #BANDED_RENDERING_BUFFER} pixels above and
+     * below, so that labels and symbols crossing the strip boundaries are painted in both strips,
+     * in the same way as it happens with meta-tiling.
+     */
+    private RenderedImage buildBandedImage(
+            final WMSMapContent mapContent,
+            final StreamingRenderer renderer,
+            final MapDecorationLayout layout,
+            final Rectangle paintArea,
+            final boolean useAlpha,
+            final Map<RenderingHints.Key, Object> hintsMap,
+            final MaxErrorEnforcer errorChecker,
+            final RenderExceptionStrategy nonIgnorableExceptionListener) {
+        final boolean transparent = mapContent.isTransparent() && isTransparencySupported();
+        final Color bgColor = mapContent.getBgColor();
+        final int maxRenderingTime = wms.getMaxRenderingTime(mapContent.getRequest());
+        final int maxErrors = wms.getMaxRenderingErrors();
+        final AffineTransform worldToScreen = mapContent.getRenderingTransform();
+        final CoordinateReferenceSystem crs =
+                mapContent.getRenderingArea().getCoordinateReferenceSystem();
+        final long start = System.currentTimeMillis();
+
+        BandedRenderedImage.StripPainter painter =
+                strip -> {
+                    // the rendering timeout applies to the whole map, not to the single strip
+                    long remaining = 0;
+                    if (maxRenderingTime > 0) {
+                        remaining = maxRenderingTime - (System.currentTimeMillis() - start);
+                        if (remaining <= 0) {
+                            throw new ServiceException(
+                                    "This request used more time than allowed and has been forcefully stopped. "
+                                            + "Max rendering time is "
+                                            + (maxRenderingTime / 1000.0)
+                                            + "s");
+                        }
+                    }
+
+                    int surfaceY = strip.y - BANDED_RENDERING_BUFFER;
+                    Rectangle surfaceArea =
+                            new Rectangle(
+                                    0,
+                                    0,
+                                    strip.width,
+                                    strip.height + 2 * BANDED_RENDERING_BUFFER);
+                    RenderedImage surface =
+                            prepareImage(surfaceArea.width, surfaceArea.height, null, useAlpha);
+                    Graphics2D graphic = getGraphics(transparent, bgColor, surface, hintsMap);
+                    graphic.setRenderingHints(hintsMap);
+                    RenderingTimeoutEnforcer timeout =
+                            new RenderingTimeoutEnforcer(remaining, renderer, graphic);
+                    timeout.start();
+                    try {
+                        AffineTransform stripTransform =
+                                AffineTransform.getTranslateInstance(0, -surfaceY);
+                        stripTransform.concatenate(worldToScreen);
+                        ReferencedEnvelope stripArea =
+                                new ReferencedEnvelope(
+                                        stripTransform
+                                                .createInverse()
+                                                .createTransformedShape(surfaceArea)
+                                                .getBounds2D(),
+                                        crs);
+                        renderer.paint(graphic, surfaceArea, stripArea, stripTransform);
+
+                        // decorations are laid out against the full map
+                        if (layout != null) {
+                            Graphics2D decorationGraphic = (Graphics2D) graphic.create();
+                            try {
+                                decorationGraphic.translate(0, -surfaceY);
+                                layout.paint(decorationGraphic, paintArea, mapContent);
+                            } finally {
+                                decorationGraphic.dispose();
+                            }
+                        }
+                    } catch (ServiceException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new ServiceException("Failed to render map strip " + strip, e);
+                    } finally {
+                        timeout.stop();
+                        graphic.dispose();
+                    }
+
+                    if (errorChecker.exceedsMaxErrors()) {
+                        throw new ServiceException(
+                                "More than "
+                                        + maxErrors
+                                        + " rendering errors occurred, bailing out.",
+                                errorChecker.getLastException(),
+                                "internalError");
+                    }
+                    if (timeout.isTimedOut()) {
+                        throw new ServiceException(
+                                "This request used more time than allowed and has been forcefully stopped. "
+                                        + "Max rendering time is "
+                                        + (maxRenderingTime / 1000.0)
+                                        + "s");
+                    }
+                    if (nonIgnorableExceptionListener.exceptionOccurred()) {
+                        throw new ServiceException(
+                                "Rendering process failed",
+                                nonIgnorableExceptionListener.getException(),
+                                "internalError");
+                    }
+
+                    // skip the buffer rows, without copying if possible
+                    if (surface instanceof BufferedImage) {
+                        return ((BufferedImage) surface)
+                                .getRaster()
+                                .createChild(
+                                        0,
+                                        BANDED_RENDERING_BUFFER,
+                                        strip.width,
+                                        strip.height,
+                                        0,
+                                        0,
+                                        null);
+                    } else {
+                        return surface.getData(
+                                        new Rectangle(
+                                                0,
+                                                BANDED_RENDERING_BUFFER,
+                                                strip.width,
+                                                strip.height))
+                                .createTranslatedChild(0, 0);
+                    }
+                };
+
+        RenderedImage prototype = prepareImage(1, 1, null, useAlpha);
+        return new BandedRenderedImage(
+                paintArea.width,
+                paintArea.height,
+                getBandedStripHeight(),
+                prototype.getColorModel(),
+                prototype.getSampleModel(),
+                painter);
+    }
+
     /**
      * Creates a {@link StreamingRenderer} instance (subclasses can provide their own specialized
      * subclasses of {@link StreamingRenderer}
@@ -0,0 +1,110 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.impl.FeatureTypeInfoImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VectorDimensionDomainCacheTest {
+
+    private FeatureTypeInfoImpl typeInfo;
+
+    private AtomicInteger loads;
+
+    private Callable<TreeSet<Double>> loader;
+
+    @Before
+    public void setup() {
+        typeInfo = new FeatureTypeInfoImpl(null);
+        typeInfo.setId("ft1");
+        loads = new AtomicInteger();
+        loader =
+                () -> {
+                    loads.incrementAndGet();
+                    return new TreeSet<>(Arrays.asList(1d, 2d));
+                };
+    }
+
+    @Test
+    public void testCached() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(60);
+        TreeSet<Double> domain = cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        assertEquals(new TreeSet<>(Arrays.asList(1d, 2d)), domain);
+        // callers get a copy they can modify
+        domain.clear();
+        assertEquals(2, cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader).size());
+        assertEquals(1, loads.get());
+        // dimensions are cached separately
+        cache.getDomain(typeInfo, ResourceInfo.TIME, loader);
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEmptyDomainCached() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(60);
+        Callable<TreeSet<Double>> empty =
+                () -> {
+                    loads.incrementAndGet();
+                    return null;
+                };
+        assertNull(cache.getDomain(typeInfo, ResourceInfo.ELEVATION, empty));
+        assertNull(cache.getDomain(typeInfo, ResourceInfo.ELEVATION, empty));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testClearedOnCommit() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(60);
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        cache.afterTransaction(null, null, false);
+        assertEquals(1, cache.size());
+        cache.afterTransaction(null, null, true);
+        assertEquals(0, cache.size());
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testClearedOnCatalogChange() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(60);
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        cache.handlePostModifyEvent(null);
+        assertEquals(0, cache.size());
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        cache.handleRemoveEvent(null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(0);
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        cache.getDomain(typeInfo, ResourceInfo.ELEVATION, loader);
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadFailure() throws IOException {
+        VectorDimensionDomainCache cache = new VectorDimensionDomainCache(60);
+        cache.getDomain(
+                typeInfo,
+                ResourceInfo.ELEVATION,
+                () -> {
+                    throw new IOException("failed");
+                });
+    }
+}
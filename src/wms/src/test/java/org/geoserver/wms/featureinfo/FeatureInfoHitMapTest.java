@@ -0,0 +1,135 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class FeatureInfoHitMapTest {
+
+    private SimpleFeature first;
+
+    private SimpleFeature second;
+
+    @Before
+    public void setupFeatures() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("test", "name:String");
+        first = SimpleFeatureBuilder.build(type, new Object[] {"first"}, "test.1");
+        second = SimpleFeatureBuilder.build(type, new Object[] {"second"}, "test.2");
+    }
+
+    @Test
+    public void testLookup() {
+        FeatureInfoHitMap hitMap = new FeatureInfoHitMap(10, 10);
+        int i1 = hitMap.addFeature(first);
+        int i2 = hitMap.addFeature(second);
+        // first covers the top left corner, second overlaps it and extends to the right
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                hitMap.addHit(x, y, i1);
+                // painted twice, by two rules
+                hitMap.addHit(x, y, i1);
+            }
+        }
+        for (int y = 2; y < 3; y++) {
+            for (int x = 2; x < 8; x++) {
+                hitMap.addHit(x, y, i2);
+            }
+        }
+        hitMap.trim();
+
+        assertEquals(Arrays.asList(first), hitMap.getFeatures(0, 0, 0, 10));
+        assertEquals(Arrays.asList(second), hitMap.getFeatures(6, 2, 0, 10));
+        // results in painting order, and limited
+        assertEquals(Arrays.asList(first, second), hitMap.getFeatures(2, 2, 0, 10));
+        assertEquals(Arrays.asList(first), hitMap.getFeatures(2, 2, 0, 1));
+        // the buffer extends the search area, but no hit is counted twice
+        assertEquals(Arrays.asList(first, second), hitMap.getFeatures(4, 4, 2, 10));
+        assertEquals(0, hitMap.getFeatures(9, 9, 3, 10).size());
+        // outside of the map
+        assertEquals(0, hitMap.getFeatures(-10, -10, 3, 10).size());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        FeatureInfoRenderCache cache = new FeatureInfoRenderCache(60, 1024 * 1024, 100, 10);
+        FeatureInfoHitMap hitMap = new FeatureInfoHitMap(10, 10);
+        AtomicInteger loads = new AtomicInteger();
+        List<Object> key = Arrays.asList("layer", 10, 10);
+
+        assertSame(hitMap, cache.getHitMap(key, () -> count(loads, hitMap)));
+        assertSame(hitMap, cache.getHitMap(key, () -> count(loads, hitMap)));
+        assertEquals(1, loads.get());
+
+        // uncacheable maps are remembered too
+        List<Object> other = Arrays.asList("other", 10, 10);
+        assertNull(cache.getHitMap(other, () -> count(loads, FeatureInfoHitMap.UNCACHEABLE)));
+        assertNull(cache.getHitMap(other, () -> count(loads, FeatureInfoHitMap.UNCACHEABLE)));
+        assertEquals(2, loads.get());
+
+        // transactions clear the cache only once committed
+        cache.dataStoreChange(null);
+        assertEquals(2, cache.size());
+        cache.afterTransaction(null, null, false);
+        assertEquals(2, cache.size());
+        cache.afterTransaction(null, null, true);
+        assertEquals(0, cache.size());
+        assertSame(hitMap, cache.getHitMap(key, () -> count(loads, hitMap)));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testMemoryUse() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("test", "geom:LineString,name:String");
+        LineString small = (LineString) new WKTReader().read("LINESTRING(0 0, 1 1)");
+        StringBuilder wkt = new StringBuilder("LINESTRING(0 0");
+        for (int i = 1; i < 1000; i++) {
+            wkt.append(", ").append(i).append(" ").append(i);
+        }
+        LineString large = (LineString) new WKTReader().read(wkt.append(")").toString());
+        SimpleFeature smallFeature =
+                SimpleFeatureBuilder.build(type, new Object[] {small, "a"}, "test.1");
+        SimpleFeature largeFeature =
+                SimpleFeatureBuilder.build(type, new Object[] {large, "a"}, "test.2");
+
+        // the estimate follows the feature contents
+        long smallSize = FeatureInfoHitMap.estimateMemoryUse(smallFeature);
+        long largeSize = FeatureInfoHitMap.estimateMemoryUse(largeFeature);
+        assertTrue(largeSize - smallSize >= 998 * 24);
+
+        FeatureInfoHitMap hitMap = new FeatureInfoHitMap(10, 10);
+        long empty = hitMap.getMemoryUse();
+        hitMap.addFeature(largeFeature);
+        assertEquals(empty + largeSize, hitMap.getMemoryUse());
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        FeatureInfoRenderCache cache = new FeatureInfoRenderCache(0, 1024 * 1024, 100, 10);
+        AtomicInteger loads = new AtomicInteger();
+        FeatureInfoHitMap hitMap = new FeatureInfoHitMap(10, 10);
+        assertNull(cache.getHitMap(Arrays.asList("layer"), () -> count(loads, hitMap)));
+        assertEquals(0, loads.get());
+    }
+
+    private FeatureInfoHitMap count(AtomicInteger loads, FeatureInfoHitMap hitMap) {
+        loads.incrementAndGet();
+        return hitMap;
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.commons.lang3.mutable.MutableDouble;
 import org.custommonkey.xmlunit.SimpleNamespaceContext;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.custommonkey.xmlunit.XpathEngine;
+import org.geoserver.catalog.LayerInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
@@ -321,6 +322,47 @@ public class RenderingBasedFeatureInfoTest extends WMSTestSupport {
         assertEquals(1, result.getJSONArray("features").size());
     }
 
+    @Test
+    public void testHitMapCache() throws Exception {
+        FeatureInfoRenderCache cache = applicationContext.getBean(FeatureInfoRenderCache.class);
+        cache.clear();
+        String layer = getLayerId(MockData.FORESTS);
+        String request =
+                "wms?version=1.1.1&bbox=-0.002,-0.002,0.002,0.002&format=image/png"
+                        + "&request=GetFeatureInfo&layers="
+                        + layer
+                        + "&query_layers="
+                        + layer
+                        + "&styles=polygon"
+                        + "&width=20&height=20&info_format=application/json";
+
+        // the first request paints the whole map
+        JSONObject result = (JSONObject) getAsJSON(request + "&x=15&y=15");
+        assertEquals(1, result.getJSONArray("features").size());
+        assertEquals(1, cache.size());
+
+        // the other pixels are answered from the same hit map
+        result = (JSONObject) getAsJSON(request + "&x=1&y=1");
+        assertEquals(0, result.getJSONArray("features").size());
+        result = (JSONObject) getAsJSON(request + "&x=10&y=10");
+        assertEquals(1, result.getJSONArray("features").size());
+        assertEquals(1, cache.size());
+
+        // a different style means a different map
+        result = (JSONObject) getAsJSON(request.replace("polygon", "two-rules") + "&x=10&y=10");
+        assertEquals(1, result.getJSONArray("features").size());
+        assertEquals(2, cache.size());
+
+        // catalog changes and transactions wipe out the cache
+        LayerInfo forests = getCatalog().getLayerByName(layer);
+        getCatalog().save(forests);
+        assertEquals(0, cache.size());
+        getAsJSON(request + "&x=15&y=15");
+        assertEquals(1, cache.size());
+        cache.afterTransaction(null, null, true);
+        assertEquals(0, cache.size());
+    }
+
     @Test
     public void testGenericGeometry() throws Exception {
         String layer = getLayerId(MockData.GENERICENTITY);
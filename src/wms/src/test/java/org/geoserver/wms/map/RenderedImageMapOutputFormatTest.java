@@ -20,8 +20,11 @@ import java.awt.Rectangle;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -31,9 +34,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.imageio.ImageIO;
 import javax.media.jai.Interpolation;
 import javax.media.jai.RenderedOp;
 import javax.xml.namespace.QName;
@@ -225,6 +230,144 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testSimpleGetMapQuery", image);
     }
 
+    @Test
+    public void testBandedRendering() throws Exception {
+        final WMSMapContent map = buildBandedTestMap();
+        RenderedImageMap referenceMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage reference = (BufferedImage) referenceMap.getImage();
+
+        // paint the same map in strips smaller than the image
+        RenderedImageMap bandedMap = buildBandedProducer().produceMap(map);
+        RenderedImage banded = bandedMap.getImage();
+        assertTrue(banded instanceof BandedRenderedImage);
+        assertEquals(300, banded.getWidth());
+        assertEquals(300, banded.getHeight());
+        assertEquals(5, banded.getNumYTiles());
+
+        assertSimilar(reference, banded.getData());
+
+        referenceMap.dispose();
+        bandedMap.dispose();
+    }
+
+    @Test
+    public void testBandedPngEncoding() throws Exception {
+        final WMSMapContent map = buildBandedTestMap();
+        RenderedImageMap referenceMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage reference = (BufferedImage) referenceMap.getImage();
+
+        // encode through the PNGJ encoder, which pulls the strips one at a time
+        RenderedImageMap bandedMap = buildBandedProducer().produceMap(map);
+        assertTrue(bandedMap.getImage() instanceof BandedRenderedImage);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGMapResponse(getWMS()).formatImageOutputStream(bandedMap.getImage(), bos, map);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(300, decoded.getWidth());
+        assertEquals(300, decoded.getHeight());
+
+        assertSimilar(reference, decoded.getData());
+
+        referenceMap.dispose();
+        bandedMap.dispose();
+    }
+
+    @Test
+    public void testBandedFailureBeforeOutput() throws Exception {
+        final WMSMapContent map = buildBandedTestMap();
+        BufferedImage prototype = new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+        AtomicInteger paints = new AtomicInteger();
+        BandedRenderedImage banded =
+                new BandedRenderedImage(
+                        300,
+                        300,
+                        64,
+                        prototype.getColorModel(),
+                        prototype.getSampleModel(),
+                        strip -> {
+                            paints.incrementAndGet();
+                            if (strip.y > 128) {
+                                throw new ServiceException("Failed to render map strip");
+                            }
+                            return new BufferedImage(
+                                            strip.width,
+                                            strip.height,
+                                            BufferedImage.TYPE_4BYTE_ABGR)
+                                    .getRaster();
+                        });
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            new PNGMapResponse(getWMS()).formatImageOutputStream(banded, bos, map);
+            fail("Should have failed painting the fourth strip");
+        } catch (ServiceException e) {
+            // expected
+        }
+        // nothing has been written, the error can still be reported to the client
+        assertEquals(0, bos.size());
+        // no strip has been painted twice, and painting stopped at the failure
+        assertTrue(paints.get() <= 4);
+    }
+
+    private WMSMapContent buildBandedTestMap() throws IOException {
+        Catalog catalog = getCatalog();
+        final FeatureSource fs =
+                catalog.getFeatureTypeByName(
+                                MockData.BASIC_POLYGONS.getPrefix(),
+                                MockData.BASIC_POLYGONS.getLocalPart())
+                        .getFeatureSource(null, null);
+        final Envelope env = fs.getBounds();
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat("image/png");
+        final WMSMapContent map = new WMSMapContent();
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.setBgColor(Color.red);
+        map.setTransparent(false);
+        map.setRequest(request);
+        Style basicStyle = catalog.getStyleByName("Default").getStyle();
+        map.addLayer(new FeatureLayer(fs, basicStyle));
+        return map;
+    }
+
+    /** A producer painting any map in strips of 64 rows */
+    private RenderedImageMapOutputFormat buildBandedProducer() {
+        return new DummyRasterMapProducer(getWMS()) {
+            @Override
+            protected boolean isBandedRenderingEnabled(
+                    WMSMapContent mapContent,
+                    Rectangle paintArea,
+                    IndexColorModel palette,
+                    boolean tiled) {
+                return true;
+            }
+
+            @Override
+            protected int getBandedStripHeight() {
+                return 64;
+            }
+        };
+    }
+
+    /** Painting in strips might only alter the antialiasing of a few pixels */
+    private void assertSimilar(BufferedImage reference, Raster bandedData) {
+        Raster referenceData = reference.getData();
+        int differences = 0;
+        int[] expected = new int[referenceData.getNumBands()];
+        int[] actual = new int[bandedData.getNumBands()];
+        for (int y = 0; y < referenceData.getHeight(); y++) {
+            for (int x = 0; x < referenceData.getWidth(); x++) {
+                referenceData.getPixel(x, y, expected);
+                bandedData.getPixel(x, y, actual);
+                if (!Arrays.equals(expected, actual)) {
+                    differences++;
+                }
+            }
+        }
+        assertTrue("Too many different pixels: " + differences, differences < 300 * 3);
+    }
+
     /**
      * Test to make sure the "direct" raster path and the "nondirect" raster path produce matching
      * results. This test was originally created after fixes to GEOS-7270 where there were issues